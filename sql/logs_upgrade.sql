@@ -0,0 +1,35 @@
+-- =====================================================================
+-- ترقية جدول Logs - بيتنفذ مرة واحدة بإيد الـ DBA (SSMS / sqlcmd) في وقت مفيهوش شغل،
+-- مش من البرنامج: الخطوتين بيعدلوا الجدول كله وبياخدوا Sch-M lock طول مدة التنفيذ.
+--
+--   sqlcmd -S <server> -d Inventory_DB -i sql/logs_upgrade.sql
+--
+-- 1. Description ← NVARCHAR بنفس الطول: العمود الـ varchar هو اللي كان بيحول العربي لـ ?
+--    (السطور القديمة اللي اتخزنت ? بتفضل زي ما هي - التقرير بيعرضها بـ AuditLogWriter.displayDescription).
+-- 2. LogID (identity) علشان صفحات السجل تبقى keyset. لحد ما يتضاف التقرير بيشتغل بـ OFFSET،
+--    والـ indexes بتتعمل من البرنامج (SchemaMigrations.logsPaging) أول تشغيل بعده.
+--
+-- الاتنين بيتعملوا مرة واحدة بس - تشغيل السكريبت تاني مش بيغير حاجة.
+-- =====================================================================
+SET NOCOUNT ON;
+SET XACT_ABORT ON;
+
+DECLARE @type SYSNAME, @maxLength SMALLINT, @nullable BIT;
+SELECT @type = TYPE_NAME(system_type_id), @maxLength = max_length, @nullable = is_nullable
+FROM sys.columns
+WHERE object_id = OBJECT_ID('dbo.Logs') AND name = 'Description';
+
+IF @type = 'varchar'
+BEGIN
+    DECLARE @sql NVARCHAR(400) = N'ALTER TABLE dbo.Logs ALTER COLUMN Description NVARCHAR('
+        + CASE WHEN @maxLength = -1 OR @maxLength > 4000 THEN N'MAX' ELSE CAST(@maxLength AS NVARCHAR(10)) END
+        + N')' + CASE WHEN @nullable = 1 THEN N' NULL' ELSE N' NOT NULL' END;
+    EXEC sp_executesql @sql;
+    PRINT 'Logs.Description converted to NVARCHAR';
+END
+
+IF COL_LENGTH('dbo.Logs', 'LogID') IS NULL
+BEGIN
+    ALTER TABLE dbo.Logs ADD LogID BIGINT IDENTITY(1, 1) NOT NULL;
+    PRINT 'Logs.LogID added';
+END
@@ -0,0 +1,161 @@
+package app;
+
+import app.db.AuditLogWriter;
+import app.db.DatabaseConnection;
+import app.db.DbExecutor;
+import app.db.SqlFilter;
+import app.services.ReportExports;
+import app.utils.ExcelExporter;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * تشغيل التقارير من غير واجهة (للـ Task Scheduler بالليل) - مفيش JavaFX toolkit بيقوم خالص.
+ * نفس استعلامات الشاشات (ReportExports) ونفس محرك التصدير (ExcelExporter)، وكل التقارير
+ * بتشتغل مع بعض على DbExecutor وبتستعير من نفس الـ connection pool (إعدادات warehouse_db_config.properties).
+ *
+ * الاستخدام:
+ *     java -cp inventory.jar;libs/* app.HeadlessReports --reports=stock,shortages,device-exits
+ *          --from=2026-01-01 --to=2026-01-31 --out=D:\reports --format=csv
+ *
+ * exit code: 0 كله تمام، 1 تقرير أو أكتر فشل، 2 arguments غلط.
+ */
+public final class HeadlessReports {
+
+    private static final List<String> DEFAULT_REPORTS = List.of("stock", "shortages", "device-exits");
+
+    @FunctionalInterface
+    private interface Report {
+        void write(ExcelExporter.Book book, LocalDate from, LocalDate to) throws Exception;
+    }
+
+    // الترتيب هنا هو ترتيب الطباعة في الـ usage
+    private static final Map<String, Report> REPORTS = new LinkedHashMap<>();
+
+    static {
+        REPORTS.put("stock", (book, from, to) -> ReportExports.stock(book.sheet("المخزون")));
+        REPORTS.put("shortages", (book, from, to) -> ReportExports.shortages(book.sheet("الأصناف الناقصة")));
+        REPORTS.put("device-exits", ReportExports::deviceExits);
+        REPORTS.put("transactions", (book, from, to) -> ReportExports.transactions(book.sheet("المعاملات"),
+                new SqlFilter().dateRange("t.TransactionDate", from, to)));
+        REPORTS.put("logs", (book, from, to) -> ReportExports.logs(book.sheet("سجلات النظام"),
+                new SqlFilter().dateRange("l.LogDate", from, to)));
+    }
+
+    private HeadlessReports() {
+    }
+
+    public static void main(String[] args) {
+        int code;
+        try {
+            code = run(args);
+        } finally {
+            AuditLogWriter.shutdown();
+            DatabaseConnection.shutdownPools();
+        }
+        System.exit(code);
+    }
+
+    static int run(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) return usage("Unexpected argument: " + arg);
+            int eq = arg.indexOf('=');
+            if (eq < 0) options.put(arg.substring(2), "");
+            else options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        if (options.containsKey("help")) return usage(null);
+
+        Set<String> reports = new LinkedHashSet<>();
+        String requested = options.remove("reports");
+        for (String name : requested != null ? List.of(requested.split(",")) : DEFAULT_REPORTS) {
+            name = name.trim().toLowerCase(Locale.ROOT);
+            if (name.isEmpty()) continue;
+            if (!REPORTS.containsKey(name)) return usage("Unknown report: " + name);
+            reports.add(name);
+        }
+        if (reports.isEmpty()) return usage("No reports selected");
+
+        // الافتراضي النهارده - أي طرف ممكن يتساب فاضي (--from=) علشان يبقى مفتوح
+        LocalDate from, to;
+        try {
+            from = parseDate(options.remove("from"), LocalDate.now());
+            to = parseDate(options.remove("to"), LocalDate.now());
+        } catch (DateTimeParseException e) {
+            return usage("Dates must be yyyy-MM-dd: " + e.getParsedString());
+        }
+        if (from != null && to != null && from.isAfter(to)) return usage("--from is after --to");
+
+        String format = options.getOrDefault("format", "xlsx").toLowerCase(Locale.ROOT);
+        options.remove("format");
+        if (!format.equals("xlsx") && !format.equals("csv")) return usage("Unknown format: " + format);
+
+        Path outDir = Paths.get(options.getOrDefault("out", "."));
+        options.remove("out");
+        if (!options.isEmpty()) return usage("Unknown option: --" + options.keySet().iterator().next());
+
+        try {
+            Files.createDirectories(outDir);
+        } catch (Exception e) {
+            System.err.println("Cannot create output folder " + outDir + ": " + e.getMessage());
+            return 1;
+        }
+
+        // كل تقرير في ملف لوحده وكلهم مع بعض
+        String period = (from != null ? from.toString() : "start") + "_" + (to != null ? to.toString() : "now");
+        List<String> names = new ArrayList<>(reports);
+        List<CompletableFuture<Void>> jobs = new ArrayList<>();
+        for (String name : names) {
+            File file = outDir.resolve(name + "_" + period + "." + format).toFile();
+            Report report = REPORTS.get(name);
+            LocalDate reportFrom = from, reportTo = to;
+            jobs.add(DbExecutor.run(() -> {
+                long started = System.currentTimeMillis();
+                ExcelExporter.write(file, book -> report.write(book, reportFrom, reportTo));
+                System.out.println("OK   " + name + " -> " + file.getAbsolutePath()
+                        + " (" + (System.currentTimeMillis() - started) + " ms)");
+            }));
+        }
+
+        int failed = 0;
+        for (int i = 0; i < jobs.size(); i++) {
+            try {
+                jobs.get(i).join();
+            } catch (Exception e) {
+                failed++;
+                Throwable cause = DbExecutor.unwrap(e);
+                System.err.println("FAIL " + names.get(i) + ": " + cause);
+                cause.printStackTrace();
+            }
+        }
+        return failed == 0 ? 0 : 1;
+    }
+
+    private static LocalDate parseDate(String value, LocalDate def) {
+        if (value == null) return def;
+        if (value.isBlank()) return null;
+        return LocalDate.parse(value.trim());
+    }
+
+    private static int usage(String error) {
+        if (error != null) System.err.println(error);
+        System.err.println("Usage: app.HeadlessReports [--reports=" + String.join(",", REPORTS.keySet()) + "]"
+                + " [--from=yyyy-MM-dd] [--to=yyyy-MM-dd] [--out=folder] [--format=xlsx|csv]");
+        System.err.println("Defaults: --reports=" + String.join(",", DEFAULT_REPORTS)
+                + " --from=today --to=today --out=. --format=xlsx");
+        return error != null ? 2 : 0;
+    }
+}
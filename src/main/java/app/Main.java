@@ -1,5 +1,7 @@
 package app;
 
+import app.db.AuditLogWriter;
+import app.db.DatabaseConnection;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
@@ -28,6 +30,14 @@ public class Main extends Application {
         stage.show();
     }
 
+    @Override
+    public void stop() {
+        // كتابة اللوج اللي لسه في الطابور قبل قفل الاتصالات
+        AuditLogWriter.shutdown();
+        // قفل اتصالات الـ pool عند الخروج
+        DatabaseConnection.shutdownPools();
+    }
+
     public static void main(String[] args) {
         launch();
     }
@@ -8,8 +8,11 @@ import javafx.stage.Stage;
 
 import java.sql.*;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import app.db.DatabaseConnection;
+import app.db.DbExecutor;
+import app.services.ReferenceDataCache;
 
 public class AddDeviceComponentController {
 
@@ -28,22 +31,26 @@ public class AddDeviceComponentController {
     private void loadItems() {
         originalItems.clear();
         itemCodeMap.clear();
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            String sql = "SELECT ItemName, ItemCode FROM Items ORDER BY ItemName";
-            PreparedStatement ps = conn.prepareStatement(sql);
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                String itemName = rs.getString("ItemName");
-                String itemCode = rs.getString("ItemCode");
-                originalItems.add(itemName);
-                itemCodeMap.put(itemName, itemCode != null ? itemCode : "بدون كود");
+        DbExecutor.supply(() -> {
+            Map<String, String> items = new LinkedHashMap<>();
+            try (Connection conn = DatabaseConnection.getConnection()) {
+                String sql = "SELECT ItemName, ItemCode FROM Items ORDER BY ItemName";
+                PreparedStatement ps = conn.prepareStatement(sql);
+                ResultSet rs = ps.executeQuery();
+                while (rs.next()) {
+                    String itemName = rs.getString("ItemName");
+                    String itemCode = rs.getString("ItemCode");
+                    items.put(itemName, itemCode != null ? itemCode : "بدون كود");
+                }
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-
-        itemComboBox.setItems(FXCollections.observableArrayList(originalItems));
-        makeComboBoxSearchable(itemComboBox);
+            return items;
+        }, items -> {
+            originalItems.setAll(items.keySet());
+            itemCodeMap.putAll(items);
+
+            itemComboBox.setItems(FXCollections.observableArrayList(originalItems));
+            makeComboBoxSearchable(itemComboBox);
+        }, Throwable::printStackTrace);
     }
 
     private void makeComboBoxSearchable(ComboBox<String> comboBox) {
@@ -103,34 +110,43 @@ public class AddDeviceComponentController {
             return;
         }
 
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            // الحصول على ItemID أولاً
-            String getItemIdSql = "SELECT ItemID FROM Items WHERE ItemName = ?";
-            PreparedStatement getItemStmt = conn.prepareStatement(getItemIdSql);
-            getItemStmt.setString(1, itemName);
-            ResultSet rs = getItemStmt.executeQuery();
+        double quantity;
+        try {
+            quantity = Double.parseDouble(qtyText);
+        } catch (NumberFormatException e) {
+            new Alert(Alert.AlertType.ERROR, "❌ خطأ في إضافة المكون: " + e.getMessage()).show();
+            return;
+        }
+
+        int currentDeviceId = deviceId;
+        DbExecutor.supply(() -> {
+            // الحصول على ItemID أولاً (من الكاش)
+            Integer itemId = ReferenceDataCache.itemId(itemName);
+            if (itemId == null) {
+                return false;
+            }
 
-            if (!rs.next()) {
+            try (Connection conn = DatabaseConnection.getConnection()) {
+                // إدخال في جدول DeviceComponents
+                String sql = "INSERT INTO DeviceComponents (DeviceID, ItemID, Quantity) VALUES (?, ?, ?)";
+                PreparedStatement ps = conn.prepareStatement(sql);
+                ps.setInt(1, currentDeviceId);
+                ps.setInt(2, itemId);
+                ps.setDouble(3, quantity);
+                ps.executeUpdate();
+                return true;
+            }
+        }, added -> {
+            if (!added) {
                 new Alert(Alert.AlertType.ERROR, "❌ الصنف غير موجود في قاعدة البيانات").show();
                 return;
             }
-
-            int itemId = rs.getInt("ItemID");
-
-            // إدخال في جدول DeviceComponents
-            String sql = "INSERT INTO DeviceComponents (DeviceID, ItemID, Quantity) VALUES (?, ?, ?)";
-            PreparedStatement ps = conn.prepareStatement(sql);
-            ps.setInt(1, deviceId);
-            ps.setInt(2, itemId);
-            ps.setDouble(3, Double.parseDouble(qtyText));
-            ps.executeUpdate();
-
             new Alert(Alert.AlertType.INFORMATION, "✔ تمت إضافة المكون بنجاح").show();
             closePopup();
-        } catch (Exception e) {
+        }, e -> {
             e.printStackTrace();
             new Alert(Alert.AlertType.ERROR, "❌ خطأ في إضافة المكون: " + e.getMessage()).show();
-        }
+        });
     }
 
     @FXML
@@ -1,6 +1,9 @@
 package app.controllers;
 
 import app.db.DatabaseConnection;
+import app.db.DbExecutor;
+import app.services.AutocompleteIndex;
+import app.services.ReferenceDataCache;
 import javafx.collections.*;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
@@ -10,7 +13,6 @@ import javafx.stage.Stage;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.stream.Collectors;
 
 public class AddDeviceController {
 
@@ -24,8 +26,8 @@ public class AddDeviceController {
     @FXML private Button addItemButton;
     @FXML private Button saveDeviceButton;
 
-    private ObservableList<String> allItems = FXCollections.observableArrayList();
-    private Map<String, String> itemCodeMap = new HashMap<>(); // خريطة لتخزين الأسماء والأكواد
+    // أسماء الأصناف وأكوادها من الكاش المشترك (بحث بالاسم أو الكود)
+    private AutocompleteIndex itemSuggestions = AutocompleteIndex.of(List.of());
     private ObservableList<ComponentEntry> components = FXCollections.observableArrayList();
     private boolean filtering = false; // علامة لمنع التكرار
 
@@ -102,38 +104,16 @@ public class AddDeviceController {
     }
 
     private void loadItems() {
-        allItems.clear();
-        itemCodeMap.clear();
-        try (Connection conn = DatabaseConnection.getInventoryConnection();
-             PreparedStatement stmt = conn.prepareStatement("SELECT ItemName, ItemCode FROM Items ORDER BY ItemName");
-             ResultSet rs = stmt.executeQuery()) {
-            while (rs.next()) {
-                String itemName = rs.getString("ItemName");
-                String itemCode = rs.getString("ItemCode");
-                allItems.add(itemName);
-                itemCodeMap.put(itemName, itemCode != null ? itemCode : "بدون كود");
-            }
-            itemComboBox.setItems(FXCollections.observableArrayList(allItems));
-        } catch (SQLException e) {
-            showAlert(Alert.AlertType.ERROR, "خطأ في تحميل الأصناف", e.getMessage());
-        }
+        DbExecutor.supply(ReferenceDataCache::itemSuggestions, suggestions -> {
+            itemSuggestions = suggestions;
+            itemComboBox.setItems(FXCollections.observableArrayList(suggestions.all()));
+        }, e -> showAlert(Alert.AlertType.ERROR, "خطأ في تحميل الأصناف", e.getMessage()));
     }
 
     private void filterItems(String query) {
         filtering = true;
         try {
-            if (query == null || query.isEmpty()) {
-                itemComboBox.setItems(FXCollections.observableArrayList(allItems));
-            } else {
-                String lower = query.toLowerCase();
-                List<String> filtered = allItems.stream()
-                        .filter(i ->
-                                i.toLowerCase().contains(lower) ||
-                                        (itemCodeMap.get(i) != null && itemCodeMap.get(i).toLowerCase().contains(lower))
-                        )
-                        .collect(Collectors.toList());
-                itemComboBox.setItems(FXCollections.observableArrayList(filtered));
-            }
+            itemComboBox.setItems(FXCollections.observableArrayList(itemSuggestions.suggest(query)));
             itemComboBox.show();
         } finally {
             filtering = false;
@@ -158,7 +138,8 @@ public class AddDeviceController {
         }
 
         // الحصول على كود العنصر
-        String itemCode = itemCodeMap.get(itemName);
+        String itemCode = itemSuggestions.codeOf(itemName);
+        if (itemCode == null) itemCode = "بدون كود";
 
         // تحديث لو المكون مضاف مسبقًا
         for (ComponentEntry entry : components) {
@@ -193,6 +174,29 @@ public class AddDeviceController {
             return;
         }
 
+        Integer deviceToEdit = editingDeviceId;
+        List<ComponentEntry> snapshot = new ArrayList<>(components);
+        saveDeviceButton.setDisable(true);
+
+        DbExecutor.supply(() -> persistDevice(name, deviceToEdit, snapshot), validationError -> {
+            saveDeviceButton.setDisable(false);
+            if (validationError != null) {
+                showAlert(Alert.AlertType.ERROR, "خطأ", validationError);
+                return;
+            }
+            showAlert(Alert.AlertType.INFORMATION, "تم", "تم حفظ الجهاز بنجاح!");
+            ((Stage) saveDeviceButton.getScene().getWindow()).close();
+        }, e -> {
+            saveDeviceButton.setDisable(false);
+            showAlert(Alert.AlertType.ERROR, "خطأ في الحفظ", e.getMessage());
+            e.printStackTrace();
+        });
+    }
+
+    /**
+     * بيشتغل في الخلفية - بيرجع رسالة خطأ التحقق (اسم مكرر) أو null لو الحفظ تم
+     */
+    private String persistDevice(String name, Integer editingDeviceId, List<ComponentEntry> components) throws SQLException {
         Connection conn = null;
         try {
             conn = DatabaseConnection.getInventoryConnection();
@@ -206,8 +210,7 @@ public class AddDeviceController {
                 checkStmt.setString(1, name);
                 ResultSet rs = checkStmt.executeQuery();
                 if (rs.next()) {
-                    showAlert(Alert.AlertType.ERROR, "خطأ", "اسم الجهاز موجود مسبقاً!");
-                    return;
+                    return "اسم الجهاز موجود مسبقاً!";
                 }
             } else {
                 PreparedStatement checkStmt = conn.prepareStatement(
@@ -217,8 +220,7 @@ public class AddDeviceController {
                 checkStmt.setInt(2, editingDeviceId);
                 ResultSet rs = checkStmt.executeQuery();
                 if (rs.next()) {
-                    showAlert(Alert.AlertType.ERROR, "خطأ", "اسم الجهاز موجود مسبقاً!");
-                    return;
+                    return "اسم الجهاز موجود مسبقاً!";
                 }
             }
 
@@ -262,29 +264,26 @@ public class AddDeviceController {
                 delComps.executeUpdate();
             }
 
-            // إضافة المكونات الجديدة
-            for (ComponentEntry entry : components) {
-                PreparedStatement getItem = conn.prepareStatement("SELECT ItemID FROM Items WHERE ItemName = ?");
-                getItem.setString(1, entry.getItemName());
-                ResultSet rs = getItem.executeQuery();
-                if (rs.next()) {
-                    int itemId = rs.getInt("ItemID");
-
-                    PreparedStatement insComp = conn.prepareStatement(
-                            "INSERT INTO DeviceComponents (DeviceID, ItemID, Quantity) VALUES (?, ?, ?)"
-                    );
+            // إضافة المكونات الجديدة - الـ IDs من الكاش والإضافة في batch واحد
+            try (PreparedStatement insComp = conn.prepareStatement(
+                    "INSERT INTO DeviceComponents (DeviceID, ItemID, Quantity) VALUES (?, ?, ?)"
+            )) {
+                for (ComponentEntry entry : components) {
+                    Integer itemId = ReferenceDataCache.itemId(entry.getItemName());
+                    if (itemId == null) {
+                        throw new SQLException("الصنف '" + entry.getItemName() + "' غير موجود في قاعدة البيانات.");
+                    }
                     insComp.setInt(1, deviceId);
                     insComp.setInt(2, itemId);
                     insComp.setDouble(3, entry.getQuantity());
-                    insComp.executeUpdate();
-                } else {
-                    throw new SQLException("الصنف '" + entry.getItemName() + "' غير موجود في قاعدة البيانات.");
+                    insComp.addBatch();
                 }
+                insComp.executeBatch();
             }
 
             conn.commit();
-            showAlert(Alert.AlertType.INFORMATION, "تم", "تم حفظ الجهاز بنجاح!");
-            ((Stage) saveDeviceButton.getScene().getWindow()).close();
+            ReferenceDataCache.invalidate();
+            return null;
 
         } catch (SQLException e) {
             if (conn != null) {
@@ -294,8 +293,7 @@ public class AddDeviceController {
                     ex.printStackTrace();
                 }
             }
-            showAlert(Alert.AlertType.ERROR, "خطأ في الحفظ", e.getMessage());
-            e.printStackTrace();
+            throw e;
         } finally {
             if (conn != null) {
                 try {
@@ -315,27 +313,31 @@ public class AddDeviceController {
         this.deviceNameField.setText(deviceName);
         components.clear();
 
-        try (Connection conn = DatabaseConnection.getInventoryConnection();
-             PreparedStatement stmt = conn.prepareStatement("""
-                 SELECT i.ItemName, i.ItemCode, dc.Quantity
-                 FROM DeviceComponents dc
-                 JOIN Items i ON dc.ItemID = i.ItemID
-                 WHERE dc.DeviceID = ?
-             """)) {
-            stmt.setInt(1, deviceId);
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                String itemCode = rs.getString("ItemCode");
-                components.add(new ComponentEntry(
-                        rs.getString("ItemName"),
-                        itemCode != null ? itemCode : "بدون كود",
-                        rs.getDouble("Quantity")
-                ));
+        DbExecutor.supply(() -> {
+            List<ComponentEntry> loaded = new ArrayList<>();
+            try (Connection conn = DatabaseConnection.getInventoryConnection();
+                 PreparedStatement stmt = conn.prepareStatement("""
+                     SELECT i.ItemName, i.ItemCode, dc.Quantity
+                     FROM DeviceComponents dc
+                     JOIN Items i ON dc.ItemID = i.ItemID
+                     WHERE dc.DeviceID = ?
+                 """)) {
+                stmt.setInt(1, deviceId);
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    String itemCode = rs.getString("ItemCode");
+                    loaded.add(new ComponentEntry(
+                            rs.getString("ItemName"),
+                            itemCode != null ? itemCode : "بدون كود",
+                            rs.getDouble("Quantity")
+                    ));
+                }
             }
+            return loaded;
+        }, loaded -> {
+            components.setAll(loaded);
             componentTable.refresh();
-        } catch (SQLException e) {
-            showAlert(Alert.AlertType.ERROR, "خطأ في تحميل المكونات", e.getMessage());
-        }
+        }, e -> showAlert(Alert.AlertType.ERROR, "خطأ في تحميل المكونات", e.getMessage()));
     }
 
     private void showAlert(Alert.AlertType type, String title, String msg) {
@@ -1,11 +1,10 @@
 package app.controllers;
 
-import app.db.DatabaseConnection;
+import app.db.DbExecutor;
 import app.models.Item;
-import app.services.ItemImportDTO;
 import app.services.ItemDAO;
+import app.services.ItemImportPipeline;
 import app.services.LogService; // أضف هذا الاستيراد
-import app.utils.ExcelReader;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.concurrent.Task;
@@ -20,9 +19,6 @@ import javafx.stage.FileChooser;
 import javafx.util.Callback;
 
 import java.io.File;
-import java.sql.Connection;
-import java.sql.SQLException;
-import java.util.List;
 
 public class AddItemsController {
 
@@ -46,11 +42,11 @@ public class AddItemsController {
     @FXML private TextField priceField;
 
     private ItemDAO itemDAO;
+    private final DbExecutor.Latest<ObservableList<Item>> itemsLoader = new DbExecutor.Latest<>();
 
     @FXML
     public void initialize() {
         try {
-            Connection conn = DatabaseConnection.getConnection();
             itemDAO = new ItemDAO();
             colItemCode.setCellValueFactory(new PropertyValueFactory<>("itemCode")); // ⬅️ العمود الجديد
             colItemName.setCellValueFactory(new PropertyValueFactory<>("itemName"));
@@ -61,8 +57,9 @@ public class AddItemsController {
             refreshUnits();
             refreshTable();
 
+            // ✅ البحث في الخلفية - آخر حرف اتكتب هو اللي نتيجته بتظهر
             searchField.textProperty().addListener((obs, oldText, newText) -> {
-                itemsTable.setItems(itemDAO.searchItems(newText));
+                itemsLoader.submit(() -> itemDAO.searchItems(newText), itemsTable::setItems, Throwable::printStackTrace);
             });
 
             addDeleteButtonToTable();
@@ -74,9 +71,10 @@ public class AddItemsController {
     @FXML
     private void onImportExcel(ActionEvent event) {
         FileChooser fileChooser = new FileChooser();
-        fileChooser.setTitle("اختر ملف Excel");
+        fileChooser.setTitle("اختر ملف Excel أو CSV");
         fileChooser.getExtensionFilters().addAll(
-                new FileChooser.ExtensionFilter("Excel Files", "*.xlsx", "*.xls")
+                new FileChooser.ExtensionFilter("Excel Files", "*.xlsx", "*.xls"),
+                new FileChooser.ExtensionFilter("CSV / TSV Files", "*.csv", "*.tsv", "*.txt")
         );
 
         File file = fileChooser.showOpenDialog(null);
@@ -84,7 +82,7 @@ public class AddItemsController {
             // إنشاء دايلوج اللودنج
             Dialog<Void> loadingDialog = new Dialog<>();
             loadingDialog.setTitle("جاري الاستيراد");
-            loadingDialog.setHeaderText("جاري استيراد البيانات من ملف Excel...");
+            loadingDialog.setHeaderText("جاري استيراد البيانات من ملف " + file.getName() + "...");
             loadingDialog.getDialogPane().getButtonTypes().add(ButtonType.CANCEL);
 
             // إنشاء محتوى اللودنج
@@ -101,10 +99,13 @@ public class AddItemsController {
 
             loadingDialog.getDialogPane().setContent(content);
 
-            // تعطيل زر الإغلاق أثناء التحميل
+            // القراءة والتحقق والكتابة شغالين مع بعض على threads منفصلة
+            ItemImportPipeline pipeline = itemDAO.importPipeline(file);
+
+            // الإلغاء بيوقف كل المراحل - الدفعات اللي اتحفظت بتفضل
             loadingDialog.setResultConverter(dialogButton -> {
                 if (dialogButton == ButtonType.CANCEL) {
-                    // يمكنك إضافة منطق للإلغاء إذا أردت
+                    pipeline.cancel();
                     return null;
                 }
                 return null;
@@ -115,23 +116,17 @@ public class AddItemsController {
                 @Override
                 protected String call() throws Exception {
                     try {
-                        // قراءة البيانات من Excel
-                        List<ItemImportDTO> items = ExcelReader.readItemsFromExcel(file);
-
-                        if (items.isEmpty()) {
-                            return "⚠️ لم يتم العثور على بيانات صالحة في الملف";
+                        // كل مرحلة بتعرض عدد الصفوف والسرعة (صف/ث)
+                        String result = pipeline.run(this::updateMessage);
+
+                        int imported = pipeline.getImportedCount();
+                        if (imported > 0) {
+                            // تسجيل العملية - عدد اللي اتكتب فعلاً مش عدد الصفوف اللي اتقرت
+                            LogService.addLog("IMPORT_ITEMS",
+                                    "تم استيراد " + imported + " صنف من ملف: " + file.getName()
+                                            + (pipeline.isCancelled() ? " (تم الإلغاء)" : ""));
                         }
 
-                        // تحديث حالة التقدم
-                        updateMessage("جاري استيراد " + items.size() + " صنف...");
-
-                        // استيراد البيانات
-                        String result = itemDAO.importItemsFromExcel(items);
-
-                        // تسجيل العملية
-                        LogService.addLog("IMPORT_ITEMS",
-                                "تم استيراد " + items.size() + " صنف من ملف Excel: " + file.getName());
-
                         return result;
                     } catch (Exception e) {
                         return "❌ خطأ في استيراد الملف: " + e.getMessage();
@@ -211,19 +206,22 @@ public class AddItemsController {
                 return;
             }
 
-            boolean added = itemDAO.addUnit(newUnit);
-            if (added) {
-                statusLabel.setText("✅ تم إضافة الوحدة بنجاح!");
-
-                // تسجيل العملية في اللوج
-                LogService.addLog("ADD_UNIT", "تم إضافة وحدة جديدة: " + newUnit);
-
-                newUnitField.clear();
-                refreshUnits();
-                unitComboBox.setValue(newUnit);
-            } else {
-                statusLabel.setText("⚠️ الوحدة موجودة بالفعل.");
-            }
+            DbExecutor.supply(() -> {
+                boolean added = itemDAO.addUnit(newUnit);
+                if (added) {
+                    // تسجيل العملية في اللوج
+                    LogService.addLog("ADD_UNIT", "تم إضافة وحدة جديدة: " + newUnit);
+                }
+                return added;
+            }, added -> {
+                if (added) {
+                    statusLabel.setText("✅ تم إضافة الوحدة بنجاح!");
+                    newUnitField.clear();
+                    refreshUnits(() -> unitComboBox.setValue(newUnit));
+                } else {
+                    statusLabel.setText("⚠️ الوحدة موجودة بالفعل.");
+                }
+            }, e -> statusLabel.setText("❌ خطأ أثناء إضافة الوحدة: " + e.getMessage()));
 
         } catch (Exception e) {
             statusLabel.setText("❌ خطأ أثناء إضافة الوحدة: " + e.getMessage());
@@ -249,27 +247,31 @@ public class AddItemsController {
             }
 
             // ⬅️ إضافة الكود كباراميتر
-            int itemId = itemDAO.addItem(name, itemCode, unit, minQty, initialQty);
-            if (itemId > 0) {
-                // لو فيه سعر، نحفظه في جدول ItemPrices
-                if (price != null) {
-                    itemDAO.addItemPrice(itemId, price);
-                }
-
-                statusLabel.setText("✅ تم إضافة الصنف بنجاح!");
-
-                String description = String.format(
-                        "تم إضافة صنف جديد: %s - الكود: %s - الوحدة: %s - الكمية الدنيا: %.2f - الكمية الأولية: %.2f - السعر: %s",
-                        name, itemCode.isEmpty() ? "بدون كود" : itemCode, unit, minQty, initialQty,
-                        price == null ? "بدون سعر" : String.format("%.2f", price)
-                );
-                LogService.addLog("ADD_ITEM", description);
+            DbExecutor.supply(() -> {
+                int itemId = itemDAO.addItem(name, itemCode, unit, minQty, initialQty);
+                if (itemId > 0) {
+                    // لو فيه سعر، نحفظه في جدول ItemPrices
+                    if (price != null) {
+                        itemDAO.addItemPrice(itemId, price);
+                    }
 
-                refreshTable();
-                clearFields();
-            } else {
-                statusLabel.setText("⚠️ الصنف موجود بالفعل!");
-            }
+                    String description = String.format(
+                            "تم إضافة صنف جديد: %s - الكود: %s - الوحدة: %s - الكمية الدنيا: %.2f - الكمية الأولية: %.2f - السعر: %s",
+                            name, itemCode.isEmpty() ? "بدون كود" : itemCode, unit, minQty, initialQty,
+                            price == null ? "بدون سعر" : String.format("%.2f", price)
+                    );
+                    LogService.addLog("ADD_ITEM", description);
+                }
+                return itemId;
+            }, itemId -> {
+                if (itemId > 0) {
+                    statusLabel.setText("✅ تم إضافة الصنف بنجاح!");
+                    refreshTable();
+                    clearFields();
+                } else {
+                    statusLabel.setText("⚠️ الصنف موجود بالفعل!");
+                }
+            }, e -> statusLabel.setText("❌ خطأ: " + e.getMessage()));
 
         } catch (Exception e) {
             statusLabel.setText("❌ خطأ: " + e.getMessage());
@@ -310,39 +312,48 @@ public class AddItemsController {
         confirm.setContentText("هل أنت متأكد أنك تريد حذف هذا الصنف وجميع البيانات المرتبطة به؟");
 
         if (confirm.showAndWait().get() == ButtonType.OK) {
-            try {
+            DbExecutor.supply(() -> {
                 boolean deleted = itemDAO.deleteItemCompletely(item.getId());
                 if (deleted) {
-                    statusLabel.setText("✅ تم حذف الصنف وكل البيانات المرتبطة به.");
-
                     // تسجيل العملية في اللوج
                     String description = String.format("تم حذف الصنف: %s (ID: %d)", item.getItemName(), item.getId());
                     LogService.addLog("DELETE_ITEM", description);
-
+                }
+                return deleted;
+            }, deleted -> {
+                if (deleted) {
+                    statusLabel.setText("✅ تم حذف الصنف وكل البيانات المرتبطة به.");
                     refreshTable();
                 } else {
                     statusLabel.setText("⚠️ لم يتم العثور على الصنف.");
                 }
-            } catch (Exception e) {
-                statusLabel.setText("❌ خطأ أثناء الحذف: " + e.getMessage());
-            }
+            }, e -> statusLabel.setText("❌ خطأ أثناء الحذف: " + e.getMessage()));
         }
     }
     private void refreshUnits() {
-        try {
-            unitComboBox.setItems(FXCollections.observableArrayList(itemDAO.getAllUnits()));
-        } catch (SQLException e) {
+        refreshUnits(null);
+    }
+
+    private void refreshUnits(Runnable afterLoad) {
+        DbExecutor.supply(itemDAO::getAllUnits, units -> {
+            unitComboBox.setItems(FXCollections.observableArrayList(units));
+            if (afterLoad != null) afterLoad.run();
+        }, e -> {
             e.printStackTrace();
             Alert alert = new Alert(Alert.AlertType.ERROR);
             alert.setTitle("خطأ في تحميل الوحدات");
             alert.setHeaderText(null);
             alert.setContentText("حدث خطأ أثناء تحميل قائمة الوحدات من قاعدة البيانات.");
             alert.showAndWait();
-        }
+        });
     }
 
     private void refreshTable() {
-        itemsTable.setItems(itemDAO.getAllItems());
+        String keyword = searchField.getText();
+        itemsLoader.submit(() -> keyword == null || keyword.isEmpty()
+                        ? itemDAO.getAllItems()
+                        : itemDAO.searchItems(keyword),
+                itemsTable::setItems, Throwable::printStackTrace);
     }
 
     private void clearFields() {
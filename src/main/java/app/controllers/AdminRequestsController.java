@@ -2,7 +2,10 @@ package app.controllers;
 
 import app.current_user.CurrentUser;
 import app.db.DatabaseConnection;
+import app.db.DbExecutor;
+import app.services.ChangeEventBus;
 import app.services.LogService;
+import app.services.StockMovementService;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
@@ -10,6 +13,8 @@ import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 import java.sql.*;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 public class AdminRequestsController {
@@ -33,12 +38,16 @@ public class AdminRequestsController {
     @FXML private Button refreshButton;
 
     private final ObservableList<StockRequest> allRequests = FXCollections.observableArrayList();
+    private final DbExecutor.Latest<List<StockRequest>> requestsLoader = new DbExecutor.Latest<>();
 
     @FXML
     public void initialize() {
         setupTableColumns();
         loadRequestsData();
         setupFilters();
+
+        // ✅ أي طلب جديد أو اتعدل (من أي جهاز) بيحدث الجدول
+        ChangeEventBus.subscribe(requestsTable, this::loadRequestsData, ChangeEventBus.Topic.REQUESTS);
     }
 
     private void setupTableColumns() {
@@ -65,7 +74,20 @@ public class AdminRequestsController {
     }
 
     private void loadRequestsData() {
-        allRequests.clear();
+        refreshButton.setDisable(true);
+        requestsLoader.submit(this::fetchRequests, requests -> {
+            allRequests.setAll(requests);
+            refreshButton.setDisable(false);
+            filterRequests();
+        }, e -> {
+            refreshButton.setDisable(false);
+            e.printStackTrace();
+            showError("خطأ في تحميل طلبات الصرف: " + e.getMessage());
+        });
+    }
+
+    private List<StockRequest> fetchRequests() throws SQLException {
+        List<StockRequest> requests = new ArrayList<>();
 
         String query = """
             SELECT 
@@ -115,15 +137,10 @@ public class AdminRequestsController {
                         rs.getInt("ItemID"),
                         rs.getInt("SerialID")
                 );
-                allRequests.add(request);
+                requests.add(request);
             }
-
-            requestsTable.setItems(allRequests);
-
-        } catch (SQLException e) {
-            e.printStackTrace();
-            showError("خطأ في تحميل طلبات الصرف: " + e.getMessage());
         }
+        return requests;
     }
 
     private void setupFilters() {
@@ -140,7 +157,7 @@ public class AdminRequestsController {
     }
 
     private void filterRequests() {
-        String statusFilter = statusFilterCombo.getValue();
+        String statusFilter = statusFilterCombo.getValue() != null ? statusFilterCombo.getValue() : "الكل";
         String searchTerm = searchField.getText().toLowerCase().trim();
 
         ObservableList<StockRequest> filtered = FXCollections.observableArrayList();
@@ -220,6 +237,20 @@ public class AdminRequestsController {
     }
 
     private void approveRequest(StockRequest request) {
+        approveButton.setDisable(true);
+        DbExecutor.run(() -> saveApproval(request), () -> {
+            approveButton.setDisable(false);
+            showInfo("تمت الموافقة على الطلب بنجاح!");
+            // كل الشاشات المفتوحة (الطلبات والمخزون) هتتحدث من سجل التغييرات
+            ChangeEventBus.pollNow();
+        }, e -> {
+            approveButton.setDisable(false);
+            e.printStackTrace();
+            showError("خطأ في الموافقة على الطلب: " + e.getMessage());
+        });
+    }
+
+    private void saveApproval(StockRequest request) throws SQLException {
         try (Connection conn = DatabaseConnection.getConnection()) {
             conn.setAutoCommit(false);
 
@@ -248,30 +279,14 @@ public class AdminRequestsController {
                     "تم الموافقة على طلب الصرف #" + request.getRequestId() +
                             " - العنصر: " + request.getItemName() +
                             " - الكمية: " + request.getQuantity());
-
-            showInfo("تمت الموافقة على الطلب بنجاح!");
-            loadRequestsData();
-
-        } catch (SQLException e) {
-            e.printStackTrace();
-            showError("خطأ في الموافقة على الطلب: " + e.getMessage());
         }
     }
 
     private void executeStockOut(StockRequest request, Connection conn) throws SQLException {
-        // تسجيل في StockTransactions
-        String transactionQuery = """
-            INSERT INTO StockTransactions (ItemID, TransactionType, Quantity, ReceiverName, Notes, EmployeeID)
-            VALUES (?, 'OUT', ?, ?, ?, ?)
-        """;
-        try (PreparedStatement ps = conn.prepareStatement(transactionQuery)) {
-            ps.setInt(1, request.getItemId());
-            ps.setDouble(2, request.getQuantity());
-            ps.setString(3, request.getRequesterName());
-            ps.setString(4, "طلب معتمد - " + request.getReason());
-            ps.setInt(5, CurrentUser.getId());
-            ps.executeUpdate();
-        }
+        // تسجيل في StockTransactions - الرصيد بيتفحص ويتخصم في نفس الـ statement
+        new StockMovementService().issue(conn,
+                List.of(new StockMovementService.Line(request.getItemId(), request.getQuantity())),
+                CurrentUser.getId(), request.getRequesterName(), "طلب معتمد - " + request.getReason());
     }
 
     private void recordSerialUsage(StockRequest request, Connection conn) throws SQLException {
@@ -289,6 +304,19 @@ public class AdminRequestsController {
     }
 
     private void rejectRequest(StockRequest request, String rejectionReason) {
+        rejectButton.setDisable(true);
+        DbExecutor.run(() -> saveRejection(request, rejectionReason), () -> {
+            rejectButton.setDisable(false);
+            showInfo("تم رفض الطلب بنجاح!");
+            ChangeEventBus.pollNow();
+        }, e -> {
+            rejectButton.setDisable(false);
+            e.printStackTrace();
+            showError("خطأ في رفض الطلب: " + e.getMessage());
+        });
+    }
+
+    private void saveRejection(StockRequest request, String rejectionReason) throws SQLException {
         try (Connection conn = DatabaseConnection.getConnection()) {
             String query = """
                 UPDATE StockRequests 
@@ -305,13 +333,6 @@ public class AdminRequestsController {
             LogService.addLog("REQUEST_REJECTED",
                     "تم رفض طلب الصرف #" + request.getRequestId() +
                             " - السبب: " + rejectionReason);
-
-            showInfo("تم رفض الطلب بنجاح!");
-            loadRequestsData();
-
-        } catch (SQLException e) {
-            e.printStackTrace();
-            showError("خطأ في رفض الطلب: " + e.getMessage());
         }
     }
 
@@ -1,6 +1,7 @@
 package app.controllers;
 
 import app.db.DatabaseConnection;
+import app.db.DbExecutor;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.collections.transformation.FilteredList;
@@ -15,6 +16,8 @@ import javafx.stage.Stage;
 import javafx.util.Callback;
 import java.sql.*;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 
 public class AllSerialsController {
 
@@ -42,13 +45,20 @@ public class AllSerialsController {
 
     public void setSerials(ObservableList<String> serials) {
         serialsList.clear();
-        for (String serial : serials) {
-            // جلب تاريخ الإنشاء وحالة الجهاز من قاعدة البيانات
-            String createdAt = getCreatedAtForSerial(serial);
-            String status = getDeviceStatus(serial);
-            serialsList.add(new SerialItem(serial, createdAt, status));
-        }
-        setupSearch();
+        List<String> snapshot = new ArrayList<>(serials);
+        DbExecutor.supply(() -> {
+            List<SerialItem> items = new ArrayList<>();
+            for (String serial : snapshot) {
+                // جلب تاريخ الإنشاء وحالة الجهاز من قاعدة البيانات
+                String createdAt = getCreatedAtForSerial(serial);
+                String status = getDeviceStatus(serial);
+                items.add(new SerialItem(serial, createdAt, status));
+            }
+            return items;
+        }, serialsList::setAll, e -> {
+            e.printStackTrace();
+            showAlert("حدث خطأ أثناء تحميل السيريالات.");
+        });
     }
 
     @FXML
@@ -141,37 +151,42 @@ public class AllSerialsController {
         if (device == null) return;
 
         serialsList.clear();
+        int deviceId = device.getId();
 
+        // حالة الخروج بتيجي في نفس الاستعلام بدل استعلام لكل سيريال
         String sql = """
-            SELECT DS.SerialNumber, DS.CreatedAt 
+            SELECT DS.SerialNumber, DS.CreatedAt,
+                   CASE WHEN EXISTS (SELECT 1 FROM DeviceExit DE WHERE DE.SerialNumber = DS.SerialNumber)
+                        THEN 1 ELSE 0 END AS HasExited
             FROM DeviceSerials DS 
             WHERE DS.DeviceID = ? 
             ORDER BY DS.CreatedAt DESC
         """;
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+        DbExecutor.supply(() -> {
+            List<SerialItem> items = new ArrayList<>();
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
 
-            ps.setInt(1, device.getId());
-            ResultSet rs = ps.executeQuery();
+                ps.setInt(1, deviceId);
+                ResultSet rs = ps.executeQuery();
 
-            while (rs.next()) {
-                String serial = rs.getString("SerialNumber");
-                Timestamp createdAt = rs.getTimestamp("CreatedAt");
-                String formattedDate = createdAt != null ?
-                        createdAt.toLocalDateTime().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")) :
-                        "غير محدد";
+                while (rs.next()) {
+                    String serial = rs.getString("SerialNumber");
+                    Timestamp createdAt = rs.getTimestamp("CreatedAt");
+                    String formattedDate = createdAt != null ?
+                            createdAt.toLocalDateTime().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")) :
+                            "غير محدد";
 
-                String status = getDeviceStatus(serial);
-                serialsList.add(new SerialItem(serial, formattedDate, status));
+                    String status = rs.getInt("HasExited") == 1 ? "خرج من المصنع" : "قيد التصنيع";
+                    items.add(new SerialItem(serial, formattedDate, status));
+                }
             }
-
-            setupSearch();
-
-        } catch (Exception e) {
+            return items;
+        }, serialsList::setAll, e -> {
             e.printStackTrace();
             showAlert("حدث خطأ أثناء تحميل السيريالات.");
-        }
+        });
     }
 
     // دالة مساعدة لجلب تاريخ الإنشاء
@@ -1,8 +1,12 @@
 package app.controllers;
 
+import app.db.AuditLogWriter;
 import app.db.DatabaseConnection;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import app.db.DbExecutor;
+import app.db.RefreshScheduler;
+import app.models.DashboardStats;
+import app.services.ChangeEventBus;
+import app.services.DashboardService;
 import javafx.animation.TranslateTransition;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -10,15 +14,14 @@ import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Label;
+import javafx.scene.control.Tooltip;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 import javafx.util.Duration;
 
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 
 public class DashboardController {
@@ -40,6 +43,9 @@ public class DashboardController {
     private TranslateTransition contentTransition;
 
     private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private final DashboardService dashboardService = new DashboardService();
+    private static final long STATS_REFRESH_MS = 60_000;
+    private RefreshScheduler.Job<DashboardStats> statsJob;
 
     public void setLoggedEmployeeName(String name) {
         if (loggedUserLabel != null) {
@@ -53,23 +59,36 @@ public class DashboardController {
         setupAnimations();
 
         // الكود الأصلي للاتصال بقاعدة البيانات
-        String status = DatabaseConnection.testConnection();
-        dbStatusLabel.setText(status);
-        if (status.contains("نجاح")) {
-            dbStatusLabel.setStyle("-fx-text-fill: green; -fx-font-weight: bold;");
-        } else if (status.contains("فشل")) {
-            dbStatusLabel.setStyle("-fx-text-fill: red; -fx-font-weight: bold;");
-        } else {
-            dbStatusLabel.setStyle("-fx-text-fill: orange; -fx-font-weight: bold;");
-        }
+        DbExecutor.supply(DatabaseConnection::testConnection, status -> {
+            dbStatusLabel.setText(status);
+            if (status.contains("نجاح")) {
+                dbStatusLabel.setStyle("-fx-text-fill: green; -fx-font-weight: bold;");
+            } else if (status.contains("فشل")) {
+                dbStatusLabel.setStyle("-fx-text-fill: red; -fx-font-weight: bold;");
+            } else {
+                dbStatusLabel.setStyle("-fx-text-fill: orange; -fx-font-weight: bold;");
+            }
+
+            startStatsRefresh();
+        }, e -> startStatsRefresh());
 
-        loadDashboardStats();
+        // ✅ بدل Timeline كل 5 ثواني - بنحدث بس لما حاجة تتغير فعلاً
+        ChangeEventBus.subscribe(loggedUserLabel, this::loadDashboardStats,
+                ChangeEventBus.Topic.STOCK, ChangeEventBus.Topic.ITEMS, ChangeEventBus.Topic.DEVICES);
+    }
 
-        Timeline timeline = new Timeline(
-                new KeyFrame(Duration.seconds(5), event -> loadDashboardStats())
-        );
-        timeline.setCycleCount(Timeline.INDEFINITE);
-        timeline.play();
+    // تحديث احتياطي كل دقيقة (حالة الاتصال) - بيقف مع قفل الشباك وبيستنى لما يتصغر
+    private void startStatsRefresh() {
+        if (statsJob != null) return;
+        statsJob = RefreshScheduler.schedule(loggedUserLabel, STATS_REFRESH_MS, () -> {
+            DashboardStats stats = dashboardService.getStats();
+            if (stats == null) throw new SQLException("لا يوجد اتصال بقاعدة البيانات");
+            return stats;
+        }, this::applyDashboardStats, e -> {
+            long retrySeconds = statsJob.nextDelayMs() / 1000;
+            showDisconnectedStatus("❌ فشل الاتصال بالسيرفر - سيتم إعادة المحاولة خلال " + retrySeconds + " ثانية");
+            System.err.println("❌ خطأ أثناء تحميل الإحصائيات: " + e.getMessage());
+        });
     }
 
     private void setupAnimations() {
@@ -114,93 +133,46 @@ public class DashboardController {
     }
 
     private void loadDashboardStats() {
-        Connection conn = null;
-        try {
-            conn = DatabaseConnection.getInventoryConnection();
-
-            if (conn == null) {
-                showDisconnectedStatus("⚠ لا يوجد اتصال بقاعدة البيانات");
-                return;
-            }
-
-            dbStatusLabel.setText("✅ متصل بقاعدة البيانات");
-            dbStatusLabel.setStyle("-fx-text-fill: green; -fx-font-weight: bold;");
-
-            PreparedStatement stmt;
-            ResultSet rs;
-
-            stmt = conn.prepareStatement("SELECT COUNT(*) AS total FROM Items");
-            rs = stmt.executeQuery();
-            if (rs.next()) totalItemsLabel.setText(formatNumber(rs.getInt("total")));
-
-            stmt = conn.prepareStatement("""
-                SELECT COUNT(*) AS low_stock
-                FROM Items i
-                JOIN StockBalances s ON i.ItemID = s.ItemID
-                WHERE s.Quantity < i.MinQuantity
-            """);
-            rs = stmt.executeQuery();
-            if (rs.next()) lowStockLabel.setText(formatNumber(rs.getInt("low_stock")));
-
-            stmt = conn.prepareStatement("SELECT COUNT(*) AS total_devices FROM Devices");
-            rs = stmt.executeQuery();
-            if (rs.next()) totalDevicesLabel.setText(formatNumber(rs.getInt("total_devices")));
-
-            stmt = conn.prepareStatement("SELECT COUNT(*) AS total_trans FROM StockTransactions");
-            rs = stmt.executeQuery();
-            if (rs.next()) totalTransactionsLabel.setText(formatNumber(rs.getInt("total_trans")));
-
-            stmt = conn.prepareStatement("SELECT ISNULL(SUM(Quantity), 0) AS total_in FROM StockTransactions WHERE TransactionType = 'IN'");
-            rs = stmt.executeQuery();
-            if (rs.next()) totalInLabel.setText(formatNumber(rs.getInt("total_in")));
-
-            stmt = conn.prepareStatement("SELECT ISNULL(SUM(Quantity), 0) AS total_out FROM StockTransactions WHERE TransactionType = 'OUT'");
-            rs = stmt.executeQuery();
-            if (rs.next()) totalOutLabel.setText(formatNumber(rs.getInt("total_out")));
-
-            stmt = conn.prepareStatement("""
-                SELECT TOP 1 
-                    st.TransactionType, st.Quantity, st.TransactionDate,
-                    st.ReceiverName, st.Notes, i.ItemName, u.UnitName,
-                    e.name AS EmployeeName
-                FROM StockTransactions st
-                LEFT JOIN Items i ON st.ItemID = i.ItemID
-                LEFT JOIN Units u ON i.UnitID = u.UnitID
-                LEFT JOIN Chemtech_management.dbo.Employees e ON st.EmployeeID = e.employee_id
-                ORDER BY st.TransactionDate DESC
-            """);
-            rs = stmt.executeQuery();
-
-            lastTransactionContainer.getChildren().clear();
-
-            if (rs.next()) {
-                VBox card = buildTransactionCard(
-                        rs.getString("TransactionType"),
-                        rs.getDouble("Quantity"),
-                        rs.getString("ItemName"),
-                        rs.getString("UnitName"),
-                        rs.getString("ReceiverName"),
-                        rs.getString("Notes"),
-                        rs.getString("EmployeeName"),
-                        dateFormat.format(rs.getTimestamp("TransactionDate"))
-                );
-                lastTransactionContainer.getChildren().add(card);
-            } else {
-                Label noData = new Label("لا توجد معاملات بعد");
-                noData.setStyle("-fx-text-fill: #475569; -fx-font-size: 14px; -fx-font-weight: bold;");
-                lastTransactionContainer.getChildren().add(noData);
-            }
-
-        } catch (Exception e) {
-            showDisconnectedStatus("❌ فشل الاتصال بالسيرفر - سيتم إعادة المحاولة خلال 10 ثواني");
-            System.err.println("❌ خطأ أثناء تحميل الإحصائيات: " + e.getMessage());
+        // لو التحميل اللي قبله لسه شغال الـ scheduler بيعيد بعده مرة واحدة بس
+        if (statsJob != null) statsJob.runNow();
+    }
 
-            Timeline retryTimeline = new Timeline(new KeyFrame(Duration.seconds(10), ev -> loadDashboardStats()));
-            retryTimeline.setCycleCount(1);
-            retryTimeline.play();
+    private void applyDashboardStats(DashboardStats stats) {
+        if (stats == null) {
+            showDisconnectedStatus("⚠ لا يوجد اتصال بقاعدة البيانات");
+            return;
+        }
 
-        } finally {
-            if (conn != null) try { conn.close(); } catch (Exception ignored) {}
+        dbStatusLabel.setText("✅ متصل بقاعدة البيانات");
+        dbStatusLabel.setStyle("-fx-text-fill: green; -fx-font-weight: bold;");
+        dbStatusLabel.setTooltip(new Tooltip(DatabaseConnection.getPoolStats()));
+
+        totalItemsLabel.setText(formatNumber(stats.getTotalItems()));
+        lowStockLabel.setText(formatNumber(stats.getLowStockCount()));
+        totalDevicesLabel.setText(formatNumber(stats.getTotalDevices()));
+        totalTransactionsLabel.setText(formatNumber(stats.getTotalTransactions()));
+        totalInLabel.setText(formatNumber((int) stats.getTotalIn()));
+        totalOutLabel.setText(formatNumber((int) stats.getTotalOut()));
+
+        lastTransactionContainer.getChildren().clear();
+
+        DashboardStats.LastTransaction t = stats.getLastTransaction();
+        if (t != null) {
+            VBox card = buildTransactionCard(
+                    t.getType(),
+                    t.getQuantity(),
+                    t.getItemName(),
+                    t.getUnitName(),
+                    t.getReceiver(),
+                    t.getNotes(),
+                    t.getEmployeeName(),
+                    t.getDate() != null ? dateFormat.format(t.getDate()) : ""
+            );
+            lastTransactionContainer.getChildren().add(card);
+        } else {
+            Label noData = new Label("لا توجد معاملات بعد");
+            noData.setStyle("-fx-text-fill: #475569; -fx-font-size: 14px; -fx-font-weight: bold;");
+            lastTransactionContainer.getChildren().add(noData);
         }
     }
 
@@ -256,6 +228,8 @@ public class DashboardController {
 
     @FXML
     private void logout() {
+        // اللوج بتاع المستخدم ده يتكتب دلوقتي من غير ما نستنى الدفعة
+        AuditLogWriter.flushAsync();
         try {
             Stage currentStage = (Stage) loggedUserLabel.getScene().getWindow();
             currentStage.close();
@@ -335,4 +309,4 @@ public class DashboardController {
             alert.showAndWait();
         }
     }
-}
\ No newline at end of file
+}
@@ -1,10 +1,12 @@
 package app.controllers;
 
 import app.db.DatabaseConnection;
+import app.db.DbExecutor;
 import app.models.ComponentModel;
+import app.services.AutocompleteIndex;
+import app.services.ReferenceDataCache;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
-import javafx.collections.transformation.FilteredList;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
@@ -14,6 +16,8 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class DeviceComponentsController {
 
@@ -42,25 +46,38 @@ public class DeviceComponentsController {
     }
 
     private void loadComponents() {
-        componentsTable.getItems().clear();
-
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            String sql = """
-                SELECT DC.ID, I.ItemName, I.ItemCode, DC.Quantity
-                FROM DeviceComponents DC
-                JOIN Items I ON DC.ItemID = I.ItemID
-                WHERE DC.DeviceID = ?
-            """;
-
-            PreparedStatement ps = conn.prepareStatement(sql);
-            ps.setInt(1, deviceID);
-            ResultSet rs = ps.executeQuery();
-
-            while (rs.next()) {
-                int compID = rs.getInt("ID");
-                String itemName = rs.getString("ItemName");
-                String itemCode = rs.getString("ItemCode"); // جلب كود الصنف
-                double qty = rs.getDouble("Quantity");
+        int currentDeviceId = deviceID;
+        DbExecutor.supply(() -> {
+            List<Object[]> rows = new ArrayList<>();
+            try (Connection conn = DatabaseConnection.getConnection()) {
+                String sql = """
+                    SELECT DC.ID, I.ItemName, I.ItemCode, DC.Quantity
+                    FROM DeviceComponents DC
+                    JOIN Items I ON DC.ItemID = I.ItemID
+                    WHERE DC.DeviceID = ?
+                """;
+
+                PreparedStatement ps = conn.prepareStatement(sql);
+                ps.setInt(1, currentDeviceId);
+                ResultSet rs = ps.executeQuery();
+
+                while (rs.next()) {
+                    rows.add(new Object[]{
+                            rs.getInt("ID"),
+                            rs.getString("ItemName"),
+                            rs.getString("ItemCode"), // جلب كود الصنف
+                            rs.getDouble("Quantity")
+                    });
+                }
+            }
+            return rows;
+        }, rows -> {
+            componentsTable.getItems().clear();
+            for (Object[] row : rows) {
+                int compID = (int) row[0];
+                String itemName = (String) row[1];
+                String itemCode = (String) row[2];
+                double qty = (double) row[3];
 
                 Button editBtn = new Button("✏ تعديل");
                 Button deleteBtn = new Button("🗑 حذف");
@@ -73,10 +90,7 @@ public class DeviceComponentsController {
                         new ComponentModel(compID, itemName, itemCode, qty, editBtn, deleteBtn)
                 );
             }
-
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        }, Throwable::printStackTrace);
     }
 
     private void editComponent(int id, String oldName, double oldQty) {
@@ -86,9 +100,15 @@ public class DeviceComponentsController {
         dialog.setContentText("ادخل الكمية الجديدة:");
 
         dialog.showAndWait().ifPresent(newQtyStr -> {
+            double newQty;
             try {
-                double newQty = Double.parseDouble(newQtyStr);
+                newQty = Double.parseDouble(newQtyStr);
+            } catch (Exception ex) {
+                showAlert("خطأ", "الكمية يجب أن تكون رقم!", Alert.AlertType.ERROR);
+                return;
+            }
 
+            DbExecutor.run(() -> {
                 try (Connection conn = DatabaseConnection.getConnection()) {
                     PreparedStatement ps = conn.prepareStatement(
                             "UPDATE DeviceComponents SET Quantity = ? WHERE ID = ?"
@@ -96,12 +116,8 @@ public class DeviceComponentsController {
                     ps.setDouble(1, newQty);
                     ps.setInt(2, id);
                     ps.executeUpdate();
-                    loadComponents();
                 }
-
-            } catch (Exception ex) {
-                showAlert("خطأ", "الكمية يجب أن تكون رقم!", Alert.AlertType.ERROR);
-            }
+            }, this::loadComponents, ex -> showAlert("خطأ", "فشل تعديل الكمية: " + ex.getMessage(), Alert.AlertType.ERROR));
         });
     }
 
@@ -109,14 +125,13 @@ public class DeviceComponentsController {
         Alert alert = new Alert(Alert.AlertType.CONFIRMATION, "هل تريد حذف هذا المكون؟", ButtonType.YES, ButtonType.NO);
 
         if (alert.showAndWait().get() == ButtonType.YES) {
-            try (Connection conn = DatabaseConnection.getConnection()) {
-                PreparedStatement ps = conn.prepareStatement("DELETE FROM DeviceComponents WHERE ID = ?");
-                ps.setInt(1, id);
-                ps.executeUpdate();
-                loadComponents();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+            DbExecutor.run(() -> {
+                try (Connection conn = DatabaseConnection.getConnection()) {
+                    PreparedStatement ps = conn.prepareStatement("DELETE FROM DeviceComponents WHERE ID = ?");
+                    ps.setInt(1, id);
+                    ps.executeUpdate();
+                }
+            }, this::loadComponents, Throwable::printStackTrace);
         }
     }
 
@@ -125,27 +140,23 @@ public class DeviceComponentsController {
         Dialog<ButtonType> dialog = new Dialog<>();
         dialog.setTitle("إضافة مكون جديد");
 
-        // ✅ تحميل الأصناف مع كود الصنف
-        ObservableList<String> itemsList = FXCollections.observableArrayList();
-        ObservableList<String> itemsCodeList = FXCollections.observableArrayList(); // قائمة الأكواد
-
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            ResultSet rs = conn.prepareStatement("SELECT ItemName, ItemCode FROM Items").executeQuery();
-            while (rs.next()) {
-                itemsList.add(rs.getString("ItemName"));
-                itemsCodeList.add(rs.getString("ItemCode"));
-            }
-        } catch (Exception e) { e.printStackTrace(); }
-
-        // ✅ إنشاء ComboBox قابل للبحث
+        // ✅ إنشاء ComboBox قابل للبحث (بالاسم أو الكود)
         ComboBox<String> itemsCombo = new ComboBox<>();
         itemsCombo.setEditable(true);
 
-        FilteredList<String> filteredItems = new FilteredList<>(itemsList, p -> true);
-        itemsCombo.setItems(filteredItems);
+        // نفس القائمة طول الوقت (زي FilteredList) - اللي بيتغير محتواها بس
+        ObservableList<String> shownItems = FXCollections.observableArrayList();
+        itemsCombo.setItems(shownItems);
+
+        // ✅ الأصناف من الكاش المشترك - من غير query لو اتحمل قبل كده
+        AutocompleteIndex[] itemSuggestions = {AutocompleteIndex.of(List.of())};
+        DbExecutor.supply(ReferenceDataCache::itemSuggestions, suggestions -> {
+            itemSuggestions[0] = suggestions;
+            shownItems.setAll(suggestions.suggest(itemsCombo.getEditor().getText()));
+        }, Throwable::printStackTrace);
 
         itemsCombo.getEditor().textProperty().addListener((obs, oldValue, newValue) -> {
-            filteredItems.setPredicate(item -> item.toLowerCase().contains(newValue.toLowerCase()));
+            shownItems.setAll(itemSuggestions[0].suggest(newValue));
         });
 
         itemsCombo.setPromptText("ابحث عن الصنف واختاره");
@@ -178,28 +189,21 @@ public class DeviceComponentsController {
                     return;
                 }
 
-                try (Connection conn = DatabaseConnection.getConnection()) {
-
-                    PreparedStatement getItemID = conn.prepareStatement(
-                            "SELECT ItemID FROM Items WHERE ItemName=?");
-                    getItemID.setString(1, selectedItem);
-                    ResultSet rs = getItemID.executeQuery();
-
-                    if (rs.next()) {
-                        int itemID = rs.getInt("ItemID");
+                int currentDeviceId = deviceID;
+                DbExecutor.run(() -> {
+                    Integer itemID = ReferenceDataCache.itemId(selectedItem);
+                    if (itemID == null) return;
 
+                    try (Connection conn = DatabaseConnection.getConnection()) {
                         PreparedStatement ps = conn.prepareStatement(
                                 "INSERT INTO DeviceComponents (DeviceID, ItemID, Quantity) VALUES (?, ?, ?)"
                         );
-                        ps.setInt(1, deviceID);
+                        ps.setInt(1, currentDeviceId);
                         ps.setInt(2, itemID);
                         ps.setDouble(3, qty);
                         ps.executeUpdate();
-                        loadComponents();
                     }
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                }
+                }, this::loadComponents, Throwable::printStackTrace);
             }
         });
     }
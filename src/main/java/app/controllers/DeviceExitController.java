@@ -1,22 +1,23 @@
 package app.controllers;
 
 import app.db.DatabaseConnection;
+import app.db.DbExecutor;
+import app.db.SqlFilter;
+import app.services.ReportExports;
+import app.utils.ExcelExporter;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.stage.FileChooser;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.sql.*;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 public class DeviceExitController {
@@ -65,6 +66,9 @@ public class DeviceExitController {
 
     private ObservableList<FinishedDevice> deviceList = FXCollections.observableArrayList();
     private ObservableList<FinishedDevice> filteredList = FXCollections.observableArrayList();
+    private final DbExecutor.Latest<List<FinishedDevice>> exitLoader = new DbExecutor.Latest<>();
+    // فترة التاريخ اللي في filteredList دلوقتي - التصدير بيقرا بيها من الداتابيز
+    private LocalDate shownFrom, shownTo;
 
     public void initialize() {
         setupTableColumns();
@@ -137,47 +141,18 @@ public class DeviceExitController {
     }
 
     private void loadData() {
-        deviceList.clear();
-
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        ResultSet rs = null;
-
-        try {
-            conn = DatabaseConnection.getConnection();
-            String sql = "SELECT DeviceName, SerialNumber, FinalPrice, ExceededPrice, ExitDate, DeliveredBy, DeliveredTo FROM DeviceExit ORDER BY ExitDate DESC";
-            stmt = conn.prepareStatement(sql);
-            rs = stmt.executeQuery();
-
-            while (rs.next()) {
-                deviceList.add(new FinishedDevice(
-                        rs.getString("DeviceName"),
-                        rs.getString("SerialNumber"),
-                        rs.getDouble("FinalPrice"),
-                        rs.getDouble("ExceededPrice"),
-                        formatDate(rs.getTimestamp("ExitDate")),
-                        rs.getString("DeliveredBy"),
-                        rs.getString("DeliveredTo")
-                ));
-            }
-
+        exitLoader.submit(() -> fetchDevices(null, null), devices -> {
+            deviceList.setAll(devices);
             filteredList.setAll(deviceList);
+            shownFrom = shownTo = null;
             exitTable.setItems(filteredList);
+            filterTable();
 
             showAlert("تم تحميل " + deviceList.size() + " جهاز", Alert.AlertType.INFORMATION);
-
-        } catch (SQLException e) {
+        }, e -> {
             e.printStackTrace();
             showAlert("خطأ في تحميل البيانات: " + e.getMessage(), Alert.AlertType.ERROR);
-        } finally {
-            try {
-                if (rs != null) rs.close();
-                if (stmt != null) stmt.close();
-                if (conn != null) conn.close();
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-        }
+        });
     }
 
     private void filterByDate() {
@@ -185,68 +160,54 @@ public class DeviceExitController {
         LocalDate endDate = endDatePicker.getValue();
 
         if (startDate == null && endDate == null) {
+            exitLoader.cancel();
             filteredList.setAll(deviceList);
+            shownFrom = shownTo = null;
             return;
         }
 
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        ResultSet rs = null;
-
-        try {
-            conn = DatabaseConnection.getConnection();
-            StringBuilder sql = new StringBuilder(
-                    "SELECT DeviceName, SerialNumber, FinalPrice, ExceededPrice, ExitDate, DeliveredBy, DeliveredTo FROM DeviceExit WHERE 1=1"
-            );
-
-            if (startDate != null) {
-                sql.append(" AND CAST(ExitDate AS DATE) >= ?");
-            }
-            if (endDate != null) {
-                sql.append(" AND CAST(ExitDate AS DATE) <= ?");
-            }
-            sql.append(" ORDER BY ExitDate DESC");
-
-            stmt = conn.prepareStatement(sql.toString());
-
-            int paramIndex = 1;
-            if (startDate != null) {
-                stmt.setDate(paramIndex++, Date.valueOf(startDate));
-            }
-            if (endDate != null) {
-                stmt.setDate(paramIndex, Date.valueOf(endDate));
-            }
-
-            rs = stmt.executeQuery();
-
-            filteredList.clear();
-            while (rs.next()) {
-                filteredList.add(new FinishedDevice(
-                        rs.getString("DeviceName"),
-                        rs.getString("SerialNumber"),
-                        rs.getDouble("FinalPrice"),
-                        rs.getDouble("ExceededPrice"),
-                        formatDate(rs.getTimestamp("ExitDate")),
-                        rs.getString("DeliveredBy"),
-                        rs.getString("DeliveredTo")
-                ));
-            }
-
+        exitLoader.submit(() -> fetchDevices(startDate, endDate), devices -> {
+            filteredList.setAll(devices);
+            shownFrom = startDate;
+            shownTo = endDate;
             exitTable.setItems(filteredList);
+            filterTable();
             showAlert("تم العثور على " + filteredList.size() + " جهاز", Alert.AlertType.INFORMATION);
-
-        } catch (SQLException e) {
+        }, e -> {
             e.printStackTrace();
             showAlert("خطأ في التصفية: " + e.getMessage(), Alert.AlertType.ERROR);
-        } finally {
-            try {
-                if (rs != null) rs.close();
-                if (stmt != null) stmt.close();
-                if (conn != null) conn.close();
-            } catch (SQLException e) {
-                e.printStackTrace();
+        });
+    }
+
+    /**
+     * بيشتغل في الخلفية - تحميل الأجهزة الخارجة (مع فلتر التاريخ لو موجود)
+     */
+    private List<FinishedDevice> fetchDevices(LocalDate startDate, LocalDate endDate) throws SQLException {
+        // نفس استعلام التصدير - range على ExitDate علشان الـ index يتستخدم
+        SqlFilter filter = ReportExports.deviceExitFilter(startDate, endDate);
+        String sql = ReportExports.DEVICE_EXIT_SELECT + filter.where() + " ORDER BY ExitDate DESC";
+
+        List<FinishedDevice> devices = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            filter.bind(stmt, 1);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    devices.add(new FinishedDevice(
+                            rs.getString("DeviceName"),
+                            rs.getString("SerialNumber"),
+                            rs.getDouble("FinalPrice"),
+                            rs.getDouble("ExceededPrice"),
+                            ReportExports.formatExitDate(rs.getTimestamp("ExitDate")),
+                            rs.getString("DeliveredBy"),
+                            rs.getString("DeliveredTo")
+                    ));
+                }
             }
         }
+        return devices;
     }
 
     private void filterTable() {
@@ -274,10 +235,12 @@ public class DeviceExitController {
     }
 
     private void clearFilters() {
+        exitLoader.cancel();
         startDatePicker.setValue(null);
         endDatePicker.setValue(null);
         searchField.clear();
         filteredList.setAll(deviceList);
+        shownFrom = shownTo = null;
         exitTable.setItems(filteredList);
         showAlert("تم مسح جميع الفلاتر", Alert.AlertType.INFORMATION);
     }
@@ -290,8 +253,9 @@ public class DeviceExitController {
 
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("حفظ تقرير الأجهزة");
-        fileChooser.getExtensionFilters().add(
-                new FileChooser.ExtensionFilter("Excel Files", "*.xlsx")
+        fileChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Excel Files", "*.xlsx"),
+                new FileChooser.ExtensionFilter("CSV Files", "*.csv")
         );
 
         String fileName = "تقرير_الأجهزة_" +
@@ -301,87 +265,16 @@ public class DeviceExitController {
         File file = fileChooser.showSaveDialog(exportBtn.getScene().getWindow());
         if (file == null) return;
 
-        try (Workbook workbook = new XSSFWorkbook()) {
-            Sheet sheet = workbook.createSheet("الأجهزة التي خرجت");
-
-            // تنسيقات
-            CellStyle headerStyle = workbook.createCellStyle();
-            Font headerFont = workbook.createFont();
-            headerFont.setBold(true);
-            headerFont.setColor(IndexedColors.WHITE.getIndex());
-            headerStyle.setFont(headerFont);
-            headerStyle.setFillForegroundColor(IndexedColors.DARK_BLUE.getIndex());
-            headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-            headerStyle.setAlignment(HorizontalAlignment.CENTER);
-
-            CellStyle moneyStyle = workbook.createCellStyle();
-            moneyStyle.setDataFormat(workbook.createDataFormat().getFormat("#,##0.00"));
-
-            // العنوان
-            Row titleRow = sheet.createRow(0);
-            Cell titleCell = titleRow.createCell(0);
-            titleCell.setCellValue("تقرير الأجهزة التي خرجت من المصنع");
-            titleCell.setCellStyle(headerStyle);
-
-            // الرأس
-            Row headerRow = sheet.createRow(2);
-            String[] headers = {"اسم الجهاز", "السيريال", "السعر النهائي", "السعر المتجاوز", "التاريخ", "المرسل", "المستلم"};
-            for (int i = 0; i < headers.length; i++) {
-                Cell cell = headerRow.createCell(i);
-                cell.setCellValue(headers[i]);
-                cell.setCellStyle(headerStyle);
-                sheet.autoSizeColumn(i);
-            }
-
-            // البيانات
-            int rowNum = 3;
-            for (FinishedDevice device : filteredList) {
-                Row row = sheet.createRow(rowNum++);
-                row.createCell(0).setCellValue(device.getDeviceName());
-                row.createCell(1).setCellValue(device.getSerialNumber());
-
-                Cell priceCell = row.createCell(2);
-                priceCell.setCellValue(device.getFinalPrice());
-                priceCell.setCellStyle(moneyStyle);
-
-                Cell exceededCell = row.createCell(3);
-                exceededCell.setCellValue(device.getExceededPrice());
-                exceededCell.setCellStyle(moneyStyle);
-
-                row.createCell(4).setCellValue(device.getExitDate());
-                row.createCell(5).setCellValue(device.getDeliveredBy());
-                row.createCell(6).setCellValue(device.getDeliveredTo());
-            }
-
-            // الإجماليات
-            Row totalRow = sheet.createRow(rowNum + 1);
-            totalRow.createCell(0).setCellValue("الإجماليات:");
-
-            Cell totalPriceCell = totalRow.createCell(2);
-            totalPriceCell.setCellValue(filteredList.stream().mapToDouble(FinishedDevice::getFinalPrice).sum());
-            totalPriceCell.setCellStyle(moneyStyle);
-
-            Cell totalExceededCell = totalRow.createCell(3);
-            totalExceededCell.setCellValue(filteredList.stream().mapToDouble(FinishedDevice::getExceededPrice).sum());
-            totalExceededCell.setCellStyle(moneyStyle);
-
-            try (FileOutputStream fos = new FileOutputStream(file)) {
-                workbook.write(fos);
-            }
-
-            showAlert("تم تصدير التقرير بنجاح إلى: " + file.getAbsolutePath(), Alert.AlertType.INFORMATION);
-
-        } catch (Exception e) {
+        // نفس فترة الجدول بس الصفوف بتتقري من الداتابيز صف بصف - من غير نسخة من filteredList
+        LocalDate from = shownFrom, to = shownTo;
+        int expected = filteredList.size();
+        ExcelExporter.export(exportBtn.getScene().getWindow(), file, book -> {
+            book.expectRows(expected);
+            ReportExports.deviceExits(book, from, to);
+        }, () -> showAlert("تم تصدير التقرير بنجاح إلى: " + file.getAbsolutePath(), Alert.AlertType.INFORMATION), e -> {
             e.printStackTrace();
             showAlert("خطأ في التصدير: " + e.getMessage(), Alert.AlertType.ERROR);
-        }
-    }
-
-    private String formatDate(Timestamp timestamp) {
-        if (timestamp == null) return "-";
-        LocalDateTime dateTime = timestamp.toLocalDateTime();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
-        return dateTime.format(formatter);
+        });
     }
 
     private void showAlert(String message, Alert.AlertType type) {
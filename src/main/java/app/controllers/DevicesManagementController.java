@@ -1,7 +1,9 @@
 package app.controllers;
 
 import app.db.DatabaseConnection;
+import app.db.DbExecutor;
 import app.models.DeviceModel;
+import app.services.ReferenceDataCache;
 import javafx.collections.*;
 import javafx.collections.transformation.FilteredList;
 import javafx.fxml.FXML;
@@ -12,6 +14,8 @@ import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.stage.Stage;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 
 public class DevicesManagementController {
 
@@ -26,6 +30,7 @@ public class DevicesManagementController {
 
     private ObservableList<DeviceModel> devicesList = FXCollections.observableArrayList();
     private FilteredList<DeviceModel> filteredList;
+    private final DbExecutor.Latest<List<Object[]>> devicesLoader = new DbExecutor.Latest<>();
 
     @FXML
     public void initialize() {
@@ -62,15 +67,23 @@ public class DevicesManagementController {
     }
 
     private void loadDevices() {
-        devicesList.clear();
-        try(Connection conn = DatabaseConnection.getInventoryConnection()) {
-            PreparedStatement stmt = conn.prepareStatement("SELECT DeviceID, DeviceName, SerialNumber FROM Devices");
-            ResultSet rs = stmt.executeQuery();
+        devicesLoader.submit(() -> {
+            List<Object[]> rows = new ArrayList<>();
+            try(Connection conn = DatabaseConnection.getInventoryConnection()) {
+                PreparedStatement stmt = conn.prepareStatement("SELECT DeviceID, DeviceName, SerialNumber FROM Devices");
+                ResultSet rs = stmt.executeQuery();
 
-            while(rs.next()) {
-                int id = rs.getInt("DeviceID");
-                String name = rs.getString("DeviceName");
-                String serial = rs.getString("SerialNumber");
+                while(rs.next()) {
+                    rows.add(new Object[]{rs.getInt("DeviceID"), rs.getString("DeviceName"), rs.getString("SerialNumber")});
+                }
+            }
+            return rows;
+        }, rows -> {
+            devicesList.clear();
+            for (Object[] row : rows) {
+                int id = (int) row[0];
+                String name = (String) row[1];
+                String serial = (String) row[2];
 
                 Button edit = new Button("✏ تعديل");
                 edit.setStyle("-fx-background-color: #f59e0b; -fx-text-fill: white; -fx-font-weight: bold;");
@@ -86,10 +99,10 @@ public class DevicesManagementController {
 
                 devicesList.add(new DeviceModel(id, name, serial, edit, comp, del));
             }
-        } catch (Exception e) {
+        }, e -> {
             e.printStackTrace();
             showAlert("حدث خطأ أثناء تحميل الأجهزة: " + e.getMessage());
-        }
+        });
     }
 
     private void editDevice(int id, String oldName) {
@@ -99,17 +112,21 @@ public class DevicesManagementController {
         dialog.setContentText("اسم الجهاز:");
         dialog.showAndWait().ifPresent(newName -> {
             if (newName != null && !newName.trim().isEmpty()) {
-                try(Connection conn = DatabaseConnection.getInventoryConnection()) {
-                    PreparedStatement stmt = conn.prepareStatement("UPDATE Devices SET DeviceName=? WHERE DeviceID=?");
-                    stmt.setString(1, newName.trim());
-                    stmt.setInt(2, id);
-                    stmt.executeUpdate();
+                DbExecutor.run(() -> {
+                    try(Connection conn = DatabaseConnection.getInventoryConnection()) {
+                        PreparedStatement stmt = conn.prepareStatement("UPDATE Devices SET DeviceName=? WHERE DeviceID=?");
+                        stmt.setString(1, newName.trim());
+                        stmt.setInt(2, id);
+                        stmt.executeUpdate();
+                    }
+                    ReferenceDataCache.invalidate();
+                }, () -> {
                     loadDevices(); // إعادة تحميل البيانات بعد التعديل
                     showAlert("تم تعديل اسم الجهاز بنجاح");
-                } catch (Exception ex) {
+                }, ex -> {
                     ex.printStackTrace();
                     showAlert("حدث خطأ أثناء تعديل الجهاز: " + ex.getMessage());
-                }
+                });
             }
         });
     }
@@ -139,18 +156,23 @@ public class DevicesManagementController {
         alert.setContentText("هذا الإجراء لا يمكن التراجع عنه");
 
         if(alert.showAndWait().get() == ButtonType.YES) {
-            try(Connection conn = DatabaseConnection.getInventoryConnection()) {
-                PreparedStatement stmt = conn.prepareStatement("DELETE FROM Devices WHERE DeviceID=?");
-                stmt.setInt(1, id);
-                int affectedRows = stmt.executeUpdate();
+            DbExecutor.supply(() -> {
+                try(Connection conn = DatabaseConnection.getInventoryConnection()) {
+                    PreparedStatement stmt = conn.prepareStatement("DELETE FROM Devices WHERE DeviceID=?");
+                    stmt.setInt(1, id);
+                    int rows = stmt.executeUpdate();
+                    if (rows > 0) ReferenceDataCache.invalidate();
+                    return rows;
+                }
+            }, affectedRows -> {
                 if (affectedRows > 0) {
                     showAlert("تم حذف الجهاز بنجاح");
                     loadDevices(); // إعادة تحميل البيانات بعد الحذف
                 }
-            } catch (Exception e) {
+            }, e -> {
                 e.printStackTrace();
                 showAlert("حدث خطأ أثناء حذف الجهاز: " + e.getMessage());
-            }
+            });
         }
     }
 
@@ -2,6 +2,7 @@ package app.controllers;
 
 import app.current_user.CurrentUser;
 import app.db.DatabaseConnection;
+import app.db.DbExecutor;
 import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
@@ -47,7 +48,7 @@ public class LoginController {
         setupPasswordToggle();
 
         // Check DB config at first launch
-        Platform.runLater(this::checkDbConnection);
+        checkDbConnection();
 
         int lastId = getLastEmployeeId();
         if (lastId != -1) {
@@ -97,21 +98,24 @@ public class LoginController {
     }
 
     private void checkDbConnection() {
-        boolean connected = false;
-        try {
+        DbExecutor.supply(() -> {
             // نختبر الاتصال بداتابيز المخزن علشان الشاشة الرئيسية
-            connected = DatabaseConnection.getInventoryConnection() != null;
-        } catch (Exception ignored) {}
-
-        if (!connected) {
-            // Show DB config dialog
-            boolean success = DBConfigDialog.showConfigDialog();
-            if (!success) {
-                showError("Cannot connect to database. Please check your connection settings.");
-            } else {
-                lblError.setVisible(false);
+            try (Connection conn = DatabaseConnection.getInventoryConnection()) {
+                return conn != null;
+            } catch (Exception ignored) {
+                return false;
             }
-        }
+        }, connected -> {
+            if (!connected) {
+                // Show DB config dialog
+                boolean success = DBConfigDialog.showConfigDialog();
+                if (!success) {
+                    showError("Cannot connect to database. Please check your connection settings.");
+                } else {
+                    lblError.setVisible(false);
+                }
+            }
+        }, null);
     }
 
     @FXML
@@ -138,17 +142,18 @@ public class LoginController {
 
             try {
                 // هنا بنستخدم داتابيز الإدارة للوجين فقط
-                Connection conn = DatabaseConnection.getManagementConnection();
                 String sql = "SELECT name, password_hash FROM Employees WHERE employee_id = ?";
-                PreparedStatement stmt = conn.prepareStatement(sql);
-                stmt.setInt(1, employeeId);
-                ResultSet rs = stmt.executeQuery();
-
-                if (rs.next()) {
-                    byte[] storedHash = rs.getBytes("password_hash");
-                    if (storedHash != null && verifyPassword(password, storedHash)) {
-                        success = true;
-                        name = rs.getString("name");
+                try (Connection conn = DatabaseConnection.getManagementConnection();
+                     PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setInt(1, employeeId);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (rs.next()) {
+                            byte[] storedHash = rs.getBytes("password_hash");
+                            if (storedHash != null && verifyPassword(password, storedHash)) {
+                                success = true;
+                                name = rs.getString("name");
+                            }
+                        }
                     }
                 }
             } catch (Exception e) {
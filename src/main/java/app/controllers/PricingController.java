@@ -1,6 +1,10 @@
 package app.controllers;
 
 import app.db.DatabaseConnection;
+import app.db.DbExecutor;
+import app.services.AutocompleteIndex;
+import app.services.ChangeEventBus;
+import app.services.ReferenceDataCache;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.collections.transformation.FilteredList;
@@ -10,6 +14,8 @@ import javafx.scene.control.*;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
 
 public class PricingController {
 
@@ -23,7 +29,9 @@ public class PricingController {
 
     private ObservableList<ItemPrice> pricingList = FXCollections.observableArrayList();
     private ObservableList<String> allItemNames = FXCollections.observableArrayList();
+    private AutocompleteIndex itemSuggestions;
     private FilteredList<ItemPrice> filteredList;
+    private final DbExecutor.Latest<List<ItemPrice>> pricingLoader = new DbExecutor.Latest<>();
 
     @FXML
     public void initialize() {
@@ -32,45 +40,53 @@ public class PricingController {
         colItem.setCellValueFactory(data -> data.getValue().itemNameProperty());
         colPrice.setCellValueFactory(data -> data.getValue().priceProperty().asObject());
 
+        // إنشاء FilteredList للبحث
+        filteredList = new FilteredList<>(pricingList, p -> true);
+        pricingTable.setItems(filteredList);
+        itemNameComboBox.setItems(allItemNames);
+
         loadPricingData();
+        ChangeEventBus.subscribe(pricingTable, this::loadPricingData,
+                ChangeEventBus.Topic.PRICES, ChangeEventBus.Topic.ITEMS);
         setupAutoComplete();
         setupTableClick();
         setupTableSearch();
     }
 
     private void loadPricingData() {
-        pricingList.clear();
-        allItemNames.clear();
-
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement("""
-                     SELECT i.ItemID, i.ItemName, i.ItemCode, ISNULL(p.UnitPrice, 0) AS UnitPrice
-                     FROM Items i
-                     LEFT JOIN ItemPrices p ON i.ItemID = p.ItemID
-                     ORDER BY i.ItemName ASC
-                     """)) {
-
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                int itemId = rs.getInt("ItemID");
-                String name = rs.getString("ItemName");
-                String itemCode = rs.getString("ItemCode"); // جلب كود الصنف
-                double price = rs.getDouble("UnitPrice");
-
-                pricingList.add(new ItemPrice(itemId, name, itemCode, price));
-                allItemNames.add(name);
+        pricingLoader.submit(() -> {
+            List<ItemPrice> prices = new ArrayList<>();
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement("""
+                         SELECT i.ItemID, i.ItemName, i.ItemCode, ISNULL(p.UnitPrice, 0) AS UnitPrice
+                         FROM Items i
+                         LEFT JOIN ItemPrices p ON i.ItemID = p.ItemID
+                         ORDER BY i.ItemName ASC
+                         """)) {
+
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    int itemId = rs.getInt("ItemID");
+                    String name = rs.getString("ItemName");
+                    String itemCode = rs.getString("ItemCode"); // جلب كود الصنف
+                    double price = rs.getDouble("UnitPrice");
+
+                    prices.add(new ItemPrice(itemId, name, itemCode, price));
+                }
             }
+            return prices;
+        }, prices -> {
+            pricingList.setAll(prices);
+            loadItemSuggestions();
+        }, e -> showAlert("خطأ", "فشل تحميل الأسعار:\n" + e.getMessage()));
+    }
 
-            pricingTable.setItems(pricingList);
-            itemNameComboBox.setItems(allItemNames);
-
-            // إنشاء FilteredList للبحث
-            filteredList = new FilteredList<>(pricingList, p -> true);
-            pricingTable.setItems(filteredList);
-
-        } catch (Exception e) {
-            showAlert("خطأ", "فشل تحميل الأسعار:\n" + e.getMessage());
-        }
+    // ✅ أسماء الأصناف للـ AutoComplete من الكاش المشترك
+    private void loadItemSuggestions() {
+        DbExecutor.supply(ReferenceDataCache::itemSuggestions, suggestions -> {
+            itemSuggestions = suggestions;
+            allItemNames.setAll(suggestions.all());
+        }, Throwable::printStackTrace);
     }
 
     // ✅ AutoComplete ComboBox
@@ -83,11 +99,9 @@ public class PricingController {
                 return;
             }
 
-            ObservableList<String> filtered = FXCollections.observableArrayList();
-            for (String item : allItemNames) {
-                if (item.toLowerCase().contains(newText.toLowerCase())) filtered.add(item);
-            }
+            if (itemSuggestions == null) return;
 
+            ObservableList<String> filtered = FXCollections.observableArrayList(itemSuggestions.suggest(newText));
             if (!filtered.isEmpty()) {
                 itemNameComboBox.setItems(filtered);
                 itemNameComboBox.show();
@@ -148,42 +162,47 @@ public class PricingController {
             return;
         }
 
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            PreparedStatement getItemIdStmt = conn.prepareStatement("SELECT ItemID FROM Items WHERE ItemName = ?");
-            getItemIdStmt.setString(1, name);
-            ResultSet rs = getItemIdStmt.executeQuery();
+        double price;
+        try {
+            price = Double.parseDouble(priceText);
+        } catch (NumberFormatException e) {
+            showAlert("خطأ", "فشل حفظ السعر:\n" + e.getMessage());
+            return;
+        }
 
-            if (!rs.next()) {
-                showAlert("خطأ", "الصنف غير موجود.");
-                return;
+        DbExecutor.supply(() -> {
+            Integer itemId = ReferenceDataCache.itemId(name);
+            if (itemId == null) {
+                return false;
             }
 
-            int itemId = rs.getInt("ItemID");
-            double price = Double.parseDouble(priceText);
-
-            PreparedStatement check = conn.prepareStatement("SELECT COUNT(*) FROM ItemPrices WHERE ItemID = ?");
-            check.setInt(1, itemId);
-            ResultSet rCheck = check.executeQuery();
-            rCheck.next();
-
-            if (rCheck.getInt(1) > 0) {
-                PreparedStatement update = conn.prepareStatement("UPDATE ItemPrices SET UnitPrice=?, UpdatedAt=GETDATE() WHERE ItemID=?");
-                update.setDouble(1, price);
-                update.setInt(2, itemId);
-                update.executeUpdate();
-            } else {
-                PreparedStatement insert = conn.prepareStatement("INSERT INTO ItemPrices (ItemID, UnitPrice, CreatedAt) VALUES (?, ?, GETDATE())");
-                insert.setInt(1, itemId);
-                insert.setDouble(2, price);
-                insert.executeUpdate();
+            try (Connection conn = DatabaseConnection.getConnection()) {
+                PreparedStatement check = conn.prepareStatement("SELECT COUNT(*) FROM ItemPrices WHERE ItemID = ?");
+                check.setInt(1, itemId);
+                ResultSet rCheck = check.executeQuery();
+                rCheck.next();
+
+                if (rCheck.getInt(1) > 0) {
+                    PreparedStatement update = conn.prepareStatement("UPDATE ItemPrices SET UnitPrice=?, UpdatedAt=GETDATE() WHERE ItemID=?");
+                    update.setDouble(1, price);
+                    update.setInt(2, itemId);
+                    update.executeUpdate();
+                } else {
+                    PreparedStatement insert = conn.prepareStatement("INSERT INTO ItemPrices (ItemID, UnitPrice, CreatedAt) VALUES (?, ?, GETDATE())");
+                    insert.setInt(1, itemId);
+                    insert.setDouble(2, price);
+                    insert.executeUpdate();
+                }
+                return true;
             }
-
-            loadPricingData();
+        }, saved -> {
+            if (!saved) {
+                showAlert("خطأ", "الصنف غير موجود.");
+                return;
+            }
+            ChangeEventBus.pollNow();
             clearFields();
-
-        } catch (Exception e) {
-            showAlert("خطأ", "فشل حفظ السعر:\n" + e.getMessage());
-        }
+        }, e -> showAlert("خطأ", "فشل حفظ السعر:\n" + e.getMessage()));
     }
 
     @FXML
@@ -200,17 +219,23 @@ public class PricingController {
             return;
         }
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement("UPDATE ItemPrices SET UnitPrice=?, UpdatedAt=GETDATE() WHERE ItemID=?")) {
-
-            stmt.setDouble(1, Double.parseDouble(priceText));
-            stmt.setInt(2, selected.getItemId());
-            stmt.executeUpdate();
-            loadPricingData();
-
-        } catch (Exception e) {
+        double newPrice;
+        try {
+            newPrice = Double.parseDouble(priceText);
+        } catch (NumberFormatException e) {
             showAlert("خطأ", "فشل تحديث السعر:\n" + e.getMessage());
+            return;
         }
+        int itemId = selected.getItemId();
+
+        DbExecutor.run(() -> {
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement("UPDATE ItemPrices SET UnitPrice=?, UpdatedAt=GETDATE() WHERE ItemID=?")) {
+                stmt.setDouble(1, newPrice);
+                stmt.setInt(2, itemId);
+                stmt.executeUpdate();
+            }
+        }, ChangeEventBus::pollNow, e -> showAlert("خطأ", "فشل تحديث السعر:\n" + e.getMessage()));
     }
 
     @FXML
@@ -221,16 +246,14 @@ public class PricingController {
             return;
         }
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement("DELETE FROM ItemPrices WHERE ItemID = ?")) {
-
-            stmt.setInt(1, selected.getItemId());
-            stmt.executeUpdate();
-            loadPricingData();
-
-        } catch (Exception e) {
-            showAlert("خطأ", "فشل حذف السعر:\n" + e.getMessage());
-        }
+        int itemId = selected.getItemId();
+        DbExecutor.run(() -> {
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement("DELETE FROM ItemPrices WHERE ItemID = ?")) {
+                stmt.setInt(1, itemId);
+                stmt.executeUpdate();
+            }
+        }, ChangeEventBus::pollNow, e -> showAlert("خطأ", "فشل حذف السعر:\n" + e.getMessage()));
     }
 
     @FXML
@@ -1,20 +1,29 @@
 package app.controllers;
 
+import app.db.AuditLogWriter;
 import app.db.DatabaseConnection;
+import app.db.DbExecutor;
+import app.db.SchemaMigrations;
+import app.db.SqlFilter;
+import app.services.AutocompleteIndex;
+import app.services.EmployeeDirectory;
+import app.services.ReferenceDataCache;
+import app.services.ReportExports;
+import app.services.TextSearchIndex;
+import app.utils.ExcelExporter;
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
+import javafx.util.Duration;
 
-import java.io.FileOutputStream;
 import java.sql.*;
 import java.time.LocalDate;
-
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ReportsController {
 
@@ -44,6 +53,9 @@ public class ReportsController {
     @FXML private TableColumn<LogEntry, String> colLogDesc;
     @FXML private TableColumn<LogEntry, String> colLogEmp;
     @FXML private TableColumn<LogEntry, String> colLogDate;
+    @FXML private ComboBox<String> logActionFilter;
+    @FXML private ComboBox<EmployeeDirectory.Employee> logEmployeeFilter;
+    @FXML private Label logStatusLabel;
     @FXML private TextField searchField;
     @FXML private Label searchResultLabel;
     @FXML private ComboBox<String> itemSearchBox;
@@ -51,19 +63,58 @@ public class ReportsController {
     @FXML private Label totalOutLabel;
     @FXML private Label netLabel;
 
+    @FXML private Tab textSearchTab;
+    @FXML private TextField textSearchField;
+    @FXML private Label textSearchStatus;
+    @FXML private TableView<TextSearchIndex.Result> textSearchTable;
+    @FXML private TableColumn<TextSearchIndex.Result, String> colSearchSource;
+    @FXML private TableColumn<TextSearchIndex.Result, String> colSearchDate;
+    @FXML private TableColumn<TextSearchIndex.Result, String> colSearchTitle;
+    @FXML private TableColumn<TextSearchIndex.Result, String> colSearchText;
+    @FXML private TableColumn<TextSearchIndex.Result, String> colSearchEmp;
+
     private ObservableList<String> itemNames = FXCollections.observableArrayList();
+    private AutocompleteIndex itemSuggestions;
 
 
     private ObservableList<Transaction> transactionList = FXCollections.observableArrayList();
     private ObservableList<Shortage> shortageList = FXCollections.observableArrayList();
     private ObservableList<LogEntry> logList = FXCollections.observableArrayList();
 
+    private final DbExecutor.Latest<ReportData> reportLoader = new DbExecutor.Latest<>();
+    private final DbExecutor.Latest<TransactionPage> pageLoader = new DbExecutor.Latest<>();
+    private final DbExecutor.Latest<LogPage> logPageLoader = new DbExecutor.Latest<>();
+    private final DbExecutor.Latest<List<TextSearchIndex.Result>> textSearchLoader = new DbExecutor.Latest<>();
+    private final PauseTransition textSearchDebounce = new PauseTransition(Duration.millis(300));
+
+    // ✅ المعاملات بتتحمل صفحات (keyset على التاريخ + الرقم) وقت الـ scroll بدل التاريخ كله مرة واحدة
+    private static final int PAGE_SIZE = 200;
+    // لما الصفوف الظاهرة تقرب من آخر المحمل بالعدد ده نجيب الصفحة اللي بعدها
+    private static final int PREFETCH_ROWS = 50;
+    private static final String LOG_FILTER_ALL = "الكل";
+    private static final EmployeeDirectory.Employee ALL_EMPLOYEES = new EmployeeDirectory.Employee(0, LOG_FILTER_ALL);
+
+    // مفتاح التاريخ للـ keyset زي ما هو متخزن (ISO 8601 بكل الكسور، مش معتمد على DATEFORMAT) - بيرجع كنص
+    // فالسيرفر بيحوله لنوع العمود نفسه. لو اتبعت Timestamp الـ driver بيبعته datetime2 وعمود datetime
+    // هو اللي بيتحول (.007 ← .00667) فـ "= ?" مش بتطابق و"< ?" بترجع صفوف اتعرضت قبل كده.
+    private static final String DATE_KEY = "CONVERT(varchar(27), %s, 126) AS DateKey";
+
+    private TransactionQuery currentQuery;
+    private TransactionPage lastPage;
+
+    // ✅ السجل بنفس الطريقة: فلترة على السيرفر وصفحات keyset على (LogDate, LogID)
+    private LogQuery currentLogQuery;
+    private LogPage lastLogPage;
+
     @FXML
     public void initialize() {
         typeFilter.getItems().addAll("الكل", "IN", "OUT");
         typeFilter.setValue("الكل");
 
         setupColumns();
+        setupTransactionPaging();
+        setupLogFilters();
+        setupTextSearch();
         loadData();
         loadItemNames(); // تحميل أسماء الأصناف في البحث
         setupAutoComplete();
@@ -71,18 +122,12 @@ public class ReportsController {
         setupTableColumns();
     }
     private void loadItemNames() {
-        itemNames.clear();
-        String query = "SELECT DISTINCT ItemName FROM Items ORDER BY ItemName ASC";
-        try (Connection conn = DatabaseConnection.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(query)) {
-            while (rs.next()) {
-                itemNames.add(rs.getString("ItemName"));
-            }
+        // ✅ من الكاش المشترك - من غير query لو اتحمل قبل كده
+        DbExecutor.supply(ReferenceDataCache::itemSuggestions, suggestions -> {
+            itemSuggestions = suggestions;
+            itemNames.setAll(suggestions.all());
             itemSearchBox.setItems(itemNames);
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        }, Throwable::printStackTrace);
     }
     private void setupAutoComplete() {
         itemSearchBox.setEditable(true);
@@ -93,13 +138,9 @@ public class ReportsController {
                 return;
             }
 
-            ObservableList<String> filteredList = FXCollections.observableArrayList();
-            for (String name : itemNames) {
-                if (name.toLowerCase().contains(newValue.toLowerCase())) {
-                    filteredList.add(name);
-                }
-            }
-            itemSearchBox.setItems(filteredList);
+            if (itemSuggestions == null) return;
+
+            itemSearchBox.setItems(FXCollections.observableArrayList(itemSuggestions.suggest(newValue)));
             itemSearchBox.show();
         });
     }
@@ -172,245 +213,486 @@ public class ReportsController {
     }
     @FXML
     private void onSearchClicked() {
+        // البحث بيتعمل على السيرفر - الإجماليات لكل النتائج مش للصفحات المحملة بس
         String keyword = searchField.getText().trim();
+        TransactionQuery query = readFilters().withKeyword(keyword);
+        currentQuery = query;
+
+        if (keyword.isEmpty()) searchResultLabel.setText("");
+        pageLoader.submit(() -> {
+            TransactionPage page = fetchTransactionPage(query, null);
+            page.totals = fetchTransactionTotals(query);
+            return page;
+        }, page -> {
+            applyFirstPage(page);
+            if (keyword.isEmpty()) return;
+            if (page.totals.count == 0) {
+                searchResultLabel.setText("❌ لا توجد نتائج للصنف: " + keyword);
+            } else {
+                searchResultLabel.setText("✅ " + keyword + " | الداخل: " + page.totals.totalIn
+                        + " | الخارج: " + page.totals.totalOut);
+            }
+        }, e -> {
+            e.printStackTrace();
+            statusLabel.setText("❌ خطأ في تحميل المعاملات");
+        });
+    }
 
-        if (keyword.isEmpty()) {
-            transactionsTable.setItems(transactionList);
-            searchResultLabel.setText("");
-            return;
-        }
+    private TransactionQuery readFilters() {
+        return new TransactionQuery(fromDatePicker.getValue(), toDatePicker.getValue(),
+                typeFilter.getValue(), itemSearchBox.getValue(), null);
+    }
 
-        // 🟢 فلترة القائمة
-        ObservableList<Transaction> filtered = FXCollections.observableArrayList();
-        double totalIn = 0, totalOut = 0;
-
-        for (Transaction t : transactionList) {
-            if (t.getItemName().toLowerCase().contains(keyword.toLowerCase())) {
-                filtered.add(t);
-                if (t.getType().equalsIgnoreCase("IN")) {
-                    totalIn += t.getQuantity();
-                } else if (t.getType().equalsIgnoreCase("OUT")) {
-                    totalOut += t.getQuantity();
+    // ===================================
+    // صفحات المعاملات
+    // ===================================
+    private void setupTransactionPaging() {
+        transactionsTable.setItems(transactionList);
+        // الـ TableView بيرسم الصفوف الظاهرة بس - لما صف قريب من الآخر يترسم نجيب الصفحة الجاية
+        transactionsTable.setRowFactory(tv -> new TableRow<>() {
+            @Override
+            protected void updateItem(Transaction item, boolean empty) {
+                super.updateItem(item, empty);
+                if (!empty && getIndex() >= transactionList.size() - PREFETCH_ROWS) {
+                    loadNextTransactionPage();
                 }
             }
-        }
+        });
+    }
 
-        transactionsTable.setItems(filtered);
+    private void loadNextTransactionPage() {
+        TransactionPage after = lastPage;
+        TransactionQuery query = currentQuery;
+        if (after == null || query == null || !after.hasMore || pageLoader.isRunning()) return;
+
+        pageLoader.submit(() -> fetchTransactionPage(query, after), page -> {
+            if (query != currentQuery) return; // الفلتر اتغير
+            page.totals = after.totals;
+            lastPage = page;
+            transactionList.addAll(page.rows);
+            updateLoadedStatus();
+        }, e -> {
+            e.printStackTrace();
+            statusLabel.setText("❌ خطأ في تحميل باقي المعاملات");
+        });
+    }
 
-        // 🟢 عرض النتيجة
-        if (filtered.isEmpty()) {
-            searchResultLabel.setText("❌ لا توجد نتائج للصنف: " + keyword);
-        } else {
-            searchResultLabel.setText("✅ " + keyword + " | الداخل: " + totalIn + " | الخارج: " + totalOut);
-        }
+    private void applyFirstPage(TransactionPage page) {
+        lastPage = page;
+        transactionList.setAll(page.rows);
+        transactionsTable.scrollTo(0);
+
+        totalInLabel.setText("إجمالي الداخل: " + page.totals.totalIn);
+        totalOutLabel.setText("إجمالي الخارج: " + page.totals.totalOut);
+        netLabel.setText("الصافي: " + (page.totals.totalIn - page.totals.totalOut));
+        updateLoadedStatus();
     }
 
+    private void updateLoadedStatus() {
+        if (lastPage == null || lastPage.totals == null) return;
+        statusLabel.setText("✅ تم تحميل " + transactionList.size() + " من " + lastPage.totals.count + " معاملة");
+    }
 
-    private void loadData() {
-        transactionList.clear();
-        shortageList.clear();
-        logList.clear();
+    // ===================================
+    // فلاتر وصفحات السجل
+    // ===================================
+    private void setupLogFilters() {
+        logActionFilter.getItems().setAll(LOG_FILTER_ALL);
+        logActionFilter.setValue(LOG_FILTER_ALL);
+        logEmployeeFilter.getItems().setAll(ALL_EMPLOYEES);
+        logEmployeeFilter.setValue(ALL_EMPLOYEES);
+        logEmployeeFilter.setConverter(new javafx.util.StringConverter<>() {
+            @Override
+            public String toString(EmployeeDirectory.Employee employee) {
+                return employee != null ? employee.getName() : "";
+            }
 
-        // ✅ 1. تحميل المعاملات مع بيانات الموظف والمستلم
-        loadTransactions();
+            @Override
+            public EmployeeDirectory.Employee fromString(String text) {
+                return null;
+            }
+        });
 
-        // ✅ 2. تحميل النواقص مع تحديث تلقائي
-        loadShortages();
+        DbExecutor.supply(this::fetchLogActionTypes,
+                types -> logActionFilter.getItems().addAll(types), Throwable::printStackTrace);
+        DbExecutor.supply(EmployeeDirectory::all,
+                employees -> logEmployeeFilter.getItems().addAll(employees), Throwable::printStackTrace);
+
+        logActionFilter.setOnAction(e -> reloadLogs());
+        logEmployeeFilter.setOnAction(e -> reloadLogs());
+
+        logsTable.setItems(logList);
+        logsTable.setRowFactory(tv -> new TableRow<>() {
+            @Override
+            protected void updateItem(LogEntry item, boolean empty) {
+                super.updateItem(item, empty);
+                if (!empty && getIndex() >= logList.size() - PREFETCH_ROWS) {
+                    loadNextLogPage();
+                }
+            }
+        });
+    }
 
-        // ✅ 3. تحميل اللوجز
-        loadLogs();
+    private LogQuery readLogFilters() {
+        String action = logActionFilter.getValue();
+        EmployeeDirectory.Employee employee = logEmployeeFilter.getValue();
+        return new LogQuery(fromDatePicker.getValue(), toDatePicker.getValue(),
+                action == null || action.equals(LOG_FILTER_ALL) ? null : action,
+                employee != null && employee != ALL_EMPLOYEES ? employee.getId() : null);
+    }
 
-        statusLabel.setText("✅ تم تحميل البيانات بنجاح");
-        autoResizeColumns();
+    private void reloadLogs() {
+        LogQuery query = readLogFilters();
+        currentLogQuery = query;
+        logStatusLabel.setText("⏳ جاري تحميل السجل...");
+        logPageLoader.submit(() -> fetchLogPage(query, null), this::applyFirstLogPage, e -> {
+            e.printStackTrace();
+            logStatusLabel.setText("❌ خطأ في تحميل السجلات");
+        });
     }
 
-    // ✅ 1. تحميل المعاملات مع إصلاح بيانات الموظف والمستلم
-    private void loadTransactions() {
-        transactionList.clear();
-
-        String query = """
-        SELECT 
-            t.TransactionID, 
-            i.ItemName, 
-            t.TransactionType, 
-            t.Quantity,
-            t.TransactionDate, 
-            CASE 
-                WHEN t.EmployeeID IS NOT NULL AND t.EmployeeID > 0 THEN 
-                    COALESCE(e.name, 'موظف #' + CAST(t.EmployeeID AS VARCHAR))
-                ELSE 'نظام'
-            END AS EmployeeName,
-            ISNULL(t.ReceiverName, '-') AS Receiver, 
-            ISNULL(t.Notes, '') AS Notes
-        FROM StockTransactions t
-        JOIN Items i ON t.ItemID = i.ItemID
-        LEFT JOIN Chemtech_management.dbo.Employees e ON t.EmployeeID = e.employee_id
-        WHERE 1=1
-    """;
+    private void loadNextLogPage() {
+        LogPage after = lastLogPage;
+        LogQuery query = currentLogQuery;
+        if (after == null || query == null || !after.hasMore || logPageLoader.isRunning()) return;
+
+        logPageLoader.submit(() -> fetchLogPage(query, after), page -> {
+            if (query != currentLogQuery) return; // الفلتر اتغير
+            lastLogPage = page;
+            logList.addAll(page.rows);
+            updateLogStatus();
+        }, e -> {
+            e.printStackTrace();
+            logStatusLabel.setText("❌ خطأ في تحميل باقي السجلات");
+        });
+    }
 
-        LocalDate from = fromDatePicker.getValue();
-        LocalDate to = toDatePicker.getValue();
-        String type = typeFilter.getValue();
-        String selectedItem = itemSearchBox.getValue();
+    private void applyFirstLogPage(LogPage page) {
+        lastLogPage = page;
+        logList.setAll(page.rows);
+        logsTable.scrollTo(0);
+        updateLogStatus();
+    }
 
-        if (from != null) query += " AND t.TransactionDate >= '" + from + " 00:00:00'";
-        if (to != null) query += " AND t.TransactionDate <= '" + to + " 23:59:59'";
-        if (!type.equals("الكل")) query += " AND t.TransactionType='" + type + "'";
-        if (selectedItem != null && !selectedItem.trim().isEmpty())
-            query += " AND i.ItemName LIKE '%" + selectedItem + "%'";
+    private void updateLogStatus() {
+        if (lastLogPage == null) return;
+        logStatusLabel.setText("تم تحميل " + logList.size() + (lastLogPage.hasMore ? "+" : "") + " سجل");
+    }
 
-        query += " ORDER BY t.TransactionDate DESC";
+    // ===================================
+    // البحث في الملاحظات (TextSearchIndex)
+    // ===================================
+    private void setupTextSearch() {
+        colSearchSource.setCellValueFactory(new PropertyValueFactory<>("sourceLabel"));
+        colSearchDate.setCellValueFactory(new PropertyValueFactory<>("date"));
+        colSearchTitle.setCellValueFactory(new PropertyValueFactory<>("title"));
+        colSearchText.setCellValueFactory(new PropertyValueFactory<>("text"));
+        colSearchEmp.setCellValueFactory(new PropertyValueFactory<>("employee"));
+        colSearchText.setCellFactory(tc -> new TableCell<>() {
+            @Override
+            protected void updateItem(String item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty ? null : item);
+                setTooltip(empty || item == null ? null : new Tooltip(item));
+            }
+        });
 
-        double totalIn = 0, totalOut = 0;
+        // الفهرس بيتبني أول مرة التاب يتفتح - مش مع كل فتحة لشاشة التقارير
+        textSearchTab.setOnSelectionChanged(e -> {
+            if (textSearchTab.isSelected()) DbExecutor.run(TextSearchIndex::warmUp);
+        });
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(query)) {
+        textSearchDebounce.setOnFinished(e -> runTextSearch());
+        textSearchField.textProperty().addListener((obs, oldValue, newValue) -> textSearchDebounce.playFromStart());
+        textSearchField.setOnAction(e -> {
+            textSearchDebounce.stop();
+            runTextSearch();
+        });
+    }
 
-            while (rs.next()) {
-                String typeValue = rs.getString("TransactionType");
-                double qty = rs.getDouble("Quantity");
-
-                if ("IN".equalsIgnoreCase(typeValue)) totalIn += qty;
-                else if ("OUT".equalsIgnoreCase(typeValue)) totalOut += qty;
-
-                transactionList.add(new Transaction(
-                        rs.getInt("TransactionID"),
-                        rs.getString("ItemName"),
-                        typeValue,
-                        qty,
-                        rs.getString("TransactionDate"),
-                        rs.getString("EmployeeName"),
-                        rs.getString("Receiver"),
-                        rs.getString("Notes")
-                ));
-            }
+    private void runTextSearch() {
+        String text = textSearchField.getText();
+        if (text == null || text.isBlank()) {
+            textSearchLoader.cancel();
+            textSearchTable.getItems().clear();
+            textSearchStatus.setText("");
+            return;
+        }
+
+        textSearchStatus.setText("⏳ جاري البحث...");
+        textSearchLoader.submit(() -> TextSearchIndex.search(text, TextSearchIndex.DEFAULT_LIMIT), results -> {
+            textSearchTable.getItems().setAll(results);
+            textSearchTable.scrollTo(0);
+            textSearchStatus.setText(results.isEmpty() ? "❌ لا توجد نتائج"
+                    : "✅ " + results.size() + (results.size() >= TextSearchIndex.DEFAULT_LIMIT ? "+" : "") + " نتيجة");
+        }, e -> {
+            e.printStackTrace();
+            textSearchStatus.setText("❌ خطأ في البحث");
+        });
+    }
 
-            transactionsTable.setItems(transactionList);
+    private void loadData() {
+        // قيم الفلاتر بتتقرا هنا على الـ FX Thread، والاستعلامات بتشتغل في الخلفية
+        TransactionQuery query = readFilters();
+        LogQuery logQuery = readLogFilters();
+        currentQuery = query;
+        currentLogQuery = logQuery;
+        lastPage = null;
+        lastLogPage = null;
+        searchField.clear();
+        searchResultLabel.setText("");
+        pageLoader.cancel();
+        logPageLoader.cancel();
+
+        statusLabel.setText("⏳ جاري تحميل البيانات...");
+
+        reportLoader.submit(() -> {
+            ReportData data = new ReportData();
+
+            // ✅ 1. أول صفحة من المعاملات + الإجماليات محسوبة على السيرفر
+            try {
+                data.firstPage = fetchTransactionPage(query, null);
+                data.firstPage.totals = fetchTransactionTotals(query);
+            } catch (Exception e) {
+                e.printStackTrace();
+                data.error = "❌ خطأ في تحميل المعاملات";
+            }
 
-            // ✅ عرض الإجماليات
-            totalInLabel.setText("إجمالي الداخل: " + totalIn);
-            totalOutLabel.setText("إجمالي الخارج: " + totalOut);
-            netLabel.setText("الصافي: " + (totalIn - totalOut));
+            // ✅ 2. تحميل النواقص مع تحديث تلقائي
+            try {
+                data.shortages = fetchShortages();
+            } catch (Exception e) {
+                e.printStackTrace();
+                data.error = "❌ خطأ في تحميل النواقص";
+            }
 
-        } catch (Exception e) {
+            // ✅ 3. أول صفحة من اللوجز
+            try {
+                data.firstLogPage = fetchLogPage(logQuery, null);
+            } catch (Exception e) {
+                e.printStackTrace();
+                data.error = "❌ خطأ في تحميل السجلات";
+            }
+            return data;
+        }, this::applyReportData, e -> {
             e.printStackTrace();
-            statusLabel.setText("❌ خطأ في تحميل المعاملات");
+            statusLabel.setText("❌ خطأ في تحميل البيانات");
+        });
+    }
+
+    private void applyReportData(ReportData data) {
+        shortageList.setAll(data.shortages);
+        shortagesTable.setItems(shortageList);
+
+        if (data.firstLogPage != null) {
+            applyFirstLogPage(data.firstLogPage);
+        } else {
+            lastLogPage = null;
+            logList.clear();
+            logStatusLabel.setText("");
+        }
+
+        if (data.firstPage != null && data.firstPage.totals != null) {
+            applyFirstPage(data.firstPage);
+        } else {
+            lastPage = null;
+            transactionList.clear();
         }
+
+        if (data.error != null) statusLabel.setText(data.error);
+        autoResizeColumns();
     }
 
-    // ✅ 2. تحميل النواقص مع حذف التلقائي للنواقص المعالجة
-    private void loadShortages() {
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            conn.setAutoCommit(false);
-
-            // ✅ أولاً: تحديث النواقص - حذف الأصناف التي لم تعد ناقصة
-            String cleanupQuery = """
-                DELETE FROM ShortageItems 
-                WHERE ItemID IN (
-                    SELECT s.ItemID 
-                    FROM ShortageItems s
-                    JOIN StockBalances sb ON s.ItemID = sb.ItemID
-                    WHERE sb.Quantity >= s.MinQuantity
-                )
-            """;
-
-            try (PreparedStatement cleanupStmt = conn.prepareStatement(cleanupQuery)) {
-                int deletedCount = cleanupStmt.executeUpdate();
-                if (deletedCount > 0) {
-                    System.out.println("✅ تم حذف " + deletedCount + " صنف لم يعد ناقصاً");
+    private static class ReportData {
+        TransactionPage firstPage;
+        List<Shortage> shortages = new ArrayList<>();
+        LogPage firstLogPage;
+        String error;
+    }
+
+    // ✅ 1. صفحة من المعاملات بعد آخر صف في الصفحة اللي قبلها (after = null لأول صفحة)
+    // keyset بدل OFFSET - الصفحة رقم 500 بنفس سرعة الأولى
+    private TransactionPage fetchTransactionPage(TransactionQuery query, TransactionPage after) throws SQLException {
+        SqlFilter filter = query.filter();
+        if (after != null) {
+            filter.and("(t.TransactionDate < ? OR (t.TransactionDate = ? AND t.TransactionID < ?))",
+                    after.lastDate, after.lastDate, after.lastId);
+        }
+
+        String sql = "SELECT TOP (?) " + DATE_KEY.formatted("t.TransactionDate") + ", "
+                + ReportExports.TRANSACTION_COLUMNS + filter.where() + ReportExports.TRANSACTION_ORDER;
+
+        EmployeeDirectory.ensureLoaded();
+        TransactionPage page = new TransactionPage();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, PAGE_SIZE + 1); // صف زيادة علشان نعرف لو فيه صفحة بعدها
+            filter.bind(ps, 2);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (page.rows.size() == PAGE_SIZE) {
+                        page.hasMore = true;
+                        break;
+                    }
+                    String dateKey = rs.getString("DateKey");
+                    int id = rs.getInt("TransactionID");
+
+                    page.rows.add(new Transaction(
+                            id,
+                            rs.getString("ItemName"),
+                            rs.getString("TransactionType"),
+                            rs.getDouble("Quantity"),
+                            rs.getString("TransactionDate"),
+                            // ✅ اسم الموظف من EmployeeDirectory بدل join على قاعدة الإدارة
+                            EmployeeDirectory.displayName((Integer) rs.getObject("EmployeeID")),
+                            rs.getString("Receiver"),
+                            rs.getString("Notes")
+                    ));
+                    page.lastDate = dateKey;
+                    page.lastId = id;
                 }
             }
+        }
+        return page;
+    }
 
-            // ✅ ثانياً: إضافة النواقص الجديدة
-            String detectNewQuery = """
-                INSERT INTO ShortageItems (ItemID, CurrentQuantity, MinQuantity, DetectedAt)
-                SELECT 
-                    i.ItemID, 
-                    sb.Quantity, 
-                    i.MinQuantity,
-                    GETDATE()
-                FROM Items i
-                JOIN StockBalances sb ON i.ItemID = sb.ItemID
-                WHERE sb.Quantity < i.MinQuantity
-                AND i.ItemID NOT IN (SELECT ItemID FROM ShortageItems)
-            """;
-
-            try (PreparedStatement detectStmt = conn.prepareStatement(detectNewQuery)) {
-                int addedCount = detectStmt.executeUpdate();
-                if (addedCount > 0) {
-                    System.out.println("✅ تم اكتشاف " + addedCount + " صنف ناقص جديد");
+    // الإجماليات على كل النتائج في استعلام aggregate واحد - من غير ما نحمل الصفوف
+    private TransactionTotals fetchTransactionTotals(TransactionQuery query) throws SQLException {
+        SqlFilter filter = query.filter();
+        String sql = """
+        SELECT
+            COUNT(*) AS TotalCount,
+            ISNULL(SUM(CASE WHEN t.TransactionType = 'IN' THEN t.Quantity END), 0) AS TotalIn,
+            ISNULL(SUM(CASE WHEN t.TransactionType = 'OUT' THEN t.Quantity END), 0) AS TotalOut
+        FROM StockTransactions t
+        JOIN Items i ON t.ItemID = i.ItemID
+    """ + filter.where();
+
+        TransactionTotals totals = new TransactionTotals();
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            filter.bind(ps, 1);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    totals.count = rs.getLong("TotalCount");
+                    totals.totalIn = rs.getDouble("TotalIn");
+                    totals.totalOut = rs.getDouble("TotalOut");
                 }
             }
+        }
+        return totals;
+    }
 
-            conn.commit();
-
-            // ✅ ثالثاً: تحميل النواقص الحالية
-            String selectQuery = """
-                SELECT i.ItemName, s.CurrentQuantity, s.MinQuantity, s.DetectedAt
-                FROM ShortageItems s
-                JOIN Items i ON s.ItemID = i.ItemID
-                ORDER BY s.DetectedAt DESC
-            """;
+    // ✅ 2. تحميل النواقص مع حذف التلقائي للنواقص المعالجة
+    private List<Shortage> fetchShortages() throws SQLException {
+        List<Shortage> shortages = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            // ✅ تحديث النواقص من الأرصدة - نفس الخطوة اللي في التصدير من غير واجهة
+            ReportExports.refreshShortages(conn);
 
+            // ✅ تحميل النواقص الحالية
             try (Statement stmt = conn.createStatement();
-                 ResultSet rs = stmt.executeQuery(selectQuery)) {
+                 ResultSet rs = stmt.executeQuery(ReportExports.SHORTAGES_SELECT)) {
 
                 while (rs.next()) {
-                    shortageList.add(new Shortage(
+                    shortages.add(new Shortage(
                             rs.getString("ItemName"),
                             rs.getDouble("CurrentQuantity"),
                             rs.getDouble("MinQuantity"),
                             rs.getString("DetectedAt")
                     ));
                 }
-                shortagesTable.setItems(shortageList);
             }
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            statusLabel.setText("❌ خطأ في تحميل النواقص");
         }
+        return shortages;
     }
 
 
-    // ✅ 3. تحميل اللوجز مع إصلاح النصوص
-    private void loadLogs() {
+    // ✅ 3. صفحة من اللوجز بالفلاتر (after = null لأول صفحة)
+    // الأوصاف متخزنة نضيفة من وقت الكتابة - من غير REPLACE على كل صف (السطور القديمة بس: displayDescription)
+    private LogPage fetchLogPage(LogQuery query, LogPage after) throws SQLException {
+        if (after == null) {
+            // السطور اللي لسه في الطابور تظهر في التقرير
+            AuditLogWriter.flush();
+        }
+        SchemaMigrations.ensureApplied();
+        EmployeeDirectory.ensureLoaded();
+        boolean keyset = SchemaMigrations.isApplied(SchemaMigrations.LOGS_PAGING);
+
+        SqlFilter filter = query.filter();
+        String sql;
+        if (keyset) {
+            if (after != null) {
+                filter.and("(l.LogDate < ? OR (l.LogDate = ? AND l.LogID < ?))",
+                        after.lastDate, after.lastDate, after.lastId);
+            }
+            sql = "SELECT TOP (?) " + DATE_KEY.formatted("l.LogDate") + ", l.LogID, l.ActionType, l.Description, l.EmployeeID, l.LogDate FROM Logs l"
+                    + filter.where() + " ORDER BY l.LogDate DESC, l.LogID DESC";
+        } else {
+            // من غير LogID (صلاحيات) - OFFSET، أبطأ في الصفحات البعيدة بس شغال
+            sql = "SELECT l.ActionType, l.Description, l.EmployeeID, l.LogDate FROM Logs l"
+                    + filter.where() + " ORDER BY l.LogDate DESC OFFSET ? ROWS FETCH NEXT ? ROWS ONLY";
+        }
+
+        LogPage page = new LogPage();
+        page.offset = after != null ? after.offset + after.rows.size() : 0;
         try (Connection conn = DatabaseConnection.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("""
-        SELECT 
-            l.ActionType, 
-            CASE 
-                WHEN l.Description LIKE '%?%' OR l.Description LIKE '%??%' THEN 
-                    REPLACE(REPLACE(REPLACE(l.Description, '??', 'تم'), '?', ' '), '  ', ' ')
-                ELSE l.Description 
-            END AS Description,
-            CASE 
-                WHEN l.EmployeeID IS NOT NULL AND l.EmployeeID > 0 THEN 
-                    COALESCE(e.name, 'موظف #' + CAST(l.EmployeeID AS VARCHAR))
-                ELSE 'نظام'
-            END AS EmployeeName,
-            l.LogDate
-        FROM Logs l
-        LEFT JOIN Chemtech_management.dbo.Employees e ON l.EmployeeID = e.employee_id
-        ORDER BY l.LogDate DESC
-     """)) {
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            if (keyset) {
+                ps.setInt(1, PAGE_SIZE + 1); // صف زيادة علشان نعرف لو فيه صفحة بعدها
+                filter.bind(ps, 2);
+            } else {
+                int next = filter.bind(ps, 1);
+                ps.setInt(next, page.offset);
+                ps.setInt(next + 1, PAGE_SIZE + 1);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (page.rows.size() == PAGE_SIZE) {
+                        page.hasMore = true;
+                        break;
+                    }
+                    page.rows.add(new LogEntry(
+                            rs.getString("ActionType"),
+                            AuditLogWriter.displayDescription(rs.getString("Description")),
+                            EmployeeDirectory.displayName((Integer) rs.getObject("EmployeeID")),
+                            rs.getString("LogDate")
+                    ));
+                    if (keyset) {
+                        page.lastDate = rs.getString("DateKey");
+                        page.lastId = rs.getLong("LogID");
+                    }
+                }
+            }
+        }
+        return page;
+    }
 
+    // أنواع الأحداث للفلتر - بالـ index، seek لكل نوع بدل DISTINCT على الجدول كله
+    private List<String> fetchLogActionTypes() throws SQLException {
+        SchemaMigrations.ensureApplied();
+        String sql = SchemaMigrations.isApplied(SchemaMigrations.LOGS_PAGING) ? """
+            WITH a AS (
+                SELECT MIN(ActionType) AS ActionType FROM Logs
+                UNION ALL
+                SELECT (SELECT MIN(l.ActionType) FROM Logs l WHERE l.ActionType > a.ActionType)
+                FROM a WHERE a.ActionType IS NOT NULL
+            )
+            SELECT ActionType FROM a WHERE ActionType IS NOT NULL
+            OPTION (MAXRECURSION 0)
+        """ : "SELECT DISTINCT ActionType FROM Logs WHERE ActionType IS NOT NULL ORDER BY ActionType";
+
+        List<String> types = new ArrayList<>();
+        try (Connection conn = DatabaseConnection.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
             while (rs.next()) {
-                logList.add(new LogEntry(
-                        rs.getString("ActionType"),
-                        rs.getString("Description"),
-                        rs.getString("EmployeeName"),
-                        rs.getString("LogDate")
-                ));
+                types.add(rs.getString("ActionType"));
             }
-            logsTable.setItems(logList);
-        } catch (Exception e) {
-            e.printStackTrace();
-            statusLabel.setText("❌ خطأ في تحميل السجلات");
         }
+        return types;
     }
+
     // ✅ دالة لضبط حجم الأعمدة تلقائياً
     private void autoResizeColumns() {
         transactionsTable.setColumnResizePolicy(TableView.UNCONSTRAINED_RESIZE_POLICY);
@@ -426,134 +708,144 @@ public class ReportsController {
 
     @FXML
     private void onExportClicked() {
-        try (Workbook workbook = new XSSFWorkbook()) {
+        // ✅ فتح FileChooser الأول - التصدير نفسه في الخلفية
+        javafx.stage.FileChooser fileChooser = new javafx.stage.FileChooser();
+        fileChooser.setTitle("اختر مكان حفظ التقرير");
+        // CSV لفترات طويلة (سنة كاملة) - أسرع وأصغر، وكل شيت في ملف لوحده
+        fileChooser.getExtensionFilters().addAll(
+                new javafx.stage.FileChooser.ExtensionFilter("Excel Files (*.xlsx)", "*.xlsx"),
+                new javafx.stage.FileChooser.ExtensionFilter("CSV Files (*.csv)", "*.csv")
+        );
+        fileChooser.setInitialFileName("Reports_Export.xlsx");
+
+        java.io.File file = fileChooser.showSaveDialog(statusLabel.getScene().getWindow());
+        if (file == null) {
+            statusLabel.setText("❌ تم إلغاء عملية الحفظ");
+            return;
+        }
+
+        // الجدول فيه الصفحات المحملة بس - التصدير بيقرا كل المعاملات بنفس الفلاتر من الداتابيز مباشرة
+        TransactionQuery query = currentQuery != null ? currentQuery : readFilters();
+        List<Shortage> shortages = new ArrayList<>(shortageList);
+        LogQuery logQuery = currentLogQuery != null ? currentLogQuery : readLogFilters();
+        // عدد المعاملات معروف من الإجماليات - الدايلوج يعرض نسبة
+        long expectedTransactions = query == currentQuery && lastPage != null && lastPage.totals != null
+                ? lastPage.totals.count : 0;
+        statusLabel.setText("⏳ جاري التصدير...");
+
+        ExcelExporter.export(statusLabel.getScene().getWindow(), file, book -> {
+            book.expectRows(expectedTransactions + shortages.size());
 
             // ✅ تصدير المعاملات
-            Sheet transactionsSheet = workbook.createSheet("المعاملات");
-            createTransactionsSheet(transactionsSheet);
+            createTransactionsSheet(book.sheet("المعاملات"), query);
 
             // ✅ تصدير النواقص
-            Sheet shortagesSheet = workbook.createSheet("الأصناف الناقصة");
-            createShortagesSheet(shortagesSheet);
+            createShortagesSheet(book.sheet("الأصناف الناقصة"), shortages);
 
             // ✅ تصدير السجلات
-            Sheet logsSheet = workbook.createSheet("سجلات النظام");
-            createLogsSheet(logsSheet);
-
-            // ✅ فتح FileChooser
-            javafx.stage.FileChooser fileChooser = new javafx.stage.FileChooser();
-            fileChooser.setTitle("اختر مكان حفظ التقرير");
-            fileChooser.getExtensionFilters().add(
-                    new javafx.stage.FileChooser.ExtensionFilter("Excel Files (*.xlsx)", "*.xlsx")
-            );
-            fileChooser.setInitialFileName("Reports_Export.xlsx");
-
-            java.io.File file = fileChooser.showSaveDialog(statusLabel.getScene().getWindow());
-            if (file == null) {
-                statusLabel.setText("❌ تم إلغاء عملية الحفظ");
-                return;
-            }
-
-            try (FileOutputStream fileOut = new FileOutputStream(file)) {
-                workbook.write(fileOut);
-            }
-
-            statusLabel.setText("📁 تم تصدير التقرير بنجاح إلى: " + file.getAbsolutePath());
-        } catch (Exception e) {
+            createLogsSheet(book.sheet("سجلات النظام"), logQuery);
+        }, () -> statusLabel.setText("📁 تم تصدير التقرير بنجاح إلى: " + file.getAbsolutePath()), e -> {
             statusLabel.setText("❌ فشل في التصدير");
             e.printStackTrace();
-        }
+        });
     }
 
     // ✅ إنشاء شيت المعاملات
-    private void createTransactionsSheet(Sheet sheet) {
-        Row header = sheet.createRow(0);
-        String[] columns = {"الكود", "الصنف", "النوع", "الكمية", "التاريخ", "الموظف", "المستلم", "ملاحظات"};
-        for (int i = 0; i < columns.length; i++) {
-            Cell cell = header.createCell(i);
-            cell.setCellValue(columns[i]);
-            CellStyle style = sheet.getWorkbook().createCellStyle();
-            Font font = sheet.getWorkbook().createFont();
-            font.setBold(true);
-            style.setFont(font);
-            cell.setCellStyle(style);
-        }
+    private void createTransactionsSheet(ExcelExporter.SheetWriter sheet, TransactionQuery query) throws Exception {
+        ReportExports.transactions(sheet, query.filter());
+    }
 
-        int rowNum = 1;
-        for (Transaction t : transactionList) {
-            Row row = sheet.createRow(rowNum++);
-            row.createCell(0).setCellValue(t.getTransactionID());
-            row.createCell(1).setCellValue(t.getItemName());
-            row.createCell(2).setCellValue(t.getType());
-            row.createCell(3).setCellValue(t.getQuantity());
-            row.createCell(4).setCellValue(t.getDate());
-            row.createCell(5).setCellValue(t.getEmployee());
-            row.createCell(6).setCellValue(t.getReceiver());
-            row.createCell(7).setCellValue(t.getNotes());
+    // ✅ إنشاء شيت النواقص
+    private void createShortagesSheet(ExcelExporter.SheetWriter sheet, List<Shortage> shortages) {
+        // القائمة المعروضة نفسها (اتحدثت مع تحميل التقرير)
+        ReportExports.shortagesHeader(sheet);
+        for (Shortage s : shortages) {
+            sheet.row(s.getItemName(), s.getCurrentQty(), s.getMinQty(), s.getDetectedAt());
         }
+    }
 
-        for (int i = 0; i < columns.length; i++) {
-            sheet.autoSizeColumn(i);
-        }
+    // ✅ إنشاء شيت السجلات
+    private void createLogsSheet(ExcelExporter.SheetWriter sheet, LogQuery query) throws Exception {
+        // نفس فلاتر شاشة السجل
+        ReportExports.logs(sheet, query.filter());
     }
 
-    // ✅ إنشاء شيت النواقص
-    private void createShortagesSheet(Sheet sheet) {
-        Row header = sheet.createRow(0);
-        String[] columns = {"الصنف", "الكمية الحالية", "الحد الأدنى", "تاريخ الكشف"};
-        for (int i = 0; i < columns.length; i++) {
-            Cell cell = header.createCell(i);
-            cell.setCellValue(columns[i]);
-            CellStyle style = sheet.getWorkbook().createCellStyle();
-            Font font = sheet.getWorkbook().createFont();
-            font.setBold(true);
-            style.setFont(font);
-            cell.setCellStyle(style);
+    // --- Models ---
+
+    // فلاتر المعاملات - نفس الشرط للصفحات وللإجماليات
+    private static final class TransactionQuery {
+        final LocalDate from, to;
+        final String type, item, keyword;
+
+        TransactionQuery(LocalDate from, LocalDate to, String type, String item, String keyword) {
+            this.from = from;
+            this.to = to;
+            this.type = type;
+            this.item = item;
+            this.keyword = keyword;
         }
 
-        int rowNum = 1;
-        for (Shortage s : shortageList) {
-            Row row = sheet.createRow(rowNum++);
-            row.createCell(0).setCellValue(s.getItemName());
-            row.createCell(1).setCellValue(s.getCurrentQty());
-            row.createCell(2).setCellValue(s.getMinQty());
-            row.createCell(3).setCellValue(s.getDetectedAt());
+        TransactionQuery withKeyword(String keyword) {
+            return new TransactionQuery(from, to, type, item, keyword);
         }
 
-        for (int i = 0; i < columns.length; i++) {
-            sheet.autoSizeColumn(i);
+        // الصنف المختار من القائمة بيتفلتر بالـ ID (seek) - LIKE للنص اللي مش اسم صنف كامل بس
+        SqlFilter filter() throws SQLException {
+            SqlFilter filter = new SqlFilter()
+                    .dateRange("t.TransactionDate", from, to)
+                    .equalTo("t.TransactionType", type == null || type.equals("الكل") ? null : type);
+
+            if (item != null && !item.trim().isEmpty()) {
+                Integer itemId = ReferenceDataCache.itemId(item.trim());
+                if (itemId != null) filter.equalTo("t.ItemID", itemId);
+                else filter.contains("i.ItemName", item);
+            }
+            return filter.contains("i.ItemName", keyword);
         }
     }
 
-    // ✅ إنشاء شيت السجلات
-    private void createLogsSheet(Sheet sheet) {
-        Row header = sheet.createRow(0);
-        String[] columns = {"الحدث", "الوصف", "الموظف", "التاريخ"};
-        for (int i = 0; i < columns.length; i++) {
-            Cell cell = header.createCell(i);
-            cell.setCellValue(columns[i]);
-            CellStyle style = sheet.getWorkbook().createCellStyle();
-            Font font = sheet.getWorkbook().createFont();
-            font.setBold(true);
-            style.setFont(font);
-            cell.setCellStyle(style);
-        }
+    // فلاتر السجل - الفترة من نفس التواريخ اللي فوق
+    private static final class LogQuery {
+        final LocalDate from, to;
+        final String action;
+        final Integer employeeId;
 
-        int rowNum = 1;
-        for (LogEntry l : logList) {
-            Row row = sheet.createRow(rowNum++);
-            row.createCell(0).setCellValue(l.getAction());
-            row.createCell(1).setCellValue(l.getDescription());
-            row.createCell(2).setCellValue(l.getEmployee());
-            row.createCell(3).setCellValue(l.getLogDate());
+        LogQuery(LocalDate from, LocalDate to, String action, Integer employeeId) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+            this.employeeId = employeeId;
         }
 
-        for (int i = 0; i < columns.length; i++) {
-            sheet.autoSizeColumn(i);
+        SqlFilter filter() {
+            return new SqlFilter()
+                    .dateRange("l.LogDate", from, to)
+                    .equalTo("l.ActionType", action)
+                    .equalTo("l.EmployeeID", employeeId);
         }
     }
 
-    // --- Models ---
+    private static final class LogPage {
+        final List<LogEntry> rows = new ArrayList<>();
+        boolean hasMore;
+        String lastDate; // DATE_KEY
+        long lastId;
+        int offset;
+    }
+
+    private static final class TransactionPage {
+        final List<Transaction> rows = new ArrayList<>();
+        boolean hasMore;
+        String lastDate; // DATE_KEY
+        int lastId;
+        TransactionTotals totals;
+    }
+
+    private static final class TransactionTotals {
+        long count;
+        double totalIn, totalOut;
+    }
+
     public static class Transaction {
         private final int transactionID;
         private final String itemName, type, date, employee, receiver, notes;
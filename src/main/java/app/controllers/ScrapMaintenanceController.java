@@ -1,8 +1,11 @@
 package app.controllers;
 
-import app.current_user.CurrentUser;
 import app.db.DatabaseConnection;
+import app.db.DbExecutor;
+import app.db.JdbcRowSource;
+import app.services.EmployeeDirectory;
 import app.services.LogService;
+import app.utils.ExcelExporter;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
@@ -14,13 +17,10 @@ import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.stage.FileChooser;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
-import java.io.FileOutputStream;
 import java.sql.*;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
 
 public class ScrapMaintenanceController {
@@ -39,6 +39,7 @@ public class ScrapMaintenanceController {
 
     private final ObservableList<ScrapMaintenanceData> allData = FXCollections.observableArrayList();
     private final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private final DbExecutor.Latest<List<ScrapMaintenanceData>> dataLoader = new DbExecutor.Latest<>();
 
     @FXML
     public void initialize() {
@@ -69,21 +70,24 @@ public class ScrapMaintenanceController {
     }
 
     private void loadData() {
-        allData.clear();
-
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            // ✅ تحميل بيانات التوالف
-            loadScrapData(conn);
-
-            // ✅ تحميل بيانات الصيانة
-            loadMaintenanceData(conn);
-
-            dataTable.setItems(allData);
-
-        } catch (SQLException e) {
+        dataLoader.submit(() -> {
+            List<ScrapMaintenanceData> rows = new ArrayList<>();
+            EmployeeDirectory.ensureLoaded();
+            try (Connection conn = DatabaseConnection.getConnection()) {
+                // ✅ تحميل بيانات التوالف
+                loadScrapData(conn, rows);
+
+                // ✅ تحميل بيانات الصيانة
+                loadMaintenanceData(conn, rows);
+            }
+            return rows;
+        }, rows -> {
+            allData.setAll(rows);
+            filterData();
+        }, e -> {
             e.printStackTrace();
             showError("خطأ في تحميل البيانات: " + e.getMessage());
-        }
+        });
     }
     @FXML
     private void onSerialHistoryClicked() {
@@ -102,7 +106,7 @@ public class ScrapMaintenanceController {
             showError("خطأ في فتح نافذة تاريخ الصيانة: " + e.getMessage());
         }
     }
-    private void loadScrapData(Connection conn) throws SQLException {
+    private void loadScrapData(Connection conn, List<ScrapMaintenanceData> rows) throws SQLException {
         String scrapQuery = """
         SELECT 
             s.ScrapID,
@@ -125,10 +129,10 @@ public class ScrapMaintenanceController {
                 String notes = rs.getString("Notes");
                 Timestamp dateAdded = rs.getTimestamp("DateAdded");
 
-                // ✅ نعرض اسم الكارنت يوزر
-                String employeeName = CurrentUser.getName();
+                // ✅ اسم الموظف اللي سجل التالف
+                String employeeName = EmployeeDirectory.displayName((Integer) rs.getObject("AddedBy"));
 
-                allData.add(new ScrapMaintenanceData(
+                rows.add(new ScrapMaintenanceData(
                         "توالف", itemName, quantity, "غير محدد",
                         employeeName, dateAdded.toLocalDateTime().format(dateFormatter), notes
                 ));
@@ -136,7 +140,7 @@ public class ScrapMaintenanceController {
         }
     }
 
-    private void loadMaintenanceData(Connection conn) throws SQLException {
+    private void loadMaintenanceData(Connection conn, List<ScrapMaintenanceData> rows) throws SQLException {
         String maintenanceQuery = """
         SELECT 
             m.MaintenanceID,
@@ -161,10 +165,10 @@ public class ScrapMaintenanceController {
                 String notes = rs.getString("Notes");
                 Timestamp dateAdded = rs.getTimestamp("DateAdded");
 
-                // ✅ بدل جلب الاسم من الجدول → نستخدم الكارنت يوزر
-                String employeeName = CurrentUser.getName();
+                // ✅ اسم الموظف من نسخة الموظفين في الذاكرة - من غير join على قاعدة الإدارة
+                String employeeName = EmployeeDirectory.displayName((Integer) rs.getObject("AddedBy"));
 
-                allData.add(new ScrapMaintenanceData(
+                rows.add(new ScrapMaintenanceData(
                         "صيانة", itemName, quantity, receiver,
                         employeeName, dateAdded.toLocalDateTime().format(dateFormatter), notes
                 ));
@@ -212,21 +216,21 @@ public class ScrapMaintenanceController {
             java.io.File file = fileChooser.showSaveDialog(null);
             if (file == null) return;
 
-            Workbook workbook = new XSSFWorkbook();
-
-            // ✅ تصدير التوالف
-            exportScrapData(workbook);
-
-            // ✅ تصدير الصيانة
-            exportMaintenanceData(workbook);
-
-            try (FileOutputStream out = new FileOutputStream(file)) {
-                workbook.write(out);
-            }
-            workbook.close();
-
-            LogService.addLog("EXPORT_REPORT", "تم تصدير تقرير التوالف والصيانة إلى Excel");
-            showInfo("✅ تم تصدير الملف بنجاح:\n" + file.getAbsolutePath());
+            // ✅ الاستعلامات وكتابة الملف في الخلفية - الصفوف من الـ ResultSet للملف على طول
+            ExcelExporter.export(dataTable.getScene().getWindow(), file, book -> {
+                EmployeeDirectory.ensureLoaded();
+                // ✅ تصدير التوالف
+                exportScrapData(book);
+
+                // ✅ تصدير الصيانة
+                exportMaintenanceData(book);
+            }, () -> {
+                LogService.addLog("EXPORT_REPORT", "تم تصدير تقرير التوالف والصيانة إلى Excel");
+                showInfo("✅ تم تصدير الملف بنجاح:\n" + file.getAbsolutePath());
+            }, e -> {
+                e.printStackTrace();
+                showError("حدث خطأ أثناء التصدير: " + e.getMessage());
+            });
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -234,92 +238,51 @@ public class ScrapMaintenanceController {
         }
     }
 
-    private void exportScrapData(Workbook workbook) throws SQLException {
-        Sheet sheet = workbook.createSheet("التوالف");
-
-        Row header = sheet.createRow(0);
-        String[] columns = {"اسم الصنف", "الكمية", "المسؤول", "التاريخ", "ملاحظات"};
-        createHeaderRow(header, columns, workbook);
+    private void exportScrapData(ExcelExporter.Book book) throws Exception {
+        ExcelExporter.SheetWriter sheet = book.sheet("التوالف");
+        sheet.header("اسم الصنف", "الكمية", "المسؤول", "التاريخ", "ملاحظات");
 
         String query = """
-        SELECT i.ItemName, s.Quantity, s.DateAdded, s.Notes
+        SELECT i.ItemName, s.Quantity, s.DateAdded, s.Notes, s.AddedBy
         FROM ScrapItems s
         INNER JOIN Items i ON s.ItemID = i.ItemID
         ORDER BY s.DateAdded DESC
     """;
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement ps = conn.prepareStatement(query);
-             ResultSet rs = ps.executeQuery()) {
-
-            int rowIdx = 1;
-            while (rs.next()) {
-                Row row = sheet.createRow(rowIdx++);
-                row.createCell(0).setCellValue(rs.getString("ItemName"));
-                row.createCell(1).setCellValue(rs.getDouble("Quantity"));
-                row.createCell(2).setCellValue(CurrentUser.getName()); // ← هنا
-                row.createCell(3).setCellValue(rs.getTimestamp("DateAdded").toString());
-                row.createCell(4).setCellValue(rs.getString("Notes") != null ? rs.getString("Notes") : "");
-            }
-        }
-
-        for (int i = 0; i < columns.length; i++) {
-            sheet.autoSizeColumn(i);
-        }
+        JdbcRowSource.stream(query, null, rs -> new Object[]{
+                rs.getString("ItemName"),
+                rs.getDouble("Quantity"),
+                EmployeeDirectory.displayName((Integer) rs.getObject("AddedBy")),
+                rs.getTimestamp("DateAdded").toString(),
+                rs.getString("Notes") != null ? rs.getString("Notes") : ""
+        }, sheet::row);
     }
 
-    private void exportMaintenanceData(Workbook workbook) throws SQLException {
-        Sheet sheet = workbook.createSheet("الصيانة");
-
-        Row header = sheet.createRow(0);
-        String[] columns = {"اسم الصنف", "الكمية", "المستلم", "المسؤول", "التاريخ", "ملاحظات"};
-        createHeaderRow(header, columns, workbook);
+    private void exportMaintenanceData(ExcelExporter.Book book) throws Exception {
+        ExcelExporter.SheetWriter sheet = book.sheet("الصيانة");
+        sheet.header("اسم الصنف", "الكمية", "المستلم", "المسؤول", "التاريخ", "ملاحظات");
 
         String query = """
-        SELECT i.ItemName, m.Quantity, m.ReceiverName, m.DateAdded, m.Notes
+        SELECT i.ItemName, m.Quantity, m.ReceiverName, m.DateAdded, m.Notes, m.AddedBy
         FROM MaintenanceItems m
         INNER JOIN Items i ON m.ItemID = i.ItemID
         ORDER BY m.DateAdded DESC
     """;
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement ps = conn.prepareStatement(query);
-             ResultSet rs = ps.executeQuery()) {
-
-            int rowIdx = 1;
-            while (rs.next()) {
-                Row row = sheet.createRow(rowIdx++);
-                row.createCell(0).setCellValue(rs.getString("ItemName"));
-                row.createCell(1).setCellValue(rs.getDouble("Quantity"));
-                row.createCell(2).setCellValue(rs.getString("ReceiverName"));
-                row.createCell(3).setCellValue(CurrentUser.getName()); // ← هنا
-                row.createCell(4).setCellValue(rs.getTimestamp("DateAdded").toString());
-                row.createCell(5).setCellValue(rs.getString("Notes") != null ? rs.getString("Notes") : "");
-            }
-        }
-
-        for (int i = 0; i < columns.length; i++) {
-            sheet.autoSizeColumn(i);
-        }
-    }
-
-
-    private void createHeaderRow(Row header, String[] columns, Workbook workbook) {
-        for (int i = 0; i < columns.length; i++) {
-            Cell cell = header.createCell(i);
-            cell.setCellValue(columns[i]);
-            CellStyle style = workbook.createCellStyle();
-            Font font = workbook.createFont();
-            font.setBold(true);
-            style.setFont(font);
-            cell.setCellStyle(style);
-        }
+        JdbcRowSource.stream(query, null, rs -> new Object[]{
+                rs.getString("ItemName"),
+                rs.getDouble("Quantity"),
+                rs.getString("ReceiverName"),
+                EmployeeDirectory.displayName((Integer) rs.getObject("AddedBy")),
+                rs.getTimestamp("DateAdded").toString(),
+                rs.getString("Notes") != null ? rs.getString("Notes") : ""
+        }, sheet::row);
     }
 
     @FXML
     private void onRefreshClicked() {
         loadData();
-        LogService.addLog("REFRESH_DATA", "تم تحديث بيانات التوالف والصيانة");
+        DbExecutor.run(() -> LogService.addLog("REFRESH_DATA", "تم تحديث بيانات التوالف والصيانة"));
         showInfo("✅ تم تحديث البيانات");
     }
 
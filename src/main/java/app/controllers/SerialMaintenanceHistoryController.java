@@ -2,7 +2,11 @@ package app.controllers;
 
 import app.current_user.CurrentUser;
 import app.db.DatabaseConnection;
+import app.db.DbExecutor;
+import app.services.EmployeeDirectory;
+import app.services.ItemPriceHistory;
 import app.services.LogService;
+import app.utils.ExcelExporter;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.collections.transformation.FilteredList;
@@ -11,14 +15,11 @@ import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.stage.FileChooser;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
-import java.io.FileOutputStream;
 import java.sql.*;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Predicate;
 
@@ -46,6 +47,7 @@ public class SerialMaintenanceHistoryController {
     private final ObservableList<SerialMaintenanceData> allData = FXCollections.observableArrayList();
     private final FilteredList<SerialMaintenanceData> filteredData = new FilteredList<>(allData);
     private final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private final DbExecutor.Latest<List<SerialMaintenanceData>> dataLoader = new DbExecutor.Latest<>();
 
     @FXML
     public void initialize() {
@@ -180,67 +182,71 @@ public class SerialMaintenanceHistoryController {
     }
 
     private void loadData() {
-        allData.clear();
-
         String query = """
             SELECT 
                 mi.DeviceSerial AS SerialNumber,
                 mi.ReceiverName,
+                mi.ItemID,
                 i.ItemName,
                 mi.Quantity,
-                COALESCE(ip.UnitPrice, 0) AS UnitPrice,
-                (mi.Quantity * COALESCE(ip.UnitPrice, 0)) AS TotalPrice,
                 mi.DateAdded,
                 mi.Notes,
                 mi.AddedBy
             FROM MaintenanceItems mi
             INNER JOIN Items i ON mi.ItemID = i.ItemID
-            LEFT JOIN ItemPrices ip ON i.ItemID = ip.ItemID
             ORDER BY mi.DateAdded DESC
         """;
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement ps = conn.prepareStatement(query);
-             ResultSet rs = ps.executeQuery()) {
-
-            while (rs.next()) {
-                String serialNumber = rs.getString("SerialNumber");
-                String receiver = rs.getString("ReceiverName");
-                String itemName = rs.getString("ItemName");
-                double quantity = rs.getDouble("Quantity");
-                double unitPrice = rs.getDouble("UnitPrice");
-                double totalPrice = rs.getDouble("TotalPrice");
-
-                // هنا بنحول AddedBy لاسم الموظف
-                int addedByUserId = rs.getInt("AddedBy");
-                String employeeName = getEmployeeName(addedByUserId);
-
-                Timestamp dateAdded = rs.getTimestamp("DateAdded");
-                String notes = rs.getString("Notes");
-                String formattedDate = dateAdded != null ?
-                        dateAdded.toLocalDateTime().format(dateFormatter) : "غير محدد";
-
-                allData.add(new SerialMaintenanceData(
-                        serialNumber != null ? serialNumber : "بدون سيريال",
-                        "جهاز الصيانة",
-                        itemName, quantity, unitPrice, totalPrice,
-                        receiver, employeeName, formattedDate, notes
-                ));
+        dataLoader.submit(() -> {
+            List<SerialMaintenanceData> rows = new ArrayList<>();
+            // ✅ التكلفة بسعر الصنف وقت الصيانة - من الذاكرة بدل join على ItemPrices
+            ItemPriceHistory.PriceIndex priceIndex = ItemPriceHistory.current();
+            EmployeeDirectory.ensureLoaded();
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(query);
+                 ResultSet rs = ps.executeQuery()) {
+
+                while (rs.next()) {
+                    String serialNumber = rs.getString("SerialNumber");
+                    String receiver = rs.getString("ReceiverName");
+                    String itemName = rs.getString("ItemName");
+                    double quantity = rs.getDouble("Quantity");
+                    Timestamp dateAdded = rs.getTimestamp("DateAdded");
+                    double unitPrice = priceIndex.priceAt(rs.getInt("ItemID"), dateAdded);
+                    double totalPrice = quantity * unitPrice;
+
+                    // هنا بنحول AddedBy لاسم الموظف
+                    int addedByUserId = rs.getInt("AddedBy");
+                    String employeeName = getEmployeeName(addedByUserId);
+
+                    String notes = rs.getString("Notes");
+                    String formattedDate = dateAdded != null ?
+                            dateAdded.toLocalDateTime().format(dateFormatter) : "غير محدد";
+
+                    rows.add(new SerialMaintenanceData(
+                            serialNumber != null ? serialNumber : "بدون سيريال",
+                            "جهاز الصيانة",
+                            itemName, quantity, unitPrice, totalPrice,
+                            receiver, employeeName, formattedDate, notes
+                    ));
+                }
             }
-
+            return rows;
+        }, rows -> {
+            allData.setAll(rows);
             applyFilters(); // تطبيق الفلترة بعد التحميل
-
-        } catch (SQLException e) {
+        }, e -> {
             e.printStackTrace();
             showError("خطأ في تحميل بيانات الصيانة: " + e.getMessage());
-        }
+        });
     }
 
     private String getEmployeeName(int userId) {
         if (userId == CurrentUser.getId()) {
             return CurrentUser.getName();
         }
-        return "موظف #" + userId;
+        String name = EmployeeDirectory.nameOf(userId);
+        return name != null ? name : "موظف #" + userId;
     }
 
     @FXML
@@ -289,56 +295,25 @@ public class SerialMaintenanceHistoryController {
 
             if (file == null) return;
 
-            Workbook workbook = new XSSFWorkbook();
-            Sheet sheet = workbook.createSheet("تاريخ صيانة السيريالات");
-
-            // رأس الجدول
-            Row header = sheet.createRow(0);
-            String[] columns = {"السيريال", "الجهاز", "العنصر", "الكمية", "سعر الوحدة", "السعر الإجمالي",
-                    "المستلم", "المسؤول", "التاريخ", "ملاحظات"};
-
-            CellStyle headerStyle = workbook.createCellStyle();
-            Font headerFont = workbook.createFont();
-            headerFont.setBold(true);
-            headerStyle.setFont(headerFont);
-            headerStyle.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
-            headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-
-            for (int i = 0; i < columns.length; i++) {
-                Cell cell = header.createCell(i);
-                cell.setCellValue(columns[i]);
-                cell.setCellStyle(headerStyle);
-            }
-
-            // البيانات
-            List<SerialMaintenanceData> exportData = dataTable.getItems();
-            int rowIdx = 1;
-            for (SerialMaintenanceData item : exportData) {
-                Row row = sheet.createRow(rowIdx++);
-                row.createCell(0).setCellValue(item.getSerialNumber());
-                row.createCell(1).setCellValue(item.getDeviceName());
-                row.createCell(2).setCellValue(item.getItemName());
-                row.createCell(3).setCellValue(item.getQuantity());
-                row.createCell(4).setCellValue(item.getUnitPrice());
-                row.createCell(5).setCellValue(item.getTotalPrice());
-                row.createCell(6).setCellValue(item.getReceiver());
-                row.createCell(7).setCellValue(item.getEmployeeName());
-                row.createCell(8).setCellValue(item.getDateAdded());
-                row.createCell(9).setCellValue(item.getNotes());
-            }
-
-            // تعديل الأعمدة
-            for (int i = 0; i < columns.length; i++) {
-                sheet.autoSizeColumn(i);
-            }
-
-            try (FileOutputStream out = new FileOutputStream(file)) {
-                workbook.write(out);
-            }
-            workbook.close();
-
-            LogService.addLog("EXPORT_REPORT", "تم تصدير تقرير تاريخ صيانة السيريالات إلى Excel");
-            showInfo("✅ تم تصدير الملف بنجاح:\n" + file.getAbsolutePath());
+            // البيانات الظاهرة بعد الفلترة - الكتابة في الخلفية
+            List<SerialMaintenanceData> exportData = new ArrayList<>(dataTable.getItems());
+            ExcelExporter.export(dataTable.getScene().getWindow(), file, book -> {
+                book.expectRows(exportData.size());
+                ExcelExporter.SheetWriter sheet = book.sheet("تاريخ صيانة السيريالات");
+                sheet.header("السيريال", "الجهاز", "العنصر", "الكمية", "سعر الوحدة", "السعر الإجمالي",
+                        "المستلم", "المسؤول", "التاريخ", "ملاحظات");
+                for (SerialMaintenanceData item : exportData) {
+                    sheet.row(item.getSerialNumber(), item.getDeviceName(), item.getItemName(), item.getQuantity(),
+                            item.getUnitPrice(), item.getTotalPrice(), item.getReceiver(), item.getEmployeeName(),
+                            item.getDateAdded(), item.getNotes());
+                }
+            }, () -> {
+                LogService.addLog("EXPORT_REPORT", "تم تصدير تقرير تاريخ صيانة السيريالات إلى Excel");
+                showInfo("✅ تم تصدير الملف بنجاح:\n" + file.getAbsolutePath());
+            }, e -> {
+                e.printStackTrace();
+                showError("حدث خطأ أثناء التصدير: " + e.getMessage());
+            });
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -349,7 +324,7 @@ public class SerialMaintenanceHistoryController {
     @FXML
     private void onRefreshClicked() {
         loadData();
-        LogService.addLog("REFRESH_DATA", "تم تحديث بيانات تاريخ صيانة السيريالات");
+        DbExecutor.run(() -> LogService.addLog("REFRESH_DATA", "تم تحديث بيانات تاريخ صيانة السيريالات"));
         showInfo("✅ تم تحديث البيانات");
     }
 
@@ -1,7 +1,12 @@
 package app.controllers;
 
 import app.db.DatabaseConnection;
+import app.db.DbExecutor;
+import app.db.SqlFilter;
 import app.current_user.CurrentUser;
+import app.services.AutocompleteIndex;
+import app.services.ItemPriceHistory;
+import app.utils.ExcelExporter;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
@@ -20,14 +25,10 @@ import javafx.stage.FileChooser;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
 import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.util.CellRangeAddress;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.sql.*;
 import java.time.LocalDate;
-import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 
@@ -64,13 +65,16 @@ public class SerialTrackingController {
     private TextField deliveredToField;
     private String selectedDeviceName = "";
     private String selectedSerial = "";
-    private double finalPrice = 0.0;
-    private double exceededPrice = 0.0;
 
     private final ObservableList<UsageRow> usageList = FXCollections.observableArrayList();
     private final FilteredList<UsageRow> filteredUsageList = new FilteredList<>(usageList);
     private ObservableList<String> masterSerials = FXCollections.observableArrayList();
 
+    // السيريالات بتوصل مع الفهرس بتاعها جاهز (بيتبني في الخلفية)
+    private final DbExecutor.Latest<AutocompleteIndex> serialsLoader = new DbExecutor.Latest<>();
+    private AutocompleteIndex serialSuggestions = AutocompleteIndex.of(List.of());
+    private final DbExecutor.Latest<List<UsageRow>> usageLoader = new DbExecutor.Latest<>();
+
     @FXML
     public void initialize() {
         colItemCode.setCellValueFactory(new PropertyValueFactory<>("itemCode"));
@@ -172,12 +176,8 @@ public class SerialTrackingController {
             serialCombo.setItems(masterSerials);
             return;
         }
-        final String f = filter.toLowerCase();
-        ObservableList<String> filtered = FXCollections.observableArrayList();
-        for (String s : masterSerials) {
-            if (s.toLowerCase().contains(f)) filtered.add(s);
-        }
-        serialCombo.setItems(filtered);
+        // الأقرب الأول (السيريال بالظبط، بعده اللي بيبدأ بالنص ...)
+        serialCombo.setItems(FXCollections.observableArrayList(serialSuggestions.suggest(filter)));
 
         // ✅ الحل الأمثل للكيرسر
         if (!serialCombo.isShowing()) {
@@ -199,25 +199,29 @@ public class SerialTrackingController {
 
     // تحميل الأجهزة بدون إظهار ID
     private void loadDevices() {
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement ps = conn.prepareStatement("SELECT DeviceID, DeviceName FROM Devices ORDER BY DeviceName")) {
-            ResultSet rs = ps.executeQuery();
-            ObservableList<Device> list = FXCollections.observableArrayList();
-            while (rs.next()) {
-                list.add(new Device(rs.getInt("DeviceID"), rs.getString("DeviceName")));
+        DbExecutor.supply(() -> {
+            List<Device> list = new ArrayList<>();
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement ps = conn.prepareStatement("SELECT DeviceID, DeviceName FROM Devices ORDER BY DeviceName")) {
+                ResultSet rs = ps.executeQuery();
+                while (rs.next()) {
+                    list.add(new Device(rs.getInt("DeviceID"), rs.getString("DeviceName")));
+                }
             }
-            deviceCombo.setItems(list);
-        } catch (Exception e) {
+            return list;
+        }, list -> deviceCombo.setItems(FXCollections.observableArrayList(list)), e -> {
             e.printStackTrace();
             showAlert("حدث خطأ أثناء تحميل الأجهزة.");
-        }
+        });
     }
 
     @FXML
     private void onDeviceSelected() {
         Device selectedDevice = deviceCombo.getValue();
         if (selectedDevice == null) {
+            serialsLoader.cancel();
             masterSerials.clear();
+            serialSuggestions = AutocompleteIndex.of(List.of());
             serialCombo.setItems(masterSerials);
             hideExitButton(); // ✅ إخفاء الزر عند عدم وجود جهاز
             return;
@@ -229,54 +233,46 @@ public class SerialTrackingController {
         LocalDate end = endDatePicker.getValue();
 
         masterSerials.clear();
+        serialSuggestions = AutocompleteIndex.of(List.of());
+
+        boolean byDate = start != null && end != null;
+        SqlFilter filter = new SqlFilter().equalTo("DS.DeviceID", deviceId);
+        if (byDate) filter.dateRange("SCU.UsedAt", start, end);
 
-        StringBuilder sql = new StringBuilder();
-        sql.append("""
+        String sql = """
             SELECT DS.SerialNumber, MAX(DS.CreatedAt) AS CreatedAt
             FROM DeviceSerials DS
-            """);
-
-        if (start != null && end != null) {
-            sql.append("JOIN SerialComponentUsage SCU ON SCU.SerialID = DS.SerialID ");
-        }
-
-        sql.append("WHERE DS.DeviceID = ? ");
-
-        if (start != null && end != null) {
-            sql.append("AND SCU.UsedAt BETWEEN ? AND ? ");
-        }
-
-        sql.append("""
-            GROUP BY DS.SerialNumber
-            ORDER BY MAX(DS.CreatedAt) DESC
-            """);
+            """
+                + (byDate ? "JOIN SerialComponentUsage SCU ON SCU.SerialID = DS.SerialID" : "")
+                + filter.where()
+                + " GROUP BY DS.SerialNumber ORDER BY MAX(DS.CreatedAt) DESC";
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+        serialsLoader.submit(() -> {
+            List<String> serials = new ArrayList<>();
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
 
-            ps.setInt(1, deviceId);
-            if (start != null && end != null) {
-                Timestamp tsStart = Timestamp.from(start.atStartOfDay(ZoneId.systemDefault()).toInstant());
-                Timestamp tsEnd = Timestamp.from(end.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().minusSeconds(1));
-                ps.setTimestamp(2, tsStart);
-                ps.setTimestamp(3, tsEnd);
-            }
+                filter.bind(ps, 1);
 
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                masterSerials.add(rs.getString("SerialNumber"));
+                ResultSet rs = ps.executeQuery();
+                while (rs.next()) {
+                    serials.add(rs.getString("SerialNumber"));
+                }
             }
+            return AutocompleteIndex.of(serials);
+        }, suggestions -> {
+            serialSuggestions = suggestions;
+            masterSerials.setAll(suggestions.all());
             serialCombo.setItems(masterSerials);
 
             if (masterSerials.isEmpty()) {
                 showAlert("لا يوجد سيريالات لهذا الجهاز في الفترة المحددة.");
                 hideExitButton(); // ✅ إخفاء الزر إذا لم توجد سيريالات
             }
-
-        } catch (Exception e) {
+        }, e -> {
             e.printStackTrace();
             showAlert("حدث خطأ أثناء تحميل السيريالات.");
-        }
+        });
     }
 
     public void setSelectedSerial(String serial) {
@@ -292,39 +288,41 @@ public class SerialTrackingController {
             return;
         }
 
-        // فحص إذا كان السيريال مسجل خروج مسبقاً
-        Connection connCheck = null;
-        PreparedStatement psCheck = null;
-        ResultSet rsCheck = null;
-
-        try {
-            connCheck = DatabaseConnection.getConnection();
-            String checkQuery = "SELECT ExitDate FROM DeviceExit WHERE SerialNumber = ?";
-            psCheck = connCheck.prepareStatement(checkQuery);
-            psCheck.setString(1, selectedSerial);
-            rsCheck = psCheck.executeQuery();
-
-            if (rsCheck.next()) {
-                String exitDate = rsCheck.getString("ExitDate");
+        String serial = selectedSerial;
+        String deviceName = selectedDeviceName;
+        Device device = deviceCombo.getValue();
+        if (device == null) {
+            showAlert("اختر جهاز أولاً");
+            return;
+        }
+        int deviceId = device.getId();
 
+        // فحص إذا كان السيريال مسجل خروج مسبقاً
+        DbExecutor.supply(() -> {
+            try (Connection connCheck = DatabaseConnection.getConnection();
+                 PreparedStatement psCheck = connCheck.prepareStatement("SELECT ExitDate FROM DeviceExit WHERE SerialNumber = ?")) {
+                psCheck.setString(1, serial);
+                try (ResultSet rsCheck = psCheck.executeQuery()) {
+                    return rsCheck.next() ? Optional.ofNullable(rsCheck.getString("ExitDate")) : Optional.<String>empty();
+                }
+            }
+        }, existingExit -> {
+            if (existingExit.isPresent()) {
                 Alert existsAlert = new Alert(Alert.AlertType.WARNING);
                 existsAlert.setTitle("تنبيه");
                 existsAlert.setHeaderText("لا يمكن تسجيل خروج الجهاز");
-                existsAlert.setContentText("هذا السيريال تم خروجه مسبقًا بتاريخ:\n" + exitDate);
+                existsAlert.setContentText("هذا السيريال تم خروجه مسبقًا بتاريخ:\n" + existingExit.get());
                 existsAlert.showAndWait();
                 return;
             }
-
-        } catch (SQLException e) {
+            confirmDeviceExit(deviceId, deviceName, serial);
+        }, e -> {
             e.printStackTrace();
             showAlert("حدث خطأ أثناء التحقق من السيريال.");
-            return;
-        } finally {
-            try { if (rsCheck != null) rsCheck.close(); } catch (SQLException ignored) {}
-            try { if (psCheck != null) psCheck.close(); } catch (SQLException ignored) {}
-            try { if (connCheck != null) connCheck.close(); } catch (SQLException ignored) {}
-        }
+        });
+    }
 
+    private void confirmDeviceExit(int deviceId, String deviceName, String serial) {
         // طلب اسم المستلم
         TextInputDialog deliveredToDialog = new TextInputDialog();
         deliveredToDialog.setTitle("اسم المستلم");
@@ -356,89 +354,83 @@ public class SerialTrackingController {
 
         Optional<ButtonType> result = alert.showAndWait();
         if (result.isPresent() && result.get() == ButtonType.OK) {
-
-            Connection conn = null;
-            PreparedStatement ps = null;
-
-            try {
-                conn = DatabaseConnection.getConnection();
-                calculatePrices();
+            DbExecutor.run(() -> {
+                double[] prices = calculatePrices(deviceId, serial);
 
                 String query = "INSERT INTO DeviceExit (DeviceName, SerialNumber, FinalPrice, ExceededPrice, ExitDate, DeliveredBy, DeliveredTo) VALUES (?, ?, ?, ?, GETDATE(), ?, ?)";
-                ps = conn.prepareStatement(query);
-                ps.setString(1, selectedDeviceName);
-                ps.setString(2, selectedSerial);
-                ps.setDouble(3, finalPrice);
-                ps.setDouble(4, exceededPrice);
-                ps.setString(5, deliveredBy);  // تم التغيير هنا
-                ps.setString(6, deliveredTo);
-
-                int rowsAffected = ps.executeUpdate();
-
-                if (rowsAffected > 0) {
-                    Alert success = new Alert(Alert.AlertType.INFORMATION);
-                    success.setTitle("تم الحفظ");
-                    success.setHeaderText(null);
-                    success.setContentText("تم تسجيل خروج الجهاز من المصنع بنجاح ✅");
-                    success.showAndWait();
-                    hideExitButton();
-                } else {
-                    throw new SQLException("لم يتم إدخال أي بيانات");
+                try (Connection conn = DatabaseConnection.getConnection();
+                     PreparedStatement ps = conn.prepareStatement(query)) {
+                    ps.setString(1, deviceName);
+                    ps.setString(2, serial);
+                    ps.setDouble(3, prices[0]);
+                    ps.setDouble(4, prices[1]);
+                    ps.setString(5, deliveredBy);  // تم التغيير هنا
+                    ps.setString(6, deliveredTo);
+
+                    if (ps.executeUpdate() == 0) {
+                        throw new SQLException("لم يتم إدخال أي بيانات");
+                    }
                 }
-
-            } catch (SQLException e) {
+            }, () -> {
+                Alert success = new Alert(Alert.AlertType.INFORMATION);
+                success.setTitle("تم الحفظ");
+                success.setHeaderText(null);
+                success.setContentText("تم تسجيل خروج الجهاز من المصنع بنجاح ✅");
+                success.showAndWait();
+                hideExitButton();
+            }, e -> {
                 e.printStackTrace();
                 Alert error = new Alert(Alert.AlertType.ERROR);
                 error.setTitle("خطأ");
                 error.setHeaderText("حدث خطأ أثناء حفظ البيانات");
                 error.setContentText("خطأ في الاتصال بقاعدة البيانات: " + e.getMessage());
                 error.showAndWait();
-            } finally {
-                try { if (ps != null) ps.close(); } catch (SQLException ignored) {}
-                try { if (conn != null) conn.close(); } catch (SQLException ignored) {}
-            }
+            });
         }
     }
 
     // ✅ دالة لحساب الأسعار
-    private void calculatePrices() {
+    // بيشتغل في الخلفية ضمن عملية تسجيل الخروج - بيرجع {السعر النهائي, سعر التجاوز}
+    private double[] calculatePrices(int deviceId, String serial) throws SQLException {
+        ItemPriceHistory.PriceIndex priceIndex = ItemPriceHistory.current();
         try (Connection conn = DatabaseConnection.getConnection()) {
             String sql = """
-                SELECT I.ItemName, ISNULL(SCU.Quantity, 0) AS UsedQty, ISNULL(P.UnitPrice,0) AS Price
+                SELECT SCU.ItemID, I.ItemName, ISNULL(SCU.Quantity, 0) AS UsedQty, SCU.UsedAt
                 FROM SerialComponentUsage SCU
                 JOIN Items I ON SCU.ItemID = I.ItemID
-                LEFT JOIN ItemPrices P ON I.ItemID = P.ItemID
                 JOIN DeviceSerials DS ON SCU.SerialID = DS.SerialID
                 WHERE DS.SerialNumber = ?
                 """;
 
             PreparedStatement ps = conn.prepareStatement(sql);
-            ps.setString(1, selectedSerial);
+            ps.setString(1, serial);
             ResultSet rs = ps.executeQuery();
 
             Map<String, Double> itemQuantities = new HashMap<>();
-            Map<String, Double> itemPrices = new HashMap<>();
+            Map<String, Double> itemCosts = new HashMap<>();
 
             while (rs.next()) {
                 String itemName = rs.getString("ItemName");
                 double qty = rs.getDouble("UsedQty");
-                double price = rs.getDouble("Price");
+                // ✅ السعر اللي كان ساري وقت الصرف مش سعر النهارده
+                double price = priceIndex.priceAt(rs.getInt("ItemID"), rs.getTimestamp("UsedAt"));
 
-                itemQuantities.put(itemName, itemQuantities.getOrDefault(itemName, 0.0) + qty);
-                itemPrices.put(itemName, price);
+                itemQuantities.merge(itemName, qty, Double::sum);
+                itemCosts.merge(itemName, qty * price, Double::sum);
             }
 
-            finalPrice = 0.0;
-            exceededPrice = 0.0;
+            double finalPrice = 0.0;
+            double exceededPrice = 0.0;
 
             // ✅ جلب الكميات المتوقعة
-            Map<String, Double> expectedQuantities = getExpectedQuantitiesForDevice(deviceCombo.getValue().getId());
+            Map<String, Double> expectedQuantities = getExpectedQuantitiesForDevice(deviceId);
 
             for (Map.Entry<String, Double> entry : itemQuantities.entrySet()) {
                 String itemName = entry.getKey();
                 double totalQty = entry.getValue();
-                double price = itemPrices.getOrDefault(itemName, 0.0);
-                double subtotal = price * totalQty;
+                double subtotal = itemCosts.getOrDefault(itemName, 0.0);
+                // متوسط السعر لو الصنف اتصرف على كذا مرة بأسعار مختلفة
+                double price = totalQty != 0 ? subtotal / totalQty : 0.0;
                 finalPrice += subtotal;
 
                 // ✅ حساب التجاوز
@@ -449,10 +441,7 @@ public class SerialTrackingController {
                     exceededPrice += exceededCost;
                 }
             }
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            showAlert("حدث خطأ أثناء حساب الأسعار: " + e.getMessage());
+            return new double[]{finalPrice, exceededPrice};
         }
     }
 
@@ -487,6 +476,13 @@ public class SerialTrackingController {
 
     @FXML
     private void onShowSerial() {
+        loadSerialUsage(null);
+    }
+
+    /**
+     * تحميل استخدام السيريال في الخلفية - afterLoad بيتنفذ على الـ FX Thread بعد عرض البيانات
+     */
+    private void loadSerialUsage(Runnable afterLoad) {
         String serial = serialCombo.getValue();
         if (serial == null || serial.isBlank()) {
             showAlert("اختر سيريال أولاً");
@@ -503,6 +499,7 @@ public class SerialTrackingController {
 
         int deviceId = device.getId();
         usageList.clear();
+        String usedBy = CurrentUser.getName();
 
         // ✅ تصحيح الاستعلام - استخدام String عادي بدلاً من Text Blocks
         String sql = "SELECT " +
@@ -525,38 +522,39 @@ public class SerialTrackingController {
                 "GROUP BY I.ItemID, I.ItemName, I.ItemCode, DC.ExpectedQty " +
                 "ORDER BY I.ItemName";
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-
-            ps.setInt(1, deviceId);
-            ps.setString(2, serial);
-
-            ResultSet rs = ps.executeQuery();
+        usageLoader.submit(() -> {
             List<UsageRow> rows = new ArrayList<>();
-
-            while (rs.next()) {
-                String itemName = rs.getString("ItemName");
-                String itemCode = rs.getString("ItemCode");
-                double expected = rs.getDouble("ExpectedQty");
-                double used = rs.getDouble("UsedTotal");
-                Timestamp lastUsed = rs.getTimestamp("LastUsed");
-
-                String usedAt = lastUsed == null ? "-" : lastUsed.toString();
-                String usedBy = CurrentUser.getName();
-
-                String status = computeStatus(expected, used);
-
-                rows.add(new UsageRow(
-                        itemName,
-                        itemCode,
-                        String.format("%.2f", expected),
-                        String.format("%.2f", used),
-                        status,
-                        usedAt,
-                        usedBy
-                ));
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+
+                ps.setInt(1, deviceId);
+                ps.setString(2, serial);
+
+                ResultSet rs = ps.executeQuery();
+                while (rs.next()) {
+                    String itemName = rs.getString("ItemName");
+                    String itemCode = rs.getString("ItemCode");
+                    double expected = rs.getDouble("ExpectedQty");
+                    double used = rs.getDouble("UsedTotal");
+                    Timestamp lastUsed = rs.getTimestamp("LastUsed");
+
+                    String usedAt = lastUsed == null ? "-" : lastUsed.toString();
+
+                    String status = computeStatus(expected, used);
+
+                    rows.add(new UsageRow(
+                            itemName,
+                            itemCode,
+                            String.format("%.2f", expected),
+                            String.format("%.2f", used),
+                            status,
+                            usedAt,
+                            usedBy
+                    ));
+                }
             }
-
+            return rows;
+        }, rows -> {
             if (rows.isEmpty()) {
                 showAlert("لا توجد بيانات استخدام لهذا السيريال.");
                 hideExitButton();
@@ -565,13 +563,13 @@ public class SerialTrackingController {
                 exitDeviceBtn.setManaged(true);
             }
 
-            usageList.addAll(rows);
+            usageList.setAll(rows);
             filteredUsageList.setPredicate(null);
-
-        } catch (Exception e) {
+            if (afterLoad != null) afterLoad.run();
+        }, e -> {
             e.printStackTrace();
             showAlert("حدث خطأ أثناء تحميل بيانات الاستخدام: " + e.getMessage());
-        }
+        });
     }
 
     @FXML
@@ -603,30 +601,31 @@ public class SerialTrackingController {
         ORDER BY DS.SerialNumber
     """;
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+        DbExecutor.supply(() -> {
+            List<String> serials = new ArrayList<>();
+            try (Connection conn = DatabaseConnection.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
 
-            ps.setInt(1, deviceId);
-            ps.setInt(2, deviceId);
-
-            ResultSet rs = ps.executeQuery();
-            ObservableList<String> exceededSerials = FXCollections.observableArrayList();
+                ps.setInt(1, deviceId);
+                ps.setInt(2, deviceId);
 
-            while (rs.next()) {
-                exceededSerials.add(rs.getString("SerialNumber"));
+                ResultSet rs = ps.executeQuery();
+                while (rs.next()) {
+                    serials.add(rs.getString("SerialNumber"));
+                }
             }
-
-            if (exceededSerials.isEmpty()) {
+            return serials;
+        }, serials -> {
+            if (serials.isEmpty()) {
                 showAlert("لا توجد سيريالات متجاوزة لهذا الجهاز.");
                 return;
             }
 
-            openSerialsWindow("السيريالات المتجاوزة", exceededSerials, selectedDevice.getName());
-
-        } catch (Exception e) {
+            openSerialsWindow("السيريالات المتجاوزة", FXCollections.observableArrayList(serials), selectedDevice.getName());
+        }, e -> {
             e.printStackTrace();
             showAlert("حدث خطأ أثناء البحث عن السيريالات المتجاوزة: " + e.getMessage());
-        }
+        });
     }
 
     private void openSerialsWindow(String title, ObservableList<String> serials, String deviceName) {
@@ -704,9 +703,13 @@ public class SerialTrackingController {
     @FXML
     private void onShowExceeded() {
         if (usageList.isEmpty()) {
-            onShowSerial();
+            loadSerialUsage(this::applyExceededFilter);
+            return;
         }
+        applyExceededFilter();
+    }
 
+    private void applyExceededFilter() {
         filteredUsageList.setPredicate(row ->
                 row != null && row.getStatus().contains("تجاوز")
         );
@@ -729,58 +732,74 @@ public class SerialTrackingController {
             return;
         }
 
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            String sql = """
-        SELECT I.ItemName, ISNULL(SCU.Quantity, 0) AS UsedQty, ISNULL(P.UnitPrice,0) AS Price
-        FROM SerialComponentUsage SCU
-        JOIN Items I ON SCU.ItemID = I.ItemID
-        LEFT JOIN ItemPrices P ON I.ItemID = P.ItemID
-        JOIN DeviceSerials DS ON SCU.SerialID = DS.SerialID
-        WHERE DS.SerialNumber = ?
-        """;
-
-            PreparedStatement ps = conn.prepareStatement(sql);
-            ps.setString(1, serial);
-            ResultSet rs = ps.executeQuery();
-
-            // ✅ أولاً: نجمع الكميات لكل عنصر
-            Map<String, Double> itemQuantities = new HashMap<>();
-            Map<String, Double> itemPrices = new HashMap<>();
+        int deviceId = device.getId();
+        DbExecutor.supply(() -> {
+            ItemPriceHistory.PriceIndex priceIndex = ItemPriceHistory.current();
+            try (Connection conn = DatabaseConnection.getConnection()) {
+                String sql = """
+            SELECT SCU.ItemID, I.ItemName, ISNULL(SCU.Quantity, 0) AS UsedQty, SCU.UsedAt
+            FROM SerialComponentUsage SCU
+            JOIN Items I ON SCU.ItemID = I.ItemID
+            JOIN DeviceSerials DS ON SCU.SerialID = DS.SerialID
+            WHERE DS.SerialNumber = ?
+            """;
+
+                PreparedStatement ps = conn.prepareStatement(sql);
+                ps.setString(1, serial);
+                ResultSet rs = ps.executeQuery();
+
+                // ✅ أولاً: نجمع الكميات والتكلفة لكل عنصر
+                Map<String, Double> itemQuantities = new HashMap<>();
+                Map<String, Double> itemCosts = new HashMap<>();
+
+                while (rs.next()) {
+                    String itemName = rs.getString("ItemName");
+                    double qty = rs.getDouble("UsedQty");
+                    // كل صرفة بالسعر اللي كان ساري وقتها
+                    double price = priceIndex.priceAt(rs.getInt("ItemID"), rs.getTimestamp("UsedAt"));
+
+                    itemQuantities.merge(itemName, qty, Double::sum);
+                    itemCosts.merge(itemName, qty * price, Double::sum);
+                }
 
-            while (rs.next()) {
-                String itemName = rs.getString("ItemName");
-                double qty = rs.getDouble("UsedQty");
-                double price = rs.getDouble("Price");
+                // ✅ ثانياً: نخلق الـ PriceDetail بعد الجمع
+                List<PriceDetail> details = new ArrayList<>();
+                double total = 0;
 
-                // نجمع الكميات لنفس العنصر
-                itemQuantities.put(itemName, itemQuantities.getOrDefault(itemName, 0.0) + qty);
-                itemPrices.put(itemName, price); // نأخذ آخر سعر
-            }
+                for (Map.Entry<String, Double> entry : itemQuantities.entrySet()) {
+                    String itemName = entry.getKey();
+                    double totalQty = entry.getValue();
+                    double subtotal = itemCosts.getOrDefault(itemName, 0.0);
+                    double price = totalQty != 0 ? subtotal / totalQty : 0.0; // متوسط السعر
+                    total += subtotal;
 
-            // ✅ ثانياً: نخلق الـ PriceDetail بعد الجمع
-            List<PriceDetail> details = new ArrayList<>();
-            double total = 0;
-
-            for (Map.Entry<String, Double> entry : itemQuantities.entrySet()) {
-                String itemName = entry.getKey();
-                double totalQty = entry.getValue();
-                double price = itemPrices.getOrDefault(itemName, 0.0);
-                double subtotal = price * totalQty;
-                total += subtotal;
+                    details.add(new PriceDetail(itemName, totalQty, price, subtotal));
+                }
 
-                details.add(new PriceDetail(itemName, totalQty, price, subtotal));
+                return new PriceResult(details, total, getExpectedQuantitiesForDevice(deviceId));
             }
-
-            if (details.isEmpty()) {
+        }, result -> {
+            if (result.details.isEmpty()) {
                 showAlert("لا توجد بيانات تسعير لهذا السيريال.");
                 return;
             }
 
-            showPriceDialog(device.getName(), serial, details, total);
-
-        } catch (Exception e) {
+            showPriceDialog(device.getName(), serial, result.details, result.total, result.expectedQuantities);
+        }, e -> {
             e.printStackTrace();
             showAlert("حدث خطأ أثناء التسعير:\n" + e.getMessage());
+        });
+    }
+
+    private static class PriceResult {
+        final List<PriceDetail> details;
+        final double total;
+        final Map<String, Double> expectedQuantities;
+
+        PriceResult(List<PriceDetail> details, double total, Map<String, Double> expectedQuantities) {
+            this.details = details;
+            this.total = total;
+            this.expectedQuantities = expectedQuantities;
         }
     }
 
@@ -805,7 +824,8 @@ public class SerialTrackingController {
     }
 
     // ✅ عرض Dialog مع التفاصيل وخيارات التصدير (معدل)
-    private void showPriceDialog(String deviceName, String serial, List<PriceDetail> details, double total) {
+    private void showPriceDialog(String deviceName, String serial, List<PriceDetail> details, double total,
+                                 Map<String, Double> expectedQuantities) {
         Dialog<Void> dialog = new Dialog<>();
         dialog.setTitle("تسعير السيريال");
 
@@ -824,9 +844,6 @@ public class SerialTrackingController {
         Label deviceLabel = new Label("الجهاز: " + deviceName + " | السيريال: " + serial);
         deviceLabel.setStyle("-fx-font-size: 16px; -fx-font-weight:bold;");
 
-        // ✅ نحتاج لجلب الكميات المتوقعة للجهاز
-        final Map<String, Double> expectedQuantities = getExpectedQuantitiesForDevice(deviceCombo.getValue().getId());
-
         // جدول داخلي
         TableView<PriceDetail> table = new TableView<>();
         table.setPrefHeight(300);
@@ -979,141 +996,54 @@ public class SerialTrackingController {
         File file = fc.showSaveDialog(priceSerialBtn.getScene().getWindow());
         if (file == null) return;
 
-        try (Workbook wb = new XSSFWorkbook()) {
-            Sheet sheet = wb.createSheet("تقرير التسعير");
-
-            // إعدادات الأعمدة
-            sheet.setColumnWidth(0, 7000);
-            sheet.setColumnWidth(1, 4000);
-            sheet.setColumnWidth(2, 4000);
-            sheet.setColumnWidth(3, 4000);
-            sheet.setColumnWidth(4, 4000);
-
-            // 📘 تنسيقات عامة
-            CellStyle titleStyle = wb.createCellStyle();
-            Font titleFont = wb.createFont();
-            titleFont.setBold(true);
-            titleFont.setFontHeightInPoints((short) 16);
-            titleStyle.setFont(titleFont);
-            titleStyle.setAlignment(HorizontalAlignment.CENTER);
-
-            CellStyle subtitleStyle = wb.createCellStyle();
-            Font subtitleFont = wb.createFont();
-            subtitleFont.setFontHeightInPoints((short) 12);
-            subtitleStyle.setFont(subtitleFont);
-            subtitleStyle.setAlignment(HorizontalAlignment.CENTER);
-
-            CellStyle headerStyle = wb.createCellStyle();
-            Font headerFont = wb.createFont();
-            headerFont.setBold(true);
-            headerFont.setColor(IndexedColors.WHITE.getIndex());
-            headerStyle.setFont(headerFont);
-            headerStyle.setFillForegroundColor(IndexedColors.DARK_BLUE.getIndex());
-            headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-            headerStyle.setAlignment(HorizontalAlignment.CENTER);
-            headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-            headerStyle.setBorderBottom(BorderStyle.THIN);
-            headerStyle.setBorderTop(BorderStyle.THIN);
-            headerStyle.setBorderLeft(BorderStyle.THIN);
-            headerStyle.setBorderRight(BorderStyle.THIN);
-
-            // 💰 تنسيقات الأرقام
-            DataFormat format = wb.createDataFormat();
-
-            CellStyle moneyStyle = wb.createCellStyle();
-            moneyStyle.setDataFormat(format.getFormat("#,##0.00"));
-            moneyStyle.setAlignment(HorizontalAlignment.CENTER);
+        ExcelExporter.export(priceSerialBtn.getScene().getWindow(), file, book -> {
+            Workbook wb = book.workbook();
+
+            // 💰 تنسيقات التجاوز (الباقي من التنسيقات المشتركة)
+            CellStyle centeredMoney = wb.createCellStyle();
+            centeredMoney.cloneStyleFrom(book.moneyStyle());
+            centeredMoney.setAlignment(HorizontalAlignment.CENTER);
 
             CellStyle exceededStyle = wb.createCellStyle();
-            exceededStyle.setDataFormat(format.getFormat("#,##0.00"));
+            exceededStyle.cloneStyleFrom(centeredMoney);
             exceededStyle.setFillForegroundColor(IndexedColors.RED.getIndex());
             exceededStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-            exceededStyle.setAlignment(HorizontalAlignment.CENTER);
-
-            // 🧾 العنوان الرئيسي
-            Row row0 = sheet.createRow(0);
-            Cell titleCell = row0.createCell(0);
-            titleCell.setCellValue("CHEM TECH - تقرير التسعير");
-            titleCell.setCellStyle(titleStyle);
-            sheet.addMergedRegion(new CellRangeAddress(0, 0, 0, 4));
-
-            // 🏷️ اسم الجهاز والسيريال
-            Row row1 = sheet.createRow(1);
-            Cell deviceInfoCell = row1.createCell(0);
-            deviceInfoCell.setCellValue("اسم الجهاز: " + deviceName + "    |    السيريال: " + serial);
-            deviceInfoCell.setCellStyle(subtitleStyle);
-            sheet.addMergedRegion(new CellRangeAddress(1, 1, 0, 4));
-
-            // 📋 رأس الجدول
-            Row header = sheet.createRow(3);
+
             String[] headers = {"المكون", "المتوقع", "الكمية المستخدمة", "سعر الوحدة", "الإجمالي"};
-            for (int i = 0; i < headers.length; i++) {
-                Cell cell = header.createCell(i);
-                cell.setCellValue(headers[i]);
-                cell.setCellStyle(headerStyle);
+            ExcelExporter.SheetWriter sheet = book.sheet("تقرير التسعير");
+
+            // 🧾 العنوان + اسم الجهاز والسيريال + رأس الجدول
+            sheet.title("CHEM TECH - تقرير التسعير", headers.length)
+                    .title("اسم الجهاز: " + deviceName + "    |    السيريال: " + serial, headers.length)
+                    .skipRow()
+                    .header(headers)
+                    .columnWidth(0, 27);
+            for (int i = 1; i < headers.length; i++) {
+                sheet.columnStyle(i, centeredMoney).columnWidth(i, 16);
             }
 
-            // 📊 البيانات
-            int r = 4;
+            // 📊 البيانات - الكمية والإجمالي بالأحمر لو اتصرف أكتر من المتوقع
             for (PriceDetail pd : details) {
-                Row row = sheet.createRow(r++);
                 double expected = expectedQuantities.getOrDefault(pd.itemName, 0.0);
-                boolean isExceeded = pd.qty > expected;
-
-                row.createCell(0).setCellValue(pd.itemName);
-
-                Cell expectedCell = row.createCell(1);
-                expectedCell.setCellValue(expected);
-                expectedCell.setCellStyle(moneyStyle);
-
-                Cell qtyCell = row.createCell(2);
-                qtyCell.setCellValue(pd.qty);
-
-                Cell priceCell = row.createCell(3);
-                priceCell.setCellValue(pd.price);
-
-                Cell subtotalCell = row.createCell(4);
-                subtotalCell.setCellValue(pd.subtotal);
-
-                if (isExceeded) {
-                    qtyCell.setCellStyle(exceededStyle);
-                    subtotalCell.setCellStyle(exceededStyle);
-                } else {
-                    qtyCell.setCellStyle(moneyStyle);
-                    priceCell.setCellStyle(moneyStyle);
-                    subtotalCell.setCellStyle(moneyStyle);
+                Row row = sheet.row(pd.itemName, expected, pd.qty, pd.price, pd.subtotal);
+                if (pd.qty > expected) {
+                    row.getCell(2).setCellStyle(exceededStyle);
+                    row.getCell(4).setCellStyle(exceededStyle);
                 }
             }
 
             // 🧮 الإجماليات
-            r++;
-            Row exceededRow = sheet.createRow(r++);
-            exceededRow.createCell(3).setCellValue("إجمالي التجاوز:");
-            Cell exceededCell = exceededRow.createCell(4);
-            exceededCell.setCellValue(exceededTotal);
-            exceededCell.setCellStyle(exceededStyle);
-
-            Row totalRow = sheet.createRow(r++);
-            totalRow.createCell(3).setCellValue("المجموع النهائي:");
-            Cell totalCell = totalRow.createCell(4);
-            totalCell.setCellValue(total);
-            totalCell.setCellStyle(moneyStyle);
-
-            // ✅ حفظ الملف
-            try (FileOutputStream fos = new FileOutputStream(file)) {
-                wb.write(fos);
-            }
-
-            showAlert("تم حفظ التقرير بنجاح في:\n" + file.getAbsolutePath());
-
-        } catch (Exception e) {
+            sheet.skipRow();
+            sheet.row(null, null, null, "إجمالي التجاوز:", exceededTotal).getCell(4).setCellStyle(exceededStyle);
+            sheet.row(null, null, null, "المجموع النهائي:", total);
+        }, () -> showAlert("تم حفظ التقرير بنجاح في:\n" + file.getAbsolutePath()), e -> {
             e.printStackTrace();
             showAlert("حدث خطأ أثناء التصدير: " + e.getMessage());
-        }
+        });
     }
 
     // ✅ دالة لجلب الكميات المتوقعة للجهاز
-    private Map<String, Double> getExpectedQuantitiesForDevice(int deviceId) {
+    private Map<String, Double> getExpectedQuantitiesForDevice(int deviceId) throws SQLException {
         Map<String, Double> expectedMap = new HashMap<>();
 
         String sql = """
@@ -1134,10 +1064,6 @@ public class SerialTrackingController {
                 double quantity = rs.getDouble("Quantity");
                 expectedMap.put(itemName, quantity);
             }
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            showAlert("حدث خطأ أثناء تحميل الكميات المتوقعة للجهاز.");
         }
 
         return expectedMap;
@@ -1169,76 +1095,24 @@ public class SerialTrackingController {
 
         File file = fileChooser.showSaveDialog(exportExcelBtn.getScene().getWindow());
 
-        if (file != null) {
-            try {
-                exportToExcel(file, filteredUsageList);
-                showAlert("تم التصدير بنجاح إلى: " + file.getAbsolutePath());
-            } catch (Exception e) {
-                e.printStackTrace();
-                showAlert("حدث خطأ أثناء التصدير: " + e.getMessage());
-            }
-        }
-    }
-
-    private void exportToExcel(File file, ObservableList<UsageRow> data) throws Exception {
-        Workbook workbook = new XSSFWorkbook();
-        Sheet sheet = workbook.createSheet("تقرير السيريالات");
-
-        CellStyle headerStyle = workbook.createCellStyle();
-        headerStyle.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
-        headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-        headerStyle.setBorderBottom(BorderStyle.THIN);
-        headerStyle.setBorderTop(BorderStyle.THIN);
-        headerStyle.setBorderLeft(BorderStyle.THIN);
-        headerStyle.setBorderRight(BorderStyle.THIN);
-
-        Font headerFont = workbook.createFont();
-        headerFont.setBold(true);
-        headerStyle.setFont(headerFont);
-
-        CellStyle cellStyle = workbook.createCellStyle();
-        cellStyle.setBorderBottom(BorderStyle.THIN);
-        cellStyle.setBorderTop(BorderStyle.THIN);
-        cellStyle.setBorderLeft(BorderStyle.THIN);
-        cellStyle.setBorderRight(BorderStyle.THIN);
-
-        Row headerRow = sheet.createRow(0);
-        // ✅ تحديث العناوين لإضافة كود الصنف
-        String[] headers = {"كود الصنف", "المكون", "المفروض", "المستخدم", "الحالة", "آخر استخدام", "المستخدم"};
-
-        for (int i = 0; i < headers.length; i++) {
-            Cell cell = headerRow.createCell(i);
-            cell.setCellValue(headers[i]);
-            cell.setCellStyle(headerStyle);
-            sheet.autoSizeColumn(i);
-        }
+        if (file == null) return;
 
-        int rowNum = 1;
-        for (UsageRow row : data) {
-            Row excelRow = sheet.createRow(rowNum++);
-            // ✅ تحديث ترتيب الخلايا
-            Cell cell0 = excelRow.createCell(0); cell0.setCellValue(row.getItemCode());
-            Cell cell1 = excelRow.createCell(1); cell1.setCellValue(row.getItemName());
-            Cell cell2 = excelRow.createCell(2); cell2.setCellValue(row.getExpected());
-            Cell cell3 = excelRow.createCell(3); cell3.setCellValue(row.getUsed());
-            Cell cell4 = excelRow.createCell(4); cell4.setCellValue(row.getStatus());
-            Cell cell5 = excelRow.createCell(5); cell5.setCellValue(row.getUsedAt());
-            Cell cell6 = excelRow.createCell(6); cell6.setCellValue(row.getUsedBy());
-
-            // تطبيق الأنماط على الخلايا
-            for (int i = 0; i < 7; i++) {
-                excelRow.getCell(i).setCellStyle(cellStyle);
+        List<UsageRow> rows = new ArrayList<>(filteredUsageList);
+        ExcelExporter.export(exportExcelBtn.getScene().getWindow(), file, book -> {
+            book.expectRows(rows.size());
+            ExcelExporter.SheetWriter sheet = book.sheet("تقرير السيريالات");
+            // ✅ كود الصنف في أول عمود
+            sheet.header("كود الصنف", "المكون", "المفروض", "المستخدم", "الحالة", "آخر استخدام", "المستخدم");
+            for (UsageRow row : rows) {
+                sheet.row(row.getItemCode(), row.getItemName(), row.getExpected(), row.getUsed(),
+                        row.getStatus(), row.getUsedAt(), row.getUsedBy());
             }
-        }
-
-        for (int i = 0; i < headers.length; i++) sheet.autoSizeColumn(i);
-
-        try (FileOutputStream fileOut = new FileOutputStream(file)) {
-            workbook.write(fileOut);
-        }
-
-        workbook.close();
+        }, () -> showAlert("تم التصدير بنجاح إلى: " + file.getAbsolutePath()), e -> {
+            e.printStackTrace();
+            showAlert("حدث خطأ أثناء التصدير: " + e.getMessage());
+        });
     }
+
     private String computeStatus(double expected, double used) {
         if (expected <= 0 && used > 0) return "تجاوز (لا يوجد متوقع)";
         if (used > expected) return String.format("تجاوز (%.2f > %.2f)", used, expected);
@@ -1,15 +1,13 @@
 package app.controllers;
 
 import app.current_user.CurrentUser;
-import app.db.DatabaseConnection;
+import app.db.DbExecutor;
 import app.models.Item;
 import app.services.ItemDAO;
 import app.services.LogService; // أضف هذا الاستيراد
-import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 
-import java.sql.Connection;
 
 public class StockInController {
 
@@ -19,17 +17,15 @@ public class StockInController {
     @FXML private Label statusLabel;
 
     private ItemDAO itemDAO;
-    private Connection conn;
 
     @FXML
     public void initialize() {
         try {
-            conn = DatabaseConnection.getConnection();
             itemDAO = new ItemDAO();
 
-            // تحميل الأصناف
-            ObservableList<Item> items = itemDAO.getAllItems();
-            itemCombo.setItems(items);
+            // تحميل الأصناف في الخلفية
+            DbExecutor.supply(itemDAO::getAllItems, itemCombo::setItems,
+                    e -> showError("Database error: " + e.getMessage()));
 
             // عرض اسم الصنف بدل الكائن
             itemCombo.setCellFactory(param -> new ListCell<>() {
@@ -71,7 +67,7 @@ public class StockInController {
 
         String notes = notesField.getText();
 
-        try {
+        DbExecutor.run(() -> {
             // ✅ إصلاح: استخدام CurrentUser.getId() بدلاً من رقم ثابت
             itemDAO.addStock(selected.getItemID(), qty, CurrentUser.getId(), notes);
 
@@ -79,14 +75,13 @@ public class StockInController {
             String description = String.format("إدخال كمية: تم إضافة %.2f وحدة من الصنف '%s' - الملاحظات: %s",
                     qty, selected.getItemName(), notes.isEmpty() ? "لا توجد" : notes);
             LogService.addLog("STOCK_IN", description);
-
+        }, () -> {
             showSuccess("تمت إضافة الكمية بنجاح ✅");
             clearForm();
-
-        } catch (Exception e) {
+        }, e -> {
             showError("خطأ أثناء الإضافة: " + e.getMessage());
             e.printStackTrace();
-        }
+        });
     }
     private void clearForm() {
         quantityField.clear();
@@ -2,14 +2,19 @@ package app.controllers;
 
 import app.current_user.CurrentUser;
 import app.db.DatabaseConnection;
+import app.db.DbExecutor;
 import app.models.Item;
+import app.services.EmployeeDirectory;
 import app.services.LogService;
+import app.services.StockMovementService;
 import app.utils.RawThermalPrinter;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 
 public class StockOutController {
 
@@ -24,6 +29,8 @@ public class StockOutController {
 
     private ObservableList<Item> itemList = FXCollections.observableArrayList();
     private ObservableList<String> employeeList = FXCollections.observableArrayList();
+    private final DbExecutor.Latest<List<Item>> itemsLoader = new DbExecutor.Latest<>();
+    private final StockMovementService stockMovementService = new StockMovementService();
 
     @FXML
     public void initialize() {
@@ -63,56 +70,54 @@ public class StockOutController {
 
     // ✅ تحميل الأصناف من قاعدة البيانات الأساسية
     private void loadItems() {
-        itemList.clear();
         String sql = "SELECT i.ItemID, i.ItemName, u.UnitName, s.Quantity, i.MinQuantity " +
                 "FROM Items i " +
                 "JOIN Units u ON i.UnitID = u.UnitID " +
                 "JOIN StockBalances s ON i.ItemID = s.ItemID";
-        try (Connection conn = DatabaseConnection.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-
-            while (rs.next()) {
-                itemList.add(new Item(
-                        rs.getInt("ItemID"),
-                        rs.getString("ItemName"),
-                        rs.getString("UnitName"),
-                        rs.getDouble("Quantity"),
-                        rs.getDouble("MinQuantity")
-                ));
+        itemsLoader.submit(() -> {
+            List<Item> items = new ArrayList<>();
+            try (Connection conn = DatabaseConnection.getConnection();
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(sql)) {
+
+                while (rs.next()) {
+                    items.add(new Item(
+                            rs.getInt("ItemID"),
+                            rs.getString("ItemName"),
+                            rs.getString("UnitName"),
+                            rs.getDouble("Quantity"),
+                            rs.getDouble("MinQuantity")
+                    ));
+                }
             }
-
+            return items;
+        }, items -> {
+            itemList.setAll(items);
             itemComboBox.setItems(itemList);
-        } catch (SQLException e) {
-            showAlert("خطأ", "فشل في تحميل الأصناف: " + e.getMessage());
-        }
+        }, e -> showAlert("خطأ", "فشل في تحميل الأصناف: " + e.getMessage()));
     }
 
     // ✅ تحميل الموظفين من قاعدة البيانات الأخرى (Chemtech_management)
     private void loadEmployees() {
-        employeeList.clear();
-        String url = "jdbc:sqlserver://localhost;databaseName=Chemtech_management;encrypt=false;";
-        String user = "Chem_Tech";
-        String password = "AD@chem@25!!";
-
-        String sql = "SELECT employee_id, name FROM Employees ORDER BY name";
-        try (Connection conn = DriverManager.getConnection(url, user, password);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-
-            while (rs.next()) {
-                int id = rs.getInt("employee_id");
-                String name = rs.getString("name");
-                employeeList.add(id + " - " + name);
+        // ✅ من نسخة الموظفين في الذاكرة (EmployeeDirectory) بدل query على قاعدة الإدارة كل مرة
+        DbExecutor.supply(() -> {
+            List<String> employees = new ArrayList<>();
+            for (EmployeeDirectory.Employee employee : EmployeeDirectory.all()) {
+                employees.add(employee.toString());
             }
-
+            if (employees.isEmpty()) {
+                throw new SQLException("قاعدة بيانات الموظفين غير متاحة");
+            }
+            return employees;
+        }, employees -> {
+            employeeList.setAll(employees);
             receiverComboBox.setItems(employeeList);
-        } catch (SQLException e) {
+        }, e -> {
             showAlert("خطأ", "فشل في تحميل الموظفين: " + e.getMessage());
             // ✅ إضافة خيارات افتراضية في حالة الخطأ
-            employeeList.addAll("1 - مدير النظام", "2 - أمين المخزن");
+            employeeList.setAll("1 - مدير النظام", "2 - أمين المخزن");
             receiverComboBox.setItems(employeeList);
-        }
+        });
     }
 
     // ✅ البحث داخل ComboBox الموظفين
@@ -165,37 +170,28 @@ public class StockOutController {
             return;
         }
 
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            // ✅ فقط تسجيل المعاملة - التريجر سيتولى الباقي
-            String insertSql = "INSERT INTO StockTransactions (ItemID, TransactionType, Quantity, ReceiverName, EmployeeID, Notes) VALUES (?, 'OUT', ?, ?, ?, ?)";
-            try (PreparedStatement ps = conn.prepareStatement(insertSql)) {
-                ps.setInt(1, selectedItem.getItemID());
-                ps.setDouble(2, qty);
-                ps.setString(3, receiver);
-                ps.setInt(4, CurrentUser.getId());
-                ps.setString(5, notes);
-                ps.executeUpdate();
-            }
+        saveButton.setDisable(true);
+        String finalNotes = notes == null ? "" : notes;
+        DbExecutor.run(() -> {
+            // ✅ الرصيد بيتفحص في الداتابيز وقت الصرف - الكمية اللي في الشاشة ممكن تكون قديمة
+            stockMovementService.issue(selectedItem.getItemID(), qty, CurrentUser.getId(), receiver, finalNotes);
 
             // ✅ تسجيل العملية في اللوج
             String description = String.format("صرف كمية: تم صرف %.2f وحدة من الصنف '%s' - المستلم: %s - الملاحظات: %s",
-                    qty, selectedItem.getItemName(), receiver, notes.isEmpty() ? "لا توجد" : notes);
+                    qty, selectedItem.getItemName(), receiver, finalNotes.isEmpty() ? "لا توجد" : finalNotes);
             LogService.addLog("STOCK_OUT", description);
-
+        }, () -> {
+            saveButton.setDisable(false);
             showAlert("تم بنجاح", "تم تسجيل عملية الصرف بنجاح ✅");
-            // ✅ طباعة ريسيت بعد الصرف
-
-
-
 
             // تحديث البيانات
             loadItems();
             clearForm();
-
-        } catch (SQLException e) {
+        }, e -> {
+            saveButton.setDisable(false);
             showAlert("خطأ", "حدث خطأ أثناء حفظ العملية: " + e.getMessage());
             e.printStackTrace();
-        }
+        });
     }
 
     // ✅ دالة لاستخراج الـ Employee ID من النص
@@ -2,22 +2,40 @@ package app.controllers;
 
 import app.current_user.CurrentUser;
 import app.db.DatabaseConnection;
+import app.db.DbExecutor;
+import app.db.SchemaMigrations;
+import app.services.ChangeEventBus;
+import app.services.ItemSearchIndex;
 import app.services.LogService;
+import app.services.ReferenceDataCache;
+import app.services.StockMovementService;
 import app.utils.RawThermalPrinter;
+import app.utils.ExcelExporter;
+import javafx.animation.PauseTransition;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
+import javafx.collections.transformation.SortedList;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.GridPane;
 import javafx.stage.FileChooser;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import javafx.util.Duration;
 
-import java.io.FileOutputStream;
 import java.sql.*;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Predicate;
 
 public class StockViewController {
 
@@ -33,7 +51,18 @@ public class StockViewController {
     @FXML private ComboBox<String> statusFilterCombo;
 
     private final ObservableList<ItemData> allItems = FXCollections.observableArrayList();
-    private StockOutput currentStockOutput;
+    // الجدول بيعرض allItems من خلال الفلتر - من غير ما نبني قائمة جديدة مع كل حرف
+    private final FilteredList<ItemData> visibleItems = new FilteredList<>(allItems);
+    // ترتيب الأعمدة (ضغطة على العنوان) بيتطبق هنا - الـ TableView ما يقدرش يرتب FilteredList بنفسه
+    private final SortedList<ItemData> sortedItems = new SortedList<>(visibleItems);
+    private final ItemSearchIndex<ItemData> searchIndex = ItemSearchIndex.of(
+            ItemData::getItemId, ItemData::getItemCode, ItemData::getItemName, ItemData::getStatus);
+    // البحث بيتطبق بعد ما الكتابة تهدى شوية مش مع كل حرف
+    private final PauseTransition searchDebounce = new PauseTransition(Duration.millis(150));
+    private final DbExecutor.Latest<StockDelta> stockLoader = new DbExecutor.Latest<>();
+    // آخر رقم إصدار (ROWVERSION) اتعرض - null لحد أول تحميل كامل
+    private byte[] watermark;
+    private long watermarkAt;
 
     @FXML
     public void initialize() {
@@ -44,98 +73,215 @@ public class StockViewController {
         minQuantityColumn.setCellValueFactory(new PropertyValueFactory<>("minQuantity"));
         statusColumn.setCellValueFactory(new PropertyValueFactory<>("status"));
 
+        // الفهرس بيتحدث لوحده مع أي تعديل في allItems (تحميل كامل أو delta)
+        searchIndex.follow(allItems);
+        sortedItems.comparatorProperty().bind(stockTable.comparatorProperty());
+        stockTable.setItems(sortedItems);
+
         loadStockData();
+        // ✅ حركات من شبابيك أو أجهزة تانية - بنجيب الصفوف اللي اتغيرت بس
+        ChangeEventBus.subscribe(stockTable, this::loadStockData,
+                ChangeEventBus.Topic.STOCK, ChangeEventBus.Topic.ITEMS);
 
-        searchField.textProperty().addListener((obs, oldValue, newValue) -> {
-            filterItems(newValue);
-        });
+        searchDebounce.setOnFinished(e -> applyFilters());
+        searchField.textProperty().addListener((obs, oldValue, newValue) -> searchDebounce.playFromStart());
 
         statusFilterCombo.setItems(FXCollections.observableArrayList("الكل", "✅ OK", "⚠️ Low Stock"));
         statusFilterCombo.setValue("الكل");
-        statusFilterCombo.setOnAction(e -> filterByStatus());
+        statusFilterCombo.setOnAction(e -> applyFilters());
     }
 
-    private void filterItems(String keyword) {
-        if (keyword == null || keyword.trim().isEmpty()) {
-            filterByStatus();
-            return;
+    /**
+     * البحث (من الفهرس) + فلتر الحالة مع بعض
+     */
+    private void applyFilters() {
+        searchDebounce.stop();
+        Predicate<ItemData> matchesSearch = searchIndex.matcher(searchField.getText());
+        String status = statusFilterCombo.getValue();
+        if (status == null || status.equals("الكل")) {
+            visibleItems.setPredicate(matchesSearch);
+        } else {
+            visibleItems.setPredicate(item -> item.getStatus().equals(status) && matchesSearch.test(item));
         }
-
-        ObservableList<ItemData> filtered = FXCollections.observableArrayList();
-        String searchTerm = keyword.toLowerCase().trim();
-
-        for (ItemData item : allItems) {
-            boolean matchesName = item.getItemName().toLowerCase().contains(searchTerm);
-            boolean matchesCode = item.getItemCode() != null && item.getItemCode().toLowerCase().contains(searchTerm);
-            boolean matchesQuantity = String.valueOf(item.getQuantity()).contains(searchTerm);
-            boolean matchesId = String.valueOf(item.getItemId()).contains(searchTerm);
-            boolean matchesStatus = item.getStatus().toLowerCase().contains(searchTerm);
-
-            // Search by name OR code (main change here)
-            if (matchesName || matchesCode || matchesQuantity || matchesId || matchesStatus) {
-                filtered.add(item);
-            }
-        }
-        stockTable.setItems(filtered);
     }
 
     private void loadStockData() {
-        allItems.clear();
+        refreshButton.setDisable(true);
+        // الحذف القديم بيتمسح من StockGridDeletions - watermark أقدم من كده ممكن يفوّت صف اتحذف
+        byte[] since = System.currentTimeMillis() - watermarkAt < DELTA_MAX_AGE_MS ? watermark : null;
+        stockLoader.submit(() -> fetchStockData(since), delta -> {
+            applyStockDelta(delta);
+            refreshButton.setDisable(false);
+            // إعادة تطبيق البحث/الفلتر الحالي على البيانات الجديدة
+            applyFilters();
+        }, e -> {
+            refreshButton.setDisable(false);
+            e.printStackTrace();
+            showError("خطأ في تحميل بيانات المخزون: " + e.getMessage());
+        });
+    }
 
-        String query = """
-        SELECT 
+    private static final String STOCK_SELECT = """
+        SELECT
             i.ItemID,
             i.ItemCode AS ItemCode,
             i.ItemName AS ItemName,
             u.UnitName AS UnitName,
             sb.Quantity AS Quantity,
             i.MinQuantity AS MinQuantity
-        FROM StockBalances sb
-        INNER JOIN Items i ON sb.ItemID = i.ItemID
-        INNER JOIN Units u ON i.UnitID = u.UnitID
-        ORDER BY i.ItemName
     """;
 
-        try (Connection conn = DatabaseConnection.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(query)) {
-
-            while (rs.next()) {
-                int itemId = rs.getInt("ItemID");
-                String code = rs.getString("ItemCode");
-                String name = rs.getString("ItemName");
-                String unit = rs.getString("UnitName");
-                double qty = rs.getDouble("Quantity");
-                double minQty = rs.getDouble("MinQuantity");
+    // ✅ الصفوف اللي اتغيرت من آخر تحميل بس (الرصيد، بيانات الصنف، أو اسم الوحدة) + المحذوف
+    private static final String STOCK_DELTA_QUERY = """
+        WITH Changed AS (
+            SELECT ItemID FROM Items WHERE RowVer >= ? AND RowVer < ?
+            UNION
+            SELECT ItemID FROM StockBalances WHERE RowVer >= ? AND RowVer < ?
+            UNION
+            SELECT i.ItemID FROM Units u JOIN Items i ON i.UnitID = u.UnitID WHERE u.RowVer >= ? AND u.RowVer < ?
+        )
+        SELECT 0 AS Removed, x.* FROM (
+            %s
+            FROM Changed c
+            INNER JOIN StockBalances sb ON sb.ItemID = c.ItemID
+            INNER JOIN Items i ON i.ItemID = c.ItemID
+            INNER JOIN Units u ON i.UnitID = u.UnitID
+        ) x
+        UNION ALL
+        SELECT DISTINCT 1, ItemID, NULL, NULL, NULL, NULL, NULL
+        FROM StockGridDeletions WHERE RowVer >= ? AND RowVer < ?
+    """.formatted(STOCK_SELECT);
+
+    // الحذف بيتحفظ يوم - وأي شاشة آخر تحميل ليها من أكتر من 12 ساعة بتحمل كله بدل الـ delta،
+    // فمفيش watermark شغال أقدم من اللي بيتمسح
+    private static final String PRUNE_DELETIONS_QUERY =
+            "DELETE TOP (10000) FROM StockGridDeletions WHERE DeletedAt < DATEADD(DAY, -1, SYSDATETIME())";
+    private static final long DELTA_MAX_AGE_MS = 12 * 60 * 60_000;
+    private static final long PRUNE_INTERVAL_MS = 60 * 60_000;
+    // مشتركة بين كل شبابيك المخزون المفتوحة
+    private static volatile long lastPrune = 0;
+
+    /**
+     * بيشتغل في الخلفية. since = null يعني تحميل كامل (أول مرة تتفتح الشاشة)
+     */
+    private StockDelta fetchStockData(byte[] since) throws SQLException {
+        SchemaMigrations.ensureApplied();
+        boolean versioned = SchemaMigrations.isApplied(SchemaMigrations.STOCK_ROW_VERSIONS);
 
-                String status = (qty < minQty) ? "⚠️ Low Stock" : "✅ OK";
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            // أي حاجة أقل من الرقم ده اتعملها commit - اللي أكبر منه هيتجاب المرة الجاية
+            byte[] next = null;
+            if (versioned) {
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT MIN_ACTIVE_ROWVERSION()")) {
+                    if (rs.next()) next = rs.getBytes(1);
+                }
+            }
 
-                allItems.add(new ItemData(itemId, code, name, unit, qty, minQty, status));
+            if (versioned) pruneDeletions(conn);
+
+            StockDelta delta = new StockDelta(since == null || next == null, next);
+            if (delta.full) {
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery(STOCK_SELECT + """
+                         FROM StockBalances sb
+                         INNER JOIN Items i ON sb.ItemID = i.ItemID
+                         INNER JOIN Units u ON i.UnitID = u.UnitID
+                     """)) {
+                    while (rs.next()) delta.items.add(readItem(rs));
+                }
+                // نفس الترتيب اللي الـ delta بيدخل بيه الصفوف الجديدة (مش الـ collation بتاع السيرفر)
+                delta.items.sort(BY_NAME);
+                return delta;
             }
 
-            stockTable.setItems(allItems);
+            try (PreparedStatement ps = conn.prepareStatement(STOCK_DELTA_QUERY)) {
+                for (int p = 1; p <= 8; p += 2) {
+                    ps.setBytes(p, since);
+                    ps.setBytes(p + 1, next);
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        if (rs.getInt("Removed") == 1) {
+                            delta.removedIds.add(rs.getInt("ItemID"));
+                        } else {
+                            delta.items.add(readItem(rs));
+                        }
+                    }
+                }
+            }
+            return delta;
+        }
+    }
 
-        } catch (SQLException e) {
-            e.printStackTrace();
-            showError("خطأ في تحميل بيانات المخزون: " + e.getMessage());
+    // أي نسخة من البرنامج ممكن تنضف - الحذف بسيط ومش بيتعارض
+    private static void pruneDeletions(Connection conn) throws SQLException {
+        long now = System.currentTimeMillis();
+        if (now - lastPrune < PRUNE_INTERVAL_MS) return;
+        lastPrune = now;
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate(PRUNE_DELETIONS_QUERY);
         }
     }
-    private void filterByStatus() {
-        String selected = statusFilterCombo.getValue();
-        if (selected == null || selected.equals("الكل")) {
-            stockTable.setItems(allItems);
+
+    private ItemData readItem(ResultSet rs) throws SQLException {
+        int itemId = rs.getInt("ItemID");
+        String code = rs.getString("ItemCode");
+        String name = rs.getString("ItemName");
+        String unit = rs.getString("UnitName");
+        double qty = rs.getDouble("Quantity");
+        double minQty = rs.getDouble("MinQuantity");
+
+        String status = (qty < minQty) ? "⚠️ Low Stock" : "✅ OK";
+
+        return new ItemData(itemId, code, name, unit, qty, minQty, status);
+    }
+
+    /**
+     * بتعدل allItems في مكانها: الصف اللي اتغير بيتبدل، والجديد بيدخل في مكانه حسب الاسم
+     */
+    private void applyStockDelta(StockDelta delta) {
+        watermark = delta.watermark;
+        watermarkAt = delta.takenAt;
+        if (delta.full) {
+            allItems.setAll(delta.items);
             return;
         }
+        if (delta.items.isEmpty() && delta.removedIds.isEmpty()) return;
 
-        ObservableList<ItemData> filtered = FXCollections.observableArrayList();
-        for (ItemData item : allItems) {
-            if (item.getStatus().equals(selected)) {
-                filtered.add(item);
+        Map<Integer, Integer> positions = new HashMap<>(allItems.size() * 2);
+        for (int i = 0; i < allItems.size(); i++) {
+            positions.put(allItems.get(i).getItemId(), i);
+        }
+
+        Set<Integer> removed = new HashSet<>(delta.removedIds);
+        List<ItemData> inserted = new ArrayList<>();
+        for (ItemData item : delta.items) {
+            Integer pos = positions.get(item.getItemId());
+            if (pos != null && allItems.get(pos).getItemName().equals(item.getItemName())) {
+                allItems.set(pos, item);
+            } else {
+                // جديد أو اسمه اتغير - مكانه في الترتيب ممكن يكون اتغير
+                if (pos != null) removed.add(item.getItemId());
+                inserted.add(item);
             }
         }
-        stockTable.setItems(filtered);
+
+        if (!removed.isEmpty()) {
+            allItems.removeIf(item -> removed.contains(item.getItemId()));
+        }
+        for (ItemData item : inserted) {
+            int pos = Collections.binarySearch(allItems, item, BY_NAME);
+            allItems.add(pos < 0 ? -pos - 1 : pos, item);
+        }
     }
 
+    // ترتيب عربي واحد للتحميل الكامل وللـ binarySearch بتاع الـ delta - والـ ID لو الاسم متكرر
+    private static final Collator NAME_ORDER = Collator.getInstance(Locale.forLanguageTag("ar"));
+    private static final Comparator<ItemData> BY_NAME = Comparator
+            .comparing(ItemData::getItemName, Comparator.nullsFirst(NAME_ORDER))
+            .thenComparingInt(ItemData::getItemId);
+
 //    private void filterItems(String keyword) {
 //        if (keyword == null || keyword.trim().isEmpty()) {
 //            filterByStatus();
@@ -182,11 +328,13 @@ public class StockViewController {
                         qty, selectedItem.getItemName(),
                         input.getNotes().isEmpty() ? "لا توجد ملاحظات" : input.getNotes());
 
-                LogService.addLog("STOCK_IN", description);
-                updateStock(selectedItem, qty, "IN", input.getNotes());
-                loadStockData();
-
-                showInfo("تم إضافة الكمية بنجاح!");
+                DbExecutor.supply(() -> {
+                    LogService.addLog("STOCK_IN", description);
+                    return updateStock(selectedItem, qty, "IN", input.getNotes(), null);
+                }, warning -> {
+                    loadStockData();
+                    showInfo("تم إضافة الكمية بنجاح!");
+                }, e -> showError("خطأ في تحديث المخزون: " + e.getMessage()));
 
             } catch (NumberFormatException e) {
                 showError("قيمة الكمية غير صالحة!");
@@ -222,72 +370,98 @@ public class StockViewController {
                     return;
                 }
 
-                if (input.getUsageType().equals("جهاز جديد")) {
-                    // ✅ إذا تم التعامل مع الطلب المتجاوز في checkDeviceComponents، لا نكمل
-                    boolean shouldContinue = checkDeviceComponents(selectedItem.getItemId(), input.getDeviceName(), qty, input.getSerialNumber(), input.getNewSerial());
-                    if (!shouldContinue) {
-                        return; // توقف هنا إذا تم التعامل مع الطلب المتجاوز
-                    }
-                }
-
                 if (input.getUsageType().equals("صيانة") && (input.getReceiver() == null || input.getReceiver().trim().isEmpty())) {
                     showError("في حالة الصيانة يجب إدخال اسم المستلم!");
                     return;
                 }
 
-                currentStockOutput = input;
-
-                String description = String.format(
-                        "تم صرف %.2f وحدة من الصنف %s - المستلم: %s - نوع الاستخدام: %s - الملاحظات: %s",
-                        qty, selectedItem.getItemName(),
-                        input.getReceiver() != null ? input.getReceiver() : "غير محدد",
-                        input.getUsageType(),
-                        input.getNotes().isEmpty() ? "لا توجد ملاحظات" : input.getNotes()
-                );
-
-                LogService.addLog("STOCK_OUT", description);
-
-                // ✅ هذا السطر يتم تنفيذه فقط إذا لم يكن هناك طلب متجاوز
-                updateStock(selectedItem, -qty, "OUT", input.getReceiver() + " - " + input.getNotes());
+                if (input.getUsageType().equals("جهاز جديد")) {
+                    String finalSerial = (input.getSerialNumber() != null && !input.getSerialNumber().trim().isEmpty())
+                            ? input.getSerialNumber() : input.getNewSerial();
+                    if (finalSerial == null || finalSerial.trim().isEmpty()) {
+                        showError("يجب اختيار سيريال موجود أو إدخال سيريال جديد!");
+                        return;
+                    }
 
-                loadStockData();
+                    // ✅ التحقق من الكمية المسموحة للجهاز في الخلفية، وبعدها نكمل أو نعرض تحذير التجاوز
+                    DbExecutor.supply(
+                            () -> checkDeviceComponents(selectedItem.getItemId(), input.getDeviceName(), finalSerial),
+                            check -> {
+                                if (check.serialId == 0) return;
+                                if (qty > check.remainingQuantity) {
+                                    // ✅ إذا كان هناك تجاوز، يتم التعامل معه بطلب للمدير ولا نكمل الصرف العادي
+                                    showExceedWarning(selectedItem.getItemId(), check.serialId, qty, check.remainingQuantity, finalSerial);
+                                } else {
+                                    performStockOut(selectedItem, qty, input);
+                                }
+                            },
+                            e -> {
+                                e.printStackTrace();
+                                showError("خطأ في التحقق من مكونات الجهاز: " + e.getMessage());
+                            });
+                    return;
+                }
 
-                showInfo("تم صرف الكمية بنجاح!");
+                performStockOut(selectedItem, qty, input);
             } catch (NumberFormatException e) {
                 showError("قيمة الكمية غير صالحة!");
-            } finally {
-                currentStockOutput = null;
             }
         }
     }
 
-    private boolean checkDeviceComponents(int itemId, String deviceName, double requestedQty, String serialNumber, String newSerial) {
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            String finalSerial = (serialNumber != null && !serialNumber.trim().isEmpty()) ? serialNumber : newSerial;
-            if (finalSerial == null || finalSerial.trim().isEmpty()) {
-                showError("يجب اختيار سيريال موجود أو إدخال سيريال جديد!");
-                return false;
+    private void performStockOut(ItemData selectedItem, double qty, StockOutput input) {
+        String description = String.format(
+                "تم صرف %.2f وحدة من الصنف %s - المستلم: %s - نوع الاستخدام: %s - الملاحظات: %s",
+                qty, selectedItem.getItemName(),
+                input.getReceiver() != null ? input.getReceiver() : "غير محدد",
+                input.getUsageType(),
+                input.getNotes().isEmpty() ? "لا توجد ملاحظات" : input.getNotes()
+        );
+
+        DbExecutor.supply(() -> {
+            String printWarning = updateStock(selectedItem, -qty, "OUT", input.getReceiver() + " - " + input.getNotes(), input);
+            LogService.addLog("STOCK_OUT", description);
+            return printWarning;
+        }, printWarning -> {
+            loadStockData();
+            if (printWarning != null) {
+                showError(printWarning);
+            } else {
+                showInfo("تم صرف الكمية بنجاح!");
+            }
+        }, e -> {
+            if (e instanceof StockMovementService.InsufficientStockException) {
+                // ✅ الرصيد اتغير من وقت ما الشاشة اتحملت - نعرض المتاح فعلاً ونحدث الجدول
+                loadStockData();
+                showError(e.getMessage());
+            } else {
+                showError("خطأ في تحديث المخزون: " + e.getMessage());
             }
+        });
+    }
 
+    /**
+     * بيشتغل في الخلفية - بيرجع السيريال والكمية المتبقية المسموحة للصنف في الجهاز
+     */
+    private DeviceQuota checkDeviceComponents(int itemId, String deviceName, String finalSerial) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection()) {
             int serialId = getOrCreateSerialId(deviceName, finalSerial, conn);
-            if (serialId == 0) return false;
+            if (serialId == 0) return new DeviceQuota(0, 0);
 
             double usedQuantity = getUsedQuantityForSerial(serialId, itemId, conn);
             double allowedQuantity = getAllowedQuantityForDevice(deviceName, itemId, conn);
 
-            double remainingQuantity = allowedQuantity - usedQuantity;
-
-            if (requestedQty > remainingQuantity) {
-                // ✅ إذا كان هناك تجاوز، تعامل معه وأعد false لوقف العملية
-                return showExceedWarning(itemId, serialId, requestedQty, remainingQuantity, finalSerial);
-            }
+            return new DeviceQuota(serialId, allowedQuantity - usedQuantity);
+        }
+    }
 
-            return true; // ✅ لا يوجد تجاوز، أكمل العملية الطبيعية
+    private static class DeviceQuota {
+        final int serialId;
+        final double remainingQuantity;
 
-        } catch (SQLException e) {
-            e.printStackTrace();
-            showError("خطأ في التحقق من مكونات الجهاز: " + e.getMessage());
-            return false;
+        DeviceQuota(int serialId, double remainingQuantity) {
+            this.serialId = serialId;
+            this.remainingQuantity = remainingQuantity;
         }
     }
     private double getUsedQuantityForSerial(int serialId, int itemId, Connection conn) throws SQLException {
@@ -301,9 +475,12 @@ public class StockViewController {
     }
 
     private double getAllowedQuantityForDevice(String deviceName, int itemId, Connection conn) throws SQLException {
-        String query = "SELECT Quantity FROM DeviceComponents WHERE DeviceID = (SELECT DeviceID FROM Devices WHERE DeviceName = ?) AND ItemID = ?";
+        Integer deviceId = ReferenceDataCache.deviceId(deviceName);
+        if (deviceId == null) return 0;
+
+        String query = "SELECT Quantity FROM DeviceComponents WHERE DeviceID = ? AND ItemID = ?";
         try (PreparedStatement ps = conn.prepareStatement(query)) {
-            ps.setString(1, deviceName);
+            ps.setInt(1, deviceId);
             ps.setInt(2, itemId);
             ResultSet rs = ps.executeQuery();
             return rs.next() ? rs.getDouble(1) : 0;
@@ -333,7 +510,7 @@ public class StockViewController {
         return 0;
     }
 
-    private boolean showExceedWarning(int itemId, int serialId, double requestedQty, double remainingQty, String serialNumber) {
+    private void showExceedWarning(int itemId, int serialId, double requestedQty, double remainingQty, String serialNumber) {
         double exceededQty = requestedQty - remainingQty;
 
         Dialog<ExceedRequest> dialog = new Dialog<>();
@@ -379,14 +556,21 @@ public class StockViewController {
         Optional<ExceedRequest> result = dialog.showAndWait();
         if (result.isPresent()) {
             ExceedRequest request = result.get();
-            boolean success = createStockRequest(itemId, serialId, requestedQty, remainingQty, request.getReason(), request.getDefectiveNumber(), serialNumber);
-            // ✅ إذا نجح إنشاء الطلب، أعد false لوقف العملية الرئيسية
-            return !success;
+            DbExecutor.run(
+                    () -> createStockRequest(itemId, serialId, requestedQty, remainingQty, request.getReason(), request.getDefectiveNumber(), serialNumber),
+                    () -> {
+                        loadStockData();
+                        showInfo("تم صرف الكمية المسموحة (" + remainingQty + ") الآن، وتم إرسال طلب للكمية الزائدة (" + exceededQty + ") للمدير");
+                    },
+                    e -> {
+                        e.printStackTrace();
+                        showError("خطأ في إنشاء طلب الصرف: " + e.getMessage());
+                    });
         }
-        // ✅ إذا ألغى المستخدم، أعد false لوقف العملية
-        return false;
+        // ✅ إذا ألغى المستخدم، لا يتم الصرف
     }
-    private boolean createStockRequest(int itemId, int serialId, double requestedQty, double remainingQty, String reason, String defectiveNumber, String serialNumber) {
+
+    private void createStockRequest(int itemId, int serialId, double requestedQty, double remainingQty, String reason, String defectiveNumber, String serialNumber) throws SQLException {
         double exceededQty = requestedQty - remainingQty;
 
         try (Connection conn = DatabaseConnection.getConnection()) {
@@ -406,14 +590,6 @@ public class StockViewController {
                 ps.setString(8, CurrentUser.getName());
                 ps.executeUpdate();
             }
-
-            showInfo("تم صرف الكمية المسموحة (" + remainingQty + ") الآن، وتم إرسال طلب للكمية الزائدة (" + exceededQty + ") للمدير");
-            return true;
-
-        } catch (SQLException e) {
-            e.printStackTrace();
-            showError("خطأ في إنشاء طلب الصرف: " + e.getMessage());
-            return false;
         }
     }
 
@@ -424,7 +600,7 @@ public class StockViewController {
         if (item != null) {
             // Perform immediate stock out for allowed quantity
             String description = "صرف كمية مسموحة للجهاز - السيريال: " + serialId;
-            updateStock(item, -quantity, "OUT", "System - " + description);
+            updateStock(item, -quantity, "OUT", "System - " + description, null);
 
             // Record in SerialComponentUsage
             String usageQuery = "INSERT INTO SerialComponentUsage (SerialID, ItemID, Quantity, UsedBy) VALUES (?, ?, ?, ?)";
@@ -540,22 +716,34 @@ public class StockViewController {
         usageType.setItems(FXCollections.observableArrayList("جهاز جديد", "صيانة", "توالف"));
         usageType.setValue("جهاز جديد");
 
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            ResultSet rs = conn.prepareStatement("SELECT DeviceName FROM Devices").executeQuery();
-            while (rs.next()) deviceCombo.getItems().add(rs.getString(1));
-        } catch (Exception e) { e.printStackTrace(); }
+        DbExecutor.supply(() -> {
+            List<String> names = new ArrayList<>();
+            try (Connection conn = DatabaseConnection.getConnection();
+                 ResultSet rs = conn.prepareStatement("SELECT DeviceName FROM Devices").executeQuery()) {
+                while (rs.next()) names.add(rs.getString(1));
+            }
+            return names;
+        }, names -> deviceCombo.getItems().setAll(names), Throwable::printStackTrace);
 
+        DbExecutor.Latest<List<String>> serialLoader = new DbExecutor.Latest<>();
         deviceCombo.setOnAction(e -> {
             serialCombo.getItems().clear();
-            if (deviceCombo.getValue() != null) {
-                try (Connection conn = DatabaseConnection.getConnection()) {
-                    PreparedStatement ps = conn.prepareStatement(
-                            "SELECT SerialNumber FROM DeviceSerials WHERE DeviceID = (SELECT DeviceID FROM Devices WHERE DeviceName = ?)"
-                    );
-                    ps.setString(1, deviceCombo.getValue());
-                    ResultSet rs = ps.executeQuery();
-                    while (rs.next()) serialCombo.getItems().add(rs.getString(1));
-                } catch (Exception ex) { ex.printStackTrace(); }
+            String deviceName = deviceCombo.getValue();
+            if (deviceName != null) {
+                serialLoader.submit(() -> {
+                    List<String> serials = new ArrayList<>();
+                    try (Connection conn = DatabaseConnection.getConnection();
+                         PreparedStatement ps = conn.prepareStatement(
+                                 "SELECT SerialNumber FROM DeviceSerials WHERE DeviceID = (SELECT DeviceID FROM Devices WHERE DeviceName = ?)"
+                         )) {
+                        ps.setString(1, deviceName);
+                        ResultSet rs = ps.executeQuery();
+                        while (rs.next()) serials.add(rs.getString(1));
+                    }
+                    return serials;
+                }, serials -> serialCombo.getItems().setAll(serials), Throwable::printStackTrace);
+            } else {
+                serialLoader.cancel();
             }
         });
 
@@ -654,7 +842,10 @@ public class StockViewController {
         return dialog;
     }
 
-    private void updateStock(ItemData item, double qtyChange, String type, String notes) {
+    /**
+     * بيشتغل في الخلفية - بيرجع رسالة تحذير لو الصرف تم والطباعة فشلت، أو null
+     */
+    private String updateStock(ItemData item, double qtyChange, String type, String notes, StockOutput output) throws SQLException {
         try (Connection conn = DatabaseConnection.getConnection()) {
             conn.setAutoCommit(false);
 
@@ -670,26 +861,31 @@ public class StockViewController {
             int transactionId = 0;
 
             // 🧾 تسجيل العملية في StockTransactions
-            try (PreparedStatement ps = conn.prepareStatement(
-                    "INSERT INTO StockTransactions (ItemID, TransactionType, Quantity, ReceiverName, Notes, EmployeeID) " +
-                            "VALUES (?, ?, ?, ?, ?, ?); SELECT SCOPE_IDENTITY() AS TransactionID;"
-            )) {
-                ps.setInt(1, item.getItemId());
-                ps.setString(2, type);
-                ps.setDouble(3, Math.abs(qtyChange));
-                ps.setString(4, receiver.isEmpty() ? "System" : receiver);
-                ps.setString(5, cleanNotes);
-                ps.setInt(6, CurrentUser.getId());
-
-                ResultSet rs = ps.executeQuery();
-                if (rs.next()) {
-                    transactionId = rs.getInt("TransactionID");
+            if (type.equals("OUT")) {
+                // ✅ الرصيد بيتقفل ويتفحص ويتخصم في الداتابيز جوه نفس الـ transaction
+                transactionId = new StockMovementService().issueLine(conn, item.getItemId(), Math.abs(qtyChange),
+                        CurrentUser.getId(), receiver.isEmpty() ? "System" : receiver, cleanNotes);
+            } else {
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "INSERT INTO StockTransactions (ItemID, TransactionType, Quantity, ReceiverName, Notes, EmployeeID) " +
+                                "VALUES (?, ?, ?, ?, ?, ?); SELECT SCOPE_IDENTITY() AS TransactionID;"
+                )) {
+                    ps.setInt(1, item.getItemId());
+                    ps.setString(2, type);
+                    ps.setDouble(3, Math.abs(qtyChange));
+                    ps.setString(4, receiver.isEmpty() ? "System" : receiver);
+                    ps.setString(5, cleanNotes);
+                    ps.setInt(6, CurrentUser.getId());
+
+                    ResultSet rs = ps.executeQuery();
+                    if (rs.next()) {
+                        transactionId = rs.getInt("TransactionID");
+                    }
                 }
             }
 
             // 🧠 لو العملية صرف
-            if (type.equals("OUT") && currentStockOutput != null) {
-                StockOutput output = currentStockOutput;
+            if (type.equals("OUT") && output != null) {
                 String usageType = output.getUsageType();
 
                 // 🔧 حالة الصيانة
@@ -737,9 +933,8 @@ public class StockViewController {
                             if (rs.next()) {
                                 serialId = rs.getInt("SerialID");
                             } else {
-                                showError("السيريال المختار غير موجود!");
                                 conn.rollback();
-                                return;
+                                throw new SQLException("السيريال المختار غير موجود!");
                             }
                         }
                     }
@@ -775,9 +970,8 @@ public class StockViewController {
 
                     // 🚫 لا يوجد سيريال محدد أو مكتوب
                     else {
-                        showError("اختر سيريال موجود أو أضف سيريال جديد أولًا!");
                         conn.rollback();
-                        return;
+                        throw new SQLException("اختر سيريال موجود أو أضف سيريال جديد أولًا!");
                     }
 
                     // 🔗 ربط المكونات بالسيريال
@@ -811,13 +1005,10 @@ public class StockViewController {
                             cleanNotes
                     );
                 } catch (Exception e) {
-                    showError("تم الصرف بنجاح، ولكن حدث خطأ أثناء الطباعة:\n" + e.getMessage());
+                    return "تم الصرف بنجاح، ولكن حدث خطأ أثناء الطباعة:\n" + e.getMessage();
                 }
             }
-
-        } catch (SQLException e) {
-            e.printStackTrace();
-            showError("خطأ في تحديث المخزون: " + e.getMessage());
+            return null;
         }
     }
 
@@ -831,43 +1022,23 @@ public class StockViewController {
             java.io.File file = fileChooser.showSaveDialog(null);
             if (file == null) return;
 
-            Workbook workbook = new XSSFWorkbook();
-            Sheet sheet = workbook.createSheet("Stock Data");
-
-            Row header = sheet.createRow(0);
-            String[] columns = {"كود الصنف", "اسم الصنف", "الوحدة", "الكمية", "الحد الأدنى", "الحالة"};
-            for (int i = 0; i < columns.length; i++) {
-                org.apache.poi.ss.usermodel.Cell cell = header.createCell(i);
-                cell.setCellValue(columns[i]);
-                CellStyle style = workbook.createCellStyle();
-                Font font = workbook.createFont();
-                font.setBold(true);
-                style.setFont(font);
-                cell.setCellStyle(style);
-            }
-
-            List<ItemData> dataToExport = stockTable.getItems();
-            int rowIdx = 1;
-            for (ItemData item : dataToExport) {
-                Row row = sheet.createRow(rowIdx++);
-                row.createCell(0).setCellValue(item.getItemCode() != null ? item.getItemCode() : "");
-                row.createCell(1).setCellValue(item.getItemName());
-                row.createCell(2).setCellValue(item.getUnit());
-                row.createCell(3).setCellValue(item.getQuantity());
-                row.createCell(4).setCellValue(item.getMinQuantity());
-                row.createCell(5).setCellValue(item.getStatus());
-            }
-
-            for (int i = 0; i < columns.length; i++) sheet.autoSizeColumn(i);
-
-            try (FileOutputStream out = new FileOutputStream(file)) {
-                workbook.write(out);
-            }
-            workbook.close();
-
-            LogService.addLog("EXPORT_REPORT", "تم تصدير تقرير المخزون إلى Excel");
-
-            showInfo("تم تصدير الملف بنجاح:\n" + file.getAbsolutePath());
+            // نسخة من الصفوف الظاهرة - الكتابة نفسها في الخلفية
+            List<ItemData> dataToExport = new ArrayList<>(stockTable.getItems());
+            ExcelExporter.export(stockTable.getScene().getWindow(), file, book -> {
+                book.expectRows(dataToExport.size());
+                ExcelExporter.SheetWriter sheet = book.sheet("Stock Data");
+                sheet.header("كود الصنف", "اسم الصنف", "الوحدة", "الكمية", "الحد الأدنى", "الحالة");
+                for (ItemData item : dataToExport) {
+                    sheet.row(item.getItemCode() != null ? item.getItemCode() : "", item.getItemName(),
+                            item.getUnit(), item.getQuantity(), item.getMinQuantity(), item.getStatus());
+                }
+            }, () -> {
+                LogService.addLog("EXPORT_REPORT", "تم تصدير تقرير المخزون إلى Excel");
+                showInfo("تم تصدير الملف بنجاح:\n" + file.getAbsolutePath());
+            }, e -> {
+                e.printStackTrace();
+                showError("حدث خطأ أثناء التصدير: " + e.getMessage());
+            });
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -925,6 +1096,20 @@ public class StockViewController {
         public double getMinQuantity() { return minQuantity; }
         public String getStatus() { return status; }
     }
+    // نتيجة تحميل: كل الصفوف (أول مرة) أو اللي اتغير بس
+    private static class StockDelta {
+        final boolean full;
+        final byte[] watermark;
+        final long takenAt = System.currentTimeMillis();
+        final List<ItemData> items = new ArrayList<>();
+        final List<Integer> removedIds = new ArrayList<>();
+
+        StockDelta(boolean full, byte[] watermark) {
+            this.full = full;
+            this.watermark = watermark;
+        }
+    }
+
     private static class StockInput {
         private final double quantity;
         private final String notes;
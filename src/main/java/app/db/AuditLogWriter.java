@@ -0,0 +1,542 @@
+package app.db;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * كتابة اللوج في جدول Logs في الخلفية (write-behind).
+ * اللي بينادي بيحط السطر في طابور محدود ويرجع فوراً، وthread واحد بيكتب دفعات INSERT متعددة الصفوف
+ * لما الدفعة تكمل أو كل ثانيتين.
+ * لو الداتابيز مش متاحة (أو الطابور اتملى) السطور بتتكتب في ملف محلي وبتترفع أول ما الاتصال يرجع.
+ * LogDate بيتحسب بساعة السيرفر (SYSDATETIME ناقص عمر السطر) - ساعة الجهاز ما بتدخلش في التاريخ.
+ */
+public final class AuditLogWriter {
+
+    private static final int QUEUE_CAPACITY = 10_000;
+    // 4 parameters لكل صف - SQL Server أقصاه 2100 parameter في الـ statement
+    private static final int BATCH_SIZE = 200;
+    private static final long FLUSH_INTERVAL_MS = 2_000;
+    // بعد فشل الاتصال ما نحاولش تاني قبل المدة دي - السطور بتروح للملف على طول
+    private static final long RETRY_INTERVAL_MS = 30_000;
+    private static final long FLUSH_TIMEOUT_MS = 10_000;
+
+    private static final Path SPOOL_FILE =
+            Paths.get(System.getProperty("user.home"), "warehouse_audit_spool.log");
+    // سطور الداتابيز رفضتها (طول / قيد / سطر بايظ) - بتتعزل هنا علشان ما توقفش رفع الباقي
+    private static final Path QUARANTINE_FILE =
+            Paths.get(System.getProperty("user.home"), "warehouse_audit_quarantine.log");
+
+    private static final BlockingQueue<Entry> QUEUE = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final Object WRITE_LOCK = new Object();
+    private static final AtomicBoolean STOPPED = new AtomicBoolean(false);
+    private static volatile long nextDbAttempt = 0;
+
+    private static final Thread WRITER = startWriter();
+
+    private AuditLogWriter() {
+    }
+
+    /**
+     * إضافة سطر للوج - مش بتستنى الداتابيز.
+     *
+     * @param employeeId null = عملية نظام
+     */
+    public static void log(String actionType, String description, Integer employeeId) {
+        Entry entry = new Entry(actionType, cleanDescription(description), employeeId,
+                System.currentTimeMillis());
+
+        if (STOPPED.get()) {
+            // بعد الإغلاق مفيش writer - نكتب مباشرة
+            write(List.of(entry));
+            return;
+        }
+        if (!QUEUE.offer(entry)) {
+            // الطابور مليان - ما نوقفش الـ UI، السطر يتحفظ في الملف ويترفع بعدين
+            synchronized (WRITE_LOCK) {
+                spill(List.of(entry));
+            }
+        }
+    }
+
+    /**
+     * للعرض بس: السطور القديمة اللي اتكتبت والعمود لسه varchar العربي فيها بقى ؟ -
+     * نفس التصليح اللي التقرير كان بيعمله بـ REPLACE على كل صف، بس في الـ Java وعلى السطور دي بس.
+     * وصف فيه حروف عربية اتخزن سليم، فعلامات الاستفهام اللي فيه حقيقية وبتفضل زي ما هي.
+     */
+    public static String displayDescription(String stored) {
+        if (stored == null || stored.indexOf('?') < 0) return stored;
+        for (int i = 0; i < stored.length(); i++) {
+            char c = stored.charAt(i);
+            if (c >= '\u0600' && c <= '\u06FF') return stored;
+        }
+        return stored.replace("??", "تم").replace('?', ' ').replace("  ", " ");
+    }
+
+    /**
+     * الوصف بيتنضف مرة واحدة قبل ما يتخزن (مسافات زيادة وحروف تحكم) - التقرير بيعرضه زي ما هو
+     */
+    static String cleanDescription(String description) {
+        if (description == null) return null;
+        StringBuilder sb = new StringBuilder(description.length());
+        boolean space = false;
+        for (int i = 0; i < description.length(); i++) {
+            char c = description.charAt(i);
+            if (c == '\n') {
+                // السطور الجديدة مقصودة (وصف على كذا سطر) - المسافات اللي قبلها بس اللي تتشال
+                int len = sb.length();
+                while (len > 0 && sb.charAt(len - 1) == ' ') sb.setLength(--len);
+                sb.append('\n');
+                space = false;
+            } else if (Character.isWhitespace(c) || Character.isISOControl(c)) {
+                space = sb.length() > 0 && sb.charAt(sb.length() - 1) != '\n';
+            } else {
+                if (space) sb.append(' ');
+                sb.append(c);
+                space = false;
+            }
+        }
+        return sb.toString().strip();
+    }
+
+    /**
+     * كتابة كل اللي في الطابور دلوقتي من غير انتظار (مثلاً عند تسجيل الخروج).
+     */
+    public static void flushAsync() {
+        if (!STOPPED.get()) {
+            QUEUE.offer(Entry.flushMarker());
+        }
+    }
+
+    /**
+     * انتظار لحد ما كل السطور اللي اتضافت قبل النداء تتكتب (أو تتحفظ في الملف).
+     * ما تتنادىش من الـ FX Thread.
+     */
+    public static boolean flush() {
+        if (STOPPED.get()) return true;
+        Entry marker = Entry.flushMarker();
+        try {
+            if (!QUEUE.offer(marker, FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) return false;
+            return marker.done.await(FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * إيقاف الـ writer وكتابة كل اللي فاضل - عند قفل البرنامج (قبل قفل الـ pools).
+     */
+    public static void shutdown() {
+        if (!STOPPED.compareAndSet(false, true)) return;
+
+        // نصحي الـ writer لو مستني - ما نعملش interrupt علشان ما يقطعش INSERT شغال
+        QUEUE.offer(Entry.flushMarker());
+        try {
+            WRITER.join(FLUSH_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // أي حاجة اتضافت في آخر لحظة
+        List<Entry> rest = new ArrayList<>();
+        QUEUE.drainTo(rest);
+        rest.removeIf(Entry::isMarker);
+        if (!rest.isEmpty()) write(rest);
+    }
+
+    // ===================================
+    // الـ writer thread
+    // ===================================
+    private static Thread startWriter() {
+        Thread t = new Thread(AuditLogWriter::writerLoop, "audit-log-writer");
+        t.setDaemon(true);
+        t.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(AuditLogWriter::shutdown, "audit-log-shutdown"));
+        return t;
+    }
+
+    private static void writerLoop() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        List<Entry> markers = new ArrayList<>();
+        try {
+            while (!STOPPED.get()) {
+                Entry first = QUEUE.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    // مفيش جديد - فرصة نرفع الملف المحلي لو الاتصال رجع
+                    replaySpoolIfDue();
+                    continue;
+                }
+                collect(first, batch, markers);
+
+                // نجمع لحد ما الدفعة تكمل أو الوقت يخلص أو حد طلب flush
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS);
+                while (batch.size() < BATCH_SIZE && markers.isEmpty()) {
+                    long wait = deadline - System.nanoTime();
+                    if (wait <= 0) break;
+                    Entry next = QUEUE.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    collect(next, batch, markers);
+                }
+
+                if (!batch.isEmpty()) write(batch);
+                batch.clear();
+                if (!markers.isEmpty() && !QUEUE.isEmpty()) {
+                    // الـ flush لازم يغطي كل اللي اتضاف قبله
+                    continue;
+                }
+                releaseMarkers(markers);
+            }
+        } catch (InterruptedException e) {
+            // إيقاف
+        } finally {
+            if (!batch.isEmpty()) write(batch);
+            releaseMarkers(markers);
+        }
+    }
+
+    private static void collect(Entry entry, List<Entry> batch, List<Entry> markers) {
+        if (entry.isMarker()) {
+            markers.add(entry);
+        } else {
+            batch.add(entry);
+        }
+    }
+
+    private static void releaseMarkers(List<Entry> markers) {
+        for (Entry marker : markers) {
+            marker.done.countDown();
+        }
+        markers.clear();
+    }
+
+    // ===================================
+    // الكتابة في الداتابيز أو في الملف
+    // ===================================
+    private static void write(List<Entry> entries) {
+        synchronized (WRITE_LOCK) {
+            if (System.currentTimeMillis() >= nextDbAttempt) {
+                try (Connection conn = DatabaseConnection.getInventoryConnection()) {
+                    // السطور القديمة الأول
+                    replaySpool(conn);
+                    try {
+                        insertAtomically(conn, entries);
+                    } catch (SQLException e) {
+                        if (!isDataError(conn, e)) throw e;
+                        // سطر الداتابيز رافضاه - الدفعة تتحفظ في الملف والرفع سطر سطر بيعزله لوحده
+                        spill(entries);
+                        try {
+                            replaySpool(conn);
+                        } catch (Exception replayError) {
+                            // الدفعة في الملف خلاص - ما تتحفظش تاني تحت
+                            nextDbAttempt = System.currentTimeMillis() + RETRY_INTERVAL_MS;
+                        }
+                    }
+                    return;
+                } catch (Exception e) {
+                    System.err.println("⚠️ تعذر كتابة اللوج في قاعدة البيانات - هيتحفظ محلياً: " + e.getMessage());
+                    nextDbAttempt = System.currentTimeMillis() + RETRY_INTERVAL_MS;
+                }
+            }
+            spill(entries);
+        }
+    }
+
+    private static void replaySpoolIfDue() {
+        synchronized (WRITE_LOCK) {
+            if (!Files.exists(SPOOL_FILE) || System.currentTimeMillis() < nextDbAttempt) return;
+            try (Connection conn = DatabaseConnection.getInventoryConnection()) {
+                replaySpool(conn);
+            } catch (Exception e) {
+                nextDbAttempt = System.currentTimeMillis() + RETRY_INTERVAL_MS;
+            }
+        }
+    }
+
+    /**
+     * الدفعة كلها في transaction واحدة - يا تتكتب كلها يا ولا سطر،
+     * فلو اتحفظت في الملف بعد الفشل مفيش سطر بيتكرر لما تترفع.
+     */
+    private static void insertAtomically(Connection conn, List<Entry> entries) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            insert(conn, entries);
+            conn.commit();
+        } catch (SQLException | RuntimeException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackError) {
+                e.addSuppressed(rollbackError);
+            }
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static void insert(Connection conn, List<Entry> entries) throws SQLException {
+        long now = System.currentTimeMillis();
+        for (int from = 0; from < entries.size(); from += BATCH_SIZE) {
+            List<Entry> part = entries.subList(from, Math.min(from + BATCH_SIZE, entries.size()));
+
+            // INSERT واحد بكذا صف بدل round trip لكل سطر.
+            // التاريخ = ساعة السيرفر ناقص عمر السطر (الأيام لوحدها علشان DATEADD بياخد int)
+            StringBuilder sql = new StringBuilder(
+                    "INSERT INTO Logs (ActionType, Description, EmployeeID, LogDate) "
+                            + "SELECT v.ActionType, v.Description, v.EmployeeID, "
+                            + "DATEADD(millisecond, -CAST(v.AgeMs % 86400000 AS INT), "
+                            + "DATEADD(day, -CAST(v.AgeMs / 86400000 AS INT), SYSDATETIME())) FROM (VALUES ");
+            for (int i = 0; i < part.size(); i++) {
+                sql.append(i == 0 ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+            }
+            sql.append(") v (ActionType, Description, EmployeeID, AgeMs)");
+
+            try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+                int p = 1;
+                for (Entry e : part) {
+                    stmt.setString(p++, e.actionType);
+                    stmt.setString(p++, e.description);
+                    if (e.employeeId != null) {
+                        stmt.setInt(p++, e.employeeId);
+                    } else {
+                        stmt.setNull(p++, Types.INTEGER);
+                    }
+                    stmt.setLong(p++, Math.max(0, now - e.loggedAt));
+                }
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    // ===================================
+    // الملف المحلي (سطر لكل لوج، مفصول بـ tab)
+    // ===================================
+    private static void spill(List<Entry> entries) {
+        try (FileOutputStream out = new FileOutputStream(SPOOL_FILE.toFile(), true);
+             Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            for (Entry e : entries) {
+                writer.write(e.loggedAt + "\t"
+                        + (e.employeeId != null ? e.employeeId : "") + "\t"
+                        + escape(e.actionType) + "\t"
+                        + escape(e.description) + "\n");
+            }
+            writer.flush();
+            // نتأكد إن السطور وصلت للديسك قبل ما نعتبرها محفوظة
+            out.getFD().sync();
+        } catch (IOException e) {
+            System.err.println("❌ فشل حفظ اللوج محلياً: " + e.getMessage());
+        }
+    }
+
+    private static void replaySpool(Connection conn) throws SQLException, IOException {
+        if (!Files.exists(SPOOL_FILE)) return;
+
+        List<String> lines = new ArrayList<>();
+        List<Entry> entries = new ArrayList<>();
+        List<String> rejected = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(SPOOL_FILE, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Entry e = parseLine(line);
+                if (e != null) {
+                    lines.add(line);
+                    entries.add(e);
+                } else if (!line.isEmpty()) {
+                    rejected.add(line);
+                }
+            }
+        }
+
+        int unparsed = rejected.size();
+        if (!entries.isEmpty()) {
+            // الملف كله في transaction واحدة - يا يترفع كله يا يفضل زي ما هو
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                try {
+                    insert(conn, entries);
+                } catch (SQLException e) {
+                    conn.rollback();
+                    if (!isDataError(conn, e)) throw e;
+                    insertEach(conn, lines, entries, rejected);
+                }
+                // العزل قبل الـ commit: لو الـ commit فشل السطر يتعزل مرتين أحسن ما يضيع
+                quarantine(rejected);
+                conn.commit();
+            } catch (Exception e) {
+                // أي فشل (حتى IOException من العزل) - rollback قبل ما setAutoCommit تحت تعمل commit للدفعة
+                try {
+                    conn.rollback();
+                } catch (SQLException rollbackError) {
+                    e.addSuppressed(rollbackError);
+                }
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        } else {
+            quarantine(rejected);
+        }
+        // بعد الـ commit بس - لو الملف فضل السطور هتترفع تاني
+        clearSpool();
+        System.out.println("✅ تم رفع " + (entries.size() - (rejected.size() - unparsed)) + " سطر لوج محفوظين محلياً");
+    }
+
+    private static void clearSpool() {
+        try {
+            Files.delete(SPOOL_FILE);
+        } catch (IOException e) {
+            // الملف مفتوح من برنامج تاني مثلاً - نفضيه بدل ما يتمسح
+            try {
+                Files.write(SPOOL_FILE, new byte[0]);
+            } catch (IOException truncateError) {
+                System.err.println("❌ تعذر مسح ملف اللوج المحلي بعد رفعه - السطور ممكن تتكرر: " + truncateError.getMessage());
+            }
+        }
+    }
+
+    /**
+     * رفع سطر سطر جوه نفس الـ transaction - السطر اللي الداتابيز رافضاه بيرجع لـ savepoint
+     * قبله ويتعزل، والباقي يكمل عادي.
+     */
+    private static void insertEach(Connection conn, List<String> lines, List<Entry> entries,
+                                   List<String> rejected) throws SQLException {
+        for (int i = 0; i < entries.size(); i++) {
+            Savepoint savepoint = conn.setSavepoint();
+            try {
+                insert(conn, List.of(entries.get(i)));
+            } catch (SQLException e) {
+                // لو الـ transaction نفسها باظت الـ rollback ده بيرمي والملف كله بيفضل لبعدين
+                conn.rollback(savepoint);
+                if (!isDataError(conn, e)) throw e;
+                rejected.add(lines.get(i));
+            }
+        }
+    }
+
+    /**
+     * خطأ في السطر نفسه مش في الاتصال: الاتصال لسه شغال والخطأ مش deadlock / lock timeout
+     */
+    private static boolean isDataError(Connection conn, SQLException e) {
+        String state = e.getSQLState();
+        if (state != null && state.startsWith("08")) return false;
+        if (e.getErrorCode() == 1205 || e.getErrorCode() == 1222) return false;
+        try {
+            return conn.isValid(2);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private static void quarantine(List<String> lines) throws IOException {
+        if (lines.isEmpty()) return;
+        try (FileOutputStream out = new FileOutputStream(QUARANTINE_FILE.toFile(), true);
+             Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                writer.write(line + "\n");
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        System.err.println("⚠️ " + lines.size() + " سطر لوج اترفضوا من قاعدة البيانات واتعزلوا في " + QUARANTINE_FILE);
+    }
+
+    private static Entry parseLine(String line) {
+        String[] parts = line.split("\t", -1);
+        if (parts.length != 4) return null;
+        try {
+            long loggedAt = Long.parseLong(parts[0]);
+            Integer employeeId = parts[1].isEmpty() ? null : Integer.valueOf(parts[1]);
+            return new Entry(unescape(parts[2]), unescape(parts[3]), employeeId, loggedAt);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String escape(String value) {
+        if (value == null) return "\\0";
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> sb.append("\\\\");
+                case '\t' -> sb.append("\\t");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                default -> sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String unescape(String value) {
+        if ("\\0".equals(value)) return null;
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                switch (next) {
+                    case 't' -> sb.append('\t');
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    default -> sb.append(next);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    // ===================================
+    // سطر لوج (أو علامة flush)
+    // ===================================
+    private static class Entry {
+        final String actionType;
+        final String description;
+        final Integer employeeId;
+        // وقت الحدث بساعة الجهاز - بيتستخدم بس لحساب عمر السطر وقت الرفع
+        final long loggedAt;
+        final CountDownLatch done;
+
+        Entry(String actionType, String description, Integer employeeId, long loggedAt) {
+            this(actionType, description, employeeId, loggedAt, null);
+        }
+
+        private Entry(String actionType, String description, Integer employeeId, long loggedAt, CountDownLatch done) {
+            this.actionType = actionType;
+            this.description = description;
+            this.employeeId = employeeId;
+            this.loggedAt = loggedAt;
+            this.done = done;
+        }
+
+        static Entry flushMarker() {
+            return new Entry(null, null, null, 0, new CountDownLatch(1));
+        }
+
+        boolean isMarker() {
+            return done != null;
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package app.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool محدود لاتصالات قاعدة بيانات واحدة.
+ * الـ Connection اللي بيرجع للكود هو Proxy - لما الكود يعمل close() الاتصال بيرجع للـ pool بدل ما يتقفل.
+ */
+public class ConnectionPool {
+
+    private final String name;
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final int minIdle;
+    private final long borrowTimeoutMs;
+    private final long idleTimeoutMs;
+    private final int validationTimeoutSec;
+
+    private final LinkedBlockingDeque<PhysicalConnection> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean shutdown = false;
+
+    // إحصائيات
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+
+    public ConnectionPool(String name, String url, String user, String password,
+                          int maxSize, int minIdle, long borrowTimeoutMs, long idleTimeoutMs) {
+        this.name = name;
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = Math.max(1, maxSize);
+        this.minIdle = Math.max(0, Math.min(minIdle, this.maxSize));
+        this.borrowTimeoutMs = borrowTimeoutMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.validationTimeoutSec = 2;
+        this.permits = new Semaphore(this.maxSize, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-evictor-" + name);
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(5_000, idleTimeoutMs / 2);
+        // أول مرة على طول - علشان الحد الأدنى يبقى جاهز قبل أول شاشات
+        evictor.scheduleWithFixedDelay(this::maintain, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * استعارة اتصال من الـ pool - بيتعمل validate قبل ما يرجع.
+     */
+    public Connection borrow() throws SQLException {
+        if (shutdown) throw new SQLException("Connection pool '" + name + "' is shut down");
+
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        long waited = System.nanoTime() - start;
+        recordWait(waited);
+
+        if (!acquired) {
+            timeoutCount.incrementAndGet();
+            throw new SQLTransientConnectionException("انتهت مهلة انتظار اتصال من الـ pool '" + name + "' بعد "
+                    + borrowTimeoutMs + " ms (" + getStats() + ")");
+        }
+
+        try {
+            PhysicalConnection pc;
+            while ((pc = idle.pollFirst()) != null) {
+                if (isValid(pc)) {
+                    return pc.lease(this);
+                }
+                discard(pc);
+            }
+            return createPhysical().lease(this);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void recordWait(long nanos) {
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private boolean isValid(PhysicalConnection pc) {
+        try {
+            return !pc.raw.isClosed() && pc.raw.isValid(validationTimeoutSec);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PhysicalConnection createPhysical() throws SQLException {
+        try {
+            DriverManager.setLoginTimeout(5);
+        } catch (Exception ignored) {}
+        Connection raw = DriverManager.getConnection(url, user, password);
+        totalConnections.incrementAndGet();
+        createdCount.incrementAndGet();
+        return new PhysicalConnection(raw);
+    }
+
+    /**
+     * رجوع الاتصال للـ pool - بنرجع حالته للوضع الافتراضي علشان الكود اللي بعده ما يتأثرش.
+     */
+    void release(PhysicalConnection pc, boolean broken) {
+        try {
+            if (broken || shutdown || !resetState(pc)) {
+                discard(pc);
+            } else {
+                pc.lastReturned = System.currentTimeMillis();
+                idle.offerFirst(pc);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private boolean resetState(PhysicalConnection pc) {
+        try {
+            if (pc.raw.isClosed()) return false;
+            if (!pc.raw.getAutoCommit()) {
+                pc.raw.rollback();
+                pc.raw.setAutoCommit(true);
+            }
+            if (pc.raw.isReadOnly()) pc.raw.setReadOnly(false);
+            if (pc.raw.getTransactionIsolation() != pc.defaultIsolation) {
+                pc.raw.setTransactionIsolation(pc.defaultIsolation);
+            }
+            pc.raw.clearWarnings();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(PhysicalConnection pc) {
+        totalConnections.decrementAndGet();
+        try {
+            pc.raw.close();
+        } catch (SQLException ignored) {}
+    }
+
+    private void maintain() {
+        evictIdle();
+        fillMinIdle();
+    }
+
+    /**
+     * إزالة الاتصالات اللي فاضلة أكتر من idleTimeout مع الاحتفاظ بالحد الأدنى.
+     */
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<PhysicalConnection> it = idle.descendingIterator();
+        while (it.hasNext() && idle.size() > minIdle) {
+            PhysicalConnection pc = it.next();
+            if (now - pc.lastReturned > idleTimeoutMs && idle.remove(pc)) {
+                evictedCount.incrementAndGet();
+                discard(pc);
+            }
+        }
+    }
+
+    /**
+     * فتح اتصالات لحد ما الفاضي يوصل minIdle (من غير ما نعدي maxSize) - علشان أول طلب بعد فترة هدوء
+     * ما يستناش login جديد. الاتصال بيتفتح وهو ماسك permit زي الاستعارة بالظبط.
+     */
+    private void fillMinIdle() {
+        while (!shutdown && idle.size() < minIdle && totalConnections.get() < maxSize) {
+            if (!permits.tryAcquire()) return; // كل الاتصالات مستعارة - مفيش داعي لفاضي دلوقتي
+            try {
+                PhysicalConnection pc = createPhysical();
+                pc.lastReturned = System.currentTimeMillis();
+                idle.offerLast(pc);
+                if (shutdown && idle.remove(pc)) discard(pc);
+            } catch (SQLException e) {
+                // السيرفر مش متاح - نحاول تاني الدورة الجاية، والاستعارة هي اللي بتبلغ بالخطأ
+                return;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * قفل كل الاتصالات الفاضية - الاتصالات المستعارة بتتقفل فعلياً أول ما ترجع.
+     */
+    public void shutdown() {
+        shutdown = true;
+        evictor.shutdownNow();
+        PhysicalConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            discard(pc);
+        }
+    }
+
+    public String getName() { return name; }
+
+    public PoolStats getStats() {
+        long borrows = borrowCount.get();
+        return new PoolStats(
+                name,
+                maxSize,
+                totalConnections.get(),
+                idle.size(),
+                maxSize - permits.availablePermits(),
+                permits.getQueueLength(),
+                borrows,
+                borrows == 0 ? 0 : totalWaitNanos.get() / borrows / 1_000_000.0,
+                maxWaitNanos.get() / 1_000_000.0,
+                timeoutCount.get(),
+                createdCount.get(),
+                evictedCount.get()
+        );
+    }
+
+    private static boolean isStatementClosed(Statement st) {
+        try {
+            return st.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    // ===================================
+    // الاتصال الفعلي + الـ Proxy اللي بيستلمه الكود
+    // ===================================
+    static class PhysicalConnection {
+        final Connection raw;
+        final int defaultIsolation;
+        volatile long lastReturned = System.currentTimeMillis();
+
+        PhysicalConnection(Connection raw) throws SQLException {
+            this.raw = raw;
+            this.defaultIsolation = raw.getTransactionIsolation();
+        }
+
+        Connection lease(ConnectionPool pool) {
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new LeaseHandler(pool, this));
+        }
+    }
+
+    private static class LeaseHandler implements InvocationHandler {
+        private final ConnectionPool pool;
+        private final PhysicalConnection pc;
+        // الكود القديم مش دايماً بيقفل الـ statements - بنقفلها إحنا لما الاتصال يرجع
+        private final List<Statement> openStatements = new ArrayList<>();
+        // abort() ممكن ييجي من thread تاني
+        private volatile boolean closed = false;
+        private volatile boolean broken = false;
+
+        LeaseHandler(ConnectionPool pool, PhysicalConnection pc) {
+            this.pool = pool;
+            this.pc = pc;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String m = method.getName();
+            switch (m) {
+                case "close":
+                    if (markClosed()) {
+                        closeStatements();
+                        pool.release(pc, broken);
+                    }
+                    return null;
+                case "abort":
+                    // الاتصال الفعلي بيتقفل - لازم يرجع كـ broken علشان الـ permit يتحرر والاتصال ما يتعادش استخدامه
+                    if (markClosed()) {
+                        broken = true;
+                        try {
+                            method.invoke(pc.raw, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        } finally {
+                            pool.release(pc, true);
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || pc.raw.isClosed();
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) return proxy;
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + pool.name + "]" + pc.raw;
+                default:
+                    break;
+            }
+
+            if (closed) throw new SQLException("Connection already returned to the pool");
+
+            try {
+                Object result = method.invoke(pc.raw, args);
+                if (result instanceof Statement) {
+                    if (openStatements.size() >= 64) {
+                        openStatements.removeIf(ConnectionPool::isStatementClosed);
+                    }
+                    openStatements.add((Statement) result);
+                    return wrap(proxy, method.getReturnType(), result);
+                }
+                if (result instanceof DatabaseMetaData) {
+                    return wrap(proxy, DatabaseMetaData.class, result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw checkFatal(e.getCause());
+            }
+        }
+
+        private synchronized boolean markClosed() {
+            if (closed) return false;
+            closed = true;
+            return true;
+        }
+
+        private Throwable checkFatal(Throwable cause) {
+            if (cause instanceof SQLException && isFatal((SQLException) cause)) {
+                broken = true;
+            }
+            return cause;
+        }
+
+        // الـ statement والـ metadata بيرجعوا الـ Proxy من getConnection() - مش الاتصال الفعلي اللي ممكن يتقفل من ورا الـ pool
+        private Object wrap(Object connectionProxy, Class<?> type, Object raw) {
+            return Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[]{type},
+                    new ChildHandler(this, connectionProxy, raw));
+        }
+
+        private void closeStatements() {
+            for (Statement st : openStatements) {
+                try {
+                    st.close();
+                } catch (SQLException ignored) {}
+            }
+            openStatements.clear();
+        }
+
+        private static boolean isFatal(SQLException e) {
+            String state = e.getSQLState();
+            // 08xxx = أخطاء اتصال
+            return state != null && state.startsWith("08");
+        }
+    }
+
+    private static class ChildHandler implements InvocationHandler {
+        private final LeaseHandler lease;
+        private final Object connectionProxy;
+        private final Object raw;
+
+        ChildHandler(LeaseHandler lease, Object connectionProxy, Object raw) {
+            this.lease = lease;
+            this.connectionProxy = connectionProxy;
+            this.raw = raw;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "getConnection":
+                    return connectionProxy;
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) return proxy;
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            try {
+                return method.invoke(raw, args);
+            } catch (InvocationTargetException e) {
+                // أخطاء الاتصال بتظهر غالباً وقت الـ execute - الاتصال يترمي لما يرجع
+                throw lease.checkFatal(e.getCause());
+            }
+        }
+    }
+
+    // ===================================
+    // إحصائيات الـ pool
+    // ===================================
+    public static class PoolStats {
+        private final String name;
+        private final int maxSize;
+        private final int total;
+        private final int idle;
+        private final int active;
+        private final int waiting;
+        private final long borrows;
+        private final double avgWaitMs;
+        private final double maxWaitMs;
+        private final long timeouts;
+        private final long created;
+        private final long evicted;
+
+        public PoolStats(String name, int maxSize, int total, int idle, int active, int waiting,
+                         long borrows, double avgWaitMs, double maxWaitMs, long timeouts,
+                         long created, long evicted) {
+            this.name = name;
+            this.maxSize = maxSize;
+            this.total = total;
+            this.idle = idle;
+            this.active = active;
+            this.waiting = waiting;
+            this.borrows = borrows;
+            this.avgWaitMs = avgWaitMs;
+            this.maxWaitMs = maxWaitMs;
+            this.timeouts = timeouts;
+            this.created = created;
+            this.evicted = evicted;
+        }
+
+        public String getName() { return name; }
+        public int getMaxSize() { return maxSize; }
+        public int getTotal() { return total; }
+        public int getIdle() { return idle; }
+        public int getActive() { return active; }
+        public int getWaiting() { return waiting; }
+        public long getBorrows() { return borrows; }
+        public double getAvgWaitMs() { return avgWaitMs; }
+        public double getMaxWaitMs() { return maxWaitMs; }
+        public long getTimeouts() { return timeouts; }
+        public long getCreated() { return created; }
+        public long getEvicted() { return evicted; }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d/%d (active %d, idle %d, waiting %d) | borrows %d, avg wait %.1f ms, max wait %.1f ms, timeouts %d, created %d, evicted %d",
+                    name, total, maxSize, active, idle, waiting, borrows, avgWaitMs, maxWaitMs, timeouts, created, evicted);
+        }
+    }
+}
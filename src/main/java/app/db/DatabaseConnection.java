@@ -5,6 +5,7 @@ import app.current_user.CurrentUser;
 import java.io.*;
 import java.nio.file.Paths;
 import java.sql.*;
+import java.util.Locale;
 import java.util.Properties;
 
 public class DatabaseConnection {
@@ -16,9 +17,18 @@ public class DatabaseConnection {
     private static String USER;
     private static String PASSWORD;
 
-    // إزالة التخزين المؤقت للاتصالات - هذا هو مصدر المشكلة
-    // private static Connection inventoryConnection;
-    // private static Connection managementConnection;
+    // مفيش اتصال ثابت متخزن - كل طلب بيستعير اتصال من الـ pool ويرجعه لما يعمل close()
+    private static ConnectionPool inventoryPool;
+    private static ConnectionPool managementPool;
+
+    // إعدادات الـ pool (ممكن تتغير من ملف الإعدادات)
+    private static int POOL_MAX_SIZE = 10;
+    private static int POOL_MIN_IDLE = 2;
+    private static long POOL_BORROW_TIMEOUT_MS = 10_000;
+    private static long POOL_IDLE_TIMEOUT_MS = 5 * 60_000;
+
+    // مين بيخصم StockBalances في الصرف: "trigger" (تريجر على StockTransactions) أو "app" - null = يتعرف من الداتابيز
+    private static String STOCK_BALANCE_UPDATES;
 
     private static final String CONFIG_FILE =
             Paths.get(System.getProperty("user.home"), "warehouse_db_config.properties").toString();
@@ -40,6 +50,84 @@ public class DatabaseConnection {
         MANAGEMENT_DB_NAME = props.getProperty("management_db_name", MANAGEMENT_DB_NAME != null ? MANAGEMENT_DB_NAME : "Chemtech_management");
         USER = props.getProperty("user", USER);
         PASSWORD = props.getProperty("password", PASSWORD);
+
+        POOL_MAX_SIZE = parseInt(props.getProperty("pool_max_size"), POOL_MAX_SIZE);
+        POOL_MIN_IDLE = parseInt(props.getProperty("pool_min_idle"), POOL_MIN_IDLE);
+        POOL_BORROW_TIMEOUT_MS = parseInt(props.getProperty("pool_borrow_timeout_ms"), (int) POOL_BORROW_TIMEOUT_MS);
+        POOL_IDLE_TIMEOUT_MS = parseInt(props.getProperty("pool_idle_timeout_ms"), (int) POOL_IDLE_TIMEOUT_MS);
+
+        String balanceUpdates = props.getProperty("stock_balance_updates", "").trim().toLowerCase(Locale.ROOT);
+        if (balanceUpdates.equals("trigger") || balanceUpdates.equals("app")) {
+            STOCK_BALANCE_UPDATES = balanceUpdates;
+        } else {
+            if (!balanceUpdates.isEmpty()) {
+                System.err.println("⚠️ stock_balance_updates لازم تبقى trigger أو app: " + balanceUpdates);
+            }
+            STOCK_BALANCE_UPDATES = null;
+        }
+
+        // الإعدادات اتغيرت - نقفل الـ pools القديمة ونبني جديدة عند أول طلب
+        shutdownPools();
+        SchemaMigrations.reset();
+    }
+
+    private static int parseInt(String value, int def) {
+        if (value == null || value.isBlank()) return def;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    private static synchronized ConnectionPool inventoryPool() {
+        if (inventoryPool == null) {
+            inventoryPool = createPool("inventory", INVENTORY_DB_NAME != null ? INVENTORY_DB_NAME : "Inventory_DB");
+        }
+        return inventoryPool;
+    }
+
+    private static synchronized ConnectionPool managementPool() {
+        if (managementPool == null) {
+            managementPool = createPool("management", MANAGEMENT_DB_NAME != null ? MANAGEMENT_DB_NAME : "Chemtech_management");
+        }
+        return managementPool;
+    }
+
+    private static ConnectionPool createPool(String name, String dbName) {
+        return new ConnectionPool(name, buildUrl(dbName), USER, PASSWORD,
+                POOL_MAX_SIZE, POOL_MIN_IDLE, POOL_BORROW_TIMEOUT_MS, POOL_IDLE_TIMEOUT_MS);
+    }
+
+    public static synchronized String getStockBalanceUpdates() {
+        return STOCK_BALANCE_UPDATES;
+    }
+
+    /**
+     * قفل كل الاتصالات (عند تغيير الإعدادات أو قفل البرنامج)
+     */
+    public static synchronized void shutdownPools() {
+        if (inventoryPool != null) {
+            inventoryPool.shutdown();
+            inventoryPool = null;
+        }
+        if (managementPool != null) {
+            managementPool.shutdown();
+            managementPool = null;
+        }
+    }
+
+    /**
+     * إحصائيات الـ pools - للعرض في الـ Dashboard
+     */
+    public static synchronized String getPoolStats() {
+        StringBuilder sb = new StringBuilder();
+        if (inventoryPool != null) sb.append(inventoryPool.getStats());
+        if (managementPool != null) {
+            if (sb.length() > 0) sb.append("\n");
+            sb.append(managementPool.getStats());
+        }
+        return sb.length() == 0 ? "لا توجد اتصالات مفتوحة" : sb.toString();
     }
 
     private static String buildUrl(String dbName) {
@@ -50,24 +138,14 @@ public class DatabaseConnection {
     }
 
     /**
-     * إنشاء اتصال جديد في كل مرة - هذا هو الحل الآمن
+     * استعارة اتصال من الـ pool - لازم يتعمل close() علشان يرجع للـ pool
      */
     public static Connection getInventoryConnection() throws SQLException {
-        try {
-            DriverManager.setLoginTimeout(5);
-        } catch (Exception ignored) {}
-
-        String url = buildUrl(INVENTORY_DB_NAME != null ? INVENTORY_DB_NAME : "Inventory_DB");
-        return DriverManager.getConnection(url, USER, PASSWORD);
+        return inventoryPool().borrow();
     }
 
     public static Connection getManagementConnection() throws SQLException {
-        try {
-            DriverManager.setLoginTimeout(5);
-        } catch (Exception ignored) {}
-
-        String url = buildUrl(MANAGEMENT_DB_NAME != null ? MANAGEMENT_DB_NAME : "Chemtech_management");
-        return DriverManager.getConnection(url, USER, PASSWORD);
+        return managementPool().borrow();
     }
 
     /**
@@ -108,37 +186,9 @@ public class DatabaseConnection {
     }
 
     /**
-     * تسجيل الإجراءات
+     * تسجيل الإجراءات - بيتكتب في الخلفية على دفعات (AuditLogWriter)
      */
     public static void logAction(String actionType, String description) {
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        try {
-            conn = getInventoryConnection();
-            String sql = "INSERT INTO Logs (ActionType, Description, EmployeeID) VALUES (?, ?, ?)";
-            stmt = conn.prepareStatement(sql);
-            stmt.setString(1, actionType);
-            stmt.setString(2, description);
-            stmt.setInt(3, CurrentUser.getId());
-            stmt.executeUpdate();
-        } catch (Exception e) {
-            System.err.println("❌ فشل تسجيل الحدث في اللوج: " + e.getMessage());
-        } finally {
-            // إغلاق الموارد يدوياً
-            if (stmt != null) {
-                try {
-                    stmt.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
-            }
-            if (conn != null) {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+        AuditLogWriter.log(actionType, description, CurrentUser.getId());
     }
 }
\ No newline at end of file
@@ -0,0 +1,166 @@
+package app.db;
+
+import javafx.application.Platform;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * تشغيل أوامر قاعدة البيانات بعيداً عن الـ JavaFX Thread.
+ * النتيجة بترجع CompletableFuture، والـ callbacks اللي بتلمس الـ UI بتتنفذ على الـ FX Thread تلقائياً.
+ */
+public final class DbExecutor {
+
+    @FunctionalInterface
+    public interface DbCall<T> {
+        T call() throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface DbAction {
+        void run() throws Exception;
+    }
+
+    // عدد الـ threads نفس حجم الـ pool الافتراضي - أكتر من كده هيستنوا اتصال برضه
+    private static final int WORKERS = 8;
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private static final ThreadPoolExecutor WORKER_POOL = createWorkerPool();
+
+    /**
+     * تنفيذ على الـ FX Thread (أو مباشرةً لو إحنا عليه أصلاً)
+     */
+    public static final Executor FX = command -> {
+        if (Platform.isFxApplicationThread()) {
+            command.run();
+        } else {
+            Platform.runLater(command);
+        }
+    };
+
+    private DbExecutor() {}
+
+    private static ThreadPoolExecutor createWorkerPool() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "db-worker-" + THREAD_COUNTER.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * تشغيل استعلام في الخلفية.
+     * cancel(true) على الـ future بيعمل interrupt للـ thread اللي شغال عليه.
+     */
+    public static <T> CompletableFuture<T> supply(DbCall<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            if (result.isDone()) return null;
+            try {
+                result.complete(work.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+            return null;
+        });
+        result.whenComplete((r, ex) -> {
+            if (result.isCancelled()) task.cancel(true);
+        });
+        WORKER_POOL.execute(task);
+        return result;
+    }
+
+    public static CompletableFuture<Void> run(DbAction work) {
+        return supply(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * تشغيل في الخلفية + تسليم النتيجة أو الخطأ على الـ FX Thread.
+     * لو الـ future اتلغى مفيش أي callback بيتنفذ.
+     */
+    public static <T> CompletableFuture<T> supply(DbCall<T> work, Consumer<T> onSuccess, Consumer<Throwable> onError) {
+        CompletableFuture<T> future = supply(work);
+        deliver(future, onSuccess, onError, () -> true);
+        return future;
+    }
+
+    public static CompletableFuture<Void> run(DbAction work, Runnable onSuccess, Consumer<Throwable> onError) {
+        return supply(() -> {
+            work.run();
+            return null;
+        }, v -> onSuccess.run(), onError);
+    }
+
+    private static <T> void deliver(CompletableFuture<T> future, Consumer<T> onSuccess,
+                                    Consumer<Throwable> onError, java.util.function.BooleanSupplier stillWanted) {
+        future.whenCompleteAsync((value, ex) -> {
+            if (future.isCancelled() || !stillWanted.getAsBoolean()) return;
+            if (ex == null) {
+                if (onSuccess != null) onSuccess.accept(value);
+            } else {
+                Throwable cause = unwrap(ex);
+                if (cause instanceof CancellationException) return;
+                if (onError != null) {
+                    onError.accept(cause);
+                } else {
+                    cause.printStackTrace();
+                }
+            }
+        }, FX);
+    }
+
+    /**
+     * فك الـ CompletionException علشان رسالة الخطأ تبقى مفهومة للمستخدم
+     */
+    public static Throwable unwrap(Throwable ex) {
+        Throwable t = ex;
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    /**
+     * لكل شاشة: آخر طلب هو اللي بيكسب.
+     * أي طلب جديد بيلغي اللي قبله (مثلاً وقت الكتابة في البحث) ونتيجة القديم ما بتوصلش للـ UI.
+     */
+    public static class Latest<T> {
+        private final AtomicReference<CompletableFuture<T>> current = new AtomicReference<>();
+
+        public CompletableFuture<T> submit(DbCall<T> work, Consumer<T> onSuccess, Consumer<Throwable> onError) {
+            CompletableFuture<T> future = supply(work);
+            CompletableFuture<T> previous = current.getAndSet(future);
+            if (previous != null) previous.cancel(true);
+            deliver(future, onSuccess, onError, () -> current.get() == future);
+            return future;
+        }
+
+        public void cancel() {
+            CompletableFuture<T> previous = current.getAndSet(null);
+            if (previous != null) previous.cancel(true);
+        }
+
+        public boolean isRunning() {
+            CompletableFuture<T> f = current.get();
+            return f != null && !f.isDone();
+        }
+    }
+}
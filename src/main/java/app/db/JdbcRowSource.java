@@ -0,0 +1,69 @@
+package app.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * قراءة نتيجة استعلام صف بصف للتصدير - من غير List ولا ObservableList في النص.
+ * الـ ResultSet forward-only / read-only، والـ driver (responseBuffering=adaptive الافتراضي)
+ * بيقرا من الشبكة على قد ما بنستهلك، فالذاكرة ثابتة مهما كان عدد الصفوف.
+ *
+ * الاستخدام:
+ *     SqlFilter filter = new SqlFilter().dateRange("l.LogDate", from, to);
+ *     JdbcRowSource.stream("SELECT ... FROM Logs l" + filter.where(), filter,
+ *             rs -> new Object[]{rs.getString(1), rs.getString(2)},
+ *             sheet::row);
+ */
+public final class JdbcRowSource {
+
+    // تلميح للـ driver بحجم الدفعة - مش بيحجز صفوف في الذاكرة بالعدد ده
+    private static final int FETCH_SIZE = 2_000;
+
+    @FunctionalInterface
+    public interface RowMapper {
+        Object[] map(ResultSet rs) throws SQLException;
+    }
+
+    @FunctionalInterface
+    public interface RowConsumer {
+        void accept(Object[] values) throws Exception;
+    }
+
+    private JdbcRowSource() {
+    }
+
+    /**
+     * تشغيل الاستعلام وتسليم كل صف للـ consumer أول ما يوصل
+     *
+     * @param filter قيم الـ parameters (ممكن null لو مفيش)
+     * @return عدد الصفوف
+     */
+    public static long stream(String sql, SqlFilter filter, RowMapper mapper, RowConsumer consumer) throws Exception {
+        long count = 0;
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(FETCH_SIZE);
+            if (filter != null) filter.bind(ps, 1);
+            try (ResultSet rs = ps.executeQuery()) {
+                try {
+                    while (rs.next()) {
+                        consumer.accept(mapper.map(rs));
+                        count++;
+                    }
+                } catch (Exception e) {
+                    // وقف في النص (الـ consumer رمى / إلغاء) - الـ cancel لازم قبل قفل الـ ResultSet،
+                    // غير كده القفل بيقرا باقي الصفوف من الشبكة لآخرها قبل ما الاتصال يرجع للـ pool
+                    try {
+                        ps.cancel();
+                    } catch (SQLException cancelError) {
+                        e.addSuppressed(cancelError);
+                    }
+                    throw e;
+                }
+            }
+        }
+        return count;
+    }
+}
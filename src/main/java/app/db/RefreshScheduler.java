@@ -0,0 +1,205 @@
+package app.db;
+
+import javafx.application.Platform;
+import javafx.beans.value.ChangeListener;
+import javafx.scene.Node;
+import javafx.scene.Scene;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+import javafx.stage.WindowEvent;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * تحديث دوري مربوط بعمر الشباك بدل Timeline لكل controller:
+ * - بيقف نهائياً لما المستخدم يقفل الشباك، وبيتوقف مؤقتاً لما يستخبى (hide) أو يتصغر (minimize) ويكمل لما يرجع.
+ * - لو التحميل لسه شغال، أي طلب تاني بيتجمع في تشغيلة واحدة بعده (مش طلبات فوق بعض).
+ * - لو الداتابيز واقعة الانتظار بيتضاعف (10 ث، 20، 40 ... لحد 5 دقايق) ويرجع طبيعي أول ما تنجح.
+ *
+ * الاستخدام:
+ *     job = RefreshScheduler.schedule(label, 60_000, service::load, this::show, this::showError);
+ *     job.runNow();  // مثلاً لما ييجي حدث تغيير
+ */
+public final class RefreshScheduler {
+
+    private static final long RETRY_BASE_MS = 10_000;
+    private static final long MAX_BACKOFF_MS = 5 * 60_000;
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "refresh-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private RefreshScheduler() {}
+
+    /**
+     * تشغيل work دلوقتي وبعد كده كل periodMs (0 = من غير تكرار، runNow وإعادة المحاولة بس).
+     * onSuccess و onError على الـ FX Thread.
+     */
+    public static <T> Job<T> schedule(Node owner, long periodMs, DbExecutor.DbCall<T> work,
+                                      Consumer<T> onSuccess, Consumer<Throwable> onError) {
+        Job<T> job = new Job<>(periodMs, work, onSuccess, onError);
+        bindToWindow(owner, job);
+        job.runNow();
+        return job;
+    }
+
+    private static void bindToWindow(Node owner, Job<?> job) {
+        if (owner.getScene() != null) {
+            bindToWindow(owner.getScene(), job);
+        } else {
+            owner.sceneProperty().addListener((obs, oldScene, scene) -> {
+                if (scene != null) bindToWindow(scene, job);
+            });
+        }
+    }
+
+    private static void bindToWindow(Scene scene, Job<?> job) {
+        if (scene.getWindow() != null) {
+            bindToWindow(scene.getWindow(), job);
+        } else {
+            scene.windowProperty().addListener((obs, oldWindow, window) -> {
+                if (window != null) bindToWindow(window, job);
+            });
+        }
+    }
+
+    private static void bindToWindow(Window window, Job<?> job) {
+        // الـ hide اللي بييجي بعد طلب إغلاق مش متلغي = الشباك اتقفل خلاص؛ غير كده (hide من الكود) ممكن يتعرض تاني
+        boolean[] closing = {false};
+        window.addEventHandler(WindowEvent.WINDOW_CLOSE_REQUEST, e -> {
+            closing[0] = true;
+            // لو الطلب اتلغى (consume) مفيش hide هييجي - نرجع الحالة بعد ما الحدث يخلص
+            Platform.runLater(() -> closing[0] = false);
+        });
+        window.addEventHandler(WindowEvent.WINDOW_HIDDEN, e -> {
+            if (closing[0]) job.cancel();
+            else job.setHidden(true);
+        });
+        window.addEventHandler(WindowEvent.WINDOW_SHOWN, e -> job.setHidden(false));
+        if (window instanceof Stage stage) {
+            ChangeListener<Boolean> iconified = (obs, was, now) -> job.setIconified(now);
+            stage.iconifiedProperty().addListener(iconified);
+        }
+    }
+
+    // ===================================
+    // مهمة واحدة - كل الحالة بتتلمس من الـ FX Thread بس
+    // ===================================
+    public static final class Job<T> {
+        private final long periodMs;
+        private final DbExecutor.DbCall<T> work;
+        private final Consumer<T> onSuccess;
+        private final Consumer<Throwable> onError;
+
+        private boolean running = false;
+        private boolean pending = false;
+        private boolean paused = false;
+        private boolean hidden = false;
+        private boolean iconified = false;
+        private boolean cancelled = false;
+        private int failures = 0;
+        private ScheduledFuture<?> timer;
+
+        private Job(long periodMs, DbExecutor.DbCall<T> work, Consumer<T> onSuccess, Consumer<Throwable> onError) {
+            this.periodMs = periodMs;
+            this.work = work;
+            this.onSuccess = onSuccess;
+            this.onError = onError;
+        }
+
+        /**
+         * تشغيل دلوقتي - لو في تشغيلة شغالة بنعيد مرة واحدة بعدها
+         */
+        public void runNow() {
+            if (cancelled) return;
+            if (running || paused) {
+                pending = true;
+                return;
+            }
+            cancelTimer();
+            running = true;
+            pending = false;
+            DbExecutor.supply(work, result -> {
+                running = false;
+                failures = 0;
+                if (cancelled) return;
+                onSuccess.accept(result);
+                afterRun();
+            }, e -> {
+                running = false;
+                failures++;
+                if (cancelled) return;
+                onError.accept(e);
+                afterRun();
+            });
+        }
+
+        /**
+         * الانتظار قبل المحاولة الجاية (بيكبر مع كل فشل)
+         */
+        public long nextDelayMs() {
+            if (failures == 0) return periodMs;
+            return Math.min(RETRY_BASE_MS << Math.min(failures - 1, 10), MAX_BACKOFF_MS);
+        }
+
+        public void cancel() {
+            cancelled = true;
+            pending = false;
+            cancelTimer();
+        }
+
+        private void setHidden(boolean hidden) {
+            this.hidden = hidden;
+            updatePaused();
+        }
+
+        private void setIconified(boolean iconified) {
+            this.iconified = iconified;
+            updatePaused();
+        }
+
+        private void updatePaused() {
+            if (hidden || iconified) pause();
+            else resume();
+        }
+
+        private void pause() {
+            paused = true;
+            cancelTimer();
+        }
+
+        private void resume() {
+            if (!paused) return;
+            paused = false;
+            // اللي فات وهو مستخبي أو متصغر بيتعوض بتحميل واحد
+            if (!running) runNow();
+        }
+
+        private void afterRun() {
+            if (paused) return;
+            // الداتابيز واقعة - طلبات التحديث مش هتفرق، نستنى الـ backoff
+            if (pending && failures == 0) {
+                runNow();
+                return;
+            }
+            pending = false;
+            long delay = nextDelayMs();
+            if (delay > 0) {
+                timer = TIMER.schedule(() -> Platform.runLater(this::runNow), delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void cancelTimer() {
+            if (timer != null) {
+                timer.cancel(false);
+                timer = null;
+            }
+        }
+    }
+}
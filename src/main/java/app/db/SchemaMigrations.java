@@ -0,0 +1,674 @@
+package app.db;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * تعديلات الـ schema اللي البرنامج محتاجها (جداول ملخصات، triggers، indexes).
+ * كل خطوة مكتوبة بحيث تتنفذ أكتر من مرة من غير مشاكل. الخطوة اللي نجحت بتتسجل برقم إصدارها في
+ * SchemaMigrationHistory وما بتتنفذش تاني - أي جهاز بيفتح البرنامج بعد كده بيقرا الجدول ده بس.
+ * تغيير خطوة موجودة = زيادة رقم الإصدار بتاعها فتتنفذ مرة كمان.
+ */
+public final class SchemaMigrations {
+
+    @FunctionalInterface
+    private interface Step {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private static final class Migration {
+        final String name;
+        final int version;
+        final Step step;
+
+        Migration(String name, int version, Step step) {
+            this.name = name;
+            this.version = version;
+            this.step = step;
+        }
+    }
+
+    public static final String DASHBOARD_COUNTERS = "DashboardCounters";
+    public static final String REFERENCE_DATA_VERSION = "ReferenceDataVersion";
+    public static final String ITEM_PRICE_HISTORY = "ItemPriceHistory";
+    public static final String STOCK_ROW_VERSIONS = "StockRowVersions";
+    public static final String CHANGE_JOURNAL = "ChangeJournal";
+    public static final String TRANSACTION_PAGING_INDEX = "TransactionPagingIndex";
+    public static final String REPORT_FILTER_INDEXES = "ReportFilterIndexes";
+    public static final String LOGS_PAGING = "LogsPaging";
+    public static final String TEXT_SEARCH_WATERMARKS = "TextSearchWatermarks";
+
+    private static final List<Migration> MIGRATIONS = new ArrayList<>();
+
+    static {
+        // 2 = العدادات اتقسمت على COUNTER_SLOTS صف
+        MIGRATIONS.add(new Migration(DASHBOARD_COUNTERS, 2, SchemaMigrations::dashboardCounters));
+        MIGRATIONS.add(new Migration(REFERENCE_DATA_VERSION, 1, SchemaMigrations::referenceDataVersion));
+        MIGRATIONS.add(new Migration(ITEM_PRICE_HISTORY, 1, SchemaMigrations::itemPriceHistory));
+        // 2 = StockGridDeletions.DeletedAt علشان التنضيف
+        MIGRATIONS.add(new Migration(STOCK_ROW_VERSIONS, 2, SchemaMigrations::stockRowVersions));
+        MIGRATIONS.add(new Migration(CHANGE_JOURNAL, 1, SchemaMigrations::changeJournal));
+        MIGRATIONS.add(new Migration(TRANSACTION_PAGING_INDEX, 1, SchemaMigrations::transactionPagingIndex));
+        MIGRATIONS.add(new Migration(REPORT_FILTER_INDEXES, 1, SchemaMigrations::reportFilterIndexes));
+        MIGRATIONS.add(new Migration(LOGS_PAGING, 1, SchemaMigrations::logsPaging));
+        MIGRATIONS.add(new Migration(TEXT_SEARCH_WATERMARKS, 1, SchemaMigrations::textSearchWatermarks));
+    }
+
+    // عدد صفوف DashboardCounters - كل اتصال بيحدث صف واحد منهم (@@SPID % العدد)
+    // فالحركات المتزامنة ما بتستناش بعض على نفس الصف، والقراءة بتجمعهم
+    private static final int COUNTER_SLOTS = 16;
+    // جهاز واحد بس ينفذ الخطوات في نفس الوقت
+    private static final String MIGRATION_LOCK = "SchemaMigrations";
+    private static final int MIGRATION_LOCK_TIMEOUT_MS = 120_000;
+
+    private static volatile boolean ran = false;
+    private static final Set<String> applied = Collections.synchronizedSet(new HashSet<>());
+
+    private SchemaMigrations() {}
+
+    /**
+     * تنفيذ كل الخطوات لو لسه ما اتنفذتش في التشغيل ده.
+     * لو خطوة فشلت (مثلاً صلاحيات) الباقي بيكمل، والكود اللي معتمد عليها يشوف isApplied ويرجع للطريقة القديمة.
+     */
+    public static void ensureApplied() {
+        if (ran) return;
+        synchronized (SchemaMigrations.class) {
+            if (ran) return;
+            try (Connection conn = DatabaseConnection.getInventoryConnection()) {
+                boolean tracked = ensureHistoryTable(conn);
+                Map<String, Integer> done = tracked ? recordedVersions(conn) : Map.of();
+                if (pending(done)) {
+                    lock(conn);
+                    try {
+                        // جهاز تاني ممكن يكون خلصها وإحنا مستنيين القفل
+                        if (tracked) done = recordedVersions(conn);
+                        applyPending(conn, done, tracked);
+                    } finally {
+                        unlock(conn);
+                    }
+                } else {
+                    applyPending(conn, done, tracked);
+                }
+                ran = true;
+            } catch (SQLException e) {
+                // مفيش اتصال - نحاول تاني في المرة الجاية
+                System.err.println("⚠️ تعذر تطبيق تعديلات قاعدة البيانات: " + e.getMessage());
+            }
+        }
+    }
+
+    private static boolean pending(Map<String, Integer> done) {
+        for (Migration m : MIGRATIONS) {
+            Integer version = done.get(m.name);
+            if (version == null || version < m.version) return true;
+        }
+        return false;
+    }
+
+    private static void applyPending(Connection conn, Map<String, Integer> done, boolean tracked) {
+        for (Migration m : MIGRATIONS) {
+            Integer version = done.get(m.name);
+            if (version != null && version >= m.version) {
+                applied.add(m.name);
+                continue;
+            }
+            try {
+                m.step.apply(conn);
+                // بتتسجل بعد ما الخطوة كلها تنجح بس - لو وقعت في النص بتتنفذ من الأول المرة الجاية
+                if (tracked) record(conn, m);
+                applied.add(m.name);
+            } catch (SQLException e) {
+                System.err.println("⚠️ فشل تطبيق تعديل قاعدة البيانات " + m.name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // ===================================
+    // سجل الخطوات اللي اتنفذت
+    // ===================================
+
+    /**
+     * لو مفيش صلاحية نعمل الجدول الخطوات بتتنفذ كل تشغيل زي الأول (كلها بتتنفذ أكتر من مرة عادي)
+     */
+    private static boolean ensureHistoryTable(Connection conn) {
+        try (Statement st = conn.createStatement()) {
+            st.execute("""
+                IF OBJECT_ID('dbo.SchemaMigrationHistory', 'U') IS NULL
+                    CREATE TABLE dbo.SchemaMigrationHistory (
+                        Name      VARCHAR(64) NOT NULL PRIMARY KEY,
+                        Version   INT         NOT NULL,
+                        AppliedAt DATETIME2   NOT NULL DEFAULT SYSDATETIME()
+                    )
+            """);
+            return true;
+        } catch (SQLException e) {
+            System.err.println("⚠️ تعذر إنشاء SchemaMigrationHistory - التعديلات هتتنفذ كل تشغيل: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static Map<String, Integer> recordedVersions(Connection conn) throws SQLException {
+        Map<String, Integer> versions = new HashMap<>();
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT Name, Version FROM dbo.SchemaMigrationHistory")) {
+            while (rs.next()) {
+                versions.put(rs.getString(1), rs.getInt(2));
+            }
+        }
+        return versions;
+    }
+
+    private static void record(Connection conn, Migration m) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("""
+                UPDATE dbo.SchemaMigrationHistory SET Version = ?, AppliedAt = SYSDATETIME() WHERE Name = ?;
+                IF @@ROWCOUNT = 0 INSERT INTO dbo.SchemaMigrationHistory (Name, Version) VALUES (?, ?);
+            """)) {
+            ps.setInt(1, m.version);
+            ps.setString(2, m.name);
+            ps.setString(3, m.name);
+            ps.setInt(4, m.version);
+            ps.executeUpdate();
+        }
+    }
+
+    private static void lock(Connection conn) throws SQLException {
+        try (CallableStatement cs = conn.prepareCall(
+                "{? = call sp_getapplock(@Resource = ?, @LockMode = 'Exclusive', @LockOwner = 'Session', @LockTimeout = ?)}")) {
+            cs.registerOutParameter(1, Types.INTEGER);
+            cs.setString(2, MIGRATION_LOCK);
+            cs.setInt(3, MIGRATION_LOCK_TIMEOUT_MS);
+            cs.execute();
+            if (cs.getInt(1) < 0) {
+                throw new SQLException("جهاز تاني بيطبق تعديلات قاعدة البيانات - حاول تاني بعد شوية");
+            }
+        }
+    }
+
+    private static void unlock(Connection conn) {
+        try (CallableStatement cs = conn.prepareCall(
+                "{call sp_releaseapplock(@Resource = ?, @LockOwner = 'Session')}")) {
+            cs.setString(1, MIGRATION_LOCK);
+            cs.execute();
+        } catch (SQLException e) {
+            // القفل بيتفك لوحده لما الـ session تتقفل
+            System.err.println("⚠️ تعذر فك قفل تعديلات قاعدة البيانات: " + e.getMessage());
+        }
+    }
+
+    public static boolean isApplied(String name) {
+        return applied.contains(name);
+    }
+
+    /**
+     * السيرفر اتغير - لازم نتأكد من الـ schema تاني
+     */
+    static synchronized void reset() {
+        ran = false;
+        applied.clear();
+    }
+
+    private static boolean tableExists(Connection conn, String table) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT OBJECT_ID('dbo." + table + "', 'U')")) {
+            return rs.next() && rs.getObject(1) != null;
+        }
+    }
+
+    private static boolean columnExists(Connection conn, String table, String column) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COL_LENGTH('dbo." + table + "', '" + column + "')")) {
+            return rs.next() && rs.getObject(1) != null;
+        }
+    }
+
+    // ===================================
+    // ✅ عدادات الـ Dashboard
+    // COUNTER_SLOTS صف بتتحدث بالـ triggers في نفس الـ transaction بتاعة الحركة، كل اتصال في صفه
+    // (فحركتين في نفس الوقت ما يستنوش بعض)، والـ Dashboard بيجمعهم بدل COUNT و SUM على StockTransactions.
+    // آخر حركة مش هنا - MAX(TransactionID) seek على الـ primary key.
+    // الخطوة كلها transaction واحدة: الجدول والـ triggers والعد من الأول يا يتعملوا كلهم يا ولا حاجة،
+    // ولو العد فشل الخطوة ما بتتسجلش وبتتعاد كلها (ومعاها العد) التشغيل الجاي.
+    // ===================================
+    private static void dashboardCounters(Connection conn) throws SQLException {
+        boolean oldAutoCommit = conn.getAutoCommit();
+        int oldIsolation = conn.getTransactionIsolation();
+        conn.setAutoCommit(false);
+        conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        try (Statement st = conn.createStatement()) {
+            if (tableExists(conn, "DashboardCounters") && !columnExists(conn, "DashboardCounters", "Slot")) {
+                // الشكل القديم (صف واحد Id = 1) - الأرقام بتتحسب من الأول تحت
+                st.execute("DROP TABLE dbo.DashboardCounters");
+            }
+            if (!tableExists(conn, "DashboardCounters")) {
+                st.execute("""
+                    CREATE TABLE dbo.DashboardCounters (
+                        Slot              TINYINT        NOT NULL PRIMARY KEY CHECK (Slot < %d),
+                        TotalItems        INT            NOT NULL DEFAULT 0,
+                        LowStockCount     INT            NOT NULL DEFAULT 0,
+                        TotalDevices      INT            NOT NULL DEFAULT 0,
+                        TotalTransactions BIGINT         NOT NULL DEFAULT 0,
+                        TotalIn           DECIMAL(38, 4) NOT NULL DEFAULT 0,
+                        TotalOut          DECIMAL(38, 4) NOT NULL DEFAULT 0,
+                        UpdatedAt         DATETIME2      NOT NULL DEFAULT SYSDATETIME()
+                    )
+                """.formatted(COUNTER_SLOTS));
+                StringBuilder slots = new StringBuilder("INSERT INTO dbo.DashboardCounters (Slot) VALUES ");
+                for (int i = 0; i < COUNTER_SLOTS; i++) {
+                    slots.append(i == 0 ? "(0)" : ", (" + i + ")");
+                }
+                st.execute(slots.toString());
+            }
+
+            st.execute("""
+                CREATE OR ALTER TRIGGER dbo.trg_DashboardCounters_StockTransactions
+                ON dbo.StockTransactions AFTER INSERT, UPDATE, DELETE
+                AS
+                BEGIN
+                    SET NOCOUNT ON;
+                    IF NOT EXISTS (SELECT 1 FROM inserted) AND NOT EXISTS (SELECT 1 FROM deleted) RETURN;
+
+                    UPDATE dbo.DashboardCounters SET
+                        TotalTransactions = TotalTransactions
+                            + (SELECT COUNT(*) FROM inserted) - (SELECT COUNT(*) FROM deleted),
+                        TotalIn = TotalIn
+                            + ISNULL((SELECT SUM(Quantity) FROM inserted WHERE TransactionType = 'IN'), 0)
+                            - ISNULL((SELECT SUM(Quantity) FROM deleted WHERE TransactionType = 'IN'), 0),
+                        TotalOut = TotalOut
+                            + ISNULL((SELECT SUM(Quantity) FROM inserted WHERE TransactionType = 'OUT'), 0)
+                            - ISNULL((SELECT SUM(Quantity) FROM deleted WHERE TransactionType = 'OUT'), 0),
+                        UpdatedAt = SYSDATETIME()
+                    WHERE Slot = @@SPID %% %1$d;
+                END
+            """.formatted(COUNTER_SLOTS));
+
+            // المخزون الناقص بيتغير لما الرصيد يتغير (التريجر الأصلي على StockTransactions بيحدث StockBalances)
+            st.execute("""
+                CREATE OR ALTER TRIGGER dbo.trg_DashboardCounters_StockBalances
+                ON dbo.StockBalances AFTER INSERT, UPDATE, DELETE
+                AS
+                BEGIN
+                    SET NOCOUNT ON;
+                    IF NOT EXISTS (SELECT 1 FROM inserted) AND NOT EXISTS (SELECT 1 FROM deleted) RETURN;
+
+                    UPDATE dbo.DashboardCounters SET
+                        LowStockCount = LowStockCount
+                            + (SELECT COUNT(*) FROM inserted s JOIN dbo.Items i ON i.ItemID = s.ItemID
+                               WHERE s.Quantity < i.MinQuantity)
+                            - (SELECT COUNT(*) FROM deleted s JOIN dbo.Items i ON i.ItemID = s.ItemID
+                               WHERE s.Quantity < i.MinQuantity),
+                        UpdatedAt = SYSDATETIME()
+                    WHERE Slot = @@SPID %% %1$d;
+                END
+            """.formatted(COUNTER_SLOTS));
+
+            // ... أو لما الحد الأدنى للصنف يتغير
+            st.execute("""
+                CREATE OR ALTER TRIGGER dbo.trg_DashboardCounters_Items
+                ON dbo.Items AFTER INSERT, UPDATE, DELETE
+                AS
+                BEGIN
+                    SET NOCOUNT ON;
+                    IF NOT EXISTS (SELECT 1 FROM inserted) AND NOT EXISTS (SELECT 1 FROM deleted) RETURN;
+
+                    UPDATE dbo.DashboardCounters SET
+                        TotalItems = TotalItems
+                            + (SELECT COUNT(*) FROM inserted) - (SELECT COUNT(*) FROM deleted),
+                        LowStockCount = LowStockCount
+                            + (SELECT COUNT(*) FROM inserted i JOIN dbo.StockBalances s ON s.ItemID = i.ItemID
+                               WHERE s.Quantity < i.MinQuantity)
+                            - (SELECT COUNT(*) FROM deleted i JOIN dbo.StockBalances s ON s.ItemID = i.ItemID
+                               WHERE s.Quantity < i.MinQuantity),
+                        UpdatedAt = SYSDATETIME()
+                    WHERE Slot = @@SPID %% %1$d;
+                END
+            """.formatted(COUNTER_SLOTS));
+
+            st.execute("""
+                CREATE OR ALTER TRIGGER dbo.trg_DashboardCounters_Devices
+                ON dbo.Devices AFTER INSERT, DELETE
+                AS
+                BEGIN
+                    SET NOCOUNT ON;
+                    UPDATE dbo.DashboardCounters SET
+                        TotalDevices = TotalDevices
+                            + (SELECT COUNT(*) FROM inserted) - (SELECT COUNT(*) FROM deleted),
+                        UpdatedAt = SYSDATETIME()
+                    WHERE Slot = @@SPID %% %1$d;
+                END
+            """.formatted(COUNTER_SLOTS));
+
+            recountDashboardCounters(st);
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setTransactionIsolation(oldIsolation);
+            conn.setAutoCommit(oldAutoCommit);
+        }
+    }
+
+    /**
+     * إعادة حساب العدادات من الجداول الأصلية (لو حد عدل الداتا من بره البرنامج والتريجرز متقفلة)
+     */
+    public static void rebuildDashboardCounters(Connection conn) throws SQLException {
+        boolean oldAutoCommit = conn.getAutoCommit();
+        int oldIsolation = conn.getTransactionIsolation();
+        conn.setAutoCommit(false);
+        conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        try (Statement st = conn.createStatement()) {
+            recountDashboardCounters(st);
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setTransactionIsolation(oldIsolation);
+            conn.setAutoCommit(oldAutoCommit);
+        }
+    }
+
+    // الإجمالي كله في الصف 0 والباقي صفر - الـ triggers بتكمل من هنا
+    private static void recountDashboardCounters(Statement st) throws SQLException {
+        st.executeUpdate("""
+            UPDATE dbo.DashboardCounters SET
+                TotalItems        = CASE WHEN Slot = 0 THEN (SELECT COUNT(*) FROM dbo.Items) ELSE 0 END,
+                LowStockCount     = CASE WHEN Slot = 0 THEN (SELECT COUNT(*) FROM dbo.Items i
+                                                             JOIN dbo.StockBalances s ON i.ItemID = s.ItemID
+                                                             WHERE s.Quantity < i.MinQuantity) ELSE 0 END,
+                TotalDevices      = CASE WHEN Slot = 0 THEN (SELECT COUNT(*) FROM dbo.Devices) ELSE 0 END,
+                TotalTransactions = CASE WHEN Slot = 0 THEN (SELECT COUNT_BIG(*) FROM dbo.StockTransactions) ELSE 0 END,
+                TotalIn           = CASE WHEN Slot = 0 THEN (SELECT ISNULL(SUM(Quantity), 0) FROM dbo.StockTransactions
+                                                             WHERE TransactionType = 'IN') ELSE 0 END,
+                TotalOut          = CASE WHEN Slot = 0 THEN (SELECT ISNULL(SUM(Quantity), 0) FROM dbo.StockTransactions
+                                                             WHERE TransactionType = 'OUT') ELSE 0 END,
+                UpdatedAt         = SYSDATETIME()
+        """);
+    }
+
+    // ===================================
+    // ✅ رقم إصدار البيانات المرجعية (الوحدات، الأصناف، الأجهزة)
+    // بيزيد مع أي إضافة أو حذف أو تغيير اسم/كود - الكاش بيقارنه بدل ما يعيد تحميل كل حاجة.
+    // ===================================
+    private static void referenceDataVersion(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            if (!tableExists(conn, "ReferenceDataVersion")) {
+                st.execute("""
+                    CREATE TABLE dbo.ReferenceDataVersion (
+                        Id        INT       NOT NULL PRIMARY KEY CHECK (Id = 1),
+                        Version   BIGINT    NOT NULL DEFAULT 1,
+                        UpdatedAt DATETIME2 NOT NULL DEFAULT SYSDATETIME()
+                    )
+                """);
+                st.execute("INSERT INTO dbo.ReferenceDataVersion (Id) VALUES (1)");
+            }
+
+            st.execute(referenceVersionTrigger("Units", "UnitName"));
+            st.execute(referenceVersionTrigger("Items", "ItemName", "ItemCode"));
+            st.execute(referenceVersionTrigger("Devices", "DeviceName"));
+        }
+    }
+
+    private static String referenceVersionTrigger(String table, String... keyColumns) {
+        StringBuilder changed = new StringBuilder();
+        for (String column : keyColumns) {
+            if (changed.length() > 0) changed.append(" OR ");
+            changed.append("UPDATE(").append(column).append(")");
+        }
+        return """
+            CREATE OR ALTER TRIGGER dbo.trg_ReferenceDataVersion_%1$s
+            ON dbo.%1$s AFTER INSERT, UPDATE, DELETE
+            AS
+            BEGIN
+                SET NOCOUNT ON;
+                IF NOT EXISTS (SELECT 1 FROM inserted) AND NOT EXISTS (SELECT 1 FROM deleted) RETURN;
+                -- تعديل عادي (مش الاسم أو الكود) ما يأثرش على الكاش
+                IF EXISTS (SELECT 1 FROM inserted) AND EXISTS (SELECT 1 FROM deleted) AND NOT (%2$s) RETURN;
+                UPDATE dbo.ReferenceDataVersion SET Version = Version + 1, UpdatedAt = SYSDATETIME() WHERE Id = 1;
+            END
+        """.formatted(table, changed);
+    }
+
+    // ===================================
+    // ✅ تاريخ الأسعار
+    // ItemPrices فيها السعر الحالي بس. أي تغيير فيها بيتسجل هنا كصف جديد (من غير تعديل أو حذف):
+    // السعر ساري من ValidFrom لحد الصف اللي بعده لنفس الصنف، وUnitPrice = NULL معناه السعر اتشال.
+    // ===================================
+    private static void itemPriceHistory(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            if (!tableExists(conn, "ItemPriceHistory")) {
+                st.execute("""
+                    CREATE TABLE dbo.ItemPriceHistory (
+                        PriceHistoryID INT IDENTITY(1, 1) NOT NULL PRIMARY KEY,
+                        ItemID         INT                NOT NULL,
+                        UnitPrice      DECIMAL(18, 4)     NULL,
+                        ValidFrom      DATETIME2          NOT NULL DEFAULT SYSDATETIME()
+                    )
+                """);
+                st.execute("CREATE INDEX IX_ItemPriceHistory_ValidFrom ON dbo.ItemPriceHistory (ValidFrom)");
+
+                // الأسعار الموجودة قبل كده ملهاش تاريخ - بنعتبرها سارية من الأول
+                st.execute("""
+                    INSERT INTO dbo.ItemPriceHistory (ItemID, UnitPrice, ValidFrom)
+                    SELECT ItemID, UnitPrice, '19000101' FROM dbo.ItemPrices
+                """);
+            }
+
+            st.execute("""
+                CREATE OR ALTER TRIGGER dbo.trg_ItemPriceHistory_ItemPrices
+                ON dbo.ItemPrices AFTER INSERT, UPDATE, DELETE
+                AS
+                BEGIN
+                    SET NOCOUNT ON;
+                    INSERT INTO dbo.ItemPriceHistory (ItemID, UnitPrice, ValidFrom)
+                    SELECT COALESCE(i.ItemID, d.ItemID), i.UnitPrice, SYSDATETIME()
+                    FROM inserted i
+                    FULL OUTER JOIN deleted d ON d.ItemID = i.ItemID
+                    -- تعديل UpdatedAt لوحده من غير تغيير السعر ما يتسجلش
+                    WHERE NOT EXISTS (SELECT i.ItemID, i.UnitPrice INTERSECT SELECT d.ItemID, d.UnitPrice);
+                END
+            """);
+        }
+    }
+
+    // ===================================
+    // ✅ أرقام إصدار لصفوف المخزون (ROWVERSION)
+    // أي INSERT/UPDATE بياخد رقم أكبر من كل اللي قبله في الداتابيز،
+    // فشاشة المخزون تجيب الصفوف اللي اتغيرت بعد آخر رقم شافته بس.
+    // الحذف مالوش صف يتبقى - بنسجله في StockGridDeletions (وبيتمسح بعد يوم - شاشة المخزون
+    // اللي آخر تحميل ليها أقدم من كده بتحمل كله من الأول).
+    // ===================================
+    private static void stockRowVersions(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            for (String table : new String[]{"Items", "StockBalances", "Units"}) {
+                if (!columnExists(conn, table, "RowVer")) {
+                    st.execute("ALTER TABLE dbo." + table + " ADD RowVer ROWVERSION");
+                }
+            }
+            for (String table : new String[]{"Items", "StockBalances"}) {
+                st.execute("""
+                    IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'IX_%1$s_RowVer' AND object_id = OBJECT_ID('dbo.%1$s'))
+                        CREATE INDEX IX_%1$s_RowVer ON dbo.%1$s (RowVer)
+                """.formatted(table));
+            }
+
+            if (!tableExists(conn, "StockGridDeletions")) {
+                st.execute("""
+                    CREATE TABLE dbo.StockGridDeletions (
+                        ItemID    INT        NOT NULL,
+                        RowVer    ROWVERSION NOT NULL,
+                        DeletedAt DATETIME2  NOT NULL DEFAULT SYSDATETIME()
+                    )
+                """);
+                st.execute("CREATE CLUSTERED INDEX IX_StockGridDeletions_RowVer ON dbo.StockGridDeletions (RowVer)");
+            } else if (!columnExists(conn, "StockGridDeletions", "DeletedAt")) {
+                st.execute("ALTER TABLE dbo.StockGridDeletions ADD DeletedAt DATETIME2 NOT NULL DEFAULT SYSDATETIME()");
+            }
+
+            // الشاشة join بين الاتنين - حذف أي واحد فيهم بيشيل الصنف منها
+            for (String table : new String[]{"Items", "StockBalances"}) {
+                st.execute("""
+                    CREATE OR ALTER TRIGGER dbo.trg_StockGridDeletions_%1$s
+                    ON dbo.%1$s AFTER DELETE
+                    AS
+                    BEGIN
+                        SET NOCOUNT ON;
+                        INSERT INTO dbo.StockGridDeletions (ItemID) SELECT DISTINCT ItemID FROM deleted;
+                    END
+                """.formatted(table));
+            }
+        }
+    }
+
+    // ===================================
+    // ✅ سجل التغييرات (ChangeJournal)
+    // صف صغير لكل statement بيغير جدول مهم - البرنامج بيقرا الجديد منه كل ثانيتين
+    // (ChangeEventBus) بدل ما كل شاشة تعيد تحميل بياناتها لوحدها.
+    // ===================================
+    private static void changeJournal(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            if (!tableExists(conn, "ChangeJournal")) {
+                st.execute("""
+                    CREATE TABLE dbo.ChangeJournal (
+                        RowVer    ROWVERSION  NOT NULL,
+                        Topic     VARCHAR(32) NOT NULL,
+                        ChangedAt DATETIME2   NOT NULL DEFAULT SYSDATETIME()
+                    )
+                """);
+                st.execute("CREATE CLUSTERED INDEX IX_ChangeJournal_RowVer ON dbo.ChangeJournal (RowVer)");
+            }
+
+            String[][] sources = {
+                    {"StockTransactions", "STOCK"},
+                    {"StockBalances", "STOCK"},
+                    {"Items", "ITEMS"},
+                    {"Units", "ITEMS"},
+                    {"Devices", "DEVICES"},
+                    {"DeviceComponents", "DEVICES"},
+                    {"StockRequests", "REQUESTS"},
+                    {"DeviceSerials", "SERIALS"},
+                    {"SerialComponentUsage", "SERIALS"},
+                    {"ItemPrices", "PRICES"},
+            };
+            for (String[] source : sources) {
+                st.execute("""
+                    CREATE OR ALTER TRIGGER dbo.trg_ChangeJournal_%1$s
+                    ON dbo.%1$s AFTER INSERT, UPDATE, DELETE
+                    AS
+                    BEGIN
+                        SET NOCOUNT ON;
+                        IF NOT EXISTS (SELECT 1 FROM inserted) AND NOT EXISTS (SELECT 1 FROM deleted) RETURN;
+                        INSERT INTO dbo.ChangeJournal (Topic) VALUES ('%2$s');
+                    END
+                """.formatted(source[0], source[1]));
+            }
+        }
+    }
+
+    // ===================================
+    // ✅ index لصفحات المعاملات في التقارير (ORDER BY التاريخ، الرقم)
+    // كل صفحة بتبدأ من آخر صف في اللي قبلها بـ seek بدل ما السيرفر يرتب التاريخ كله
+    // ===================================
+    private static void transactionPagingIndex(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.execute("""
+                IF NOT EXISTS (SELECT 1 FROM sys.indexes
+                               WHERE name = 'IX_StockTransactions_Date_ID' AND object_id = OBJECT_ID('dbo.StockTransactions'))
+                    CREATE INDEX IX_StockTransactions_Date_ID
+                    ON dbo.StockTransactions (TransactionDate DESC, TransactionID DESC)
+                    INCLUDE (ItemID, TransactionType, Quantity)
+            """);
+        }
+    }
+
+    // ===================================
+    // ✅ indexes لفلاتر التقارير (SqlFilter)
+    // صنف معين في فترة = seek على (ItemID, التاريخ) بنفس ترتيب الصفحات،
+    // وفلتر تاريخ الخروج في شاشة الأجهزة الخارجة range على ExitDate.
+    // ===================================
+    private static void reportFilterIndexes(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.execute("""
+                IF NOT EXISTS (SELECT 1 FROM sys.indexes
+                               WHERE name = 'IX_StockTransactions_Item_Date' AND object_id = OBJECT_ID('dbo.StockTransactions'))
+                    CREATE INDEX IX_StockTransactions_Item_Date
+                    ON dbo.StockTransactions (ItemID, TransactionDate DESC, TransactionID DESC)
+                    INCLUDE (TransactionType, Quantity)
+            """);
+            if (tableExists(conn, "DeviceExit")) {
+                st.execute("""
+                    IF NOT EXISTS (SELECT 1 FROM sys.indexes
+                                   WHERE name = 'IX_DeviceExit_ExitDate' AND object_id = OBJECT_ID('dbo.DeviceExit'))
+                        CREATE INDEX IX_DeviceExit_ExitDate ON dbo.DeviceExit (ExitDate DESC)
+                """);
+            }
+        }
+    }
+
+    // ===================================
+    // ✅ صفحات سجل العمليات (Logs)
+    // LogID علشان الـ keyset يبقى فريد حتى لو كذا سطر في نفس اللحظة (الـ writer بيكتب دفعات)،
+    // وindexes للفلترة بالتاريخ / نوع الحدث / الموظف.
+    // العمود نفسه (وتحويل Description لـ NVARCHAR) بيتعمل من sql/logs_upgrade.sql بإيد الـ DBA -
+    // تعديل حجمه بحجم الجدول كله ما يتعملش من أول جهاز يفتح البرنامج. لحد ما يتنفذ التقرير بيشتغل بـ OFFSET.
+    // ===================================
+    private static void logsPaging(Connection conn) throws SQLException {
+        if (!columnExists(conn, "Logs", "LogID")) {
+            throw new SQLException("Logs.LogID غير موجود - لازم يتنفذ sql/logs_upgrade.sql");
+        }
+
+        try (Statement st = conn.createStatement()) {
+            st.execute("""
+                IF NOT EXISTS (SELECT 1 FROM sys.indexes
+                               WHERE name = 'IX_Logs_Date_ID' AND object_id = OBJECT_ID('dbo.Logs'))
+                    CREATE INDEX IX_Logs_Date_ID
+                    ON dbo.Logs (LogDate DESC, LogID DESC)
+                    INCLUDE (ActionType, EmployeeID)
+            """);
+            st.execute("""
+                IF NOT EXISTS (SELECT 1 FROM sys.indexes
+                               WHERE name = 'IX_Logs_Action_Date' AND object_id = OBJECT_ID('dbo.Logs'))
+                    CREATE INDEX IX_Logs_Action_Date
+                    ON dbo.Logs (ActionType, LogDate DESC, LogID DESC)
+                    INCLUDE (EmployeeID)
+            """);
+            st.execute("""
+                IF NOT EXISTS (SELECT 1 FROM sys.indexes
+                               WHERE name = 'IX_Logs_Employee_Date' AND object_id = OBJECT_ID('dbo.Logs'))
+                    CREATE INDEX IX_Logs_Employee_Date
+                    ON dbo.Logs (EmployeeID, LogDate DESC, LogID DESC)
+                    INCLUDE (ActionType)
+            """);
+        }
+    }
+
+    // ===================================
+    // ✅ فهرس البحث في النصوص (TextSearchIndex) بيقرا الصفوف الجديدة بس: WHERE LogID > آخر رقم.
+    // المعاملات والصيانة والتوالف الـ ID فيها هو الـ primary key، السجل محتاج index على LogID.
+    // ===================================
+    private static void textSearchWatermarks(Connection conn) throws SQLException {
+        if (!columnExists(conn, "Logs", "LogID")) {
+            // ما تتسجلش - تتعمل أول تشغيل بعد sql/logs_upgrade.sql
+            throw new SQLException("Logs.LogID غير موجود - لازم يتنفذ sql/logs_upgrade.sql");
+        }
+        try (Statement st = conn.createStatement()) {
+            st.execute("""
+                IF NOT EXISTS (SELECT 1 FROM sys.indexes
+                               WHERE name = 'IX_Logs_LogID' AND object_id = OBJECT_ID('dbo.Logs'))
+                    CREATE INDEX IX_Logs_LogID ON dbo.Logs (LogID)
+            """);
+        }
+    }
+}
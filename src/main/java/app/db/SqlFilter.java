@@ -0,0 +1,100 @@
+package app.db;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * شروط WHERE للتقارير - كل القيم parameters، والعمود نفسه ما بيتلفش في أي function.
+ * كده نص الاستعلام بيتغير بس بأنهي فلاتر موجودة (مش بقيمها)، فالسيرفر بيعيد استخدام نفس الـ plan،
+ * وفلتر التاريخ بيبقى range على العمود زي ما هو (index seek) بدل CAST(... AS DATE).
+ *
+ * الاستخدام:
+ *     SqlFilter filter = new SqlFilter()
+ *             .dateRange("t.TransactionDate", from, to)
+ *             .equalTo("t.ItemID", itemId);
+ *     String sql = "SELECT ... FROM StockTransactions t" + filter.where() + " ORDER BY ...";
+ *     filter.bind(ps, 1);
+ *
+ * أسماء الأعمدة من الكود بس - أي حاجة من المستخدم لازم تدخل كقيمة.
+ */
+public final class SqlFilter {
+
+    private final List<String> predicates = new ArrayList<>();
+    private final List<Object> params = new ArrayList<>();
+
+    /**
+     * من أول يوم from لحد آخر يوم to (الاتنين داخلين) - أي طرف null بيتساب مفتوح.
+     * بيطلع column >= ? AND column < ? (اليوم اللي بعد to) علشان الساعات جوه آخر يوم تدخل.
+     */
+    public SqlFilter dateRange(String column, LocalDate from, LocalDate to) {
+        if (from != null) and(column + " >= ?", Timestamp.valueOf(from.atStartOfDay()));
+        if (to != null) and(column + " < ?", Timestamp.valueOf(to.plusDays(1).atStartOfDay()));
+        return this;
+    }
+
+    /**
+     * يوم واحد كامل
+     */
+    public SqlFilter onDay(String column, LocalDate day) {
+        if (day == null) throw new IllegalArgumentException("day");
+        return dateRange(column, day, day);
+    }
+
+    /**
+     * column = ? - لو value بـ null الفلتر مش بيتضاف
+     */
+    public SqlFilter equalTo(String column, Object value) {
+        if (value != null) and(column + " = ?", value);
+        return this;
+    }
+
+    /**
+     * column LIKE '%text%' - للبحث الحر بس (بيعمل scan)، لو عندنا ID نستخدم equalTo.
+     * علامات LIKE اللي في النص بتتدور عليها كحروف عادية.
+     */
+    public SqlFilter contains(String column, String text) {
+        if (text == null || text.trim().isEmpty()) return this;
+        and(column + " LIKE ?", "%" + escapeLike(text.trim()) + "%");
+        return this;
+    }
+
+    /**
+     * شرط جاهز بعلامات ? (زي شرط الـ keyset) - القيم بنفس ترتيب العلامات
+     */
+    public SqlFilter and(String predicate, Object... values) {
+        predicates.add(predicate);
+        Collections.addAll(params, values);
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return predicates.isEmpty();
+    }
+
+    /**
+     * " WHERE a AND b" أو "" لو مفيش فلاتر
+     */
+    public String where() {
+        return predicates.isEmpty() ? "" : " WHERE " + String.join(" AND ", predicates);
+    }
+
+    /**
+     * ربط القيم بداية من firstIndex - وبترجع رقم أول ? بعدها
+     */
+    public int bind(PreparedStatement ps, int firstIndex) throws SQLException {
+        int index = firstIndex;
+        for (Object value : params) {
+            ps.setObject(index++, value);
+        }
+        return index;
+    }
+
+    private static String escapeLike(String text) {
+        return text.replace("[", "[[]").replace("%", "[%]").replace("_", "[_]");
+    }
+}
@@ -1,9 +1,15 @@
 package app.models;
 
+import java.sql.Timestamp;
+
 public class DashboardStats {
     private int totalItems;
     private int lowStockCount;
     private int totalTransactions;
+    private int totalDevices;
+    private double totalIn;
+    private double totalOut;
+    private LastTransaction lastTransaction;
 
     public DashboardStats(int totalItems, int lowStockCount, int totalTransactions) {
         this.totalItems = totalItems;
@@ -11,7 +17,53 @@ public class DashboardStats {
         this.totalTransactions = totalTransactions;
     }
 
+    public DashboardStats(int totalItems, int lowStockCount, int totalTransactions,
+                          int totalDevices, double totalIn, double totalOut, LastTransaction lastTransaction) {
+        this(totalItems, lowStockCount, totalTransactions);
+        this.totalDevices = totalDevices;
+        this.totalIn = totalIn;
+        this.totalOut = totalOut;
+        this.lastTransaction = lastTransaction;
+    }
+
     public int getTotalItems() { return totalItems; }
     public int getLowStockCount() { return lowStockCount; }
     public int getTotalTransactions() { return totalTransactions; }
+    public int getTotalDevices() { return totalDevices; }
+    public double getTotalIn() { return totalIn; }
+    public double getTotalOut() { return totalOut; }
+    public LastTransaction getLastTransaction() { return lastTransaction; }
+
+    // ✅ آخر حركة مخزن (للكارت اللي في الـ Dashboard)
+    public static class LastTransaction {
+        private final String type;
+        private final double quantity;
+        private final String itemName;
+        private final String unitName;
+        private final String receiver;
+        private final String notes;
+        private final String employeeName;
+        private final Timestamp date;
+
+        public LastTransaction(String type, double quantity, String itemName, String unitName,
+                               String receiver, String notes, String employeeName, Timestamp date) {
+            this.type = type;
+            this.quantity = quantity;
+            this.itemName = itemName;
+            this.unitName = unitName;
+            this.receiver = receiver;
+            this.notes = notes;
+            this.employeeName = employeeName;
+            this.date = date;
+        }
+
+        public String getType() { return type; }
+        public double getQuantity() { return quantity; }
+        public String getItemName() { return itemName; }
+        public String getUnitName() { return unitName; }
+        public String getReceiver() { return receiver; }
+        public String getNotes() { return notes; }
+        public String getEmployeeName() { return employeeName; }
+        public Timestamp getDate() { return date; }
+    }
 }
@@ -0,0 +1,166 @@
+package app.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * اقتراحات الـ ComboBox القابل للكتابة (أصناف، سيريالات ...) - فهرس واحد بدل loop بـ contains في كل شاشة.
+ * البحث عن طريق ItemSearchIndex (تطبيع عربي + n-grams)، والنتايج مترتبة:
+ *   1. الاسم أو الكود بالظبط
+ *   2. الاسم بيبدأ بالكلمة
+ *   3. كلمة جوه الاسم بتبدأ بيها
+ *   4. الكود بيبدأ بيها
+ *   5. أي مكان تاني
+ * الدرجات 1 و 2 و 4 بالبحث الثنائي في الأسماء/الأكواد المترتبة - كلمة شائعة (نص الأصناف بيبدأ بيها)
+ * بتخلص من غير ما نعدي على كل النتايج؛ وجوه الدرجات التانية بالترتيب الأصلي.
+ *
+ * الفهرس ثابت بعد ما يتبني - ممكن يتبني في الخلفية ويتقري من الـ FX Thread.
+ * أسماء الأصناف: ReferenceDataCache.itemSuggestions() (من غير query لو الكاش محمل).
+ */
+public final class AutocompleteIndex {
+
+    // أقصى عدد اقتراحات في القائمة - الباقي بيبان لما الكلمة تطول
+    public static final int DEFAULT_LIMIT = 200;
+
+    private static final int RANKS = 5;
+
+    private final List<String> names;
+    private final Map<String, String> codes;
+    private final ItemSearchIndex<Entry> index;
+    // نفس الـ entries مترتبة بالاسم/الكود بعد التطبيع - للبحث الثنائي عن البداية
+    private final Entry[] byName;
+    private final Entry[] byCode;
+
+    private AutocompleteIndex(List<String> names, Map<String, String> codes) {
+        this.names = Collections.unmodifiableList(names);
+        this.codes = codes;
+        this.index = ItemSearchIndex.of(null, Entry::code, Entry::name);
+
+        List<Entry> entries = new ArrayList<>(names.size());
+        for (String name : names) entries.add(new Entry(name, codes.get(name)));
+        index.setAll(entries);
+
+        byName = entries.toArray(new Entry[0]);
+        Arrays.sort(byName, Comparator.comparing(e -> e.normalizedName));
+        byCode = entries.stream().filter(e -> !e.normalizedCode.isEmpty()).toArray(Entry[]::new);
+        Arrays.sort(byCode, Comparator.comparing(e -> e.normalizedCode));
+    }
+
+    /**
+     * من غير أكواد - بنفس ترتيب القائمة
+     */
+    public static AutocompleteIndex of(Collection<String> names) {
+        return new AutocompleteIndex(new ArrayList<>(names), Map.of());
+    }
+
+    /**
+     * الاسم ← الكود (الكود ممكن يبقى null) - الأسماء بتترتب أبجدياً
+     */
+    public static AutocompleteIndex withCodes(Map<String, String> codesByName) {
+        List<String> names = new ArrayList<>(codesByName.keySet());
+        names.sort(String.CASE_INSENSITIVE_ORDER);
+        return new AutocompleteIndex(names, new HashMap<>(codesByName));
+    }
+
+    public List<String> all() {
+        return names;
+    }
+
+    public String codeOf(String name) {
+        return codes.get(name);
+    }
+
+    public List<String> suggest(String query) {
+        return suggest(query, DEFAULT_LIMIT);
+    }
+
+    /**
+     * كلمة فاضية = كل الأسماء (زي القائمة قبل الكتابة)
+     */
+    public List<String> suggest(String query, int limit) {
+        String normalized = ItemSearchIndex.normalize(query);
+        if (normalized.isEmpty()) return names;
+
+        List<List<String>> ranked = new ArrayList<>(RANKS);
+        for (int i = 0; i < RANKS; i++) ranked.add(new ArrayList<>());
+
+        // الاسم أو الكود بالظبط / بيبدأ بالكلمة - من المصفوفات المترتبة
+        for (Entry entry : withPrefix(byName, e -> e.normalizedName, normalized, limit + 1)) {
+            add(ranked, entry.normalizedName.equals(normalized) ? 0 : 1, entry, limit);
+        }
+        for (Entry entry : withPrefix(byCode, e -> e.normalizedCode, normalized, limit + 1)) {
+            if (entry.normalizedName.startsWith(normalized)) continue; // اتحسب فوق
+            add(ranked, entry.normalizedCode.equals(normalized) ? 0 : 3, entry, limit);
+        }
+
+        // كلمة جوه الاسم أو أي مكان - من الفهرس، لو اللي فوق مكملش العدد
+        if (ranked.get(0).size() + ranked.get(1).size() < limit) {
+            String wordStart = " " + normalized;
+            for (Entry entry : index.matches(query)) {
+                if (entry.normalizedName.startsWith(normalized) || entry.normalizedCode.startsWith(normalized)) continue;
+                add(ranked, entry.normalizedName.contains(wordStart) ? 2 : 4, entry, limit);
+            }
+        }
+
+        List<String> result = new ArrayList<>(limit);
+        for (List<String> bucket : ranked) {
+            for (String name : bucket) {
+                if (result.size() == limit) return result;
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    // كل درجة بتتملى لحد limit بس - من غير sort على كل النتايج
+    private static void add(List<List<String>> ranked, int rank, Entry entry, int limit) {
+        List<String> bucket = ranked.get(rank);
+        if (bucket.size() < limit) bucket.add(entry.name);
+    }
+
+    /**
+     * أول max عنصر بيبدأوا بـ prefix في مصفوفة مترتبة بالـ key
+     */
+    private static List<Entry> withPrefix(Entry[] sorted, Function<Entry, String> key, String prefix, int max) {
+        int low = 0, high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (key.apply(sorted[mid]).compareTo(prefix) < 0) low = mid + 1;
+            else high = mid;
+        }
+        List<Entry> result = new ArrayList<>();
+        for (int i = low; i < sorted.length && result.size() < max && key.apply(sorted[i]).startsWith(prefix); i++) {
+            result.add(sorted[i]);
+        }
+        return result;
+    }
+
+    private static final class Entry {
+        final String name;
+        final String code;
+        final String normalizedName;
+        final String normalizedCode;
+
+        Entry(String name, String code) {
+            this.name = name;
+            this.code = code;
+            this.normalizedName = ItemSearchIndex.normalize(name);
+            this.normalizedCode = ItemSearchIndex.normalize(code);
+        }
+
+        String name() {
+            return name;
+        }
+
+        String code() {
+            return code;
+        }
+    }
+}
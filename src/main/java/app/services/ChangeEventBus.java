@@ -0,0 +1,228 @@
+package app.services;
+
+import app.db.DatabaseConnection;
+import app.db.SchemaMigrations;
+import javafx.application.Platform;
+import javafx.scene.Node;
+import javafx.scene.Scene;
+import javafx.stage.WindowEvent;
+
+import java.sql.*;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ناقل أحداث التغيير لكل الشاشات المفتوحة.
+ * thread واحد بيقرا الجديد من جدول ChangeJournal كل ثانيتين،
+ * وكل شاشة مشتركة في المواضيع اللي تهمها بس - 10 شبابيك مفتوحة = استعلام واحد صغير.
+ *
+ * الاستخدام في الـ controller:
+ *     ChangeEventBus.subscribe(table, this::reload, ChangeEventBus.Topic.STOCK);
+ * والاشتراك بيتلغي لوحده لما الشباك يتقفل.
+ */
+public final class ChangeEventBus {
+
+    public enum Topic {
+        STOCK, ITEMS, DEVICES, REQUESTS, SERIALS, PRICES
+    }
+
+    private static final long POLL_INTERVAL_MS = 2_000;
+    // لو جدول التغييرات مش متاح (صلاحيات) بنبلغ الكل كل المدة دي - كل الشاشات بتعيد التحميل فلازم تبقى نادرة
+    private static final long FALLBACK_INTERVAL_MS = 5 * 60_000;
+    private static final long PRUNE_INTERVAL_MS = 60 * 60_000;
+
+    // المواضيع اللي اتغيرت بين الـ watermark القديم والجديد - والـ watermark نفسه في نفس الرحلة
+    private static final String POLL_QUERY = """
+        SET NOCOUNT ON;
+        DECLARE @next BINARY(8) = MIN_ACTIVE_ROWVERSION();
+        SELECT @next AS NextVer, j.Topic
+        FROM (VALUES (1)) v(x)
+        LEFT JOIN (
+            SELECT DISTINCT Topic FROM dbo.ChangeJournal WHERE RowVer >= ? AND RowVer < @next
+        ) j ON 1 = 1
+    """;
+
+    private static final int PRUNE_BATCH = 10_000;
+    private static final String PRUNE_QUERY =
+            "DELETE TOP (" + PRUNE_BATCH + ") FROM dbo.ChangeJournal WHERE ChangedAt < DATEADD(DAY, -1, SYSDATETIME())";
+
+    private static final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    private static final ScheduledExecutorService POLLER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "change-journal-poller");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // كل الحاجات دي بيلمسها thread الـ poller بس
+    private static byte[] watermark;
+    private static long lastFallback = 0;
+    private static long lastPrune = 0;
+    private static boolean failing = false;
+    private static boolean fallbackReported = false;
+
+    private static final AtomicBoolean started = new AtomicBoolean(false);
+
+    private ChangeEventBus() {
+    }
+
+    /**
+     * اشتراك في مواضيع معينة. onChange بيتنادى على FX thread،
+     * ولو كذا تغيير حصلوا قبل ما يخلص بيتنادى مرة واحدة بس.
+     */
+    public static Subscription subscribe(Runnable onChange, Topic... topics) {
+        Subscription sub = new Subscription(onChange, topics);
+        subscriptions.add(sub);
+        start();
+        return sub;
+    }
+
+    /**
+     * نفس subscribe بس الاشتراك بيتلغي لما الشباك اللي فيه owner يتقفل
+     */
+    public static Subscription subscribe(Node owner, Runnable onChange, Topic... topics) {
+        Subscription sub = subscribe(onChange, topics);
+        if (owner.getScene() != null) {
+            closeWithWindow(owner.getScene(), sub);
+        } else {
+            owner.sceneProperty().addListener((obs, oldScene, scene) -> {
+                if (scene != null) closeWithWindow(scene, sub);
+            });
+        }
+        return sub;
+    }
+
+    private static void closeWithWindow(Scene scene, Subscription sub) {
+        if (scene.getWindow() != null) {
+            scene.getWindow().addEventHandler(WindowEvent.WINDOW_HIDDEN, e -> sub.close());
+            return;
+        }
+        scene.windowProperty().addListener((obs, oldWindow, window) -> {
+            if (window != null) window.addEventHandler(WindowEvent.WINDOW_HIDDEN, e -> sub.close());
+        });
+    }
+
+    /**
+     * بعد تعديل من الشاشة نفسها - نقرا التغييرات دلوقتي بدل ما نستنى الدورة الجاية
+     */
+    public static void pollNow() {
+        if (started.get()) POLLER.execute(() -> poll(true));
+    }
+
+    private static void start() {
+        if (started.compareAndSet(false, true)) {
+            POLLER.scheduleWithFixedDelay(() -> poll(false), 0, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // ===================================
+    // الـ polling
+    // ===================================
+    private static void poll(boolean immediate) {
+        if (subscriptions.isEmpty()) return;
+        try {
+            SchemaMigrations.ensureApplied();
+            if (!SchemaMigrations.isApplied(SchemaMigrations.CHANGE_JOURNAL)) {
+                if (!fallbackReported) {
+                    fallbackReported = true;
+                    System.err.println("⚠️ سجل التغييرات غير متاح - الشاشات هتتحدث كل " + FALLBACK_INTERVAL_MS / 60_000 + " دقايق بس");
+                }
+                long now = System.currentTimeMillis();
+                if (immediate || now - lastFallback >= FALLBACK_INTERVAL_MS) {
+                    lastFallback = now;
+                    publish(EnumSet.allOf(Topic.class));
+                }
+                return;
+            }
+
+            Set<Topic> changed = EnumSet.noneOf(Topic.class);
+            try (Connection conn = DatabaseConnection.getInventoryConnection()) {
+                byte[] next = null;
+                try (PreparedStatement ps = conn.prepareStatement(POLL_QUERY)) {
+                    ps.setBytes(1, watermark);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            next = rs.getBytes("NextVer");
+                            String topic = rs.getString("Topic");
+                            if (topic == null) continue;
+                            try {
+                                changed.add(Topic.valueOf(topic));
+                            } catch (IllegalArgumentException ignored) {
+                                // موضوع من نسخة أحدث من البرنامج
+                            }
+                        }
+                    }
+                }
+                if (next != null) watermark = next;
+                prune(conn);
+            }
+
+            failing = false;
+            if (!changed.isEmpty()) publish(changed);
+
+        } catch (Exception e) {
+            // مرة واحدة بس - مش كل ثانيتين
+            if (!failing) {
+                failing = true;
+                System.err.println("⚠️ تعذر قراءة سجل التغييرات: " + e.getMessage());
+            }
+        }
+    }
+
+    // أي نسخة من البرنامج ممكن تنضف - الحذف بسيط ومش بيتعارض
+    private static void prune(Connection conn) throws SQLException {
+        long now = System.currentTimeMillis();
+        if (now - lastPrune < PRUNE_INTERVAL_MS) return;
+        lastPrune = now;
+        // دفعات صغيرة علشان الـ lock ما يكبرش - لحد ما دفعة تيجي أقل من الحد
+        try (Statement st = conn.createStatement()) {
+            while (st.executeUpdate(PRUNE_QUERY) >= PRUNE_BATCH) {
+                if (Thread.currentThread().isInterrupted()) return;
+            }
+        }
+    }
+
+    private static void publish(Set<Topic> changed) {
+        for (Subscription sub : subscriptions) {
+            if (sub.matches(changed)) sub.fire();
+        }
+    }
+
+    // ===================================
+    // اشتراك شاشة
+    // ===================================
+    public static final class Subscription {
+        private final Runnable onChange;
+        private final Set<Topic> topics;
+        private final AtomicBoolean pending = new AtomicBoolean(false);
+
+        private Subscription(Runnable onChange, Topic... topics) {
+            this.onChange = onChange;
+            this.topics = topics.length == 0 ? EnumSet.allOf(Topic.class) : EnumSet.of(topics[0], topics);
+        }
+
+        private boolean matches(Set<Topic> changed) {
+            for (Topic t : changed) {
+                if (topics.contains(t)) return true;
+            }
+            return false;
+        }
+
+        private void fire() {
+            if (!pending.compareAndSet(false, true)) return; // لسه في واحد مستني على FX thread
+            Platform.runLater(() -> {
+                pending.set(false);
+                if (subscriptions.contains(this)) onChange.run();
+            });
+        }
+
+        public void close() {
+            subscriptions.remove(this);
+        }
+    }
+}
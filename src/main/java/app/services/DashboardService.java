@@ -0,0 +1,95 @@
+package app.services;
+
+import app.db.DatabaseConnection;
+import app.db.SchemaMigrations;
+import app.models.DashboardStats;
+
+import java.sql.*;
+
+public class DashboardService {
+
+    // ✅ العدادات جاهزة في DashboardCounters (صف لكل slot - بنجمعهم) - استعلام واحد بدل سبعة
+    private static final String COUNTERS_SOURCE = """
+        SELECT c.*, (SELECT MAX(TransactionID) FROM StockTransactions) AS LastTransactionID
+        FROM (
+            SELECT SUM(TotalItems) AS TotalItems, SUM(LowStockCount) AS LowStockCount,
+                   SUM(TotalDevices) AS TotalDevices, SUM(TotalTransactions) AS TotalTransactions,
+                   SUM(TotalIn) AS TotalIn, SUM(TotalOut) AS TotalOut
+            FROM DashboardCounters
+        ) c
+    """;
+
+    // لو جدول العدادات مش متاح (صلاحيات مثلاً) بنحسب في نفس الاستعلام - رحلة واحدة للسيرفر برضه
+    private static final String LIVE_SOURCE = """
+        SELECT
+            (SELECT COUNT(*) FROM Items) AS TotalItems,
+            (SELECT COUNT(*) FROM Items i JOIN StockBalances s ON i.ItemID = s.ItemID
+             WHERE s.Quantity < i.MinQuantity) AS LowStockCount,
+            (SELECT COUNT(*) FROM Devices) AS TotalDevices,
+            (SELECT COUNT(*) FROM StockTransactions) AS TotalTransactions,
+            (SELECT ISNULL(SUM(Quantity), 0) FROM StockTransactions WHERE TransactionType = 'IN') AS TotalIn,
+            (SELECT ISNULL(SUM(Quantity), 0) FROM StockTransactions WHERE TransactionType = 'OUT') AS TotalOut,
+            (SELECT MAX(TransactionID) FROM StockTransactions) AS LastTransactionID
+    """;
+
+    private static final String STATS_QUERY = """
+        SELECT
+            c.TotalItems, c.LowStockCount, c.TotalDevices, c.TotalTransactions, c.TotalIn, c.TotalOut,
+            st.TransactionID, st.TransactionType, st.Quantity, st.TransactionDate,
+            st.ReceiverName, st.Notes, st.EmployeeID, i.ItemName, u.UnitName
+        FROM (%s) c
+        LEFT JOIN StockTransactions st ON st.TransactionID = c.LastTransactionID
+        LEFT JOIN Items i ON st.ItemID = i.ItemID
+        LEFT JOIN Units u ON i.UnitID = u.UnitID
+    """;
+
+    /**
+     * كل أرقام الـ Dashboard + آخر حركة في رحلة واحدة للسيرفر.
+     * بترجع null لو مفيش اتصال.
+     */
+    public DashboardStats getStats() throws SQLException {
+        SchemaMigrations.ensureApplied();
+        EmployeeDirectory.ensureLoaded();
+
+        String source = SchemaMigrations.isApplied(SchemaMigrations.DASHBOARD_COUNTERS) ? COUNTERS_SOURCE : LIVE_SOURCE;
+
+        try (Connection conn = DatabaseConnection.getInventoryConnection()) {
+            if (conn == null) return null;
+
+            try (PreparedStatement ps = conn.prepareStatement(String.format(STATS_QUERY, source));
+                 ResultSet rs = ps.executeQuery()) {
+
+                if (!rs.next()) return null;
+
+                DashboardStats.LastTransaction last = null;
+                rs.getInt("TransactionID");
+                if (!rs.wasNull()) {
+                    // اسم الموظف من الذاكرة - من غير join على قاعدة الإدارة
+                    int employeeId = rs.getInt("EmployeeID");
+                    String employeeName = rs.wasNull() ? null : EmployeeDirectory.nameOf(employeeId);
+
+                    last = new DashboardStats.LastTransaction(
+                            rs.getString("TransactionType"),
+                            rs.getDouble("Quantity"),
+                            rs.getString("ItemName"),
+                            rs.getString("UnitName"),
+                            rs.getString("ReceiverName"),
+                            rs.getString("Notes"),
+                            employeeName,
+                            rs.getTimestamp("TransactionDate")
+                    );
+                }
+
+                return new DashboardStats(
+                        rs.getInt("TotalItems"),
+                        rs.getInt("LowStockCount"),
+                        (int) rs.getLong("TotalTransactions"),
+                        rs.getInt("TotalDevices"),
+                        rs.getDouble("TotalIn"),
+                        rs.getDouble("TotalOut"),
+                        last
+                );
+            }
+        }
+    }
+}
@@ -34,6 +34,7 @@ public class DeviceService {
             ps.setString(1, deviceName);
             ps.setInt(2, employeeId);
             ps.executeUpdate();
+            ReferenceDataCache.invalidate();
             return true;
         } catch (SQLException e) {
             if (e.getMessage().contains("UQ_Devices_DeviceName")) {
@@ -50,6 +51,7 @@ public class DeviceService {
              PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, deviceId);
             ps.executeUpdate();
+            ReferenceDataCache.invalidate();
             return true;
         } catch (Exception e) {
             e.printStackTrace();
@@ -60,7 +62,7 @@ public class DeviceService {
     // 4️⃣ إضافة مكون للجهاز
     public boolean addDeviceComponent(int deviceId, int itemId, double qty) {
         String sql = """
-            INSERT INTO DeviceComponents (DeviceID, ItemID, QuantityPerDevice)
+            INSERT INTO DeviceComponents (DeviceID, ItemID, Quantity)
             VALUES (?, ?, ?)
         """;
         try (Connection conn = DatabaseConnection.getInventoryConnection();
@@ -82,7 +84,7 @@ public class DeviceService {
     public List<Map<String, Object>> getDeviceComponents(int deviceId) {
         List<Map<String, Object>> list = new ArrayList<>();
         String sql = """
-            SELECT dc.DeviceComponentID, i.ItemName, u.UnitName, dc.QuantityPerDevice, s.Quantity AS StockQty
+            SELECT dc.ID, i.ItemName, u.UnitName, dc.Quantity AS QuantityPerDevice, s.Quantity AS StockQty
             FROM DeviceComponents dc
             JOIN Items i ON dc.ItemID = i.ItemID
             JOIN Units u ON i.UnitID = u.UnitID
@@ -95,7 +97,7 @@ public class DeviceService {
             ResultSet rs = ps.executeQuery();
             while (rs.next()) {
                 Map<String, Object> comp = new HashMap<>();
-                comp.put("componentId", rs.getInt("DeviceComponentID"));
+                comp.put("componentId", rs.getInt("ID"));
                 comp.put("itemName", rs.getString("ItemName"));
                 comp.put("unitName", rs.getString("UnitName"));
                 comp.put("quantityPerDevice", rs.getDouble("QuantityPerDevice"));
@@ -111,7 +113,7 @@ public class DeviceService {
     // 6️⃣ حذف مكون من جهاز
     public boolean deleteComponent(int componentId) {
         try (Connection conn = DatabaseConnection.getInventoryConnection();
-             PreparedStatement ps = conn.prepareStatement("DELETE FROM DeviceComponents WHERE DeviceComponentID=?")) {
+             PreparedStatement ps = conn.prepareStatement("DELETE FROM DeviceComponents WHERE ID=?")) {
             ps.setInt(1, componentId);
             ps.executeUpdate();
             return true;
@@ -123,67 +125,43 @@ public class DeviceService {
 
     // 7️⃣ إخراج جهاز (خصم المكونات)
     public boolean produceDevice(int deviceId, int deviceCount, int employeeId) {
+        return produceDevices(List.of(new ProductionRun(deviceId, deviceCount)), employeeId);
+    }
+
+    // تشغيلة إنتاج كاملة (كذا جهاز) في transaction واحدة قصيرة:
+    // الـ BOM بيتفك ويتخصم على السيرفر في batch واحد، وبعده سجل الإنتاج في INSERT واحد
+    public boolean produceDevices(List<ProductionRun> runs, int employeeId) {
+        if (runs.isEmpty()) return true;
         try (Connection conn = DatabaseConnection.getInventoryConnection()) {
             conn.setAutoCommit(false);
 
-            PreparedStatement comps = conn.prepareStatement("""
-                SELECT dc.ItemID, dc.QuantityPerDevice, s.Quantity
-                FROM DeviceComponents dc
-                JOIN StockBalances s ON dc.ItemID = s.ItemID
-                WHERE dc.DeviceID = ?
-            """);
-            comps.setInt(1, deviceId);
-            ResultSet rs = comps.executeQuery();
-
-            List<String> insufficient = new ArrayList<>();
-            Map<Integer, Double> deductions = new HashMap<>();
-
-            while (rs.next()) {
-                int itemId = rs.getInt("ItemID");
-                double perDevice = rs.getDouble("QuantityPerDevice");
-                double stock = rs.getDouble("Quantity");
-                double totalNeeded = perDevice * deviceCount;
-
-                if (stock < totalNeeded)
-                    insufficient.add("العنصر: " + itemId + " الكمية المتاحة: " + stock);
-                else
-                    deductions.put(itemId, totalNeeded);
-            }
-
-            if (!insufficient.isEmpty()) {
+            try {
+                new StockMovementService().issueComponents(conn, runs, employeeId, "خصم مكونات لتصنيع جهاز");
+            } catch (StockMovementService.InsufficientStockException e) {
                 conn.rollback();
-                System.err.println("⚠️ لا يوجد مخزون كافٍ:\n" + String.join("\n", insufficient));
+                System.err.println("⚠️ " + e.getMessage());
                 return false;
             }
 
-            for (Map.Entry<Integer, Double> entry : deductions.entrySet()) {
-                PreparedStatement upd = conn.prepareStatement(
-                        "UPDATE StockBalances SET Quantity = Quantity - ? WHERE ItemID=?");
-                upd.setDouble(1, entry.getValue());
-                upd.setInt(2, entry.getKey());
-                upd.executeUpdate();
-
-                PreparedStatement trans = conn.prepareStatement("""
-                    INSERT INTO StockTransactions (ItemID, TransactionType, Quantity, EmployeeID, Notes)
-                    VALUES (?, 'OUT', ?, ?, ?)
-                """);
-                trans.setInt(1, entry.getKey());
-                trans.setDouble(2, entry.getValue());
-                trans.setInt(3, employeeId);
-                trans.setString(4, "خصم مكونات لتصنيع جهاز");
-                trans.executeUpdate();
+            // 4 parameters لكل صف - SQL Server أقصاه 2100 في الـ statement
+            for (int from = 0; from < runs.size(); from += 500) {
+                List<ProductionRun> part = runs.subList(from, Math.min(from + 500, runs.size()));
+                StringBuilder sql = new StringBuilder("INSERT INTO DeviceProductionLog (DeviceID, Quantity, EmployeeID, Notes) VALUES ");
+                for (int i = 0; i < part.size(); i++) {
+                    sql.append(i == 0 ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+                }
+                try (PreparedStatement log = conn.prepareStatement(sql.toString())) {
+                    int p = 1;
+                    for (ProductionRun run : part) {
+                        log.setInt(p++, run.getDeviceId());
+                        log.setInt(p++, run.getCount());
+                        log.setInt(p++, employeeId);
+                        log.setString(p++, "إنتاج " + run.getCount() + " جهاز");
+                    }
+                    log.executeUpdate();
+                }
             }
 
-            PreparedStatement log = conn.prepareStatement("""
-                INSERT INTO DeviceProductionLog (DeviceID, Quantity, EmployeeID, Notes)
-                VALUES (?, ?, ?, ?)
-            """);
-            log.setInt(1, deviceId);
-            log.setInt(2, deviceCount);
-            log.setInt(3, employeeId);
-            log.setString(4, "إنتاج " + deviceCount + " جهاز");
-            log.executeUpdate();
-
             conn.commit();
             return true;
 
@@ -192,4 +170,20 @@ public class DeviceService {
             return false;
         }
     }
+
+    // ===================================
+    // جهاز + العدد المطلوب إنتاجه
+    // ===================================
+    public static class ProductionRun {
+        private final int deviceId;
+        private final int count;
+
+        public ProductionRun(int deviceId, int count) {
+            this.deviceId = deviceId;
+            this.count = count;
+        }
+
+        public int getDeviceId() { return deviceId; }
+        public int getCount() { return count; }
+    }
 }
@@ -0,0 +1,232 @@
+package app.services;
+
+import app.db.DatabaseConnection;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * نسخة في الذاكرة من جدول الموظفين (قاعدة بيانات الإدارة).
+ * بتتحمل مرة واحدة، وبعد كده بتتحدث تدريجياً: الموظفين الجداد بس بيتنقلوا،
+ * وchecksum على الموظفين القدام بيكشف أي تعديل اسم أو حذف (ساعتها بنعيد التحميل كله).
+ * كده استعلامات التقارير بتلمس قاعدة المخزن بس، والأسماء بتتجاب من هنا.
+ *
+ * nameOf / displayName من الذاكرة بس - بتتنادى جوه لف على ResultSet مفتوح، فعمرها ما بتكلم قاعدة الإدارة:
+ * ID مش معروف بيطلب تحديث في الخلفية والصف ده بيتعرض "موظف #id". اللي بيحمل صفوف ينادي ensureLoaded()
+ * قبل ما يفتح الاستعلام علشان أول تحميل ما يحصلش في النص.
+ */
+public final class EmployeeDirectory {
+
+    private static final long REFRESH_INTERVAL_SECONDS = 60;
+    // أقل مدة بين تحديثين بسبب ID مش معروف
+    private static final long MISS_REFRESH_INTERVAL_MS = 5_000;
+
+    // الموظفين الجداد (ID أكبر من آخر ID معروف) + checksum للقدام وللكل في نفس الرحلة
+    private static final String REFRESH_QUERY = """
+        SELECT employee_id, name, NULL AS KnownChecksum, NULL AS KnownCount, NULL AS AllChecksum, NULL AS AllCount
+        FROM Employees
+        WHERE employee_id > ?
+        UNION ALL
+        SELECT NULL, NULL,
+               CHECKSUM_AGG(CASE WHEN employee_id <= ? THEN BINARY_CHECKSUM(employee_id, name) END),
+               COUNT(CASE WHEN employee_id <= ? THEN 1 END),
+               CHECKSUM_AGG(BINARY_CHECKSUM(employee_id, name)),
+               COUNT(*)
+        FROM Employees
+    """;
+
+    private static volatile Snapshot snapshot;
+    private static volatile long lastAttempt = 0;
+    private static final AtomicBoolean missQueued = new AtomicBoolean(false);
+    private static final Object REFRESH_LOCK = new Object();
+
+    private static final ScheduledExecutorService REFRESHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "employee-directory-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        REFRESHER.scheduleWithFixedDelay(() -> {
+            if (snapshot != null) load(); // محدش استخدمه لسه
+        }, REFRESH_INTERVAL_SECONDS, REFRESH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private EmployeeDirectory() {
+    }
+
+    /**
+     * تحميل أول نسخة لو لسه ما اتحملتش - قبل فتح الاستعلام اللي هيعرض أسماء (بيستنى الداتابيز أول مرة بس)
+     */
+    public static void ensureLoaded() {
+        current();
+    }
+
+    /**
+     * اسم الموظف أو null لو مش معروف - من غير أي اتصال بالداتابيز
+     */
+    public static String nameOf(int employeeId) {
+        Snapshot current = snapshot;
+        String name = current != null ? current.names.get(employeeId) : null;
+        if (name == null && employeeId > 0) {
+            // ممكن يكون موظف جديد - يتجاب في الخلفية ويظهر في التحميل الجاي
+            refreshInBackground();
+        }
+        return name;
+    }
+
+    private static void refreshInBackground() {
+        if (System.currentTimeMillis() - lastAttempt <= MISS_REFRESH_INTERVAL_MS) return;
+        if (!missQueued.compareAndSet(false, true)) return;
+        REFRESHER.execute(() -> {
+            try {
+                load();
+            } finally {
+                missQueued.set(false);
+            }
+        });
+    }
+
+    /**
+     * نفس عرض التقارير: "نظام" لو مفيش موظف، و"موظف #id" لو الاسم مش معروف
+     */
+    public static String displayName(Integer employeeId) {
+        if (employeeId == null || employeeId <= 0) return "نظام";
+        String name = nameOf(employeeId);
+        return name != null ? name : "موظف #" + employeeId;
+    }
+
+    /**
+     * كل الموظفين مترتبين بالاسم
+     */
+    public static List<Employee> all() {
+        Map<Integer, String> names = current().names;
+        List<Employee> list = new ArrayList<>(names.size());
+        for (Map.Entry<Integer, String> e : names.entrySet()) {
+            list.add(new Employee(e.getKey(), e.getValue()));
+        }
+        list.sort(Comparator.comparing(Employee::getName, Comparator.nullsLast(Comparator.naturalOrder())));
+        return list;
+    }
+
+    private static Snapshot current() {
+        Snapshot current = snapshot;
+        if (current != null) return current;
+        // قاعدة الإدارة مش متاحة - ما نحاولش مع كل اسم
+        if (System.currentTimeMillis() - lastAttempt < MISS_REFRESH_INTERVAL_MS) return Snapshot.EMPTY;
+        return load();
+    }
+
+    /**
+     * تحديث من قاعدة الإدارة - لو فشل بنفضل على آخر نسخة
+     */
+    public static void refresh() {
+        load();
+    }
+
+    private static Snapshot load() {
+        synchronized (REFRESH_LOCK) {
+            lastAttempt = System.currentTimeMillis();
+            Snapshot current = snapshot;
+            try (Connection conn = DatabaseConnection.getManagementConnection()) {
+                Snapshot next = current != null ? fetch(conn, current) : null;
+                if (next == null) {
+                    // أول مرة، أو موظف قديم اتعدل/اتحذف
+                    next = fetch(conn, Snapshot.EMPTY);
+                }
+                snapshot = next;
+                return next;
+            } catch (SQLException e) {
+                System.err.println("⚠️ تعذر تحديث بيانات الموظفين: " + e.getMessage());
+                return current != null ? current : Snapshot.EMPTY;
+            }
+        }
+    }
+
+    /**
+     * @return النسخة الجديدة، أو null لو الموظفين القدام اتغيروا ومحتاجين تحميل كامل
+     */
+    private static Snapshot fetch(Connection conn, Snapshot base) throws SQLException {
+        Map<Integer, String> added = new HashMap<>();
+        Integer knownChecksum = null, allChecksum = null;
+        int knownCount = 0, allCount = 0;
+
+        try (PreparedStatement ps = conn.prepareStatement(REFRESH_QUERY)) {
+            ps.setInt(1, base.maxId);
+            ps.setInt(2, base.maxId);
+            ps.setInt(3, base.maxId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int id = rs.getInt("employee_id");
+                    if (!rs.wasNull()) {
+                        added.put(id, rs.getString("name"));
+                        continue;
+                    }
+                    knownChecksum = (Integer) rs.getObject("KnownChecksum");
+                    knownCount = rs.getInt("KnownCount");
+                    allChecksum = (Integer) rs.getObject("AllChecksum");
+                    allCount = rs.getInt("AllCount");
+                }
+            }
+        }
+
+        if (base != Snapshot.EMPTY
+                && (knownCount != base.count || !Objects.equals(knownChecksum, base.checksum))) {
+            return null;
+        }
+        if (added.isEmpty() && base != Snapshot.EMPTY) return base;
+
+        Map<Integer, String> names = new HashMap<>(base.names);
+        names.putAll(added);
+        int maxId = base.maxId;
+        for (int id : added.keySet()) maxId = Math.max(maxId, id);
+        return new Snapshot(Collections.unmodifiableMap(names), maxId, allChecksum, allCount);
+    }
+
+    // ===================================
+    // موظف (للـ ComboBox وغيره)
+    // ===================================
+    public static class Employee {
+        private final int id;
+        private final String name;
+
+        public Employee(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        public int getId() { return id; }
+        public String getName() { return name; }
+
+        @Override
+        public String toString() {
+            return id + " - " + name;
+        }
+    }
+
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(Collections.emptyMap(), Integer.MIN_VALUE, null, 0);
+
+        final Map<Integer, String> names;
+        final int maxId;
+        final Integer checksum;
+        final int count;
+
+        Snapshot(Map<Integer, String> names, int maxId, Integer checksum, int count) {
+            this.names = names;
+            this.maxId = maxId;
+            this.checksum = checksum;
+            this.count = count;
+        }
+    }
+}
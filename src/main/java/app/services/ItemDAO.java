@@ -1,15 +1,21 @@
 package app.services;
 
 import app.db.DatabaseConnection;
+import app.db.SqlFilter;
 import app.models.Item;
+import app.utils.CsvReader;
+import app.utils.ExcelReader;
 import app.services.ItemImportDTO;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
+import java.io.File;
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 public class ItemDAO {
 
@@ -25,7 +31,7 @@ public class ItemDAO {
     // ===================================
     public int addItem(String name, String itemCode, String unitName, double minQty, double initialQty) throws SQLException {
         try (Connection conn = DatabaseConnection.getConnection()) {
-            int unitId = getUnitIdByName(unitName, conn);
+            int unitId = getUnitIdByName(unitName);
             if (unitId == -1) return -1;
 
             // البحث إذا كان الصنف موجود بالاسم أو بالكود
@@ -56,6 +62,7 @@ public class ItemDAO {
                 bal.setDouble(2, initialQty);
                 bal.executeUpdate();
 
+                ReferenceDataCache.invalidate();
                 return itemId;
             }
         }
@@ -175,56 +182,23 @@ public class ItemDAO {
         }
     }
 
-    // 6️⃣ صرف كمية (OUT)
-    public void removeStock(int itemId, double qty, int employeeId, String receiver, String notes) throws SQLException {
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            conn.setAutoCommit(false);
-            try {
-                PreparedStatement check = conn.prepareStatement("SELECT Quantity FROM StockBalances WHERE ItemID=?");
-                check.setInt(1, itemId);
-                ResultSet rs = check.executeQuery();
-                if (!rs.next() || rs.getDouble("Quantity") < qty) {
-                    throw new SQLException("Insufficient stock!");
-                }
-
-                PreparedStatement update = conn.prepareStatement(
-                        "UPDATE StockBalances SET Quantity = Quantity - ? WHERE ItemID=?");
-                update.setDouble(1, qty);
-                update.setInt(2, itemId);
-                update.executeUpdate();
-
-                PreparedStatement log = conn.prepareStatement(
-                        "INSERT INTO StockTransactions (ItemID, TransactionType, Quantity, EmployeeID, ReceiverName, Notes) VALUES (?, 'OUT', ?, ?, ?, ?)");
-                log.setInt(1, itemId);
-                log.setDouble(2, qty);
-                log.setInt(3, employeeId);
-                log.setString(4, receiver);
-                log.setString(5, notes);
-                log.executeUpdate();
-
-                updateShortageStatus(itemId, conn);
-                conn.commit();
-            } catch (SQLException e) {
-                conn.rollback();
-                throw e;
-            } finally {
-                conn.setAutoCommit(true);
-            }
-        }
+    // 6️⃣ صرف كمية (OUT) - فحص الرصيد والخصم في statement واحد
+    public double removeStock(int itemId, double qty, int employeeId, String receiver, String notes) throws SQLException {
+        return new StockMovementService().issue(itemId, qty, employeeId, receiver, notes);
     }
 
     // 7️⃣ جلب المعاملات في يوم معين
     public ObservableList<String> getTransactionsByDate(LocalDate date) {
         ObservableList<String> list = FXCollections.observableArrayList();
+        // اليوم كـ range (من أوله لأول اليوم اللي بعده) بدل CAST - seek على index التاريخ
+        SqlFilter filter = new SqlFilter().onDay("t.TransactionDate", date);
         try (Connection conn = DatabaseConnection.getConnection()) {
             PreparedStatement ps = conn.prepareStatement("""
                 SELECT t.TransactionID, i.ItemName, t.TransactionType, t.Quantity, t.TransactionDate, t.ReceiverName, t.Notes
                 FROM StockTransactions t
                 JOIN Items i ON t.ItemID = i.ItemID
-                WHERE CAST(t.TransactionDate AS DATE) = ?
-                ORDER BY t.TransactionDate DESC
-            """);
-            ps.setDate(1, Date.valueOf(date));
+            """ + filter.where() + " ORDER BY t.TransactionDate DESC");
+            filter.bind(ps, 1);
             ResultSet rs = ps.executeQuery();
             while (rs.next()) {
                 String row = String.format("[%s] %s - %.2f (%s) %s",
@@ -292,6 +266,7 @@ public class ItemDAO {
                 }
             }
             conn.commit();
+            ReferenceDataCache.invalidate();
             return true;
         } catch (SQLException e) {
             e.printStackTrace();
@@ -299,13 +274,10 @@ public class ItemDAO {
         }
     }
 
-    // 🔹 مساعد: جلب ID الوحدة بالاسم
-    private int getUnitIdByName(String name, Connection conn) throws SQLException {
-        PreparedStatement ps = conn.prepareStatement("SELECT UnitID FROM Units WHERE UnitName=?");
-        ps.setString(1, name);
-        ResultSet rs = ps.executeQuery();
-        if (rs.next()) return rs.getInt("UnitID");
-        return -1;
+    // 🔹 مساعد: جلب ID الوحدة بالاسم (من الكاش)
+    private int getUnitIdByName(String name) throws SQLException {
+        Integer unitId = ReferenceDataCache.unitId(name);
+        return unitId != null ? unitId : -1;
     }
 
     // Add unit
@@ -317,6 +289,7 @@ public class ItemDAO {
             stmt.setString(1, unitName);
             stmt.setString(2, unitName);
             int rows = stmt.executeUpdate();
+            if (rows > 0) ReferenceDataCache.invalidate();
             return rows > 0;
         } catch (Exception e) {
             e.printStackTrace();
@@ -336,105 +309,46 @@ public class ItemDAO {
     }
 
     // ===================================
-// 9️⃣ استيراد الأصناف من Excel
-// ===================================
-// ===================================
-// 9️⃣ استيراد الأصناف من Excel
-// ===================================
+    // 9️⃣ استيراد الأصناف من Excel (على دفعات - شوف ItemImportSession)
+    // ===================================
     public String importItemsFromExcel(List<ItemImportDTO> items) {
-        StringBuilder result = new StringBuilder();
-        int successCount = 0;
-        int errorCount = 0;
-
-        try (Connection conn = DatabaseConnection.getConnection()) {
-            conn.setAutoCommit(false); // نبدأ transaction
-
-            for (ItemImportDTO item : items) {
-                try {
-                    // التحقق من البيانات المطلوبة
-                    if (item.getItemName() == null || item.getItemName().trim().isEmpty() ||
-                            item.getUnitName() == null || item.getUnitName().trim().isEmpty()) {
-                        result.append("❌ خطأ: بيانات ناقصة للصنف: ").append(item.getItemName()).append("\n");
-                        errorCount++;
-                        continue;
-                    }
-
-                    // التحقق من وجود الوحدة
-                    int unitId = getUnitIdByName(item.getUnitName().trim(), conn);
-                    if (unitId == -1) {
-                        result.append("❌ خطأ: الوحدة غير موجودة '").append(item.getUnitName())
-                                .append("' للصنف: ").append(item.getItemName()).append("\n");
-                        errorCount++;
-                        continue;
-                    }
-
-                    // التحقق من عدم تكرار اسم الصنف أو الكود
-                    PreparedStatement check = conn.prepareStatement(
-                            "SELECT ItemID FROM Items WHERE ItemName=? OR (ItemCode IS NOT NULL AND ItemCode=?)");
-                    check.setString(1, item.getItemName().trim());
-                    check.setString(2, item.getItemCode() != null ? item.getItemCode().trim() : "");
-                    ResultSet rs = check.executeQuery();
-                    if (rs.next()) {
-                        result.append("⚠️ تحذير: الصنف موجود مسبقاً '").append(item.getItemName())
-                                .append("' أو الكود '").append(item.getItemCode()).append("'\n");
-                        errorCount++;
-                        continue;
-                    }
-
-                    // إضافة الصنف
-                    PreparedStatement ps = conn.prepareStatement(
-                            "INSERT INTO Items (ItemName, ItemCode, UnitID, MinQuantity) VALUES (?, ?, ?, ?)",
-                            Statement.RETURN_GENERATED_KEYS);
-                    ps.setString(1, item.getItemName().trim());
-                    ps.setString(2, (item.getItemCode() != null && !item.getItemCode().trim().isEmpty()) ?
-                            item.getItemCode().trim() : null);
-                    ps.setInt(3, unitId);
-                    ps.setDouble(4, item.getMinQuantity());
-                    ps.executeUpdate();
+        return importItemsFromExcel(items, null);
+    }
 
-                    // جلب الـ ID المُنشأ
-                    rs = ps.getGeneratedKeys();
-                    if (rs.next()) {
-                        int itemId = rs.getInt(1);
-
-                        // إضافة الكمية الأولية
-                        double initialQty = item.getInitialQuantity() != null ? item.getInitialQuantity() : 0;
-                        PreparedStatement bal = conn.prepareStatement(
-                                "INSERT INTO StockBalances (ItemID, Quantity) VALUES (?, ?)");
-                        bal.setInt(1, itemId);
-                        bal.setDouble(2, initialQty);
-                        bal.executeUpdate();
-
-                        // إضافة السعر إذا كان موجود
-                        if (item.getPrice() != null && item.getPrice() > 0) {
-                            PreparedStatement priceStmt = conn.prepareStatement(
-                                    "INSERT INTO ItemPrices (ItemID, UnitPrice, CreatedBy) VALUES (?, ?, NULL)");
-                            priceStmt.setInt(1, itemId);
-                            priceStmt.setDouble(2, item.getPrice());
-                            priceStmt.executeUpdate();
-                        }
-
-                        result.append("✅ تم إضافة: ").append(item.getItemName())
-                                .append(item.getItemCode() != null ? " - كود: " + item.getItemCode() : "")
-                                .append("\n");
-                        successCount++;
-                    }
-
-                } catch (SQLException e) {
-                    result.append("❌ خطأ في: ").append(item.getItemName())
-                            .append(" - ").append(e.getMessage()).append("\n");
-                    errorCount++;
-                }
+    public String importItemsFromExcel(List<ItemImportDTO> items, IntConsumer onProgress) {
+        try (ItemImportSession session = ItemImportSession.open()) {
+            for (int from = 0; from < items.size(); from += ItemImportSession.DEFAULT_CHUNK_SIZE) {
+                int to = Math.min(from + ItemImportSession.DEFAULT_CHUNK_SIZE, items.size());
+                session.importChunk(items.subList(from, to));
+                if (onProgress != null) onProgress.accept(session.getProcessedCount());
             }
-
-            conn.commit(); // نعمل commit للـ transaction
-            result.append("\n📊 ملخص: ").append(successCount).append(" نجاح, ")
-                    .append(errorCount).append(" فشل\n");
-
+            return session.getReport();
         } catch (SQLException e) {
-            result.append("❌ خطأ عام في الاتصال: ").append(e.getMessage());
+            return "❌ خطأ عام في الاتصال: " + e.getMessage();
         }
+    }
+
+    /**
+     * استيراد مباشر من الملف: قراءة بالـ SAX + تحقق على أكتر من thread + كتابة دفعات، كلهم شغالين مع بعض.
+     * من غير ما الملف كله يتحمل في الذاكرة (شوف ItemImportPipeline).
+     *
+     * @param onStatus حالة كل مرحلة (عدد الصفوف والسرعة)
+     */
+    public String importItemsFromExcel(File file, Consumer<String> onStatus) throws Exception {
+        return excelImportPipeline(file).run(onStatus);
+    }
+
+    public ItemImportPipeline excelImportPipeline(File file) {
+        return new ItemImportPipeline(sink -> ExcelReader.streamItemsFromExcel(file, sink, null));
+    }
+
+    // ملفات CSV / TSV (تصدير الـ ERP) - نفس الأعمدة ونفس مسار الاستيراد
+    public ItemImportPipeline csvImportPipeline(File file) {
+        return new ItemImportPipeline(sink -> CsvReader.streamItemsFromCsv(file, sink, null));
+    }
 
-        return result.toString();
+    // اختيار القارئ حسب امتداد الملف
+    public ItemImportPipeline importPipeline(File file) {
+        return CsvReader.isDelimitedFile(file) ? csvImportPipeline(file) : excelImportPipeline(file);
     }
-}
\ No newline at end of file
+}
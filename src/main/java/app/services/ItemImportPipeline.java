@@ -0,0 +1,341 @@
+package app.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * استيراد الأصناف على مراحل شغالة مع بعض:
+ * قراءة الملف  ← طابور محدود ←  تنظيف وتحقق (أكتر من thread)  ← طابور محدود ←  كتابة دفعات في الداتابيز.
+ * الطوابير المحدودة بتخلي المرحلة السريعة تستنى البطيئة بدل ما الذاكرة تتملي.
+ */
+public class ItemImportPipeline {
+
+    /**
+     * مصدر الصفوف (Excel / CSV ...) - بيبعت كل صف للـ sink بالترتيب
+     */
+    @FunctionalInterface
+    public interface Source {
+        void read(Consumer<ItemImportDTO> sink) throws Exception;
+    }
+
+    private static final int QUEUE_CAPACITY = 4 * ItemImportSession.DEFAULT_CHUNK_SIZE;
+    private static final long STATUS_INTERVAL_MS = 250;
+
+    private final Source source;
+    private final int validatorCount;
+
+    private final BlockingQueue<Row> parsed = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Row> validated = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    private final StageStats readStats = new StageStats("قراءة");
+    private final StageStats validateStats = new StageStats("تحقق");
+    private final StageStats writeStats = new StageStats("كتابة");
+
+    // بتتبني كاملة في start() وتتنشر مرة واحدة - cancel() بيلف عليها من thread الـ FX
+    private volatile List<Thread> threads = List.of();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile boolean cancelled = false;
+    private volatile int importedCount = 0;
+
+    public ItemImportPipeline(Source source) {
+        this(source, Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)));
+    }
+
+    public ItemImportPipeline(Source source, int validatorCount) {
+        this.source = source;
+        this.validatorCount = Math.max(1, validatorCount);
+    }
+
+    /**
+     * تشغيل الـ pipeline كله والانتظار لحد ما يخلص.
+     *
+     * @param onStatus بيستقبل وصف التقدم لكل مرحلة كل ربع ثانية تقريباً (ممكن يكون null)
+     * @return تقرير الاستيراد (نفس شكل التقرير القديم)
+     */
+    public String run(Consumer<String> onStatus) throws Exception {
+        try (ItemImportSession session = ItemImportSession.open()) {
+            start(session);
+
+            for (Thread t : threads) {
+                while (t.isAlive()) {
+                    t.join(STATUS_INTERVAL_MS);
+                    if (onStatus != null) onStatus.accept(describe());
+                }
+            }
+            if (onStatus != null) onStatus.accept(describe());
+            importedCount = session.getSuccessCount();
+
+            Throwable error = failure.get();
+            if (error instanceof Exception) throw (Exception) error;
+            if (error != null) throw new RuntimeException(error);
+
+            if (session.getProcessedCount() == 0 && !cancelled) {
+                return "⚠️ لم يتم العثور على بيانات صالحة في الملف";
+            }
+
+            String report = session.getReport();
+            if (cancelled) {
+                report = "⛔ تم إلغاء الاستيراد - الدفعات اللي اتكتبت قبل الإلغاء اتحفظت\n\n" + report;
+            }
+            return report;
+        } finally {
+            // لو حصل استثناء نتأكد إن كل الـ threads وقفت
+            if (threads.stream().anyMatch(Thread::isAlive)) cancel();
+        }
+    }
+
+    /**
+     * إيقاف كل المراحل. الدفعة اللي بتتكتب دلوقتي بتكمل أو بترجع، والدفعات اللي اتعملها commit بتفضل.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (Thread t : threads) {
+            t.interrupt();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * عدد الأصناف اللي اتكتبت فعلاً في الداتابيز (بعد ما run() تخلص)
+     */
+    public int getImportedCount() {
+        return importedCount;
+    }
+
+    public StageStats getReadStats() { return readStats; }
+    public StageStats getValidateStats() { return validateStats; }
+    public StageStats getWriteStats() { return writeStats; }
+
+    private void start(ItemImportSession session) {
+        List<Thread> stages = new ArrayList<>();
+        stages.add(newThread("import-read", this::readStage));
+        for (int i = 0; i < validatorCount; i++) {
+            stages.add(newThread("import-validate-" + (i + 1), () -> validateStage(session)));
+        }
+        stages.add(newThread("import-write", () -> writeStage(session)));
+        threads = List.copyOf(stages);
+        for (Thread t : stages) {
+            t.start();
+        }
+        // لو cancel() اتنده قبل ما القائمة تتنشر الـ interrupt ما وصلش لحد
+        if (cancelled) cancel();
+    }
+
+    private Thread newThread(String name, StageBody body) {
+        Thread t = new Thread(() -> {
+            try {
+                body.run();
+            } catch (InterruptedException | CancellationException e) {
+                // إلغاء
+            } catch (Throwable e) {
+                if (failure.compareAndSet(null, e)) {
+                    cancel();
+                }
+            }
+        }, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    @FunctionalInterface
+    private interface StageBody {
+        void run() throws Exception;
+    }
+
+    // ===================================
+    // 1️⃣ القراءة
+    // ===================================
+    private void readStage() throws Exception {
+        long[] seq = {0};
+        readStats.begin();
+        try {
+            source.read(item -> {
+                if (cancelled) throw new CancellationException();
+                try {
+                    parsed.put(new Row(seq[0]++, item));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException();
+                }
+                readStats.increment();
+            });
+        } finally {
+            readStats.end();
+            // علامة نهاية لكل thread تحقق
+            for (int i = 0; i < validatorCount; i++) {
+                signalEnd(parsed);
+            }
+        }
+    }
+
+    // ===================================
+    // 2️⃣ التنظيف والتحقق (أكتر من thread)
+    // ===================================
+    private void validateStage(ItemImportSession session) throws InterruptedException {
+        validateStats.begin();
+        try {
+            while (true) {
+                Row row = parsed.take();
+                if (row == Row.END) break;
+
+                normalize(row.item);
+                row.error = session.validateRow(row.item);
+                validated.put(row);
+                validateStats.increment();
+            }
+        } finally {
+            validateStats.end();
+            signalEnd(validated);
+        }
+    }
+
+    // بعد الإلغاء المرحلة اللي بعدنا ممكن تكون وقفت - ما نستناش مكان في الطابور
+    private void signalEnd(BlockingQueue<Row> queue) throws InterruptedException {
+        if (cancelled) {
+            queue.offer(Row.END);
+        } else {
+            queue.put(Row.END);
+        }
+    }
+
+    private static void normalize(ItemImportDTO item) {
+        if (item.getItemName() != null) item.setItemName(item.getItemName().trim());
+        if (item.getUnitName() != null) item.setUnitName(item.getUnitName().trim());
+        if (item.getItemCode() != null) item.setItemCode(item.getItemCode().trim());
+    }
+
+    // ===================================
+    // 3️⃣ الكتابة على دفعات (thread واحد - اتصال واحد)
+    // ===================================
+    private void writeStage(ItemImportSession session) throws InterruptedException {
+        // الـ validators بيخلصوا بترتيب مختلف - بنرجع ترتيب الملف علشان التقرير وكشف التكرار
+        PriorityQueue<Row> reorder = new PriorityQueue<>((a, b) -> Long.compare(a.seq, b.seq));
+        long nextSeq = 0;
+        int endsSeen = 0;
+
+        List<ItemImportDTO> chunk = new ArrayList<>(ItemImportSession.DEFAULT_CHUNK_SIZE);
+        List<String> errors = new ArrayList<>(ItemImportSession.DEFAULT_CHUNK_SIZE);
+
+        writeStats.begin();
+        try {
+            while (endsSeen < validatorCount) {
+                Row row = validated.take();
+                if (row == Row.END) {
+                    endsSeen++;
+                    continue;
+                }
+                reorder.add(row);
+
+                while (!reorder.isEmpty() && reorder.peek().seq == nextSeq) {
+                    Row next = reorder.poll();
+                    nextSeq++;
+                    chunk.add(next.item);
+                    errors.add(next.error);
+
+                    if (chunk.size() >= ItemImportSession.DEFAULT_CHUNK_SIZE) {
+                        writeChunk(session, chunk, errors);
+                    }
+                }
+            }
+
+            if (!cancelled && !chunk.isEmpty()) {
+                writeChunk(session, chunk, errors);
+            }
+        } finally {
+            writeStats.end();
+        }
+    }
+
+    private void writeChunk(ItemImportSession session, List<ItemImportDTO> chunk, List<String> errors) {
+        if (cancelled) throw new CancellationException();
+        session.importChunk(chunk, errors, () -> cancelled);
+        writeStats.add(chunk.size());
+        chunk.clear();
+        errors.clear();
+    }
+
+    /**
+     * سطر لكل مرحلة: عدد الصفوف + السرعة
+     */
+    public String describe() {
+        return readStats + "\n" + validateStats + "\n" + writeStats;
+    }
+
+    // ===================================
+    // صف + رقمه في الملف
+    // ===================================
+    private static class Row {
+        static final Row END = new Row(-1, null);
+
+        final long seq;
+        final ItemImportDTO item;
+        volatile String error;
+
+        Row(long seq, ItemImportDTO item) {
+            this.seq = seq;
+            this.item = item;
+        }
+    }
+
+    // ===================================
+    // إحصائيات كل مرحلة (صف/ثانية)
+    // ===================================
+    public static class StageStats {
+        private final String name;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong startNanos = new AtomicLong();
+        private final AtomicLong endNanos = new AtomicLong();
+        private final AtomicLong running = new AtomicLong();
+
+        StageStats(String name) {
+            this.name = name;
+        }
+
+        void begin() {
+            startNanos.compareAndSet(0, System.nanoTime());
+            running.incrementAndGet();
+        }
+
+        void end() {
+            if (running.decrementAndGet() == 0) {
+                endNanos.set(System.nanoTime());
+            }
+        }
+
+        void increment() {
+            count.incrementAndGet();
+        }
+
+        void add(long n) {
+            count.addAndGet(n);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public double getRowsPerSecond() {
+            long start = startNanos.get();
+            if (start == 0) return 0;
+            long end = endNanos.get() != 0 ? endNanos.get() : System.nanoTime();
+            double seconds = (end - start) / 1_000_000_000.0;
+            return seconds <= 0 ? 0 : count.get() / seconds;
+        }
+
+        @Override
+        public String toString() {
+            String state = startNanos.get() == 0 ? "⏳" : (endNanos.get() != 0 ? "✅" : "🔄");
+            return String.format("%s %s: %,d صف (%,.0f صف/ث)", state, name, getCount(), getRowsPerSecond());
+        }
+    }
+}
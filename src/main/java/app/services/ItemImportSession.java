@@ -0,0 +1,376 @@
+package app.services;
+
+import app.db.DatabaseConnection;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+/**
+ * استيراد أصناف بكميات كبيرة على دفعات.
+ * الوحدات والأسماء والأكواد الموجودة بتتحمل مرة واحدة، التحقق بيتم في الذاكرة،
+ * وكل دفعة بتتكتب في جدول مؤقت وبعدين INSERT ... SELECT واحد لكل جدول + commit.
+ */
+public class ItemImportSession implements AutoCloseable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private final Connection conn;
+    private final Map<String, Integer> unitIds = new HashMap<>();
+    private final Set<String> existingNames = new HashSet<>();
+    private final Set<String> existingCodes = new HashSet<>();
+
+    private final StringBuilder result = new StringBuilder();
+    private int successCount = 0;
+    private int errorCount = 0;
+    private int processedCount = 0;
+
+    // الصفوف اللي لسه ما اتكتبتش (لما الصفوف بتيجي واحد واحد من الـ reader)
+    private final List<ItemImportDTO> pending = new ArrayList<>();
+
+    private ItemImportSession(Connection conn) {
+        this.conn = conn;
+    }
+
+    public static ItemImportSession open() throws SQLException {
+        Connection conn = DatabaseConnection.getConnection();
+        try {
+            ItemImportSession session = new ItemImportSession(conn);
+            session.preload();
+            session.createStaging();
+            conn.setAutoCommit(false);
+            return session;
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+    }
+
+    // ✅ الوحدات + الأسماء والأكواد الموجودة في استعلام واحد
+    private void preload() throws SQLException {
+        String sql = """
+            SELECT 'U' AS Kind, UnitID AS Id, UnitName AS Name, NULL AS Code FROM Units
+            UNION ALL
+            SELECT 'I', ItemID, ItemName, ItemCode FROM Items
+        """;
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            while (rs.next()) {
+                String name = rs.getString("Name");
+                if ("U".equals(rs.getString("Kind"))) {
+                    if (name != null) unitIds.putIfAbsent(key(name), rs.getInt("Id"));
+                } else {
+                    if (name != null) existingNames.add(key(name));
+                    String code = rs.getString("Code");
+                    if (code != null) existingCodes.add(key(code));
+                }
+            }
+        }
+    }
+
+    private void createStaging() throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.execute("IF OBJECT_ID('tempdb..#ImportItems') IS NOT NULL DROP TABLE #ImportItems");
+            st.execute("IF OBJECT_ID('tempdb..#ImportIds') IS NOT NULL DROP TABLE #ImportIds");
+            st.execute("""
+                CREATE TABLE #ImportItems (
+                    RowNo       INT            NOT NULL PRIMARY KEY,
+                    ItemName    NVARCHAR(450)  COLLATE DATABASE_DEFAULT NOT NULL,
+                    ItemCode    NVARCHAR(450)  COLLATE DATABASE_DEFAULT NULL,
+                    UnitID      INT            NOT NULL,
+                    MinQuantity FLOAT          NOT NULL,
+                    InitialQty  FLOAT          NOT NULL,
+                    Price       FLOAT          NULL
+                )
+            """);
+            st.execute("""
+                CREATE TABLE #ImportIds (
+                    ItemID   INT           NOT NULL,
+                    ItemName NVARCHAR(450) COLLATE DATABASE_DEFAULT NOT NULL
+                )
+            """);
+        }
+    }
+
+    /**
+     * التحقق اللي مش محتاج حالة (بيانات ناقصة + الوحدة موجودة).
+     * آمن من أكتر من thread لأن الوحدات بتتحمل مرة واحدة في open().
+     *
+     * @return رسالة الخطأ أو null لو الصف سليم
+     */
+    public String validateRow(ItemImportDTO item) {
+        // التحقق من البيانات المطلوبة
+        if (item.getItemName() == null || item.getItemName().trim().isEmpty() ||
+                item.getUnitName() == null || item.getUnitName().trim().isEmpty()) {
+            return "❌ خطأ: بيانات ناقصة للصنف: " + item.getItemName() + "\n";
+        }
+
+        // التحقق من وجود الوحدة
+        if (!unitIds.containsKey(key(item.getUnitName()))) {
+            return "❌ خطأ: الوحدة غير موجودة '" + item.getUnitName() + "' للصنف: " + item.getItemName() + "\n";
+        }
+        return null;
+    }
+
+    /**
+     * استيراد دفعة واحدة + commit.
+     * لو الدفعة كلها فشلت (قيمة أطول من العمود مثلاً) بنرجع صف صف علشان كل صف ياخد رسالته.
+     */
+    public void importChunk(List<ItemImportDTO> items) {
+        importChunk(items, null, () -> false);
+    }
+
+    /**
+     * نفس importChunk بس نتيجة validateRow جاهزة لكل صف (اتحسبت قبل كده على threads تانية).
+     *
+     * @param cancelled بيتسأل قبل الرجوع لصف صف وبين كل صف والتاني - الاستيراد اتلغى = الصفوف الباقية ما تتكتبش
+     */
+    public void importChunk(List<ItemImportDTO> items, List<String> validationErrors, BooleanSupplier cancelled) {
+        // رسالة لكل صف بنفس ترتيب الملف
+        String[] messages = new String[items.size()];
+        int[] unitOf = new int[items.size()];
+        boolean[] valid = new boolean[items.size()];
+        int validCount = 0;
+
+        for (int i = 0; i < items.size(); i++) {
+            ItemImportDTO item = items.get(i);
+
+            String error = validationErrors != null ? validationErrors.get(i) : validateRow(item);
+            if (error != null) {
+                messages[i] = error;
+                continue;
+            }
+            int unitId = unitIds.get(key(item.getUnitName()));
+
+            // التحقق من عدم تكرار اسم الصنف أو الكود (في الداتابيز أو في صفوف سابقة من نفس الملف)
+            String code = normalizedCode(item);
+            if (existingNames.contains(key(item.getItemName())) ||
+                    (code != null && existingCodes.contains(key(code)))) {
+                messages[i] = duplicateMessage(item);
+                continue;
+            }
+
+            existingNames.add(key(item.getItemName()));
+            if (code != null) existingCodes.add(key(code));
+            unitOf[i] = unitId;
+            valid[i] = true;
+            validCount++;
+        }
+
+        if (validCount > 0) {
+            try {
+                writeChunk(items, unitOf, valid, messages);
+                conn.commit();
+            } catch (SQLException e) {
+                rollbackQuietly();
+                // الإلغاء بيعمل interrupt للـ thread وده ممكن يكون هو اللي وقع الدفعة - ما نكملهاش صف صف
+                writeRowByRow(items, unitOf, valid, messages, cancelled);
+            }
+        }
+
+        for (String message : messages) {
+            result.append(message);
+            if (message.startsWith("✅")) successCount++;
+            else errorCount++;
+        }
+        processedCount += items.size();
+    }
+
+    private void writeChunk(List<ItemImportDTO> items, int[] unitOf, boolean[] valid, String[] messages) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.execute("TRUNCATE TABLE #ImportItems");
+            st.execute("TRUNCATE TABLE #ImportIds");
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT INTO #ImportItems (RowNo, ItemName, ItemCode, UnitID, MinQuantity, InitialQty, Price) VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < items.size(); i++) {
+                if (!valid[i]) continue;
+                ItemImportDTO item = items.get(i);
+                ps.setInt(1, i);
+                ps.setString(2, item.getItemName().trim());
+                ps.setString(3, normalizedCode(item));
+                ps.setInt(4, unitOf[i]);
+                ps.setDouble(5, item.getMinQuantity());
+                ps.setDouble(6, item.getInitialQuantity() != null ? item.getInitialQuantity() : 0);
+                if (item.getPrice() != null && item.getPrice() > 0) {
+                    ps.setDouble(7, item.getPrice());
+                } else {
+                    ps.setNull(7, Types.FLOAT);
+                }
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+
+        Set<Integer> insertedRows = new HashSet<>();
+        try (Statement st = conn.createStatement()) {
+            // الصنف ممكن يكون اتضاف من جهاز تاني بعد التحميل المبدئي - نتخطاه ونبلغ عنه
+            st.executeUpdate("""
+                INSERT INTO Items (ItemName, ItemCode, UnitID, MinQuantity)
+                OUTPUT inserted.ItemID, inserted.ItemName INTO #ImportIds (ItemID, ItemName)
+                SELECT s.ItemName, s.ItemCode, s.UnitID, s.MinQuantity
+                FROM #ImportItems s
+                WHERE NOT EXISTS (
+                    SELECT 1 FROM Items i
+                    WHERE i.ItemName = s.ItemName OR (s.ItemCode IS NOT NULL AND i.ItemCode = s.ItemCode)
+                )
+                ORDER BY s.RowNo
+            """);
+
+            st.executeUpdate("""
+                INSERT INTO StockBalances (ItemID, Quantity)
+                SELECT ids.ItemID, s.InitialQty
+                FROM #ImportIds ids JOIN #ImportItems s ON s.ItemName = ids.ItemName
+            """);
+
+            st.executeUpdate("""
+                INSERT INTO ItemPrices (ItemID, UnitPrice, CreatedBy)
+                SELECT ids.ItemID, s.Price, NULL
+                FROM #ImportIds ids JOIN #ImportItems s ON s.ItemName = ids.ItemName
+                WHERE s.Price IS NOT NULL
+            """);
+
+            try (ResultSet rs = st.executeQuery(
+                    "SELECT s.RowNo FROM #ImportIds ids JOIN #ImportItems s ON s.ItemName = ids.ItemName")) {
+                while (rs.next()) insertedRows.add(rs.getInt(1));
+            }
+        }
+
+        for (int i = 0; i < items.size(); i++) {
+            if (!valid[i]) continue;
+            messages[i] = insertedRows.contains(i) ? successMessage(items.get(i)) : duplicateMessage(items.get(i));
+        }
+    }
+
+    // الطريقة القديمة - صف صف - بس للدفعة اللي فشلت
+    private void writeRowByRow(List<ItemImportDTO> items, int[] unitOf, boolean[] valid, String[] messages,
+                               BooleanSupplier cancelled) {
+        for (int i = 0; i < items.size(); i++) {
+            if (!valid[i]) continue;
+            ItemImportDTO item = items.get(i);
+            if (cancelled.getAsBoolean()) {
+                messages[i] = cancelledMessage(item);
+                continue;
+            }
+            try {
+                insertSingle(item, unitOf[i]);
+                conn.commit();
+                messages[i] = successMessage(item);
+            } catch (SQLException e) {
+                rollbackQuietly();
+                messages[i] = "❌ خطأ في: " + item.getItemName() + " - " + e.getMessage() + "\n";
+            }
+        }
+    }
+
+    private void insertSingle(ItemImportDTO item, int unitId) throws SQLException {
+        int itemId;
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT INTO Items (ItemName, ItemCode, UnitID, MinQuantity) VALUES (?, ?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS)) {
+            ps.setString(1, item.getItemName().trim());
+            ps.setString(2, normalizedCode(item));
+            ps.setInt(3, unitId);
+            ps.setDouble(4, item.getMinQuantity());
+            ps.executeUpdate();
+
+            try (ResultSet rs = ps.getGeneratedKeys()) {
+                if (!rs.next()) throw new SQLException("لم يتم إرجاع رقم الصنف");
+                itemId = rs.getInt(1);
+            }
+        }
+
+        // إضافة الكمية الأولية
+        try (PreparedStatement bal = conn.prepareStatement(
+                "INSERT INTO StockBalances (ItemID, Quantity) VALUES (?, ?)")) {
+            bal.setInt(1, itemId);
+            bal.setDouble(2, item.getInitialQuantity() != null ? item.getInitialQuantity() : 0);
+            bal.executeUpdate();
+        }
+
+        // إضافة السعر إذا كان موجود
+        if (item.getPrice() != null && item.getPrice() > 0) {
+            try (PreparedStatement priceStmt = conn.prepareStatement(
+                    "INSERT INTO ItemPrices (ItemID, UnitPrice, CreatedBy) VALUES (?, ?, NULL)")) {
+                priceStmt.setInt(1, itemId);
+                priceStmt.setDouble(2, item.getPrice());
+                priceStmt.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * إضافة صف واحد - أول ما تتجمع دفعة كاملة بتتكتب على طول، فالقراءة والكتابة ماشيين مع بعض
+     */
+    public void add(ItemImportDTO item) {
+        pending.add(item);
+        if (pending.size() >= DEFAULT_CHUNK_SIZE) {
+            flush();
+        }
+    }
+
+    public void flush() {
+        if (pending.isEmpty()) return;
+        importChunk(new ArrayList<>(pending));
+        pending.clear();
+    }
+
+    public int getProcessedCount() { return processedCount; }
+    public int getSuccessCount() { return successCount; }
+    public int getErrorCount() { return errorCount; }
+
+    /**
+     * نفس شكل التقرير اللي بيظهر في شاشة الاستيراد
+     */
+    public String getReport() {
+        return result + "\n📊 ملخص: " + successCount + " نجاح, " + errorCount + " فشل\n";
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.execute("IF OBJECT_ID('tempdb..#ImportItems') IS NOT NULL DROP TABLE #ImportItems");
+            st.execute("IF OBJECT_ID('tempdb..#ImportIds') IS NOT NULL DROP TABLE #ImportIds");
+            conn.commit();
+        } finally {
+            conn.close();
+            // الأصناف الجديدة تظهر في الكاش
+            if (getProcessedCount() > 0) ReferenceDataCache.invalidate();
+        }
+    }
+
+    private void rollbackQuietly() {
+        try {
+            conn.rollback();
+        } catch (SQLException ignored) {}
+    }
+
+    private static String normalizedCode(ItemImportDTO item) {
+        return (item.getItemCode() != null && !item.getItemCode().trim().isEmpty()) ? item.getItemCode().trim() : null;
+    }
+
+    // SQL Server بيقارن من غير حساسية لحالة الحروف - نعمل نفس الكلام في الذاكرة
+    private static String key(String s) {
+        return s.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String successMessage(ItemImportDTO item) {
+        return "✅ تم إضافة: " + item.getItemName()
+                + (item.getItemCode() != null ? " - كود: " + item.getItemCode() : "") + "\n";
+    }
+
+    private static String cancelledMessage(ItemImportDTO item) {
+        return "⛔ لم يتم استيراد: " + item.getItemName() + " - تم إلغاء الاستيراد\n";
+    }
+
+    private static String duplicateMessage(ItemImportDTO item) {
+        return "⚠️ تحذير: الصنف موجود مسبقاً '" + item.getItemName() + "' أو الكود '" + item.getItemCode() + "'\n";
+    }
+}
@@ -0,0 +1,204 @@
+package app.services;
+
+import app.db.DatabaseConnection;
+import app.db.SchemaMigrations;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * أسعار الأصناف بالتاريخ: "سعر الصنف ده كان كام وقت ما اتصرف؟"
+ * تاريخ كل صنف متخزن في الذاكرة كمصفوفة مترتبة بالتاريخ، والبحث فيها binary search.
+ *
+ * الاستخدام: current() مرة واحدة في أول التقرير (بتجيب التغييرات الجديدة بس)،
+ * وبعد كده priceAt() لكل سطر من غير أي اتصال بالداتابيز.
+ */
+public final class ItemPriceHistory {
+
+    // Identity ممكن يتعمله commit بترتيب مختلف - بنرجع ورا شوية علشان ما يفوتناش صف
+    private static final long OVERLAP_MS = 5 * 60_000;
+
+    private static final String DELTA_QUERY = """
+        SELECT PriceHistoryID, ItemID, UnitPrice, ValidFrom
+        FROM dbo.ItemPriceHistory
+        WHERE PriceHistoryID > ? OR ValidFrom >= ?
+    """;
+
+    // لو جدول التاريخ مش متاح (صلاحيات) - السعر الحالي لكل الفترات زي الأول
+    private static final String CURRENT_PRICES_QUERY = "SELECT ItemID, UnitPrice FROM ItemPrices";
+
+    private static volatile PriceIndex index = PriceIndex.EMPTY;
+    private static final Object LOAD_LOCK = new Object();
+
+    private ItemPriceHistory() {
+    }
+
+    /**
+     * آخر نسخة من الأسعار بعد ما نجيب التغييرات الجديدة من السيرفر (رحلة واحدة)
+     */
+    public static PriceIndex current() throws SQLException {
+        SchemaMigrations.ensureApplied();
+        synchronized (LOAD_LOCK) {
+            try (Connection conn = DatabaseConnection.getInventoryConnection()) {
+                index = SchemaMigrations.isApplied(SchemaMigrations.ITEM_PRICE_HISTORY)
+                        ? applyDelta(conn, index)
+                        : loadCurrentPrices(conn);
+                return index;
+            }
+        }
+    }
+
+    private static PriceIndex applyDelta(Connection conn, PriceIndex base) throws SQLException {
+        Map<Integer, List<Entry>> added = new HashMap<>();
+        int maxId = base.maxId;
+        long maxValidFrom = base.maxValidFrom;
+
+        try (PreparedStatement ps = conn.prepareStatement(DELTA_QUERY)) {
+            ps.setInt(1, base.maxId);
+            ps.setTimestamp(2, new Timestamp(Math.max(0, base.maxValidFrom - OVERLAP_MS)));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int id = rs.getInt("PriceHistoryID");
+                    int itemId = rs.getInt("ItemID");
+                    double price = rs.getDouble("UnitPrice");
+                    if (rs.wasNull()) price = Double.NaN; // السعر اتشال
+                    long from = rs.getTimestamp("ValidFrom").getTime();
+
+                    added.computeIfAbsent(itemId, k -> new ArrayList<>()).add(new Entry(id, from, price));
+                    maxId = Math.max(maxId, id);
+                    maxValidFrom = Math.max(maxValidFrom, from);
+                }
+            }
+        }
+
+        if (added.isEmpty()) return base;
+
+        Map<Integer, Series> series = new HashMap<>(base.series);
+        for (Map.Entry<Integer, List<Entry>> e : added.entrySet()) {
+            series.put(e.getKey(), Series.merge(series.get(e.getKey()), e.getValue()));
+        }
+        return new PriceIndex(Collections.unmodifiableMap(series), maxId, maxValidFrom);
+    }
+
+    private static PriceIndex loadCurrentPrices(Connection conn) throws SQLException {
+        Map<Integer, Series> series = new HashMap<>();
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(CURRENT_PRICES_QUERY)) {
+            while (rs.next()) {
+                series.put(rs.getInt("ItemID"), Series.merge(null,
+                        List.of(new Entry(0, Long.MIN_VALUE, rs.getDouble("UnitPrice")))));
+            }
+        }
+        return new PriceIndex(Collections.unmodifiableMap(series), 0, 0);
+    }
+
+    // ===================================
+    // نسخة ثابتة من الأسعار - آمنة للاستخدام من أي thread
+    // ===================================
+    public static final class PriceIndex {
+        static final PriceIndex EMPTY = new PriceIndex(Collections.emptyMap(), 0, 0);
+
+        private final Map<Integer, Series> series;
+        private final int maxId;
+        private final long maxValidFrom;
+
+        private PriceIndex(Map<Integer, Series> series, int maxId, long maxValidFrom) {
+            this.series = series;
+            this.maxId = maxId;
+            this.maxValidFrom = maxValidFrom;
+        }
+
+        /**
+         * سعر الوحدة اللي كان ساري وقت at (null = دلوقتي).
+         * لو الصنف اتصرف قبل أول سعر ليه بناخد أول سعر اتسجل، ولو السعر كان متشال = 0.
+         */
+        public double priceAt(int itemId, Timestamp at) {
+            Series s = series.get(itemId);
+            if (s == null) return 0;
+            return s.priceAt(at != null ? at.getTime() : System.currentTimeMillis());
+        }
+
+        public double currentPrice(int itemId) {
+            return priceAt(itemId, null);
+        }
+    }
+
+    // package-private علشان الاختبارات
+    static final class Entry {
+        final int id;
+        final long from;
+        final double price;
+
+        Entry(int id, long from, double price) {
+            this.id = id;
+            this.from = from;
+            this.price = price;
+        }
+    }
+
+    // تاريخ صنف واحد: مصفوفات مترتبة بـ ValidFrom (وبعده الـ ID)
+    static final class Series {
+        final int[] ids;
+        final long[] from;
+        final double[] prices;
+
+        private Series(int[] ids, long[] from, double[] prices) {
+            this.ids = ids;
+            this.from = from;
+            this.prices = prices;
+        }
+
+        static Series merge(Series base, List<Entry> added) {
+            List<Entry> all = new ArrayList<>();
+            Set<Integer> seen = new HashSet<>();
+            if (base != null) {
+                for (int i = 0; i < base.ids.length; i++) {
+                    all.add(new Entry(base.ids[i], base.from[i], base.prices[i]));
+                    seen.add(base.ids[i]);
+                }
+            }
+            for (Entry e : added) {
+                if (seen.add(e.id)) all.add(e); // صفوف فترة الرجوع لورا بتيجي مكررة
+            }
+            all.sort((a, b) -> a.from != b.from ? Long.compare(a.from, b.from) : Integer.compare(a.id, b.id));
+
+            int n = all.size();
+            int[] ids = new int[n];
+            long[] from = new long[n];
+            double[] prices = new double[n];
+            for (int i = 0; i < n; i++) {
+                Entry e = all.get(i);
+                ids[i] = e.id;
+                from[i] = e.from;
+                prices[i] = e.price;
+            }
+            return new Series(ids, from, prices);
+        }
+
+        double priceAt(long at) {
+            int pos = Arrays.binarySearch(from, at);
+            if (pos >= 0) {
+                // كذا تغيير في نفس اللحظة - الأخير هو اللي ساري
+                while (pos + 1 < from.length && from[pos + 1] == at) pos++;
+            } else {
+                pos = -pos - 2; // آخر تغيير قبل at
+            }
+
+            if (pos < 0) {
+                // اتصرف قبل أول سعر - أقرب تقدير هو أول سعر
+                for (double p : prices) {
+                    if (!Double.isNaN(p)) return p;
+                }
+                return 0;
+            }
+            return Double.isNaN(prices[pos]) ? 0 : prices[pos];
+        }
+    }
+}
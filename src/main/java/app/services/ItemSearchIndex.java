@@ -0,0 +1,264 @@
+package app.services;
+
+import app.utils.ArabicNormalizer;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * فهرس بحث في الذاكرة لجداول الأصناف - بدل ما كل حرف يعدي على كل الصفوف ويعمل toLowerCase لكل عمود.
+ * - النصوص (الاسم/الكود/...) بتتعمل normalize مرة واحدة وقت الإضافة (ArabicNormalizer: أ/إ/آ، ى/ي، ة/ه، التشكيل).
+ * - لكل n-gram (حرف، حرفين، 3 حروف) قائمة بالصفوف اللي فيها: كلمة بحث لحد 3 حروف نتيجتها جاهزة،
+ *   وأطول من كده بنبدأ من أندر trigram فيها ونتأكد بـ contains على المرشحين بس.
+ * - رقم الصنف والكود ليهم map مباشرة (كتابة ID أو مسح باركود).
+ * - كل كلمة في البحث لازم تتلاقي (AND)، في أي عمود.
+ *
+ * الاستخدام:
+ *     index = ItemSearchIndex.of(ItemData::getItemId, ItemData::getItemCode, ItemData::getItemName);
+ *     index.follow(allItems);                 // أي تعديل في القائمة بيتحدث في الفهرس
+ *     filtered.setPredicate(index.matcher(searchField.getText()));
+ *
+ * الفهرس بيتلمس من الـ FX Thread بس.
+ */
+public final class ItemSearchIndex<T> {
+
+    private static final int MAX_GRAM = 3;
+    private static final char FIELD_SEPARATOR = '\0';
+    // لما الصفوف الميتة تكتر بنبني الفهرس من الأول بدل ما القوايم تكبر على الفاضي
+    private static final int MIN_DEAD_FOR_COMPACT = 1_000;
+
+    private final ToIntFunction<T> idOf;
+    private final Function<T, String> codeOf;
+    private final List<Function<T, String>> textOf;
+
+    // slot لكل صف - الصف اللي اتشال بيفضل null لحد الـ compact
+    private final List<T> items = new ArrayList<>();
+    // كل أعمدة الصف في نص واحد مفصول بـ \0 (مستحيل يبقى في كلمة بحث) - contains واحد للتأكيد
+    private final List<String> texts = new ArrayList<>();
+    private final List<String> codes = new ArrayList<>();
+    private final Map<T, Integer> slots = new IdentityHashMap<>();
+    private final Map<String, IntList> grams = new HashMap<>();
+    private final Map<Integer, T> byId = new HashMap<>();
+    private final Map<String, T> byCode = new HashMap<>();
+    private int dead = 0;
+
+    /**
+     * @param idOf رقم الصف للبحث بالـ ID بالظبط - null لو مفيش
+     */
+    public ItemSearchIndex(ToIntFunction<T> idOf, Function<T, String> codeOf, List<Function<T, String>> textOf) {
+        this.idOf = idOf;
+        this.codeOf = codeOf;
+        this.textOf = List.copyOf(textOf);
+    }
+
+    /**
+     * نفس الـ constructor بأعمدة النص كـ varargs - الـ array بيتنسخ لـ List ومش بيتخزن
+     */
+    @SafeVarargs
+    public static <T> ItemSearchIndex<T> of(ToIntFunction<T> idOf, Function<T, String> codeOf, Function<T, String>... textOf) {
+        List<Function<T, String>> columns = new ArrayList<>(textOf.length);
+        for (Function<T, String> column : textOf) columns.add(column);
+        return new ItemSearchIndex<>(idOf, codeOf, columns);
+    }
+
+    /**
+     * ربط الفهرس بقائمة - بيتبني منها دلوقتي وبيتحدث مع كل add/remove/set بعد كده
+     */
+    public void follow(ObservableList<T> list) {
+        setAll(list);
+        list.addListener((ListChangeListener<T>) change -> {
+            int removed = 0;
+            while (change.next()) removed += change.getRemovedSize();
+            // setAll (تحميل كامل) شال كل حاجة - نبني من جديد بدل ما كل الـ slots القديمة تفضل ميتة
+            if (removed >= slots.size()) {
+                setAll(list);
+                return;
+            }
+
+            change.reset();
+            while (change.next()) {
+                if (change.wasPermutated()) continue;
+                for (T item : change.getRemoved()) remove(item);
+                for (T item : change.getAddedSubList()) add(item);
+            }
+            if (dead >= MIN_DEAD_FOR_COMPACT && dead > slots.size()) setAll(list);
+        });
+    }
+
+    public void setAll(Collection<T> all) {
+        items.clear();
+        texts.clear();
+        codes.clear();
+        slots.clear();
+        grams.clear();
+        byId.clear();
+        byCode.clear();
+        dead = 0;
+        for (T item : all) add(item);
+    }
+
+    public void add(T item) {
+        if (slots.containsKey(item)) return;
+
+        int slot = items.size();
+        String code = normalize(codeOf.apply(item));
+        StringBuilder joined = new StringBuilder(code);
+        for (Function<T, String> text : textOf) joined.append(FIELD_SEPARATOR).append(normalize(text.apply(item)));
+        String fields = joined.toString();
+
+        items.add(item);
+        texts.add(fields);
+        codes.add(code);
+        slots.put(item, slot);
+        if (idOf != null) byId.put(idOf.applyAsInt(item), item);
+        if (!code.isEmpty()) byCode.put(code, item);
+
+        for (int n = 1; n <= MAX_GRAM; n++) {
+            for (int i = 0; i + n <= fields.length(); i++) {
+                String gram = fields.substring(i, i + n);
+                // كلمات البحث مفيهاش مسافات ولا فواصل
+                if (gram.indexOf(' ') >= 0 || gram.indexOf(FIELD_SEPARATOR) >= 0) continue;
+                grams.computeIfAbsent(gram, k -> new IntList()).addOnce(slot);
+            }
+        }
+    }
+
+    public void remove(T item) {
+        Integer slot = slots.remove(item);
+        if (slot == null) return;
+        String code = codes.get(slot);
+        items.set(slot, null);
+        texts.set(slot, null);
+        codes.set(slot, null);
+        dead++;
+        if (idOf != null) byId.remove(idOf.applyAsInt(item), item);
+        byCode.remove(code, item);
+    }
+
+    public T findById(int id) {
+        return byId.get(id);
+    }
+
+    public T findByCode(String code) {
+        return byCode.get(normalize(code));
+    }
+
+    /**
+     * شرط للـ FilteredList - بيتحسب مرة واحدة للكلمة، وبعد كده كل صف lookup واحد.
+     * صفوف اتضافت بعد الحساب مش بتطابق لحد ما الشرط يتحسب تاني.
+     */
+    public Predicate<T> matcher(String query) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty()) return item -> true;
+
+        BitSet result = matchSet(normalized);
+        return item -> {
+            Integer slot = slots.get(item);
+            return slot != null && result.get(slot);
+        };
+    }
+
+    /**
+     * الصفوف المطابقة بترتيب إضافتها - كلمة فاضية = كل الصفوف
+     */
+    public List<T> matches(String query) {
+        String normalized = normalize(query);
+        List<T> result = new ArrayList<>();
+        if (normalized.isEmpty()) {
+            for (T item : items) {
+                if (item != null) result.add(item);
+            }
+            return result;
+        }
+        BitSet matches = matchSet(normalized);
+        for (int slot = matches.nextSetBit(0); slot >= 0; slot = matches.nextSetBit(slot + 1)) {
+            result.add(items.get(slot));
+        }
+        return result;
+    }
+
+    private BitSet matchSet(String normalized) {
+        BitSet matches = null;
+        for (String token : normalized.split(" ")) {
+            BitSet tokenMatches = match(token);
+            if (matches == null) matches = tokenMatches;
+            else matches.and(tokenMatches);
+            if (matches.isEmpty()) break;
+        }
+
+        // رقم صنف أو كود بالظبط
+        if (normalized.indexOf(' ') < 0) {
+            T exact = byCode.get(normalized);
+            if (exact == null && isDigits(normalized) && normalized.length() < 10) {
+                exact = byId.get(Integer.parseInt(normalized));
+            }
+            if (exact != null) matches.set(slots.get(exact));
+        }
+        return matches;
+    }
+
+    private BitSet match(String token) {
+        BitSet result = new BitSet(items.size());
+        if (token.length() <= MAX_GRAM) {
+            IntList slotsWithGram = grams.get(token);
+            if (slotsWithGram != null) {
+                for (int i = 0; i < slotsWithGram.size; i++) {
+                    int slot = slotsWithGram.values[i];
+                    if (items.get(slot) != null) result.set(slot);
+                }
+            }
+            return result;
+        }
+
+        // أندر trigram في الكلمة - المرشحين أقل ما يمكن
+        IntList rarest = null;
+        for (int i = 0; i + MAX_GRAM <= token.length(); i++) {
+            IntList list = grams.get(token.substring(i, i + MAX_GRAM));
+            if (list == null) return result;
+            if (rarest == null || list.size < rarest.size) rarest = list;
+        }
+        for (int i = 0; i < rarest.size; i++) {
+            int slot = rarest.values[i];
+            String fields = texts.get(slot);
+            if (fields != null && fields.contains(token)) result.set(slot);
+        }
+        return result;
+    }
+
+    /**
+     * نفس التحويل للفهرس ولكلمة البحث
+     */
+    public static String normalize(String text) {
+        return ArabicNormalizer.normalize(text);
+    }
+
+    private static boolean isDigits(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < '0' || text.charAt(i) > '9') return false;
+        }
+        return !text.isEmpty();
+    }
+
+    // قائمة int من غير boxing - الـ slots بتتضاف بالترتيب فالتكرار بيبقى في الآخر بس
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void addOnce(int value) {
+            if (size > 0 && values[size - 1] == value) return;
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+}
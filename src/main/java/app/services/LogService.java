@@ -1,31 +1,14 @@
 package app.services;
 
 import app.current_user.CurrentUser;
-import app.db.DatabaseConnection;
-import java.sql.*;
+import app.db.AuditLogWriter;
 
 public class LogService {
 
+    // ✅ مش بيستنى الداتابيز - السطر بيتكتب في الخلفية مع باقي الدفعة
     public static void addLog(String actionType, String description) {
-        String query = "INSERT INTO Logs (ActionType, Description, EmployeeID) VALUES (?, ?, ?)";
-
-        try (Connection conn = DatabaseConnection.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(query)) {
-
-            stmt.setString(1, actionType);
-            stmt.setString(2, description);
-
-            // ✅ استخدام EmployeeID بدلاً من NULL
-            if (CurrentUser.getId() > 0) {
-                stmt.setInt(3, CurrentUser.getId());
-            } else {
-                stmt.setNull(3, Types.INTEGER);
-            }
-
-            stmt.executeUpdate();
-
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        // ✅ استخدام EmployeeID بدلاً من NULL
+        Integer employeeId = CurrentUser.getId() > 0 ? CurrentUser.getId() : null;
+        AuditLogWriter.log(actionType, description, employeeId);
     }
 }
\ No newline at end of file
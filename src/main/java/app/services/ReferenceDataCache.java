@@ -0,0 +1,247 @@
+package app.services;
+
+import app.db.DatabaseConnection;
+import app.db.SchemaMigrations;
+
+import java.sql.*;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * كاش مشترك لتحويل الأسماء لـ IDs (الوحدات، الأصناف بالاسم والكود، الأجهزة).
+ * كل البيانات بتتحمل في query واحدة، والـ lookup بعد كده من الذاكرة من غير أي اتصال.
+ *
+ * التحديث:
+ * - أي مكان بيضيف/يعدل اسم/يحذف بينادي invalidate() بعد الـ commit.
+ * - كل 30 ثانية بنقارن رقم الإصدار (ReferenceDataVersion) علشان تعديلات الأجهزة التانية تظهر.
+ * - لو الاسم مش موجود بنتأكد من الإصدار مرة قبل ما نقول إنه مش موجود.
+ */
+public final class ReferenceDataCache {
+
+    private static final long CHECK_INTERVAL_SECONDS = 30;
+    // لو جدول الإصدار مش متاح (صلاحيات) بنعيد التحميل كل المدة دي
+    private static final long FALLBACK_TTL_MS = 5 * 60_000;
+    // أقل مدة بين فحصين للإصدار بسبب اسم مش موجود
+    private static final long MISS_CHECK_INTERVAL_MS = 1_000;
+
+    private static final String LOAD_QUERY = """
+        SELECT 'U' AS Kind, UnitName AS Name, UnitID AS Id FROM Units
+        UNION ALL
+        SELECT 'I', ItemName, ItemID FROM Items
+        UNION ALL
+        SELECT 'C', ItemCode, ItemID FROM Items WHERE ItemCode IS NOT NULL AND ItemCode <> ''
+        UNION ALL
+        SELECT 'D', DeviceName, DeviceID FROM Devices
+    """;
+
+    private static final String VERSION_QUERY = "SELECT Version FROM dbo.ReferenceDataVersion WHERE Id = 1";
+
+    private static volatile Snapshot snapshot;
+    // بيزيد مع كل invalidate - تحميل بدأ قبل الـ invalidate ما يتحطش في الكاش
+    private static final AtomicLong generation = new AtomicLong();
+    private static final Object LOAD_LOCK = new Object();
+
+    private static final ScheduledExecutorService CHECKER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "reference-data-check");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        CHECKER.scheduleWithFixedDelay(ReferenceDataCache::periodicCheck,
+                CHECK_INTERVAL_SECONDS, CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private ReferenceDataCache() {
+    }
+
+    // ===================================
+    // الـ lookups - null لو الاسم مش موجود
+    // ===================================
+    public static Integer unitId(String unitName) throws SQLException {
+        return lookup(unitName, s -> s.units);
+    }
+
+    public static Integer itemId(String itemName) throws SQLException {
+        return lookup(itemName, s -> s.itemNames);
+    }
+
+    public static Integer itemIdByCode(String itemCode) throws SQLException {
+        return lookup(itemCode, s -> s.itemCodes);
+    }
+
+    public static Integer deviceId(String deviceName) throws SQLException {
+        return lookup(deviceName, s -> s.devices);
+    }
+
+    /**
+     * اقتراحات أسماء الأصناف (بالاسم أو الكود) لكل الـ ComboBoxes - من نفس التحميل، من غير query تاني.
+     * الفهرس بيتبني مرة واحدة لكل نسخة من الكاش (أول مرة حد يطلبه).
+     */
+    public static AutocompleteIndex itemSuggestions() throws SQLException {
+        Snapshot current = current();
+        AutocompleteIndex suggestions = current.itemSuggestions;
+        if (suggestions == null) {
+            synchronized (current) {
+                suggestions = current.itemSuggestions;
+                if (suggestions == null) {
+                    suggestions = AutocompleteIndex.withCodes(current.itemCodesByName);
+                    current.itemSuggestions = suggestions;
+                }
+            }
+        }
+        return suggestions;
+    }
+
+    /**
+     * لازم تتنادى بعد أي إضافة أو حذف أو تغيير اسم/كود (بعد الـ commit)
+     */
+    public static void invalidate() {
+        generation.incrementAndGet();
+        snapshot = null;
+    }
+
+    @FunctionalInterface
+    private interface MapSelector {
+        Map<String, Integer> select(Snapshot s);
+    }
+
+    private static Integer lookup(String name, MapSelector selector) throws SQLException {
+        if (name == null || name.isBlank()) return null;
+        String key = key(name);
+
+        Snapshot current = current();
+        Integer id = selector.select(current).get(key);
+        if (id != null) return id;
+
+        // ممكن يكون اتضاف من جهاز تاني من شوية
+        long now = System.currentTimeMillis();
+        if (now - current.checkedAt < MISS_CHECK_INTERVAL_MS) return null;
+        current.checkedAt = now;
+        return isStale(current) ? selector.select(reload()).get(key) : null;
+    }
+
+    private static Snapshot current() throws SQLException {
+        Snapshot current = snapshot;
+        return current != null ? current : reload();
+    }
+
+    private static Snapshot reload() throws SQLException {
+        synchronized (LOAD_LOCK) {
+            long startGeneration = generation.get();
+            Snapshot loaded = load();
+            if (generation.get() == startGeneration) {
+                snapshot = loaded;
+            }
+            return loaded;
+        }
+    }
+
+    // ===================================
+    // التحميل والفحص
+    // ===================================
+    private static Snapshot load() throws SQLException {
+        SchemaMigrations.ensureApplied();
+        try (Connection conn = DatabaseConnection.getInventoryConnection()) {
+            // الإصدار قبل البيانات - لو حصل تعديل في النص الفحص الجاي هيلاحظه
+            Long version = readVersion(conn);
+
+            Map<String, Integer> units = new HashMap<>();
+            Map<String, Integer> itemNames = new HashMap<>();
+            Map<String, Integer> itemCodes = new HashMap<>();
+            Map<String, Integer> devices = new HashMap<>();
+            // الأسماء والأكواد زي ما هي (للعرض في الاقتراحات)
+            Map<Integer, String> namesById = new HashMap<>();
+            Map<Integer, String> codesById = new HashMap<>();
+
+            try (Statement st = conn.createStatement();
+                 ResultSet rs = st.executeQuery(LOAD_QUERY)) {
+                while (rs.next()) {
+                    String name = rs.getString("Name");
+                    if (name == null) continue;
+                    int id = rs.getInt("Id");
+                    switch (rs.getString("Kind")) {
+                        case "U" -> units.putIfAbsent(key(name), id);
+                        case "I" -> {
+                            itemNames.putIfAbsent(key(name), id);
+                            namesById.put(id, name);
+                        }
+                        case "C" -> {
+                            itemCodes.putIfAbsent(key(name), id);
+                            codesById.put(id, name);
+                        }
+                        case "D" -> devices.putIfAbsent(key(name), id);
+                        default -> { }
+                    }
+                }
+            }
+            Map<String, String> itemCodesByName = new HashMap<>();
+            for (Map.Entry<Integer, String> item : namesById.entrySet()) {
+                itemCodesByName.putIfAbsent(item.getValue(), codesById.get(item.getKey()));
+            }
+            return new Snapshot(units, itemNames, itemCodes, devices, itemCodesByName, version);
+        }
+    }
+
+    private static Long readVersion(Connection conn) throws SQLException {
+        if (!SchemaMigrations.isApplied(SchemaMigrations.REFERENCE_DATA_VERSION)) return null;
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(VERSION_QUERY)) {
+            return rs.next() ? rs.getLong(1) : null;
+        }
+    }
+
+    private static boolean isStale(Snapshot current) throws SQLException {
+        if (current.version == null) {
+            return System.currentTimeMillis() - current.loadedAt > FALLBACK_TTL_MS;
+        }
+        try (Connection conn = DatabaseConnection.getInventoryConnection()) {
+            Long version = readVersion(conn);
+            return version == null || !version.equals(current.version);
+        }
+    }
+
+    private static void periodicCheck() {
+        Snapshot current = snapshot;
+        if (current == null) return; // محدش استخدم الكاش لسه
+        try {
+            current.checkedAt = System.currentTimeMillis();
+            if (isStale(current)) reload();
+        } catch (Exception e) {
+            System.err.println("⚠️ تعذر فحص تحديثات البيانات المرجعية: " + e.getMessage());
+        }
+    }
+
+    // نفس مقارنة الداتابيز تقريباً (مش حساسة لحالة الحروف والمسافات في الأطراف)
+    private static String key(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Snapshot {
+        final Map<String, Integer> units;
+        final Map<String, Integer> itemNames;
+        final Map<String, Integer> itemCodes;
+        final Map<String, Integer> devices;
+        final Map<String, String> itemCodesByName;
+        final Long version;
+        final long loadedAt = System.currentTimeMillis();
+        volatile long checkedAt = loadedAt;
+        volatile AutocompleteIndex itemSuggestions;
+
+        Snapshot(Map<String, Integer> units, Map<String, Integer> itemNames,
+                 Map<String, Integer> itemCodes, Map<String, Integer> devices,
+                 Map<String, String> itemCodesByName, Long version) {
+            this.units = units;
+            this.itemNames = itemNames;
+            this.itemCodes = itemCodes;
+            this.devices = devices;
+            this.itemCodesByName = itemCodesByName;
+            this.version = version;
+        }
+    }
+}
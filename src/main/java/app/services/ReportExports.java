@@ -0,0 +1,231 @@
+package app.services;
+
+import app.db.AuditLogWriter;
+import app.db.DatabaseConnection;
+import app.db.JdbcRowSource;
+import app.db.SqlFilter;
+import app.utils.ExcelExporter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * محتوى التقارير اللي بتتصدر - نفس الاستعلامات للشاشات (ReportsController / DeviceExitController)
+ * وللتشغيل من غير واجهة (HeadlessReports). كل تقرير بيتقري من الداتابيز صف بصف (JdbcRowSource)
+ * ومفيش هنا أي حاجة JavaFX.
+ */
+public final class ReportExports {
+
+    // أعمدة المعاملات - نفسها لصفحات شاشة التقارير وللتصدير (t = StockTransactions، i = Items)
+    public static final String TRANSACTION_COLUMNS = """
+            t.TransactionID,
+            i.ItemName,
+            t.TransactionType,
+            t.Quantity,
+            t.TransactionDate,
+            t.EmployeeID,
+            ISNULL(t.ReceiverName, '-') AS Receiver,
+            ISNULL(t.Notes, '') AS Notes
+        FROM StockTransactions t
+        JOIN Items i ON t.ItemID = i.ItemID
+    """;
+    public static final String TRANSACTION_ORDER = " ORDER BY t.TransactionDate DESC, t.TransactionID DESC";
+
+    public static final String DEVICE_EXIT_SELECT =
+            "SELECT DeviceName, SerialNumber, FinalPrice, ExceededPrice, ExitDate, DeliveredBy, DeliveredTo FROM DeviceExit";
+
+    private static final DateTimeFormatter EXIT_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private ReportExports() {
+    }
+
+    // ===================================
+    // المخزون
+    // ===================================
+    public static void stock(ExcelExporter.SheetWriter sheet) throws Exception {
+        sheet.header("كود الصنف", "اسم الصنف", "الوحدة", "الكمية", "الحد الأدنى", "الحالة");
+        JdbcRowSource.stream("""
+                SELECT i.ItemCode, i.ItemName, u.UnitName, sb.Quantity, i.MinQuantity
+                FROM StockBalances sb
+                INNER JOIN Items i ON sb.ItemID = i.ItemID
+                INNER JOIN Units u ON i.UnitID = u.UnitID
+                ORDER BY i.ItemName
+            """, null, rs -> {
+            double qty = rs.getDouble("Quantity");
+            double minQty = rs.getDouble("MinQuantity");
+            String code = rs.getString("ItemCode");
+            return new Object[]{code != null ? code : "", rs.getString("ItemName"), rs.getString("UnitName"),
+                    qty, minQty, qty < minQty ? "⚠️ Low Stock" : "✅ OK"};
+        }, sheet::row);
+    }
+
+    // ===================================
+    // النواقص
+    // ===================================
+
+    /**
+     * تحديث جدول ShortageItems من الأرصدة: حذف اللي رجع فوق الحد الأدنى وإضافة النواقص الجديدة
+     */
+    public static void refreshShortages(Connection conn) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            // ✅ أولاً: حذف الأصناف التي لم تعد ناقصة
+            String cleanupQuery = """
+                DELETE FROM ShortageItems
+                WHERE ItemID IN (
+                    SELECT s.ItemID
+                    FROM ShortageItems s
+                    JOIN StockBalances sb ON s.ItemID = sb.ItemID
+                    WHERE sb.Quantity >= s.MinQuantity
+                )
+            """;
+
+            try (PreparedStatement cleanupStmt = conn.prepareStatement(cleanupQuery)) {
+                cleanupStmt.executeUpdate();
+            }
+
+            // ✅ ثانياً: إضافة النواقص الجديدة
+            String detectNewQuery = """
+                INSERT INTO ShortageItems (ItemID, CurrentQuantity, MinQuantity, DetectedAt)
+                SELECT
+                    i.ItemID,
+                    sb.Quantity,
+                    i.MinQuantity,
+                    GETDATE()
+                FROM Items i
+                JOIN StockBalances sb ON i.ItemID = sb.ItemID
+                WHERE sb.Quantity < i.MinQuantity
+                AND i.ItemID NOT IN (SELECT ItemID FROM ShortageItems)
+            """;
+
+            try (PreparedStatement detectStmt = conn.prepareStatement(detectNewQuery)) {
+                detectStmt.executeUpdate();
+            }
+
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    public static final String SHORTAGES_SELECT = """
+        SELECT i.ItemName, s.CurrentQuantity, s.MinQuantity, s.DetectedAt
+        FROM ShortageItems s
+        JOIN Items i ON s.ItemID = i.ItemID
+        ORDER BY s.DetectedAt DESC
+    """;
+
+    public static void shortages(ExcelExporter.SheetWriter sheet) throws Exception {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            refreshShortages(conn);
+        }
+        shortagesHeader(sheet);
+        JdbcRowSource.stream(SHORTAGES_SELECT, null, rs -> new Object[]{
+                rs.getString("ItemName"),
+                rs.getDouble("CurrentQuantity"),
+                rs.getDouble("MinQuantity"),
+                rs.getString("DetectedAt")
+        }, sheet::row);
+    }
+
+    public static void shortagesHeader(ExcelExporter.SheetWriter sheet) {
+        sheet.header("الصنف", "الكمية الحالية", "الحد الأدنى", "تاريخ الكشف");
+    }
+
+    // ===================================
+    // المعاملات والسجلات
+    // ===================================
+
+    /**
+     * @param filter شروط على t. / i. (زي TransactionQuery.filter في شاشة التقارير)
+     */
+    public static void transactions(ExcelExporter.SheetWriter sheet, SqlFilter filter) throws Exception {
+        sheet.header("الكود", "الصنف", "النوع", "الكمية", "التاريخ", "الموظف", "المستلم", "ملاحظات");
+        EmployeeDirectory.ensureLoaded();
+
+        // استعلام واحد forward-only - كل صف بيتكتب في الملف أول ما يوصل من غير Transaction ولا List
+        JdbcRowSource.stream("SELECT " + TRANSACTION_COLUMNS + filter.where() + TRANSACTION_ORDER, filter,
+                rs -> new Object[]{
+                        rs.getInt("TransactionID"),
+                        rs.getString("ItemName"),
+                        rs.getString("TransactionType"),
+                        rs.getDouble("Quantity"),
+                        rs.getString("TransactionDate"),
+                        EmployeeDirectory.displayName((Integer) rs.getObject("EmployeeID")),
+                        rs.getString("Receiver"),
+                        rs.getString("Notes")
+                },
+                sheet::row);
+    }
+
+    /**
+     * @param filter شروط على l. (زي LogQuery.filter في شاشة التقارير)
+     */
+    public static void logs(ExcelExporter.SheetWriter sheet, SqlFilter filter) throws Exception {
+        sheet.header("الحدث", "الوصف", "الموظف", "التاريخ");
+
+        // السطور اللي لسه في الطابور تدخل في التقرير
+        AuditLogWriter.flush();
+        EmployeeDirectory.ensureLoaded();
+        JdbcRowSource.stream("SELECT l.ActionType, l.Description, l.EmployeeID, l.LogDate FROM Logs l"
+                        + filter.where() + " ORDER BY l.LogDate DESC", filter,
+                rs -> new Object[]{
+                        rs.getString("ActionType"),
+                        AuditLogWriter.displayDescription(rs.getString("Description")),
+                        EmployeeDirectory.displayName((Integer) rs.getObject("EmployeeID")),
+                        rs.getString("LogDate")
+                },
+                sheet::row);
+    }
+
+    // ===================================
+    // الأجهزة الخارجة
+    // ===================================
+
+    /**
+     * range على ExitDate نفسه (مش CAST) علشان الـ index يتستخدم - أي طرف null مفتوح
+     */
+    public static SqlFilter deviceExitFilter(LocalDate from, LocalDate to) {
+        return new SqlFilter().dateRange("ExitDate", from, to);
+    }
+
+    public static void deviceExits(ExcelExporter.Book book, LocalDate from, LocalDate to) throws Exception {
+        String[] headers = {"اسم الجهاز", "السيريال", "السعر النهائي", "السعر المتجاوز", "التاريخ", "المرسل", "المستلم"};
+
+        ExcelExporter.SheetWriter sheet = book.sheet("الأجهزة التي خرجت");
+        sheet.title("تقرير الأجهزة التي خرجت من المصنع", headers.length)
+                .skipRow()
+                .header(headers)
+                .columnStyle(2, book.moneyStyle())
+                .columnStyle(3, book.moneyStyle());
+
+        SqlFilter filter = deviceExitFilter(from, to);
+        double[] totals = new double[2];
+        JdbcRowSource.stream(DEVICE_EXIT_SELECT + filter.where() + " ORDER BY ExitDate DESC", filter, rs -> {
+            double finalPrice = rs.getDouble("FinalPrice");
+            double exceededPrice = rs.getDouble("ExceededPrice");
+            totals[0] += finalPrice;
+            totals[1] += exceededPrice;
+            return new Object[]{rs.getString("DeviceName"), rs.getString("SerialNumber"), finalPrice,
+                    exceededPrice, formatExitDate(rs.getTimestamp("ExitDate")), rs.getString("DeliveredBy"),
+                    rs.getString("DeliveredTo")};
+        }, sheet::row);
+
+        // الإجماليات
+        sheet.skipRow();
+        sheet.row("الإجماليات:", null, totals[0], totals[1]);
+    }
+
+    public static String formatExitDate(Timestamp timestamp) {
+        if (timestamp == null) return "-";
+        return timestamp.toLocalDateTime().format(EXIT_DATE_FORMAT);
+    }
+}
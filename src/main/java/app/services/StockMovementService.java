@@ -0,0 +1,332 @@
+package app.services;
+
+import app.db.DatabaseConnection;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * صرف المخزون في round trip واحد:
+ * الرصيد بيتقفل (UPDLOCK) ويتقارن بالمطلوب جوه نفس الـ batch اللي بيسجل الصرف،
+ * فمفيش فرصة لجهازين يعدوا نفس الفحص. يا كل الأصناف تتصرف يا ولا صنف.
+ * حالة النواقص بتتحدث في نفس الـ batch، والرصيد الجديد بيرجع للنداء.
+ */
+public class StockMovementService {
+
+    // SQL Server بيقبل 1000 صف بالكتير في VALUES واحدة
+    public static final int MAX_LINES = 1000;
+
+    // سطور الصرف جاية من الـ Java مباشرة
+    private static final String FILL_FROM_LINES = "INSERT INTO @Req (ItemID, Quantity) VALUES %s;";
+
+    // سطور الصرف بتتحسب على السيرفر من الـ BOM (DeviceComponents × عدد الأجهزة)
+    private static final String FILL_FROM_BOM = """
+        DECLARE @Run TABLE (Seq INT IDENTITY(1,1) PRIMARY KEY, DeviceID INT NOT NULL, DeviceCount INT NOT NULL);
+        INSERT INTO @Run (DeviceID, DeviceCount) VALUES %s;
+        INSERT INTO @Req (ItemID, Quantity)
+        SELECT dc.ItemID, dc.Quantity * r.DeviceCount
+        FROM @Run r
+        JOIN dbo.DeviceComponents dc ON dc.DeviceID = r.DeviceID
+        WHERE dc.Quantity * r.DeviceCount > 0
+        ORDER BY r.Seq, dc.ItemID;
+    """;
+
+    // الأرصدة بتتقفل (UPDLOCK, HOLDLOCK) لحد آخر الـ transaction، فالفحص والخصم مفيش بينهم فرصة لحد تاني.
+    // مين بيخصم: stock_balance_updates في ملف الإعدادات (trigger / app)، ولو مش متحدد
+    // تريجر على StockTransactions بيشاور على StockBalances (sys.sql_expression_dependencies) - مش أي تريجر.
+    // وبعد التسجيل بنتأكد إن الرصيد نقص بالمطلوب بالظبط: لو اتخصم مرتين أو ما اتخصمش الـ batch بيفشل (THROW).
+    private static final String ISSUE_BATCH = """
+        SET NOCOUNT ON;
+        DECLARE @Req TABLE (Seq INT IDENTITY(1,1) PRIMARY KEY, ItemID INT NOT NULL, Quantity FLOAT NOT NULL);
+        %s
+
+        DECLARE @Need TABLE (ItemID INT PRIMARY KEY, Needed FLOAT NOT NULL);
+        INSERT INTO @Need (ItemID, Needed) SELECT ItemID, SUM(Quantity) FROM @Req GROUP BY ItemID;
+        DECLARE @Tx TABLE (ItemID INT NOT NULL, TransactionID INT NOT NULL);
+
+        DECLARE @EmployeeID INT = ?, @Receiver NVARCHAR(255) = ?, @Notes NVARCHAR(MAX) = ?, @Mode VARCHAR(10) = ?;
+        DECLARE @Ok BIT = CASE WHEN EXISTS (SELECT 1 FROM @Need n
+                                            LEFT JOIN dbo.StockBalances s WITH (UPDLOCK, HOLDLOCK) ON s.ItemID = n.ItemID
+                                            WHERE s.ItemID IS NULL OR s.Quantity < n.Needed)
+                               THEN 0 ELSE 1 END;
+
+        IF @Ok = 1 AND EXISTS (SELECT 1 FROM @Req)
+        BEGIN
+            IF @Mode IS NULL
+                SET @Mode = CASE WHEN EXISTS (SELECT 1 FROM sys.triggers t
+                                              JOIN sys.sql_expression_dependencies d ON d.referencing_id = t.object_id
+                                              WHERE t.parent_id = OBJECT_ID('dbo.StockTransactions') AND t.is_disabled = 0
+                                                AND d.referenced_entity_name = 'StockBalances')
+                                 THEN 'trigger' ELSE 'app' END;
+
+            DECLARE @Before TABLE (ItemID INT PRIMARY KEY, Quantity FLOAT NOT NULL);
+            INSERT INTO @Before (ItemID, Quantity)
+            SELECT s.ItemID, s.Quantity FROM dbo.StockBalances s JOIN @Need n ON n.ItemID = s.ItemID;
+
+            IF @Mode = 'app'
+                UPDATE s SET s.Quantity = s.Quantity - n.Needed
+                FROM dbo.StockBalances s
+                JOIN @Need n ON n.ItemID = s.ItemID;
+
+            INSERT INTO dbo.StockTransactions (ItemID, TransactionType, Quantity, EmployeeID, ReceiverName, Notes)
+            OUTPUT INSERTED.ItemID, INSERTED.TransactionID INTO @Tx (ItemID, TransactionID)
+            SELECT r.ItemID, 'OUT', r.Quantity, @EmployeeID, @Receiver, @Notes
+            FROM @Req r
+            ORDER BY r.Seq;
+
+            IF EXISTS (SELECT 1 FROM @Need n
+                       JOIN @Before b ON b.ItemID = n.ItemID
+                       JOIN dbo.StockBalances s ON s.ItemID = n.ItemID
+                       WHERE ABS(s.Quantity - (b.Quantity - n.Needed)) > 0.000001)
+                THROW 50001, N'الرصيد لم يُخصم مرة واحدة بالظبط - راجع stock_balance_updates (trigger / app) في ملف الإعدادات', 1;
+
+            MERGE dbo.ShortageItems AS target
+            USING (SELECT s.ItemID, s.Quantity, i.MinQuantity
+                   FROM @Need n
+                   JOIN dbo.StockBalances s ON s.ItemID = n.ItemID
+                   JOIN dbo.Items i ON i.ItemID = n.ItemID) AS src
+            ON target.ItemID = src.ItemID
+            WHEN MATCHED AND src.Quantity >= src.MinQuantity THEN DELETE
+            WHEN MATCHED THEN UPDATE SET CurrentQuantity = src.Quantity, MinQuantity = src.MinQuantity, DetectedAt = GETDATE()
+            WHEN NOT MATCHED AND src.Quantity < src.MinQuantity THEN
+                INSERT (ItemID, CurrentQuantity, MinQuantity) VALUES (src.ItemID, src.Quantity, src.MinQuantity);
+        END
+
+        -- صف واحد على الأقل حتى لو مفيش أصناف، علشان @Ok يرجع
+        SELECT @Ok AS Ok, n.ItemID, n.Needed, i.ItemName, s.Quantity,
+               (SELECT MAX(x.TransactionID) FROM @Tx x WHERE x.ItemID = n.ItemID) AS TransactionID
+        FROM (VALUES (1)) AS d(x)
+        LEFT JOIN @Need n ON 1 = 1
+        LEFT JOIN dbo.StockBalances s ON s.ItemID = n.ItemID
+        LEFT JOIN dbo.Items i ON i.ItemID = n.ItemID;
+    """;
+
+    /**
+     * صرف صنف واحد
+     *
+     * @return الرصيد بعد الصرف
+     */
+    public double issue(int itemId, double qty, int employeeId, String receiver, String notes) throws SQLException {
+        return issue(List.of(new Line(itemId, qty)), employeeId, receiver, notes).get(itemId);
+    }
+
+    /**
+     * صرف كذا صنف مرة واحدة على اتصال جديد (transaction خاصة بيه)
+     *
+     * @return الرصيد الجديد لكل صنف
+     */
+    public Map<Integer, Double> issue(List<Line> lines, int employeeId, String receiver, String notes) throws SQLException {
+        try (Connection conn = DatabaseConnection.getInventoryConnection()) {
+            return issue(conn, lines, employeeId, receiver, notes);
+        }
+    }
+
+    /**
+     * صرف كذا صنف على اتصال موجود - لو الاتصال جوه transaction الصرف بيبقى جزء منها.
+     *
+     * @throws InsufficientStockException لو أي صنف رصيده مش كفاية (ومفيش أي حاجة اتصرفت)
+     */
+    public Map<Integer, Double> issue(Connection conn, List<Line> lines, int employeeId, String receiver, String notes) throws SQLException {
+        return issue(conn, lines, employeeId, receiver, notes, null);
+    }
+
+    /**
+     * صرف صنف واحد على اتصال موجود - بيرجع رقم حركة الصرف علشان السجلات اللي بتشاور عليها
+     * (زي SerialComponentUsage) تتكتب في نفس الـ transaction.
+     *
+     * @throws InsufficientStockException لو رصيد الصنف مش كفاية (ومفيش حاجة اتصرفت)
+     */
+    public int issueLine(Connection conn, int itemId, double qty, int employeeId, String receiver, String notes) throws SQLException {
+        Map<Integer, Integer> transactionIds = new LinkedHashMap<>();
+        issue(conn, List.of(new Line(itemId, qty)), employeeId, receiver, notes, transactionIds);
+        Integer transactionId = transactionIds.get(itemId);
+        if (transactionId == null) throw new SQLException("لم يتم إرجاع رقم حركة الصرف");
+        return transactionId;
+    }
+
+    private Map<Integer, Double> issue(Connection conn, List<Line> lines, int employeeId, String receiver, String notes,
+                                       Map<Integer, Integer> transactionIds) throws SQLException {
+        if (lines.isEmpty()) return Collections.emptyMap();
+        if (lines.size() > MAX_LINES) {
+            throw new IllegalArgumentException("عدد الأصناف أكبر من " + MAX_LINES + " في عملية صرف واحدة");
+        }
+        for (Line line : lines) {
+            if (line.quantity <= 0) throw new IllegalArgumentException("الكمية يجب أن تكون أكبر من صفر");
+        }
+
+        String fill = String.format(FILL_FROM_LINES, valuesPlaceholders(lines.size()));
+        return inTransaction(conn, () -> execute(conn, fill, ps -> {
+            int p = 1;
+            for (Line line : lines) {
+                ps.setInt(p++, line.itemId);
+                ps.setDouble(p++, line.quantity);
+            }
+            return p;
+        }, employeeId, receiver, notes, transactionIds));
+    }
+
+    /**
+     * صرف مكونات تشغيلة إنتاج كاملة: الـ BOM بيتفك على السيرفر (DeviceComponents × العدد)
+     * وكل المكونات بتتخصم في نفس الـ batch - من غير ما نجيب المكونات للـ Java.
+     *
+     * @return الرصيد الجديد لكل مكون
+     */
+    public Map<Integer, Double> issueComponents(Connection conn, List<DeviceService.ProductionRun> runs, int employeeId, String notes) throws SQLException {
+        if (runs.isEmpty()) return Collections.emptyMap();
+        if (runs.size() > MAX_LINES) {
+            throw new IllegalArgumentException("عدد الأجهزة أكبر من " + MAX_LINES + " في تشغيلة واحدة");
+        }
+        for (DeviceService.ProductionRun run : runs) {
+            if (run.getCount() <= 0) throw new IllegalArgumentException("عدد الأجهزة يجب أن يكون أكبر من صفر");
+        }
+
+        String fill = String.format(FILL_FROM_BOM, valuesPlaceholders(runs.size()));
+        return inTransaction(conn, () -> execute(conn, fill, ps -> {
+            int p = 1;
+            for (DeviceService.ProductionRun run : runs) {
+                ps.setInt(p++, run.getDeviceId());
+                ps.setInt(p++, run.getCount());
+            }
+            return p;
+        }, employeeId, null, notes, null));
+    }
+
+    private static String valuesPlaceholders(int rows) {
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            values.append(i == 0 ? "(?, ?)" : ", (?, ?)");
+        }
+        return values.toString();
+    }
+
+    @FunctionalInterface
+    private interface Binder {
+        // بيرجع رقم الـ parameter الجاي
+        int bind(PreparedStatement ps) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface TransactionBody<T> {
+        T run() throws SQLException;
+    }
+
+    // لو الاتصال مش جوه transaction بنفتح واحدة - الأقفال لازم تفضل لحد آخر الـ batch
+    private static <T> T inTransaction(Connection conn, TransactionBody<T> body) throws SQLException {
+        boolean ownTransaction = conn.getAutoCommit();
+        if (ownTransaction) conn.setAutoCommit(false);
+        try {
+            T result = body.run();
+            if (ownTransaction) conn.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            if (ownTransaction) conn.rollback();
+            throw e;
+        } finally {
+            if (ownTransaction) conn.setAutoCommit(true);
+        }
+    }
+
+    // transactionIds اختياري: لو مش null بيتملي برقم آخر حركة صرف لكل صنف
+    private Map<Integer, Double> execute(Connection conn, String fill, Binder binder, int employeeId, String receiver, String notes,
+                                         Map<Integer, Integer> transactionIds) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(String.format(ISSUE_BATCH, fill))) {
+            int p = binder.bind(ps);
+            ps.setInt(p++, employeeId);
+            ps.setString(p++, receiver);
+            ps.setString(p++, notes);
+            ps.setString(p, DatabaseConnection.getStockBalanceUpdates());
+
+            // التريجرات ممكن ترجع update counts قبل الـ SELECT الأخير
+            boolean hasResultSet = ps.execute();
+            while (!hasResultSet && ps.getUpdateCount() != -1) {
+                hasResultSet = ps.getMoreResults();
+            }
+            if (!hasResultSet) throw new SQLException("لم يتم إرجاع نتيجة عملية الصرف");
+
+            Map<Integer, Double> balances = new LinkedHashMap<>();
+            List<Shortfall> shortfalls = new ArrayList<>();
+            boolean ok = false;
+            try (ResultSet rs = ps.getResultSet()) {
+                while (rs.next()) {
+                    ok = rs.getBoolean("Ok");
+                    int itemId = rs.getInt("ItemID");
+                    if (rs.wasNull()) continue; // مفيش أصناف
+                    double needed = rs.getDouble("Needed");
+                    double available = rs.getDouble("Quantity"); // NULL = مفيش رصيد للصنف
+                    balances.put(itemId, available);
+                    int transactionId = rs.getInt("TransactionID");
+                    if (!rs.wasNull() && transactionIds != null) transactionIds.put(itemId, transactionId);
+                    if (available < needed) {
+                        String name = rs.getString("ItemName");
+                        shortfalls.add(new Shortfall(itemId, name != null ? name : "#" + itemId, available, needed));
+                    }
+                }
+            }
+
+            if (!ok) throw new InsufficientStockException(shortfalls);
+            return balances;
+        }
+    }
+
+    // ===================================
+    // سطر صرف
+    // ===================================
+    public static class Line {
+        private final int itemId;
+        private final double quantity;
+
+        public Line(int itemId, double quantity) {
+            this.itemId = itemId;
+            this.quantity = quantity;
+        }
+
+        public int getItemId() { return itemId; }
+        public double getQuantity() { return quantity; }
+    }
+
+    // ===================================
+    // صنف رصيده مش كفاية
+    // ===================================
+    public static class Shortfall {
+        private final int itemId;
+        private final String itemName;
+        private final double available;
+        private final double requested;
+
+        public Shortfall(int itemId, String itemName, double available, double requested) {
+            this.itemId = itemId;
+            this.itemName = itemName;
+            this.available = available;
+            this.requested = requested;
+        }
+
+        public int getItemId() { return itemId; }
+        public String getItemName() { return itemName; }
+        public double getAvailable() { return available; }
+        public double getRequested() { return requested; }
+
+        @Override
+        public String toString() {
+            return "الصنف: " + itemName + " - المتاح: " + available + " - المطلوب: " + requested;
+        }
+    }
+
+    public static class InsufficientStockException extends SQLException {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Shortfall> shortfalls;
+
+        public InsufficientStockException(List<Shortfall> shortfalls) {
+            super("لا يوجد مخزون كافٍ:\n" + String.join("\n", shortfalls.stream().map(Shortfall::toString).toList()));
+            this.shortfalls = shortfalls;
+        }
+
+        public List<Shortfall> getShortfalls() {
+            return shortfalls;
+        }
+    }
+}
@@ -0,0 +1,679 @@
+package app.services;
+
+import app.db.DatabaseConnection;
+import app.db.JdbcRowSource;
+import app.db.SchemaMigrations;
+import app.db.SqlFilter;
+import app.utils.ArabicNormalizer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * بحث نصي في الملاحظات والمستلمين ووصف السجل ("إيه اللي حصل للسيريال ده؟"، "كل اللي اتصرف لفلان")
+ * بدل LIKE '%...%' اللي بيعمل scan على الجداول دي في السيرفر الأساسي.
+ *
+ * - فهرس مقلوب (inverted index) في الذاكرة: كل كلمة (بعد ArabicNormalizer) ← الصفوف اللي فيها وعدد مرات ظهورها.
+ *   الكلمة اللي بتبدأ بـ "ال" بتتفهرس كمان من غيرها، فـ "مخزن" بتلاقي "المخزن".
+ * - التحديث تزايدي: لكل جدول آخر ID اتقرا، وكل بحث بيقرا الصفوف اللي بعده بس (seek على الـ primary key)
+ *   + آخر OVERLAP_IDS قبله تاني: الـ identity بيتحجز وقت الـ INSERT مش وقت الـ commit، فصف رقمه أصغر
+ *   ممكن يظهر بعد ما اللي بعده اتقرا. اللي اتفهرس قبل كده في النافذة دي بيتعدى.
+ * - القراءة الكاملة (أول مرة وكل 6 ساعات) بتتبني في فهرس جديد على thread لوحده وبعدين بيتبدل -
+ *   البحث بيفضل شغال على القديم طول البناء، وأول بحث بس هو اللي بيستنى أول بناء.
+ * - النتايج مترتبة بـ BM25 (الكلمة النادرة والملاحظة القصيرة أعلى)، والكلمة بتطابق الكلمات اللي بتبدأ بيها
+ *   بوزن أقل؛ كل كلمات البحث لازم تتلاقي.
+ * - أول النتايج بس بتتقري من الداتابيز بالـ ID - الصف اللي اتمسح أو نصه اتغير ومبقاش مطابق بيتشال،
+ *   والبناء من جديد كل 6 ساعات بيلم التعديلات على الصفوف القديمة.
+ *
+ * الاستخدام:
+ *     DbExecutor.supply(() -> TextSearchIndex.search(text, 200), results -> table.getItems().setAll(results), ...);
+ */
+public final class TextSearchIndex {
+
+    public enum Source {
+        TRANSACTIONS("معاملة", "StockTransactions t", "t.TransactionID", " JOIN Items i ON i.ItemID = t.ItemID",
+                "t.TransactionDate", "CONCAT(i.ItemName, N' - ', t.TransactionType)", "t.EmployeeID", null,
+                "t.ReceiverName", "t.Notes"),
+        LOGS("سجل", "Logs l", "l.LogID", "",
+                "l.LogDate", "l.ActionType", "l.EmployeeID", SchemaMigrations.LOGS_PAGING,
+                "l.Description"),
+        MAINTENANCE("صيانة", "MaintenanceItems m", "m.MaintenanceID", " JOIN Items i ON i.ItemID = m.ItemID",
+                "m.DateAdded", "i.ItemName", "m.AddedBy", null,
+                "m.ReceiverName", "m.DeviceSerial", "m.Notes"),
+        SCRAP("توالف", "ScrapItems s", "s.ScrapID", " JOIN Items i ON i.ItemID = s.ItemID",
+                "s.DateAdded", "i.ItemName", "s.AddedBy", null,
+                "s.Notes");
+
+        private final String label;
+        private final String table;
+        private final String idColumn;
+        private final String join;
+        private final String dateColumn;
+        private final String titleColumn;
+        private final String employeeColumn;
+        // migration لازم تكون اتطبقت (LogID) - null لو مفيش
+        private final String requires;
+        private final String[] textColumns;
+
+        Source(String label, String table, String idColumn, String join, String dateColumn, String titleColumn,
+               String employeeColumn, String requires, String... textColumns) {
+            this.label = label;
+            this.table = table;
+            this.idColumn = idColumn;
+            this.join = join;
+            this.dateColumn = dateColumn;
+            this.titleColumn = titleColumn;
+            this.employeeColumn = employeeColumn;
+            this.requires = requires;
+            this.textColumns = textColumns;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        private boolean available() {
+            return requires == null || SchemaMigrations.isApplied(requires);
+        }
+    }
+
+    public static final int DEFAULT_LIMIT = 200;
+
+    private static final long REFRESH_INTERVAL_MS = 2_000;
+    private static final long REBUILD_INTERVAL_MS = 6 * 60 * 60_000L;
+    // جدول ما اتقراش في البناء (مفيش اتصال مثلاً) - بناء تاني بعد المدة دي بدل 6 ساعات
+    private static final long RETRY_BUILD_MS = 60_000;
+    // كام ID قبل الـ watermark بيتقروا تاني في كل تحديث (صفوف اتعملها commit متأخر)
+    private static final long OVERLAP_IDS = 500;
+
+    // BM25
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    // كلمة بتبدأ بكلمة البحث (مش هي بالظبط)
+    private static final double PREFIX_WEIGHT = 0.7;
+    // أقصى عدد كلمات بتتطابق مع كلمة بحث قصيرة - "م" لوحدها ما تلفش على القاموس كله
+    private static final int MAX_EXPANSIONS = 256;
+    private static final int MIN_PREFIX_LENGTH = 2;
+    // مرشحين × ده أقل من صفوف الكلمة = بحث ثنائي أرخص من اللف عليها
+    private static final int PROBE_FACTOR = 20;
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    // الفهرس الحالي ومساحة الترتيب بيتلمسوا جوه LOCK بس - والقفل ده مش بيتمسك وقت القراءة من الداتابيز
+    private static final Object LOCK = new Object();
+    // تحديث واحد بس في نفس الوقت (القراءة بره LOCK)
+    private static final Object REFRESH_LOCK = new Object();
+    private static Index current;
+    private static CompletableFuture<Void> building;
+    private static long lastRefresh = 0;
+    // الجداول اللي التحديث منها فاشل - الرسالة مرة واحدة بس مش مع كل بحث
+    private static final Set<Source> failing = Collections.synchronizedSet(new HashSet<>());
+    // مساحة الترتيب - بطول الصفوف وبتتعاد في كل بحث (matchedTokens بترجع أصفار في الآخر)
+    private static int[] matchedTokens = new int[0];
+    private static double[] totalScore = new double[0];
+    private static double[] tokenScore = new double[0];
+
+    private static final ExecutorService BUILDER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "text-search-builder");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private TextSearchIndex() {
+    }
+
+    // ===================================
+    // البحث
+    // ===================================
+
+    /**
+     * أعلى limit نتيجة للكلمات (كلها لازم تتلاقي) - بالترتيب، ومقرية من الداتابيز دلوقتي
+     */
+    public static List<Result> search(String query, int limit) throws Exception {
+        List<String> tokens = queryTokens(query);
+        if (tokens.isEmpty()) return List.of();
+
+        CompletableFuture<Void> firstBuild = startBuildIfDue();
+        // أول بناء بس - بعد كده البناء من جديد في الخلفية والبحث على الفهرس القديم
+        if (firstBuild != null && currentIndex() == null) firstBuild.join();
+        refresh();
+
+        List<Hit> hits;
+        synchronized (LOCK) {
+            hits = current == null ? List.of() : rank(current, tokens, limit);
+        }
+        return load(hits, tokens);
+    }
+
+    /**
+     * بناء الفهرس في الخلفية أول ما الشاشة تفتح - علشان أول بحث ما يستناش القراءة الكاملة
+     */
+    public static void warmUp() {
+        startBuildIfDue();
+    }
+
+    private static Index currentIndex() {
+        synchronized (LOCK) {
+            return current;
+        }
+    }
+
+    static List<Hit> rank(Index index, List<String> tokens, int limit) {
+        int docCount = index.docCount;
+        if (docCount == 0) return List.of();
+
+        // الكلمة اللي نتايجها أقل الأول - الباقي بيتقاطع معاها بس
+        List<List<Match>> matched = new ArrayList<>();
+        for (String token : tokens) {
+            List<Match> matches = expand(index.terms, token);
+            if (matches.isEmpty()) return List.of();
+            matched.add(matches);
+        }
+        matched.sort((a, b) -> Long.compare(postingCount(a), postingCount(b)));
+
+        if (matchedTokens.length < docCount) {
+            matchedTokens = new int[index.docId.length];
+            totalScore = new double[index.docId.length];
+            tokenScore = new double[index.docId.length];
+        }
+
+        // المرشحين = صفوف أول كلمة، وكل كلمة بعدها بتصفيهم (matchedTokens[doc] = عدد الكلمات اللي اتلاقت فيه)
+        int[] docLength = index.docLength;
+        double averageLength = (double) index.totalLength / docCount;
+        int[] candidates = new int[0];
+        int candidateCount = 0;
+        for (int t = 0; t < matched.size(); t++) {
+            for (Match match : matched.get(t)) {
+                Postings postings = match.postings;
+                double idf = Math.log(1 + (docCount - postings.size + 0.5) / (postings.size + 0.5));
+                double weight = match.exact ? 1.0 : PREFIX_WEIGHT;
+                if (t > 0 && (long) candidateCount * PROBE_FACTOR < postings.size) {
+                    // المرشحين قليلين والكلمة شائعة - بحث ثنائي لكل مرشح بدل ما نلف على كل صفوف الكلمة
+                    for (int c = 0; c < candidateCount; c++) {
+                        int i = Arrays.binarySearch(postings.docs, 0, postings.size, candidates[c]);
+                        if (i >= 0) accumulate(candidates[c], postings.freqs[i], weight * idf, docLength, averageLength, t);
+                    }
+                    continue;
+                }
+                for (int i = 0; i < postings.size; i++) {
+                    int doc = postings.docs[i];
+                    if (accumulate(doc, postings.freqs[i], weight * idf, docLength, averageLength, t) && t == 0) {
+                        if (candidateCount == candidates.length) {
+                            candidates = Arrays.copyOf(candidates, Math.max(16, candidateCount * 2));
+                        }
+                        candidates[candidateCount++] = doc;
+                    }
+                }
+            }
+
+            int kept = 0;
+            for (int c = 0; c < candidateCount; c++) {
+                int doc = candidates[c];
+                if (matchedTokens[doc] == t + 1) {
+                    totalScore[doc] = (t == 0 ? 0 : totalScore[doc]) + tokenScore[doc];
+                    candidates[kept++] = doc;
+                } else {
+                    matchedTokens[doc] = 0;
+                }
+            }
+            candidateCount = kept;
+        }
+
+        // أعلى limit - ولو نفس الدرجة اللي اتفهرس بعد كده (الأحدث) الأول
+        double[] scores = totalScore;
+        PriorityQueue<Integer> top = new PriorityQueue<>((a, b) -> {
+            int byScore = Double.compare(scores[a], scores[b]);
+            return byScore != 0 ? byScore : Integer.compare(a, b);
+        });
+        for (int c = 0; c < candidateCount; c++) {
+            int doc = candidates[c];
+            matchedTokens[doc] = 0;
+            if (top.size() < limit) {
+                top.add(doc);
+            } else if (scores[doc] > scores[top.peek()] || (scores[doc] == scores[top.peek()] && doc > top.peek())) {
+                top.poll();
+                top.add(doc);
+            }
+        }
+        List<Hit> hits = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            int doc = top.poll();
+            hits.add(new Hit(Source.values()[index.docSource[doc]], index.docId[doc]));
+        }
+        Collections.reverse(hits);
+        return hits;
+    }
+
+    /**
+     * درجة الكلمة رقم t في الصف (BM25) - true لو أول مرة الكلمة دي تتلاقي فيه
+     */
+    private static boolean accumulate(int doc, int tf, double weight, int[] docLength, double averageLength, int t) {
+        int seen = matchedTokens[doc];
+        if (seen != t && seen != t + 1) return false; // كلمة قبلها ما اتلاقتش فيه
+        double score = weight * tf * (K1 + 1) / (tf + K1 * (1 - B + B * docLength[doc] / averageLength));
+        if (seen == t) {
+            matchedTokens[doc] = t + 1;
+            tokenScore[doc] = score;
+            return true;
+        }
+        // نفس الصف فيه كذا كلمة بتبدأ بكلمة البحث - أحسن واحدة بس
+        if (score > tokenScore[doc]) tokenScore[doc] = score;
+        return false;
+    }
+
+    /**
+     * الكلمة نفسها + الكلمات اللي بتبدأ بيها (لو مش قصيرة أوي)
+     */
+    private static List<Match> expand(TreeMap<String, Postings> terms, String token) {
+        List<Match> matches = new ArrayList<>();
+        Postings exact = terms.get(token);
+        if (exact != null) matches.add(new Match(exact, true));
+        if (token.length() < MIN_PREFIX_LENGTH) return matches;
+
+        NavigableMap<String, Postings> prefixed = terms.subMap(token, false, token + Character.MAX_VALUE, false);
+        for (Postings postings : prefixed.values()) {
+            if (matches.size() >= MAX_EXPANSIONS) break;
+            matches.add(new Match(postings, false));
+        }
+        return matches;
+    }
+
+    private static long postingCount(List<Match> matches) {
+        long count = 0;
+        for (Match match : matches) count += match.postings.size;
+        return count;
+    }
+
+    // ===================================
+    // قراءة النتايج من الداتابيز
+    // ===================================
+    private static List<Result> load(List<Hit> hits, List<String> tokens) throws SQLException {
+        if (hits.isEmpty()) return List.of();
+
+        Map<Source, List<Long>> idsBySource = new EnumMap<>(Source.class);
+        for (Hit hit : hits) idsBySource.computeIfAbsent(hit.source, s -> new ArrayList<>()).add(hit.id);
+
+        // استعلام واحد لكل جدول بالـ IDs (seek) - بعد كده بترتيب الدرجات
+        Map<Source, Map<Long, Result>> loaded = new EnumMap<>(Source.class);
+        EmployeeDirectory.ensureLoaded();
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            for (Map.Entry<Source, List<Long>> entry : idsBySource.entrySet()) {
+                loaded.put(entry.getKey(), loadRows(conn, entry.getKey(), entry.getValue()));
+            }
+        }
+
+        List<Result> results = new ArrayList<>(hits.size());
+        for (Hit hit : hits) {
+            Result result = loaded.get(hit.source).get(hit.id);
+            if (result != null && matchesAll(result.text, tokens)) results.add(result);
+        }
+        return results;
+    }
+
+    private static Map<Long, Result> loadRows(Connection conn, Source source, List<Long> ids) throws SQLException {
+        SqlFilter filter = new SqlFilter().and(source.idColumn + " IN (" + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")",
+                ids.toArray());
+        String sql = "SELECT " + source.idColumn + " AS Id, " + source.dateColumn + " AS At, "
+                + source.titleColumn + " AS Title, " + source.employeeColumn + " AS EmployeeID, "
+                + String.join(", ", source.textColumns)
+                + " FROM " + source.table + source.join + filter.where();
+
+        Map<Long, Result> rows = new HashMap<>();
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            filter.bind(ps, 1);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Timestamp at = rs.getTimestamp("At");
+                    rows.put(rs.getLong("Id"), new Result(source, rs.getLong("Id"),
+                            at != null ? at.toLocalDateTime().format(DATE_FORMAT) : "-",
+                            rs.getString("Title"),
+                            joinText(rs, source.textColumns.length, 5, " | "),
+                            EmployeeDirectory.displayName((Integer) rs.getObject("EmployeeID"))));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * الصف اتعدل بعد ما اتفهرس ومبقاش فيه الكلمة - ما يطلعش
+     */
+    private static boolean matchesAll(String text, List<String> tokens) {
+        Set<String> words = new HashSet<>();
+        for (String word : tokenize(text)) {
+            words.add(word);
+            words.add(withoutArticle(word));
+        }
+        for (String token : tokens) {
+            boolean found = words.contains(token);
+            if (!found && token.length() >= MIN_PREFIX_LENGTH) {
+                for (String word : words) {
+                    if (word.startsWith(token)) {
+                        found = true;
+                        break;
+                    }
+                }
+            }
+            if (!found) return false;
+        }
+        return true;
+    }
+
+    // ===================================
+    // التحديث
+    // ===================================
+
+    /**
+     * بناء فهرس جديد في الخلفية لو ما فيش ولا واحد، أو الحالي قدم (REBUILD_INTERVAL_MS) أو ناقصه جدول.
+     * بيرجع البناء الشغال (أو null لو مفيش).
+     */
+    private static CompletableFuture<Void> startBuildIfDue() {
+        synchronized (LOCK) {
+            if (building != null) return building;
+            long now = System.currentTimeMillis();
+            if (current != null) {
+                long interval = current.complete ? REBUILD_INTERVAL_MS : RETRY_BUILD_MS;
+                if (now - current.builtAt < interval) return null;
+            }
+            building = CompletableFuture.runAsync(TextSearchIndex::build, BUILDER);
+            return building;
+        }
+    }
+
+    /**
+     * قراءة كاملة لكل الجداول في فهرس جديد - بره LOCK، والتبديل في الآخر بس
+     */
+    private static void build() {
+        Index fresh = new Index(System.currentTimeMillis());
+        try {
+            SchemaMigrations.ensureApplied();
+            for (Source source : Source.values()) {
+                if (!source.available()) continue;
+                try {
+                    // الصفوف بتتضاف وهي بتتقري - من غير ما النصوص كلها تتحفظ في list
+                    readRows(source, 0, row -> fresh.add(source, (Long) row[0], (String) row[1]));
+                    fresh.trim(source);
+                    reportRecovered(source);
+                } catch (Exception e) {
+                    fresh.complete = false;
+                    reportFailure(source, e);
+                }
+            }
+        } finally {
+            synchronized (LOCK) {
+                current = fresh;
+                building = null;
+                // الصفوف اللي اتضافت وقت البناء - التحديث الجاي يلمها من الـ watermarks الجديدة
+                lastRefresh = 0;
+                matchedTokens = new int[0];
+                totalScore = new double[0];
+                tokenScore = new double[0];
+            }
+        }
+    }
+
+    /**
+     * الصفوف الجديدة من كل جدول (بعد آخر ID اتقرا ناقص OVERLAP_IDS) - القراءة بره LOCK
+     */
+    private static void refresh() {
+        synchronized (REFRESH_LOCK) {
+            Index index;
+            synchronized (LOCK) {
+                index = current;
+                if (index == null || System.currentTimeMillis() - lastRefresh < REFRESH_INTERVAL_MS) return;
+            }
+
+            for (Source source : Source.values()) {
+                long after;
+                synchronized (LOCK) {
+                    Long watermark = index.watermarks.get(source);
+                    // الجدول ما اتقراش في البناء - البناء الجاي (RETRY_BUILD_MS) هو اللي يقراه كله
+                    if (watermark == null) continue;
+                    after = Math.max(0, watermark - OVERLAP_IDS);
+                }
+                try {
+                    List<Object[]> rows = new ArrayList<>();
+                    readRows(source, after, rows::add);
+                    synchronized (LOCK) {
+                        // فهرس جديد اتبدل وإحنا بنقرا - هو ليه watermarks بتاعته
+                        if (current != index) return;
+                        for (Object[] row : rows) index.add(source, (Long) row[0], (String) row[1]);
+                        index.trim(source);
+                    }
+                    reportRecovered(source);
+                } catch (Exception e) {
+                    reportFailure(source, e);
+                }
+            }
+            synchronized (LOCK) {
+                lastRefresh = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private static void readRows(Source source, long after, JdbcRowSource.RowConsumer consumer) throws Exception {
+        SqlFilter filter = new SqlFilter().and(source.idColumn + " > ?", after);
+        String sql = "SELECT " + source.idColumn + " AS Id, " + String.join(", ", source.textColumns)
+                + " FROM " + source.table + filter.where() + " ORDER BY " + source.idColumn;
+
+        JdbcRowSource.stream(sql, filter,
+                rs -> new Object[]{rs.getLong("Id"), joinText(rs, source.textColumns.length, 2, " ")},
+                consumer);
+    }
+
+    private static void reportFailure(Source source, Exception e) {
+        if (failing.add(source)) {
+            System.err.println("⚠️ تعذر تحديث فهرس البحث من " + source.table + ": " + e.getMessage());
+        }
+    }
+
+    private static void reportRecovered(Source source) {
+        if (failing.remove(source)) {
+            System.out.println("✅ رجع البحث في " + source.table);
+        }
+    }
+
+    // ===================================
+    // الكلمات
+    // ===================================
+
+    /**
+     * النص بعد ArabicNormalizer مقطع عند أي حاجة مش حرف أو رقم ("SN-100/ب" ← sn، 100، ب)
+     */
+    static List<String> tokenize(String text) {
+        String normalized = ArabicNormalizer.normalize(text);
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean letter = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                words.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    // كلمة البحث من غير "ال" - بتلاقي الكلمة بيها ومن غيرها
+    static List<String> queryTokens(String query) {
+        Set<String> tokens = new LinkedHashSet<>();
+        for (String word : tokenize(query)) tokens.add(withoutArticle(word));
+        return new ArrayList<>(tokens);
+    }
+
+    private static String withoutArticle(String word) {
+        return word.length() >= 4 && word.startsWith("ال") ? word.substring(2) : word;
+    }
+
+    private static String joinText(ResultSet rs, int count, int firstColumn, String separator) throws SQLException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            String value = rs.getString(firstColumn + i);
+            if (value == null || value.isBlank()) continue;
+            if (text.length() > 0) text.append(separator);
+            text.append(value.trim());
+        }
+        return text.toString();
+    }
+
+    // ===================================
+    // الأنواع
+    // ===================================
+
+    /**
+     * فهرس كامل - واحد شغال (current) وواحد ممكن يكون بيتبني. بعد التبديل بيتلمس جوه LOCK بس.
+     * package-private (هو و Hit و rank) علشان الاختبارات.
+     */
+    static final class Index {
+        final long builtAt;
+        // كل الجداول اتقرت في البناء
+        boolean complete = true;
+        final TreeMap<String, Postings> terms = new TreeMap<>();
+        final Map<Source, Long> watermarks = new EnumMap<>(Source.class);
+        // الـ IDs اللي اتفهرست في نافذة الـ overlap - القراءة التانية ليها بتتعدى
+        final Map<Source, TreeSet<Long>> recent = new EnumMap<>(Source.class);
+        byte[] docSource = new byte[1024];
+        long[] docId = new long[1024];
+        int[] docLength = new int[1024];
+        int docCount = 0;
+        long totalLength = 0;
+
+        Index(long builtAt) {
+            this.builtAt = builtAt;
+        }
+
+        void add(Source source, long id, String text) {
+            TreeSet<Long> seen = recent.computeIfAbsent(source, s -> new TreeSet<>());
+            if (!seen.add(id)) return;
+            if (id > watermarks.getOrDefault(source, 0L)) watermarks.put(source, id);
+            // القراءة الكاملة بتعدي على الجدول كله - ما نحتفظش بكل الـ IDs
+            if (seen.size() > 4 * OVERLAP_IDS) trim(source);
+
+            List<String> words = tokenize(text);
+            if (words.isEmpty()) return;
+
+            Map<String, Integer> frequencies = new HashMap<>();
+            for (String word : words) {
+                frequencies.merge(word, 1, Integer::sum);
+                String stem = withoutArticle(word);
+                if (!stem.equals(word)) frequencies.merge(stem, 1, Integer::sum);
+            }
+
+            if (docCount == docId.length) {
+                int capacity = docCount * 2;
+                docSource = Arrays.copyOf(docSource, capacity);
+                docId = Arrays.copyOf(docId, capacity);
+                docLength = Arrays.copyOf(docLength, capacity);
+            }
+            int doc = docCount++;
+            docSource[doc] = (byte) source.ordinal();
+            docId[doc] = id;
+            docLength[doc] = words.size();
+            totalLength += words.size();
+
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                terms.computeIfAbsent(entry.getKey(), k -> new Postings()).add(doc, entry.getValue());
+            }
+        }
+
+        /**
+         * الجدول اتقرا لآخره - حتى لو فاضي ليه watermark، والـ IDs اللي قبل النافذة تتشال
+         */
+        void trim(Source source) {
+            long watermark = watermarks.getOrDefault(source, 0L);
+            watermarks.put(source, watermark);
+            TreeSet<Long> seen = recent.get(source);
+            if (seen != null) seen.headSet(watermark - OVERLAP_IDS, true).clear();
+        }
+    }
+
+    // الصفوف اللي فيها كلمة - مترتبة لأن الصفوف بتتضاف بالترتيب
+    private static final class Postings {
+        int[] docs = new int[2];
+        int[] freqs = new int[2];
+        int size;
+
+        void add(int doc, int freq) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            docs[size] = doc;
+            freqs[size] = freq;
+            size++;
+        }
+    }
+
+    private static final class Match {
+        final Postings postings;
+        // الكلمة نفسها مش كلمة بتبدأ بيها
+        final boolean exact;
+
+        Match(Postings postings, boolean exact) {
+            this.postings = postings;
+            this.exact = exact;
+        }
+    }
+
+    static final class Hit {
+        final Source source;
+        final long id;
+
+        Hit(Source source, long id) {
+            this.source = source;
+            this.id = id;
+        }
+    }
+
+    /**
+     * صف في نتيجة البحث - getters للـ PropertyValueFactory
+     */
+    public static final class Result {
+        private final Source source;
+        private final long id;
+        private final String date;
+        private final String title;
+        private final String text;
+        private final String employee;
+
+        Result(Source source, long id, String date, String title, String text, String employee) {
+            this.source = source;
+            this.id = id;
+            this.date = date;
+            this.title = title;
+            this.text = text;
+            this.employee = employee;
+        }
+
+        public Source getSource() { return source; }
+        public String getSourceLabel() { return source.getLabel(); }
+        public long getId() { return id; }
+        public String getDate() { return date; }
+        public String getTitle() { return title; }
+        public String getText() { return text; }
+        public String getEmployee() { return employee; }
+    }
+}
@@ -0,0 +1,56 @@
+package app.utils;
+
+import java.util.Locale;
+
+/**
+ * توحيد النص العربي للبحث بس (مش للتخزين ولا للعرض):
+ * - أ إ آ ٱ ← ا ، ى ← ي ، ة ← ه ، ؤ ← و ، ئ ← ي
+ * - التشكيل والتطويل (ـ) بيتشالوا
+ * - الأرقام الهندية (٠-٩ و ۰-۹) ← 0-9
+ * - حروف صغيرة ومسافة واحدة بين الكلمات
+ * كده "مِفتاح إضاءة" و "مفتاح اضاءه" بيطلعوا نفس الكلمة.
+ */
+public final class ArabicNormalizer {
+
+    private ArabicNormalizer() {
+    }
+
+    public static String normalize(String text) {
+        if (text == null || text.isEmpty()) return "";
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+                continue;
+            }
+            if (isIgnorable(c)) continue;
+            if (space) {
+                sb.append(' ');
+                space = false;
+            }
+            sb.append(fold(c));
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+
+    // التشكيل (فتحة، ضمة، كسرة، تنوين، شدة، سكون ...) والألف الخنجرية والتطويل
+    private static boolean isIgnorable(char c) {
+        return (c >= '\u064B' && c <= '\u065F') || c == '\u0670' || c == '\u0640';
+    }
+
+    private static char fold(char c) {
+        return switch (c) {
+            case 'أ', 'إ', 'آ', 'ٱ' -> 'ا';
+            case 'ى', 'ئ' -> 'ي';
+            case 'ة' -> 'ه';
+            case 'ؤ' -> 'و';
+            default -> {
+                if (c >= '\u0660' && c <= '\u0669') yield (char) ('0' + (c - '\u0660'));
+                if (c >= '\u06F0' && c <= '\u06F9') yield (char) ('0' + (c - '\u06F0'));
+                yield c;
+            }
+        };
+    }
+}
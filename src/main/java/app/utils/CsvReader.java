@@ -0,0 +1,266 @@
+package app.utils;
+
+import app.services.ItemImportDTO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * قراءة ملفات CSV / TSV الكبيرة (تصدير الـ ERP) بنفس أعمدة ملف الـ Excel:
+ * كود الصنف، اسم الصنف، الوحدة، الحد الأدنى، الكمية الأولية، السعر.
+ *
+ * الملف بيتقرا memory-mapped على أجزاء، والبايتات بتتحلل مباشرة (UTF-8) من غير BufferedReader
+ * ومن غير ما نعمل String للسطر كله - بس للخلايا اللي محتاجينها.
+ */
+public class CsvReader {
+
+    // حجم كل جزء بيتعمله map (الملفات أكبر من 2GB بتتقرا على كذا جزء)
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+    private static final int PROGRESS_EVERY = 500;
+    private static final int COLUMNS = 6;
+
+    private static final byte QUOTE = '"';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    public static boolean isDelimitedFile(File file) {
+        String name = file.getName().toLowerCase();
+        return name.endsWith(".csv") || name.endsWith(".tsv") || name.endsWith(".txt");
+    }
+
+    /**
+     * @param onRow      بيستقبل كل صنف صالح بترتيب الملف
+     * @param onProgress عدد الصفوف اللي اتقرت لحد دلوقتي (ممكن يكون null)
+     * @return عدد الصفوف اللي اتقرت (من غير العناوين)
+     */
+    public static int streamItemsFromCsv(File file, Consumer<ItemImportDTO> onRow, IntConsumer onProgress) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) return 0;
+
+            byte delimiter = detectDelimiter(channel, file);
+            RowParser parser = new RowParser(delimiter, onRow, onProgress);
+
+            long position = 0;
+            boolean first = true;
+            while (position < size) {
+                long length = Math.min(WINDOW_SIZE, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                if (first) {
+                    skipBom(window);
+                    first = false;
+                }
+                parser.feed(window);
+                position += length;
+            }
+            parser.finish();
+
+            if (onProgress != null) onProgress.accept(parser.rowsRead);
+            return parser.rowsRead;
+        }
+    }
+
+    private static void skipBom(MappedByteBuffer buf) {
+        if (buf.remaining() >= 3 && (buf.get(0) & 0xFF) == 0xEF && (buf.get(1) & 0xFF) == 0xBB && (buf.get(2) & 0xFF) == 0xBF) {
+            buf.position(3);
+        }
+    }
+
+    // TSV بالامتداد، غير كده بنشوف أول سطر فيه إيه أكتر: tab ولا ; ولا ,
+    private static byte detectDelimiter(FileChannel channel, File file) throws IOException {
+        if (file.getName().toLowerCase().endsWith(".tsv")) return '\t';
+
+        MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), 64 * 1024));
+        int tabs = 0, commas = 0, semicolons = 0;
+        while (head.hasRemaining()) {
+            byte b = head.get();
+            if (b == LF) break;
+            if (b == '\t') tabs++;
+            else if (b == ',') commas++;
+            else if (b == ';') semicolons++;
+        }
+        if (tabs > commas && tabs >= semicolons) return '\t';
+        if (semicolons > commas) return ';';
+        return ',';
+    }
+
+    // ===================================
+    // state machine على البايتات - بتكمل عادي لو السطر متقسم بين جزأين
+    // ===================================
+    private static class RowParser {
+        private enum State { FIELD_START, UNQUOTED, QUOTED, QUOTE_IN_QUOTED }
+
+        private final byte delimiter;
+        // العلامة العشرية في الأرقام - الفاصل التاني (لو موجود) بيبقى فاصل الآلاف وبيتشال
+        private final char decimalSeparator;
+        private final Consumer<ItemImportDTO> onRow;
+        private final IntConsumer onProgress;
+
+        private State state = State.FIELD_START;
+        private byte[] scratch = new byte[256];
+        private int scratchLen = 0;
+        private final String[] fields = new String[COLUMNS];
+        private int column = 0;
+        private boolean rowHasData = false;
+        private boolean headerDone = false;
+        int rowsRead = 0;
+
+        RowParser(byte delimiter, Consumer<ItemImportDTO> onRow, IntConsumer onProgress) {
+            this.delimiter = delimiter;
+            this.decimalSeparator = decimalSeparatorFor(delimiter);
+            this.onRow = onRow;
+            this.onProgress = onProgress;
+        }
+
+        void feed(MappedByteBuffer buf) {
+            while (buf.hasRemaining()) {
+                byte b = buf.get();
+                switch (state) {
+                    case FIELD_START -> {
+                        if (b == QUOTE) {
+                            state = State.QUOTED;
+                            rowHasData = true;
+                        } else if (b == delimiter) {
+                            endField();
+                        } else if (b == LF) {
+                            endRow();
+                        } else if (b != CR) {
+                            append(b);
+                            state = State.UNQUOTED;
+                        }
+                    }
+                    case UNQUOTED -> {
+                        if (b == delimiter) {
+                            endField();
+                        } else if (b == LF) {
+                            endRow();
+                        } else if (b != CR) {
+                            append(b);
+                        }
+                    }
+                    case QUOTED -> {
+                        if (b == QUOTE) {
+                            state = State.QUOTE_IN_QUOTED;
+                        } else {
+                            append(b); // الفواصل والأسطر الجديدة جوه "" جزء من الخلية
+                        }
+                    }
+                    case QUOTE_IN_QUOTED -> {
+                        if (b == QUOTE) {
+                            append(b); // "" = علامة تنصيص جوه الخلية
+                            state = State.QUOTED;
+                        } else if (b == delimiter) {
+                            endField();
+                        } else if (b == LF) {
+                            endRow();
+                        } else if (b != CR) {
+                            // نص بعد علامة التنصيص المقفولة - بنكمله زي ما هو
+                            append(b);
+                            state = State.UNQUOTED;
+                        }
+                    }
+                }
+            }
+        }
+
+        void finish() {
+            if (state != State.FIELD_START || column > 0 || scratchLen > 0) {
+                endRow();
+            }
+        }
+
+        private void append(byte b) {
+            if (scratchLen == scratch.length) {
+                scratch = Arrays.copyOf(scratch, scratch.length * 2);
+            }
+            scratch[scratchLen++] = b;
+            rowHasData = true;
+        }
+
+        private void endField() {
+            // الأعمدة الزيادة بنتخطاها من غير ما نعملها String
+            if (column < COLUMNS) {
+                fields[column] = scratchLen == 0 ? null : new String(scratch, 0, scratchLen, StandardCharsets.UTF_8).trim();
+            }
+            column++;
+            scratchLen = 0;
+            state = State.FIELD_START;
+            rowHasData = true;
+        }
+
+        private void endRow() {
+            boolean blankLine = column == 0 && scratchLen == 0 && !rowHasData;
+            if (!blankLine) {
+                endField();
+                if (headerDone) {
+                    rowsRead++;
+                    emit();
+                    if (onProgress != null && rowsRead % PROGRESS_EVERY == 0) {
+                        onProgress.accept(rowsRead);
+                    }
+                } else {
+                    // تخطي الصف الأول (العناوين)
+                    headerDone = true;
+                }
+            }
+            Arrays.fill(fields, null);
+            column = 0;
+            scratchLen = 0;
+            rowHasData = false;
+            state = State.FIELD_START;
+        }
+
+        private void emit() {
+            ItemImportDTO item = new ItemImportDTO();
+            item.setItemCode(fields[0] != null ? fields[0] : "");
+            item.setItemName(fields[1] != null ? fields[1] : "");
+            item.setUnitName(fields[2] != null ? fields[2] : "");
+            if (fields[3] != null) item.setMinQuantity(parseDouble(fields[3], decimalSeparator));
+            if (fields[4] != null) item.setInitialQuantity(parseDouble(fields[4], decimalSeparator));
+            if (fields[5] != null) item.setPrice(parseDouble(fields[5], decimalSeparator));
+
+            // نضيف الصنف فقط إذا كان يحتوي على البيانات الأساسية
+            if (!item.getItemCode().isEmpty() && !item.getItemName().isEmpty() && !item.getUnitName().isEmpty()) {
+                onRow.accept(item);
+            }
+        }
+
+        /**
+         * الملف المفصول بـ ; جاي من إعدادات أوروبية (12,5 = اتناشر ونص و 1.234,5 = ألف ومتين...)،
+         * والمفصول بـ , الكسر فيه نقطة. الـ tab مفيهوش دليل - بناخد إعدادات الجهاز.
+         */
+        static char decimalSeparatorFor(byte delimiter) {
+            if (delimiter == ';') return ',';
+            if (delimiter == ',') return '.';
+            return DecimalFormatSymbols.getInstance().getDecimalSeparator() == ',' ? ',' : '.';
+        }
+
+        static double parseDouble(String value, char decimalSeparator) {
+            StringBuilder number = new StringBuilder(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == decimalSeparator) {
+                    number.append('.');
+                } else if (c == ',' || c == '.' || Character.isSpaceChar(c)) {
+                    // فاصل آلاف (أو مسافة / no-break space) - بيتشال
+                    continue;
+                } else {
+                    number.append(c);
+                }
+            }
+            try {
+                return Double.parseDouble(number.toString());
+            } catch (NumberFormatException e) {
+                return 0.0;
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package app.utils;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * كتابة CSV للتصدير صف بصف.
+ * UTF-8 مع BOM علشان Excel يفتح العربي صح، والخلايا اللي فيها فاصلة أو علامة تنصيص أو سطر جديد بتتحط بين "".
+ */
+public class CsvWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Writer out;
+    private final StringBuilder line = new StringBuilder(256);
+
+    public CsvWriter(Path file) throws IOException {
+        out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE);
+        out.write('\uFEFF');
+    }
+
+    public static boolean isCsvFile(File file) {
+        return file.getName().toLowerCase().endsWith(".csv");
+    }
+
+    public void writeRow(Object... values) throws IOException {
+        line.setLength(0);
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) line.append(',');
+            appendCell(values[i]);
+        }
+        line.append("\r\n");
+        out.append(line);
+    }
+
+    private void appendCell(Object value) {
+        if (value == null) return;
+        if (value instanceof Double || value instanceof Float) {
+            // من غير 1.5E7 - Excel وبرامج الحسابات بتقرا الرقم زي ما هو
+            double d = ((Number) value).doubleValue();
+            if (d == Math.rint(d) && Math.abs(d) < 1e15) {
+                line.append((long) d);
+            } else {
+                line.append(BigDecimal.valueOf(d).toPlainString());
+            }
+            return;
+        }
+
+        String text = value.toString();
+        boolean quote = false;
+        for (int i = 0; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            line.append(text);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') line.append('"');
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,444 @@
+package app.utils;
+
+import app.db.DbExecutor;
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.VBox;
+import javafx.stage.Window;
+import org.apache.poi.ss.usermodel.BorderStyle;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.FillPatternType;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.HorizontalAlignment;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * تصدير Excel لكل الشاشات بالـ streaming (SXSSF):
+ * - في الذاكرة آخر ROW_WINDOW صف بس من كل شيت، والباقي بيتكتب على الديسك أول بأول.
+ * - عرض الأعمدة بيتحسب من طول النصوص اللي اتكتبت (مش autoSizeColumn اللي بيقيس كل خلية بالـ fonts).
+ * - الكتابة في الخلفية مع دايلوج تقدم وزرار إلغاء، والملف بيتكتب باسم مؤقت ويتنقل في الآخر
+ *   (الإلغاء أو الفشل ما بيسيبش ملف ناقص).
+ * - لو اسم الملف .csv نفس الـ Content بيطلع CSV (UTF-8) من غير تنسيقات - أول شيت في الملف نفسه
+ *   وأي شيت بعده في ملف جنبه باسم "<الملف>-<الشيت>.csv".
+ *
+ * الاستخدام:
+ *     ExcelExporter.export(window, file, book -> {
+ *         ExcelExporter.SheetWriter sheet = book.sheet("المخزون");
+ *         sheet.header("الصنف", "الكمية");
+ *         for (ItemData item : items) sheet.row(item.getItemName(), item.getQuantity());
+ *     }, () -> showInfo("تم"), e -> showError(e.getMessage()));
+ */
+public final class ExcelExporter {
+
+    // عدد الصفوف اللي بتفضل في الذاكرة لكل شيت (الأقدم بيتكتب في ملف مؤقت)
+    private static final int ROW_WINDOW = 200;
+    // كل كام صف نحدث دايلوج التقدم
+    private static final int PROGRESS_EVERY = 500;
+    private static final int MIN_COLUMN_CHARS = 6;
+    private static final int MAX_COLUMN_CHARS = 60;
+
+    @FunctionalInterface
+    public interface Content {
+        void write(Book book) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface ProgressListener {
+        /**
+         * @param expected عدد الصفوف المتوقع أو 0 لو مش معروف
+         */
+        void update(long rows, long expected);
+    }
+
+    private ExcelExporter() {
+    }
+
+    /**
+     * تصدير في الخلفية مع دايلوج تقدم. لازم تتنادى من الـ FX Thread.
+     * onSuccess و onError على الـ FX Thread، والإلغاء مش بينادي أي واحد فيهم.
+     */
+    public static void export(Window owner, File file, Content content, Runnable onSuccess, Consumer<Throwable> onError) {
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+
+        Dialog<Void> dialog = new Dialog<>();
+        if (owner != null) dialog.initOwner(owner);
+        dialog.setTitle("جاري التصدير");
+        dialog.setHeaderText("جاري تصدير " + file.getName() + "...");
+        dialog.getDialogPane().getButtonTypes().add(ButtonType.CANCEL);
+
+        ProgressBar progressBar = new ProgressBar(-1);
+        progressBar.setPrefWidth(300);
+        Label progressLabel = new Label("يتم تجهيز البيانات...");
+        progressLabel.setStyle("-fx-padding: 10;");
+
+        VBox box = new VBox(10, progressBar, progressLabel);
+        box.setAlignment(Pos.CENTER);
+        box.setPadding(new Insets(20));
+        dialog.getDialogPane().setContent(box);
+
+        dialog.setResultConverter(button -> {
+            if (button == ButtonType.CANCEL) cancelled.set(true);
+            return null;
+        });
+
+        ProgressListener progress = (rows, expected) -> Platform.runLater(() -> {
+            progressBar.setProgress(expected > 0 ? Math.min(1.0, (double) rows / expected) : -1);
+            progressLabel.setText(String.format("تم كتابة %,d صف", rows));
+        });
+
+        DbExecutor.run(() -> write(file, content, progress, cancelled), () -> {
+            dialog.close();
+            onSuccess.run();
+        }, e -> {
+            dialog.close();
+            if (!(e instanceof CancellationException)) onError.accept(e);
+        });
+        dialog.show();
+    }
+
+    /**
+     * تصدير على الـ thread الحالي من غير UI
+     */
+    public static void write(File file, Content content) throws Exception {
+        write(file, content, null, new AtomicBoolean(false));
+    }
+
+    private static void write(File file, Content content, ProgressListener progress, AtomicBoolean cancelled) throws Exception {
+        Path target = file.toPath().toAbsolutePath();
+        if (CsvWriter.isCsvFile(file)) {
+            writeCsv(target, content, progress, cancelled);
+            return;
+        }
+        Path partial = partialOf(target);
+
+        SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_WINDOW);
+        workbook.setCompressTempFiles(true);
+        try {
+            Book book = new Book(workbook, null, progress, cancelled);
+            content.write(book);
+            book.finish();
+
+            try (OutputStream out = new FileOutputStream(partial.toFile())) {
+                workbook.write(out);
+            }
+            if (cancelled.get()) throw new CancellationException();
+            moveIntoPlace(partial, target);
+        } finally {
+            workbook.dispose(); // الملفات المؤقتة بتاعة SXSSF
+            workbook.close();
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    private static void writeCsv(Path target, Content content, ProgressListener progress, AtomicBoolean cancelled) throws Exception {
+        Book book = new Book(null, target, progress, cancelled);
+        try {
+            content.write(book);
+            book.finish();
+            if (cancelled.get()) throw new CancellationException();
+            for (SheetWriter sheet : book.sheets) moveIntoPlace(sheet.csvPartial, sheet.csvTarget);
+        } finally {
+            for (SheetWriter sheet : book.sheets) {
+                sheet.csv.close();
+                Files.deleteIfExists(sheet.csvPartial);
+            }
+        }
+    }
+
+    private static Path partialOf(Path target) {
+        return target.resolveSibling(target.getFileName() + ".part");
+    }
+
+    private static void moveIntoPlace(Path partial, Path target) throws IOException {
+        try {
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // ===================================
+    // الـ workbook + التنسيقات المشتركة
+    // ===================================
+    public static final class Book {
+        private final SXSSFWorkbook workbook;
+        private final Path csvTarget;
+        private final ProgressListener progress;
+        private final AtomicBoolean cancelled;
+        private final List<SheetWriter> sheets = new ArrayList<>();
+        private final Map<String, CellStyle> styles = new HashMap<>();
+        private long rows = 0;
+        private long expected = 0;
+
+        private Book(SXSSFWorkbook workbook, Path csvTarget, ProgressListener progress, AtomicBoolean cancelled) {
+            this.workbook = workbook;
+            this.csvTarget = csvTarget;
+            this.progress = progress;
+            this.cancelled = cancelled;
+        }
+
+        public SheetWriter sheet(String name) throws IOException {
+            SheetWriter sheet;
+            if (isCsv()) {
+                Path target = sheets.isEmpty() ? csvTarget : csvSibling(name);
+                Path partial = partialOf(target);
+                sheet = new SheetWriter(this, null, new CsvWriter(partial), partial, target);
+            } else {
+                sheet = new SheetWriter(this, workbook.createSheet(name), null, null, null);
+            }
+            sheets.add(sheet);
+            return sheet;
+        }
+
+        /**
+         * الملف CSV - مفيش عناوين ولا تنسيقات، والصفوف مش بترجع Row
+         */
+        public boolean isCsv() {
+            return workbook == null;
+        }
+
+        private Path csvSibling(String sheetName) {
+            String base = csvTarget.getFileName().toString();
+            base = base.substring(0, base.length() - ".csv".length());
+            return csvTarget.resolveSibling(base + "-" + sheetName.replaceAll("[\\\\/:*?\"<>|]", "_") + ".csv");
+        }
+
+        /**
+         * لو العدد معروف من الأول الدايلوج بيعرض نسبة بدل الشريط المتحرك
+         */
+        public void expectRows(long count) {
+            expected += count;
+        }
+
+        /**
+         * للتنسيقات الخاصة بشاشة معينة - التنسيقات بتتعمل مرة واحدة للملف مش لكل خلية
+         */
+        public Workbook workbook() {
+            if (isCsv()) throw new IllegalStateException("CSV مفيهوش workbook");
+            return workbook;
+        }
+
+        // في CSV التنسيقات null و columnStyle بيتجاهلها
+        private CellStyle cached(String key, Supplier<CellStyle> factory) {
+            if (isCsv()) return null;
+            return styles.computeIfAbsent(key, k -> factory.get());
+        }
+
+        public CellStyle headerStyle() {
+            return cached("header", () -> {
+                CellStyle style = workbook.createCellStyle();
+                Font font = workbook.createFont();
+                font.setBold(true);
+                style.setFont(font);
+                style.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
+                style.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+                style.setAlignment(HorizontalAlignment.CENTER);
+                style.setBorderBottom(BorderStyle.THIN);
+                return style;
+            });
+        }
+
+        public CellStyle titleStyle() {
+            return cached("title", () -> {
+                CellStyle style = workbook.createCellStyle();
+                Font font = workbook.createFont();
+                font.setBold(true);
+                font.setFontHeightInPoints((short) 14);
+                style.setFont(font);
+                style.setAlignment(HorizontalAlignment.CENTER);
+                return style;
+            });
+        }
+
+        public CellStyle moneyStyle() {
+            return cached("money", () -> {
+                CellStyle style = workbook.createCellStyle();
+                style.setDataFormat(workbook.createDataFormat().getFormat("#,##0.00"));
+                return style;
+            });
+        }
+
+        private void rowWritten() {
+            if (cancelled.get()) throw new CancellationException();
+            rows++;
+            if (progress != null && rows % PROGRESS_EVERY == 0) progress.update(rows, expected);
+        }
+
+        private void finish() throws IOException {
+            for (SheetWriter sheet : sheets) {
+                if (isCsv()) sheet.csv.close();
+                else sheet.applyWidths();
+            }
+            if (progress != null) progress.update(rows, expected);
+        }
+    }
+
+    // ===================================
+    // شيت واحد - الصفوف بتتكتب بالترتيب
+    // ===================================
+    public static final class SheetWriter {
+        private final Book book;
+        private final Sheet sheet;
+        private final CsvWriter csv;
+        private final Path csvPartial;
+        private final Path csvTarget;
+        private final Map<Integer, CellStyle> columnStyles = new HashMap<>();
+        private final Map<Integer, Integer> fixedWidths = new HashMap<>();
+        private int[] widths = new int[0];
+        private int nextRow = 0;
+
+        private SheetWriter(Book book, Sheet sheet, CsvWriter csv, Path csvPartial, Path csvTarget) {
+            this.book = book;
+            this.sheet = sheet;
+            this.csv = csv;
+            this.csvPartial = csvPartial;
+            this.csvTarget = csvTarget;
+        }
+
+        /**
+         * عنوان في أول الشيت ممدود على عدد الأعمدة
+         */
+        public SheetWriter title(String text, int columns) {
+            // CSV: أول سطر لازم يبقى أسماء الأعمدة علشان أي برنامج يستورده
+            if (csv != null) return this;
+            Row row = sheet.createRow(nextRow);
+            Cell cell = row.createCell(0);
+            cell.setCellValue(text);
+            cell.setCellStyle(book.titleStyle());
+            if (columns > 1) sheet.addMergedRegion(new CellRangeAddress(nextRow, nextRow, 0, columns - 1));
+            nextRow++;
+            return this;
+        }
+
+        public SheetWriter header(String... names) {
+            if (csv != null) {
+                writeCsv(names);
+                return this;
+            }
+            Row row = sheet.createRow(nextRow++);
+            for (int i = 0; i < names.length; i++) {
+                Cell cell = row.createCell(i);
+                cell.setCellValue(names[i]);
+                cell.setCellStyle(book.headerStyle());
+                measure(i, names[i]);
+            }
+            return this;
+        }
+
+        /**
+         * تنسيق ثابت لعمود (مثلاً moneyStyle) بيتطبق على كل الصفوف اللي بعد كده
+         */
+        public SheetWriter columnStyle(int column, CellStyle style) {
+            columnStyles.put(column, style);
+            return this;
+        }
+
+        /**
+         * عرض ثابت بعدد الحروف بدل التقدير
+         */
+        public SheetWriter columnWidth(int column, int chars) {
+            fixedWidths.put(column, chars);
+            return this;
+        }
+
+        public SheetWriter skipRow() {
+            if (csv == null) nextRow++;
+            return this;
+        }
+
+        /**
+         * صف بيانات: Number رقم، null خلية فاضية، وأي حاجة تانية نص.
+         * الـ Row اللي راجع لسه في الذاكرة - ممكن يتغير تنسيق خلية فيه (زي تلوين تجاوز).
+         * في CSV بيرجع null.
+         */
+        public Row row(Object... values) {
+            if (csv != null) {
+                writeCsv(values);
+                book.rowWritten();
+                return null;
+            }
+            Row row = sheet.createRow(nextRow++);
+            for (int i = 0; i < values.length; i++) {
+                Object value = values[i];
+                if (value == null) continue;
+
+                Cell cell = row.createCell(i);
+                String text;
+                if (value instanceof Number number) {
+                    cell.setCellValue(number.doubleValue());
+                    text = columnStyles.containsKey(i) ? String.format("%,.2f", number.doubleValue()) : number.toString();
+                } else if (value instanceof Boolean bool) {
+                    cell.setCellValue(bool);
+                    text = bool.toString();
+                } else {
+                    text = value.toString();
+                    cell.setCellValue(text);
+                }
+
+                CellStyle style = columnStyles.get(i);
+                if (style != null) cell.setCellStyle(style);
+                measure(i, text);
+            }
+            book.rowWritten();
+            return row;
+        }
+
+        private void writeCsv(Object[] values) {
+            try {
+                csv.writeRow(values);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void measure(int column, String text) {
+            if (column >= widths.length) widths = Arrays.copyOf(widths, column + 1);
+            // أطول سطر بس لو النص فيه أكتر من سطر
+            int longest = 0;
+            for (String line : text.split("\n", -1)) longest = Math.max(longest, line.length());
+            widths[column] = Math.max(widths[column], longest);
+        }
+
+        private void applyWidths() {
+            for (int i = 0; i < widths.length; i++) {
+                Integer fixed = fixedWidths.get(i);
+                int chars = fixed != null ? fixed
+                        : Math.max(MIN_COLUMN_CHARS, Math.min(MAX_COLUMN_CHARS, widths[i] + 2));
+                sheet.setColumnWidth(i, chars * 256);
+            }
+            for (Map.Entry<Integer, Integer> e : fixedWidths.entrySet()) {
+                if (e.getKey() >= widths.length) sheet.setColumnWidth(e.getKey(), e.getValue() * 256);
+            }
+        }
+    }
+}
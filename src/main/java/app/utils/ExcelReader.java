@@ -1,117 +1,173 @@
 package app.utils;
 
 import app.services.ItemImportDTO;
-import app.services.ItemImportDTO;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
 
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
+/**
+ * قراءة ملف الأصناف بالـ SAX (event model) بدل تحميل الـ workbook كله في الذاكرة.
+ * كل صف بيتحول لـ ItemImportDTO ويتبعت للـ consumer أول ما يتقرا.
+ */
 public class ExcelReader {
 
+    // كل كام صف نبلغ عن التقدم
+    private static final int PROGRESS_EVERY = 500;
+
     public static List<ItemImportDTO> readItemsFromExcel(File file) throws Exception {
         List<ItemImportDTO> items = new ArrayList<>();
+        streamItemsFromExcel(file, items::add, null);
+        return items;
+    }
 
-        try (FileInputStream fis = new FileInputStream(file);
-             Workbook workbook = new XSSFWorkbook(fis)) {
+    /**
+     * قراءة أول sheet صف صف - الذاكرة ثابتة مهما كان حجم الملف.
+     *
+     * @param onRow      بيستقبل كل صنف صالح بترتيب الملف
+     * @param onProgress عدد الصفوف اللي اتقرت لحد دلوقتي (ممكن يكون null)
+     * @return عدد الصفوف اللي اتقرت (من غير العناوين)
+     */
+    public static int streamItemsFromExcel(File file, Consumer<ItemImportDTO> onRow, IntConsumer onProgress) throws Exception {
+        try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            StylesTable styles = reader.getStylesTable();
+
+            Iterator<InputStream> sheets = reader.getSheetsData();
+            if (!sheets.hasNext()) return 0;
+
+            ItemRowHandler rowHandler = new ItemRowHandler(onRow, onProgress);
+            RawValueFormatter formatter = new RawValueFormatter(rowHandler);
+
+            try (InputStream sheet = sheets.next()) { // أول sheet
+                XMLReader parser = XMLHelper.newXMLReader();
+                // formulasNotResults = true: نفس سلوك القراءة القديمة (نص المعادلة مش نتيجتها)
+                parser.setContentHandler(new XSSFSheetXMLHandler(styles, null, strings, rowHandler, formatter, true));
+                parser.parse(new InputSource(sheet));
+            }
+
+            if (onProgress != null) onProgress.accept(rowHandler.rowsRead);
+            return rowHandler.rowsRead;
+        }
+    }
 
-            Sheet sheet = workbook.getSheetAt(0); // أول sheet
+    // ===================================
+    // تحويل كل صف لـ ItemImportDTO
+    // ===================================
+    private static class ItemRowHandler implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final Consumer<ItemImportDTO> onRow;
+        private final IntConsumer onProgress;
+
+        private int rowsRead = 0;
+        private boolean headerRow;
+        private ItemImportDTO item;
+        // الفورماتر بيحط هنا القيمة الخام لو الخلية الجاية رقم (أو تاريخ)
+        private Double nextCellRaw = null;
+        private boolean nextCellDate = false;
+
+        ItemRowHandler(Consumer<ItemImportDTO> onRow, IntConsumer onProgress) {
+            this.onRow = onRow;
+            this.onProgress = onProgress;
+        }
 
+        @Override
+        public void startRow(int rowNum) {
             // تخطي الصف الأول (العناوين)
-            for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-                Row row = sheet.getRow(i);
-                if (row == null) continue;
-
-                ItemImportDTO item = new ItemImportDTO();
-
-                // كود الصنف (العمود 0)
-                Cell codeCell = row.getCell(0);
-                if (codeCell != null) {
-                    item.setItemCode(getCellValueAsString(codeCell));
-                }
-
-                // اسم الصنف (العمود 1)
-                Cell nameCell = row.getCell(1);
-                if (nameCell != null) {
-                    item.setItemName(getCellValueAsString(nameCell));
-                }
-
-                // اسم الوحدة (العمود 2)
-                Cell unitCell = row.getCell(2);
-                if (unitCell != null) {
-                    item.setUnitName(getCellValueAsString(unitCell));
-                }
-
-                // الحد الأدنى (العمود 3)
-                Cell minQtyCell = row.getCell(3);
-                if (minQtyCell != null) {
-                    item.setMinQuantity(getCellValueAsDouble(minQtyCell));
-                }
-
-                // الكمية الأولية (العمود 4)
-                Cell initialQtyCell = row.getCell(4);
-                if (initialQtyCell != null) {
-                    item.setInitialQuantity(getCellValueAsDouble(initialQtyCell));
-                }
-
-                // السعر (العمود 5)
-                Cell priceCell = row.getCell(5);
-                if (priceCell != null) {
-                    item.setPrice(getCellValueAsDouble(priceCell));
-                }
-
-                // نضيف الصنف فقط إذا كان يحتوي على البيانات الأساسية
-                if (item.getItemCode() != null && !item.getItemCode().isEmpty() &&
-                        item.getItemName() != null && !item.getItemName().isEmpty() &&
-                        item.getUnitName() != null && !item.getUnitName().isEmpty()) {
-                    items.add(item);
-                }
+            headerRow = rowNum == 0;
+            item = headerRow ? null : new ItemImportDTO();
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            if (headerRow) return;
+            rowsRead++;
+
+            // نضيف الصنف فقط إذا كان يحتوي على البيانات الأساسية
+            if (item.getItemCode() != null && !item.getItemCode().isEmpty() &&
+                    item.getItemName() != null && !item.getItemName().isEmpty() &&
+                    item.getUnitName() != null && !item.getUnitName().isEmpty()) {
+                onRow.accept(item);
+            }
+
+            if (onProgress != null && rowsRead % PROGRESS_EVERY == 0) {
+                onProgress.accept(rowsRead);
             }
         }
 
-        return items;
-    }
+        @Override
+        public void cell(String cellReference, String value, XSSFComment comment) {
+            Double raw = nextCellRaw;
+            boolean date = nextCellDate;
+            nextCellRaw = null;
+            nextCellDate = false;
+            if (headerRow || cellReference == null) return;
+
+            switch (new CellReference(cellReference).getCol()) {
+                case 0 -> item.setItemCode(asString(value, raw, date));   // كود الصنف
+                case 1 -> item.setItemName(asString(value, raw, date));   // اسم الصنف
+                case 2 -> item.setUnitName(asString(value, raw, date));   // اسم الوحدة
+                case 3 -> item.setMinQuantity(asDouble(value, raw));      // الحد الأدنى
+                case 4 -> item.setInitialQuantity(asDouble(value, raw));  // الكمية الأولية
+                case 5 -> item.setPrice(asDouble(value, raw));            // السعر
+                default -> { }
+            }
+        }
 
-    private static String getCellValueAsString(Cell cell) {
-        if (cell == null) return "";
-
-        switch (cell.getCellType()) {
-            case STRING:
-                return cell.getStringCellValue().trim();
-            case NUMERIC:
-                if (DateUtil.isCellDateFormatted(cell)) {
-                    return cell.getDateCellValue().toString();
-                } else {
-                    return String.valueOf((int) cell.getNumericCellValue());
-                }
-            case BOOLEAN:
-                return String.valueOf(cell.getBooleanCellValue());
-            case FORMULA:
-                return cell.getCellFormula();
-            default:
-                return "";
+        private static String asString(String value, Double raw, boolean date) {
+            if (value == null) return "";
+            if (raw != null && !date) return String.valueOf(raw.intValue());
+            return value.trim();
         }
-    }
 
-    private static double getCellValueAsDouble(Cell cell) {
-        if (cell == null) return 0.0;
-
-        switch (cell.getCellType()) {
-            case NUMERIC:
-                return cell.getNumericCellValue();
-            case STRING:
-                try {
-                    return Double.parseDouble(cell.getStringCellValue().trim());
-                } catch (NumberFormatException e) {
-                    return 0.0;
-                }
-            case BOOLEAN:
-                return cell.getBooleanCellValue() ? 1.0 : 0.0;
-            default:
+        private static double asDouble(String value, Double raw) {
+            if (raw != null) return raw;
+            if (value == null) return 0.0;
+            if ("TRUE".equals(value)) return 1.0;
+            if ("FALSE".equals(value)) return 0.0;
+            try {
+                return Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
                 return 0.0;
+            }
+        }
+    }
+
+    /**
+     * الـ handler بيمرر الأرقام بعد تنسيقها (1,234.00 مثلاً) - إحنا محتاجين القيمة الخام زي القراءة القديمة
+     */
+    private static class RawValueFormatter extends DataFormatter {
+        private final ItemRowHandler handler;
+
+        RawValueFormatter(ItemRowHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public String formatRawCellContents(double value, int formatIndex, String formatString, boolean use1904Windowing) {
+            handler.nextCellRaw = value;
+            if (DateUtil.isADateFormat(formatIndex, formatString) && DateUtil.isValidExcelDate(value)) {
+                handler.nextCellDate = true;
+                return DateUtil.getJavaDate(value, use1904Windowing).toString();
+            }
+            return Double.toString(value);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,70 @@
+package app.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DbExecutorTest {
+
+    @Test
+    void supplyRunsOffTheCallerThreadAndReturnsTheValue() throws Exception {
+        Thread caller = Thread.currentThread();
+        CompletableFuture<Thread> future = DbExecutor.supply(Thread::currentThread);
+
+        Thread worker = future.get(5, TimeUnit.SECONDS);
+        assertNotSame(caller, worker);
+        assertTrue(worker.getName().startsWith("db-worker-"));
+        assertTrue(worker.isDaemon());
+    }
+
+    @Test
+    void supplyPassesTheOriginalException() {
+        IOException failure = new IOException("boom");
+        CompletableFuture<Object> future = DbExecutor.supply(() -> {
+            throw failure;
+        });
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertSame(failure, DbExecutor.unwrap(e));
+    }
+
+    @Test
+    void cancelInterruptsTheRunningWork() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<Void> future = DbExecutor.run(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(30_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        future.cancel(true);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void unwrapStripsNestedWrappers() {
+        IllegalStateException cause = new IllegalStateException("x");
+        Throwable wrapped = new ExecutionException(new CompletionException(cause));
+
+        assertSame(cause, DbExecutor.unwrap(wrapped));
+        assertSame(cause, DbExecutor.unwrap(cause));
+    }
+
+    @Test
+    void unwrapKeepsAWrapperWithoutCause() {
+        CompletionException empty = new CompletionException("no cause", null);
+        assertSame(empty, DbExecutor.unwrap(empty));
+    }
+}
@@ -0,0 +1,91 @@
+package app.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqlFilterTest {
+
+    @Test
+    void noFiltersMeansNoWhere() throws Exception {
+        SqlFilter filter = new SqlFilter()
+                .dateRange("t.TransactionDate", null, null)
+                .equalTo("t.ItemID", null)
+                .contains("t.Notes", "   ");
+
+        assertTrue(filter.isEmpty());
+        assertEquals("", filter.where());
+        assertEquals(1, filter.bind(recorder(new ArrayList<>()), 1));
+    }
+
+    @Test
+    void dateRangeIsHalfOpenOnTheRawColumn() throws Exception {
+        SqlFilter filter = new SqlFilter().dateRange("t.TransactionDate",
+                LocalDate.of(2024, 3, 1), LocalDate.of(2024, 3, 31));
+
+        assertEquals(" WHERE t.TransactionDate >= ? AND t.TransactionDate < ?", filter.where());
+        List<Object> values = bound(filter);
+        assertEquals(Timestamp.valueOf("2024-03-01 00:00:00"), values.get(0));
+        assertEquals(Timestamp.valueOf("2024-04-01 00:00:00"), values.get(1));
+    }
+
+    @Test
+    void onDayCoversTheWholeDay() throws Exception {
+        SqlFilter filter = new SqlFilter().onDay("l.ActionDate", LocalDate.of(2024, 12, 31));
+
+        assertEquals(List.of(Timestamp.valueOf("2024-12-31 00:00:00"), Timestamp.valueOf("2025-01-01 00:00:00")),
+                bound(filter));
+        assertThrows(IllegalArgumentException.class, () -> new SqlFilter().onDay("l.ActionDate", null));
+    }
+
+    @Test
+    void containsEscapesLikeWildcards() throws Exception {
+        SqlFilter filter = new SqlFilter().contains("t.Notes", " 50%_[x] ");
+
+        assertEquals(" WHERE t.Notes LIKE ?", filter.where());
+        assertEquals(List.of("%50[%][_][[]x]%"), bound(filter));
+    }
+
+    @Test
+    void bindKeepsPredicateOrderAndReturnsTheNextIndex() throws Exception {
+        SqlFilter filter = new SqlFilter()
+                .equalTo("t.ItemID", 7)
+                .and("(t.TransactionDate < ? OR t.TransactionID < ?)", "d", 99);
+        List<Object> values = new ArrayList<>();
+
+        int next = filter.bind(recorder(values), 3);
+
+        assertEquals(" WHERE t.ItemID = ? AND (t.TransactionDate < ? OR t.TransactionID < ?)", filter.where());
+        assertEquals(6, next);
+        // القيم اتربطت من رقم 3
+        assertEquals(List.of(3, 7, 4, "d", 5, 99), values);
+    }
+
+    private static List<Object> bound(SqlFilter filter) throws Exception {
+        List<Object> calls = new ArrayList<>();
+        filter.bind(recorder(calls), 1);
+        List<Object> values = new ArrayList<>();
+        for (int i = 1; i < calls.size(); i += 2) values.add(calls.get(i));
+        return values;
+    }
+
+    // PreparedStatement بيسجل نداءات setObject (index, value) بس
+    private static PreparedStatement recorder(List<Object> calls) {
+        return (PreparedStatement) Proxy.newProxyInstance(SqlFilterTest.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    if (!method.getName().equals("setObject") || args.length != 2) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    calls.add(args[0]);
+                    calls.add(args[1]);
+                    return null;
+                });
+    }
+}
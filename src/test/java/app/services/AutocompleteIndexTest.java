@@ -0,0 +1,56 @@
+package app.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AutocompleteIndexTest {
+
+    private static AutocompleteIndex keys() {
+        Map<String, String> codes = new LinkedHashMap<>();
+        codes.put("Monkey wrench", "MW-1");
+        codes.put("Cable", "KEY-9");
+        codes.put("Car key", null);
+        codes.put("Keyboard", "KB-1");
+        codes.put("Key", "K-1");
+        codes.put("Bolt", "B-1");
+        return AutocompleteIndex.withCodes(codes);
+    }
+
+    @Test
+    void ranksExactThenPrefixThenWordThenCodeThenAnywhere() {
+        assertEquals(List.of("Key", "Keyboard", "Car key", "Cable", "Monkey wrench"), keys().suggest("key"));
+    }
+
+    @Test
+    void exactCodeRanksFirst() {
+        assertEquals(List.of("Keyboard"), keys().suggest("kb-1"));
+        assertEquals("KB-1", keys().codeOf("Keyboard"));
+    }
+
+    @Test
+    void limitCutsLowerRanksFirst() {
+        assertEquals(List.of("Key", "Keyboard"), keys().suggest("key", 2));
+        assertEquals(List.of("Key", "Keyboard", "Car key"), keys().suggest("key", 3));
+    }
+
+    @Test
+    void emptyQueryReturnsAllNames() {
+        AutocompleteIndex index = keys();
+        assertEquals(List.of("Bolt", "Cable", "Car key", "Key", "Keyboard", "Monkey wrench"), index.all());
+        assertSame(index.all(), index.suggest("  "));
+    }
+
+    @Test
+    void arabicSpellingVariantsMatchAndRank() {
+        AutocompleteIndex index = AutocompleteIndex.of(List.of("لمبة مفتاح", "مِفتاح إضاءة", "مفتاح", "كوبس"));
+
+        assertEquals(List.of("مفتاح", "مِفتاح إضاءة", "لمبة مفتاح"), index.suggest("مفتاح"));
+        assertEquals(List.of("مِفتاح إضاءة"), index.suggest("مفتاح اضاءه"));
+        assertEquals(List.of(), index.suggest("سلك"));
+    }
+}
@@ -0,0 +1,73 @@
+package app.services;
+
+import app.services.ItemPriceHistory.Entry;
+import app.services.ItemPriceHistory.Series;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ItemPriceHistoryTest {
+
+    @Test
+    void priceAtReturnsThePriceValidAtTheTime() {
+        Series s = Series.merge(null, List.of(
+                new Entry(1, 100, 10),
+                new Entry(2, 200, 20),
+                new Entry(3, 300, 30)));
+
+        assertEquals(10, s.priceAt(100));
+        assertEquals(10, s.priceAt(199));
+        assertEquals(20, s.priceAt(200));
+        assertEquals(20, s.priceAt(250));
+        assertEquals(30, s.priceAt(Long.MAX_VALUE));
+    }
+
+    @Test
+    void beforeTheFirstPriceUsesTheFirstKnownPrice() {
+        Series s = Series.merge(null, List.of(
+                new Entry(1, 100, Double.NaN),
+                new Entry(2, 200, 20)));
+
+        assertEquals(20, s.priceAt(50));
+    }
+
+    @Test
+    void removedPriceCountsAsZero() {
+        Series s = Series.merge(null, List.of(
+                new Entry(1, 100, 10),
+                new Entry(2, 200, Double.NaN)));
+
+        assertEquals(10, s.priceAt(150));
+        assertEquals(0, s.priceAt(250));
+    }
+
+    @Test
+    void sameInstantChangesResolveToTheHighestId() {
+        Series s = Series.merge(null, List.of(
+                new Entry(7, 100, 70),
+                new Entry(5, 100, 50),
+                new Entry(6, 100, 60)));
+
+        assertEquals(70, s.priceAt(100));
+        assertEquals(70, s.priceAt(150));
+    }
+
+    @Test
+    void mergeAddsOutOfOrderEntriesAndSkipsDuplicates() {
+        Series base = Series.merge(null, List.of(new Entry(1, 100, 10), new Entry(3, 300, 30)));
+        // فترة الرجوع لورا بتجيب صف 3 تاني مع صف متأخر الوصول بتاريخ أقدم
+        Series merged = Series.merge(base, List.of(new Entry(3, 300, 99), new Entry(4, 200, 20)));
+
+        assertArrayEquals(new int[]{1, 4, 3}, merged.ids);
+        assertEquals(20, merged.priceAt(250));
+        assertEquals(30, merged.priceAt(300));
+    }
+
+    @Test
+    void emptySeriesIsZero() {
+        Series s = Series.merge(null, List.of());
+        assertEquals(0, s.priceAt(100));
+    }
+}
@@ -0,0 +1,101 @@
+package app.services;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ItemSearchIndexTest {
+
+    private record Row(int id, String code, String name, String unit) {}
+
+    private static final Row SCREW = new Row(7, "SC-10", "مسمار صلب", "قطعة");
+    private static final Row NUT = new Row(8, "NT-20", "صامولة نحاس", "قطعة");
+    private static final Row CABLE = new Row(42, "CB-30", "سلك أحمر", "متر");
+
+    private static ItemSearchIndex<Row> index(Row... rows) {
+        ItemSearchIndex<Row> index = ItemSearchIndex.of(Row::id, Row::code, Row::name, Row::unit);
+        index.setAll(List.of(rows));
+        return index;
+    }
+
+    @Test
+    void shortAndLongTokensMatchSubstrings() {
+        ItemSearchIndex<Row> index = index(SCREW, NUT, CABLE);
+
+        assertEquals(List.of(SCREW, NUT), index.matches("ص"));          // 1 حرف
+        assertEquals(List.of(NUT), index.matches("نح"));                 // 2
+        assertEquals(List.of(SCREW), index.matches("مسم"));              // 3
+        assertEquals(List.of(NUT), index.matches("صامولة"));             // أطول - trigram + contains
+        assertEquals(List.of(), index.matches("صامولات"));
+    }
+
+    @Test
+    void everyTokenMustMatchInAnyColumn() {
+        ItemSearchIndex<Row> index = index(SCREW, NUT, CABLE);
+
+        assertEquals(List.of(SCREW), index.matches("قطعة صلب"));
+        assertEquals(List.of(CABLE), index.matches("cb متر"));
+        assertEquals(List.of(), index.matches("صلب متر"));
+    }
+
+    @Test
+    void tokensDoNotSpanColumns() {
+        ItemSearchIndex<Row> index = index(new Row(1, "ab", "cd", "ef"));
+
+        assertEquals(1, index.matches("cd").size());
+        assertTrue(index.matches("bc").isEmpty());
+        assertTrue(index.matches("bcd").isEmpty());
+        assertTrue(index.matches("abcd").isEmpty());
+    }
+
+    @Test
+    void arabicSpellingVariantsMatch() {
+        ItemSearchIndex<Row> index = index(SCREW, NUT, CABLE);
+
+        assertEquals(List.of(CABLE), index.matches("احمر"));
+        assertEquals(List.of(NUT), index.matches("صاموله"));
+    }
+
+    @Test
+    void exactIdAndCodeMatchEvenWithoutText() {
+        ItemSearchIndex<Row> index = index(SCREW, NUT, CABLE);
+
+        assertEquals(List.of(SCREW), index.matches("7"));
+        assertSame(NUT, index.findByCode(" nt-20 "));
+        assertSame(CABLE, index.findById(42));
+        assertTrue(index.matcher("42").test(CABLE));
+    }
+
+    @Test
+    void emptyQueryMatchesEverythingInOrder() {
+        ItemSearchIndex<Row> index = index(SCREW, NUT, CABLE);
+
+        assertEquals(List.of(SCREW, NUT, CABLE), index.matches("  "));
+        assertTrue(index.matcher("").test(new Row(99, "", "", "")));
+    }
+
+    @Test
+    void followTracksListChanges() {
+        ObservableList<Row> rows = FXCollections.observableArrayList(SCREW, NUT);
+        ItemSearchIndex<Row> index = ItemSearchIndex.of(Row::id, Row::code, Row::name);
+        index.follow(rows);
+
+        rows.add(CABLE);
+        rows.remove(SCREW);
+
+        assertEquals(List.of(NUT, CABLE), index.matches(""));
+        assertNull(index.findById(7));
+        assertNull(index.findByCode("SC-10"));
+        Predicate<Row> matcher = index.matcher("سلك");
+        assertTrue(matcher.test(CABLE));
+        assertFalse(matcher.test(SCREW));
+
+        rows.setAll(List.of(SCREW));
+        assertEquals(List.of(SCREW), index.matches(""));
+    }
+}
@@ -0,0 +1,110 @@
+package app.services;
+
+import app.services.TextSearchIndex.Hit;
+import app.services.TextSearchIndex.Index;
+import app.services.TextSearchIndex.Source;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TextSearchIndexTest {
+
+    @Test
+    void tokenizeSplitsOnAnythingButLettersAndDigits() {
+        assertEquals(List.of("sn", "100", "ب"), TextSearchIndex.tokenize("SN-100/ب"));
+        assertEquals(List.of("مفتاح", "اضاءه", "12"), TextSearchIndex.tokenize("  مِفتاح (إضاءة) ١٢ "));
+        assertEquals(List.of(), TextSearchIndex.tokenize(null));
+        assertEquals(List.of(), TextSearchIndex.tokenize(" - / "));
+    }
+
+    @Test
+    void queryTokensDropTheArticleAndDuplicates() {
+        assertEquals(List.of("مفتاح", "سلك"), TextSearchIndex.queryTokens("المفتاح مفتاح السلك"));
+        // "ال" + حرف واحد أو اتنين - الكلمة قصيرة فبتفضل زي ما هي
+        assertEquals(List.of("الم"), TextSearchIndex.queryTokens("الم"));
+    }
+
+    @Test
+    void everyTokenMustMatch() {
+        Index index = index(
+                "مفتاح كهرباء",
+                "كابل كهرباء",
+                "مفتاح مياه");
+
+        assertEquals(List.of(1L), ids(rank(index, "مفتاح كهرباء", 10)));
+        assertEquals(List.of(), ids(rank(index, "مفتاح غاز", 10)));
+    }
+
+    @Test
+    void exactWordsRankAbovePrefixMatches() {
+        Index index = index(
+                "مفتاحين تالفين",
+                "مفتاح تالف");
+
+        assertEquals(List.of(2L, 1L), ids(rank(index, "مفتاح", 10)));
+    }
+
+    @Test
+    void shortTokensAreNotExpandedAsPrefixes() {
+        Index index = index("م 5", "مفتاح");
+
+        assertEquals(List.of(1L), ids(rank(index, "م", 10)));
+    }
+
+    @Test
+    void articleFormsAreFoundByTheBareWord() {
+        Index index = index("تم صرف المفتاح لقسم الصيانة");
+
+        assertEquals(List.of(1L), ids(rank(index, "مفتاح", 10)));
+        assertEquals(List.of(1L), ids(rank(index, "الصيانة", 10)));
+    }
+
+    @Test
+    void higherTermFrequencyInShortTextRanksFirst() {
+        Index index = index(
+                "سلك في تقرير طويل عن حاجات كتير تانية خالص ملهاش علاقة",
+                "سلك سلك");
+
+        assertEquals(List.of(2L, 1L), ids(rank(index, "سلك", 10)));
+    }
+
+    @Test
+    void tiesPreferTheNewestRowAndLimitCuts() {
+        Index index = index("مسمار", "مسمار", "مسمار");
+
+        assertEquals(List.of(3L, 2L, 1L), ids(rank(index, "مسمار", 10)));
+        assertEquals(List.of(3L), ids(rank(index, "مسمار", 1)));
+    }
+
+    @Test
+    void rowsKeepTheirSource() {
+        Index index = new Index(0);
+        index.add(Source.LOGS, 10, "حذف صنف");
+        index.add(Source.SCRAP, 10, "صنف تالف");
+
+        List<Hit> hits = rank(index, "صنف", 10);
+        assertEquals(2, hits.size());
+        assertEquals(Source.SCRAP, hits.get(0).source);
+        assertEquals(Source.LOGS, hits.get(1).source);
+    }
+
+    // كل نص صف في TRANSACTIONS بـ ID من 1 بالترتيب
+    private static Index index(String... texts) {
+        Index index = new Index(0);
+        for (int i = 0; i < texts.length; i++) index.add(Source.TRANSACTIONS, i + 1, texts[i]);
+        return index;
+    }
+
+    private static List<Hit> rank(Index index, String query, int limit) {
+        return TextSearchIndex.rank(index, TextSearchIndex.queryTokens(query), limit);
+    }
+
+    private static List<Long> ids(List<Hit> hits) {
+        List<Long> ids = new ArrayList<>();
+        for (Hit hit : hits) ids.add(hit.id);
+        return ids;
+    }
+}
@@ -0,0 +1,50 @@
+package app.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArabicNormalizerTest {
+
+    @Test
+    void foldsLetterVariants() {
+        assertEquals("ااا", ArabicNormalizer.normalize("أإآ"));
+        assertEquals("ا", ArabicNormalizer.normalize("ٱ"));
+        assertEquals("مستشفي", ArabicNormalizer.normalize("مستشفى"));
+        assertEquals("شاطي", ArabicNormalizer.normalize("شاطئ"));
+        assertEquals("لمبه", ArabicNormalizer.normalize("لمبة"));
+        assertEquals("مووس", ArabicNormalizer.normalize("مؤوس"));
+    }
+
+    @Test
+    void dropsDiacriticsAndTatweel() {
+        assertEquals("مفتاح", ArabicNormalizer.normalize("مِفْتَاح"));
+        assertEquals("محمد", ArabicNormalizer.normalize("مُحَمَّدٌ"));
+        assertEquals("رحمن", ArabicNormalizer.normalize("رحمٰن"));
+        assertEquals("سلك", ArabicNormalizer.normalize("ســـلك"));
+    }
+
+    @Test
+    void convertsArabicIndicAndPersianDigits() {
+        assertEquals("0123456789", ArabicNormalizer.normalize("٠١٢٣٤٥٦٧٨٩"));
+        assertEquals("0123456789", ArabicNormalizer.normalize("۰۱۲۳۴۵۶۷۸۹"));
+    }
+
+    @Test
+    void collapsesWhitespaceAndLowercases() {
+        assertEquals("cable 10 م", ArabicNormalizer.normalize("  CABLE \t 10\n م  "));
+    }
+
+    @Test
+    void spellingVariantsBecomeTheSameText() {
+        assertEquals(ArabicNormalizer.normalize("مفتاح اضاءه"), ArabicNormalizer.normalize("مِفتاح إضاءة"));
+    }
+
+    @Test
+    void nullAndBlankBecomeEmpty() {
+        assertEquals("", ArabicNormalizer.normalize(null));
+        assertEquals("", ArabicNormalizer.normalize(""));
+        assertEquals("", ArabicNormalizer.normalize(" \t "));
+        assertEquals("", ArabicNormalizer.normalize("ـَـ"));
+    }
+}
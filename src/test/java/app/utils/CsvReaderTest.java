@@ -0,0 +1,129 @@
+package app.utils;
+
+import app.services.ItemImportDTO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * الـ RowParser private - بنختبره من خلال streamItemsFromCsv على ملفات مؤقتة
+ */
+class CsvReaderTest {
+
+    private static final String HEADER = "كود,اسم,وحدة,حد أدنى,كمية,سعر\n";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsRowsAndSkipsTheHeader() throws IOException {
+        List<ItemImportDTO> items = read("items.csv", HEADER
+                + "A1,مسمار,قطعة,5,100,2.5\n"
+                + "A2,صامولة,قطعة,10,,\n");
+
+        assertEquals(2, items.size());
+        ItemImportDTO first = items.get(0);
+        assertEquals("A1", first.getItemCode());
+        assertEquals("مسمار", first.getItemName());
+        assertEquals("قطعة", first.getUnitName());
+        assertEquals(5.0, first.getMinQuantity());
+        assertEquals(100.0, first.getInitialQuantity());
+        assertEquals(2.5, first.getPrice());
+        assertNull(items.get(1).getInitialQuantity());
+        assertNull(items.get(1).getPrice());
+    }
+
+    @Test
+    void quotedFieldsKeepDelimitersNewlinesAndEscapedQuotes() throws IOException {
+        List<ItemImportDTO> items = read("items.csv", HEADER
+                + "A1,\"مسمار, 5 مم\nصلب \"\"ممتاز\"\"\",قطعة,1,2,3\n");
+
+        assertEquals(1, items.size());
+        assertEquals("مسمار, 5 مم\nصلب \"ممتاز\"", items.get(0).getItemName());
+    }
+
+    @Test
+    void handlesBomCrLfBlankLinesAndAMissingFinalNewline() throws IOException {
+        byte[] bom = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+        byte[] body = (HEADER + "A1,مسمار,قطعة,1,2,3\r\n\r\n\nA2,صامولة,قطعة,4,5,6").getBytes(StandardCharsets.UTF_8);
+        byte[] content = new byte[bom.length + body.length];
+        System.arraycopy(bom, 0, content, 0, bom.length);
+        System.arraycopy(body, 0, content, bom.length, body.length);
+
+        List<ItemImportDTO> items = read("items.csv", content);
+
+        assertEquals(2, items.size());
+        assertEquals("A2", items.get(1).getItemCode());
+        assertEquals(6.0, items.get(1).getPrice());
+    }
+
+    @Test
+    void rowsWithoutCodeNameOrUnitAreCountedButNotEmitted() throws IOException {
+        File file = write("items.csv", HEADER + "A1,مسمار,قطعة,1,2,3\n,بدون كود,قطعة,1,2,3\nA3,,قطعة,1,2,3\n");
+        List<ItemImportDTO> items = new ArrayList<>();
+
+        int rows = CsvReader.streamItemsFromCsv(file, items::add, null);
+
+        assertEquals(3, rows);
+        assertEquals(1, items.size());
+    }
+
+    @Test
+    void semicolonFilesUseCommaAsDecimalSeparator() throws IOException {
+        List<ItemImportDTO> items = read("items.csv", "كود;اسم;وحدة;حد أدنى;كمية;سعر\n"
+                + "A1;مسمار;قطعة;12,5;1.234,5;0,75\n");
+
+        assertEquals(12.5, items.get(0).getMinQuantity());
+        assertEquals(1234.5, items.get(0).getInitialQuantity());
+        assertEquals(0.75, items.get(0).getPrice());
+    }
+
+    @Test
+    void commaFilesDropThousandsSeparatorsInsideQuotes() throws IOException {
+        List<ItemImportDTO> items = read("items.csv", HEADER + "A1,مسمار,قطعة,1,\"1,234.5\",x\n");
+
+        assertEquals(1234.5, items.get(0).getInitialQuantity());
+        assertEquals(0.0, items.get(0).getPrice()); // قيمة مش رقم
+    }
+
+    @Test
+    void tsvExtensionUsesTabs() throws IOException {
+        List<ItemImportDTO> items = read("items.tsv", "كود\tاسم\tوحدة\tحد أدنى\tكمية\tسعر\n"
+                + "A1\tمسمار, صلب\tقطعة\t1\t2\t3\n");
+
+        assertEquals("مسمار, صلب", items.get(0).getItemName());
+        assertEquals(3.0, items.get(0).getPrice());
+    }
+
+    @Test
+    void emptyFileReadsNothing() throws IOException {
+        assertTrue(read("empty.csv", "").isEmpty());
+    }
+
+    private List<ItemImportDTO> read(String name, String content) throws IOException {
+        return read(name, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<ItemImportDTO> read(String name, byte[] content) throws IOException {
+        Path path = dir.resolve(name);
+        Files.write(path, content);
+        List<ItemImportDTO> items = new ArrayList<>();
+        CsvReader.streamItemsFromCsv(path.toFile(), items::add, null);
+        return items;
+    }
+
+    private File write(String name, String content) throws IOException {
+        Path path = dir.resolve(name);
+        Files.writeString(path, content, StandardCharsets.UTF_8);
+        return path.toFile();
+    }
+}